@@ -487,6 +487,51 @@ public class CallHistoryServiceImpl implements CallHistoryService, CallListener,
         return result;
     }
 
+    /**
+     * Returns the supplied number of first calls made on and after the given date
+     *
+     * @param startDate Date the start date of the calls
+     * @param count calls count
+     *
+     * @return List of CallRecords with CallPeerRecord, in ascending start time order
+     */
+    public List<CallRecord> findFirstCallsAfter(Date startDate, int count) {
+        LinkedList<CallRecord> result = new LinkedList<>();
+        String[] args = {String.valueOf(startDate.getTime())};
+
+        Cursor cursor = mDB.query(CallHistoryService.TABLE_NAME, null,
+                CallHistoryService.CALL_START + ">=?", args, null, null, ORDER_ASC, String.valueOf(count));
+
+        while (cursor.moveToNext()) {
+            result.add(convertHistoryRecordToCallRecord(cursor));
+        }
+        cursor.close();
+        return result;
+    }
+
+    /**
+     * Returns the supplied number of last calls made before the given date, like the messages queries, so that
+     * a call at the boundary is not returned again by the query of the next page
+     *
+     * @param endDate Date the end date of the calls
+     * @param count calls count
+     *
+     * @return List of CallRecords with CallPeerRecord, in ascending start time order
+     */
+    public List<CallRecord> findLastCallsBefore(Date endDate, int count) {
+        LinkedList<CallRecord> result = new LinkedList<>();
+        String[] args = {String.valueOf(endDate.getTime())};
+
+        Cursor cursor = mDB.query(CallHistoryService.TABLE_NAME, null,
+                CallHistoryService.CALL_START + "<?", args, null, null, ORDER_DESC, String.valueOf(count));
+
+        while (cursor.moveToNext()) {
+            result.addFirst(convertHistoryRecordToCallRecord(cursor));
+        }
+        cursor.close();
+        return result;
+    }
+
     /**
      * Find the calls made by the supplied peer address
      *
@@ -50,6 +50,8 @@ public class ConfigurationActivator implements BundleActivator {
      */
     public void stop(BundleContext bundleContext)
             throws Exception {
+        // Store the property changes still waiting for their scheduled store
+        LibJitsi.getConfigurationService().storeConfiguration();
     }
 
     /**
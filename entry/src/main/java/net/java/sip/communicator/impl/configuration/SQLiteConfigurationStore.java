@@ -13,7 +13,15 @@ import android.database.sqlite.SQLiteOpenHelper;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
 
 import net.java.sip.communicator.service.protocol.AccountID;
 import net.java.sip.communicator.util.ServiceUtils;
@@ -31,6 +39,13 @@ import timber.log.Timber;
  * Implements a <code>ConfigurationStore</code> which stores property name-value associations in an
  * SQLite database.
  *
+ * The properties and accountProperties tables are mirrored in memory when the store is created, so
+ * property lookups never query the database: a name missing from the mirror is not in the database
+ * either. The mirror is kept sorted to serve the prefix lookups, along with an index of the property
+ * names by their last dot separated part for the suffix lookups. Property changes update the mirror
+ * at once and are queued; the queue is written to the database in a single transaction when the
+ * configuration is stored, so that a batch of changes is committed atomically.
+ *
  * @author Lyubomir Marinov
  * @author Eng Chong Meng
  */
@@ -45,6 +60,29 @@ public class SQLiteConfigurationStore extends DatabaseConfigurationStore {
     private final SQLiteOpenHelper openHelper;
     private static SQLiteDatabase mDB = null;
 
+    private static SQLiteConfigurationStore mInstance = null;
+
+    /**
+     * The properties table content, by property name.
+     */
+    private final ConcurrentSkipListMap<String, String> mConfigProperties = new ConcurrentSkipListMap<>();
+
+    /**
+     * The accountProperties table content, by accountUuid.propertyName.
+     */
+    private final ConcurrentSkipListMap<String, String> mAccountProperties = new ConcurrentSkipListMap<>();
+
+    /**
+     * The names of the properties table by their last dot separated part.
+     */
+    private final Map<String, Set<String>> mSuffixIndex = new ConcurrentHashMap<>();
+
+    /**
+     * The property changes not yet written to the database, by property name; a null value deletes
+     * the property. Guarded by openHelper.
+     */
+    private final Map<String, String> mPendingWrites = new LinkedHashMap<>();
+
     /**
      * Initializes a new <code>SQLiteConfigurationStore</code> instance.
      */
@@ -55,6 +93,35 @@ public class SQLiteConfigurationStore extends DatabaseConfigurationStore {
     public SQLiteConfigurationStore(Context context) {
         openHelper = DatabaseBackend.getInstance(context);
         mDB = openHelper.getReadableDatabase();
+        loadProperties();
+        mInstance = this;
+    }
+
+    /**
+     * Loads the properties and accountProperties tables into memory.
+     */
+    private void loadProperties() {
+        long startTime = System.nanoTime();
+        synchronized (openHelper) {
+            try (Cursor cursor = mDB.query(TABLE_NAME, new String[]{COLUMN_NAME, COLUMN_VALUE},
+                    null, null, null, null, null)) {
+                while (cursor.moveToNext()) {
+                    String name = cursor.getString(0);
+                    mConfigProperties.put(name, cursor.getString(1));
+                    addToSuffixIndex(name);
+                }
+            }
+
+            try (Cursor cursor = mDB.query(AccountID.TBL_PROPERTIES,
+                    new String[]{AccountID.ACCOUNT_UUID, COLUMN_NAME, COLUMN_VALUE},
+                    null, null, null, null, null)) {
+                while (cursor.moveToNext()) {
+                    mAccountProperties.put(cursor.getString(0) + "." + cursor.getString(1), cursor.getString(2));
+                }
+            }
+        }
+        Timber.d("Loaded %s properties and %s account properties in %s ms", mConfigProperties.size(),
+                mAccountProperties.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
     }
 
     /**
@@ -74,36 +141,19 @@ public class SQLiteConfigurationStore extends DatabaseConfigurationStore {
      */
     @Override
     public Object getProperty(String name) {
-        Cursor cursor = null;
         Object value = properties.get(name);
         if (value == null) {
-            String[] columns = {COLUMN_VALUE};
-            synchronized (openHelper) {
-                if (name.startsWith(AccountID.ACCOUNT_UUID_PREFIX)) {
-                    int idx = name.indexOf(".");
-                    if (idx == -1) {
-                        value = name;  // just return the accountUuid
-                    }
-                    else {
-                        String[] args = {name.substring(0, idx), name.substring(idx + 1)};
-                        cursor = mDB.query(AccountID.TBL_PROPERTIES, columns,
-                                AccountID.ACCOUNT_UUID + "=? AND " + COLUMN_NAME + "=?",
-                                args, null, null, null, "1");
-                    }
+            if (name.startsWith(AccountID.ACCOUNT_UUID_PREFIX)) {
+                if (name.indexOf('.') == -1) {
+                    value = name;  // just return the accountUuid
                 }
                 else {
-                    cursor = mDB.query(TABLE_NAME, columns,
-                            COLUMN_NAME + "=?", new String[]{name}, null, null, null, "1");
-                }
-                if (cursor != null) {
-                    try {
-                        if ((cursor.getCount() == 1) && cursor.moveToFirst())
-                            value = cursor.getString(0);
-                    } finally {
-                        cursor.close();
-                    }
+                    value = mAccountProperties.get(name);
                 }
             }
+            else {
+                value = mConfigProperties.get(name);
+            }
             if (value == null)
                 value = System.getProperty(name);
         }
@@ -122,38 +172,93 @@ public class SQLiteConfigurationStore extends DatabaseConfigurationStore {
      */
     @Override
     public String[] getPropertyNames(String name) {
-        List<String> propertyNames = new ArrayList<>();
-        String tableName;
-
-        synchronized (openHelper) {
-            if (name.startsWith(AccountID.ACCOUNT_UUID_PREFIX)) {
-                tableName = AccountID.TBL_PROPERTIES;
-            }
-            else {
-                tableName = TABLE_NAME;
+        if (name.startsWith(AccountID.ACCOUNT_UUID_PREFIX)) {
+            // the accountProperties names without their accountUuid, sorted
+            List<String> propertyNames = new ArrayList<>();
+            for (String key : mAccountProperties.keySet()) {
+                propertyNames.add(key.substring(key.indexOf('.') + 1));
             }
+            Collections.sort(propertyNames);
+            return propertyNames.toArray(new String[0]);
+        }
+        return mConfigProperties.keySet().toArray(new String[0]);
+    }
 
-            try (Cursor cursor = mDB.query(tableName, new String[]{COLUMN_NAME},
-                    null, null, null, null, COLUMN_NAME + " ASC")) {
-                while (cursor.moveToNext()) {
-                    propertyNames.add(cursor.getString(0));
-                }
-            }
+    /**
+     * Overrides {@link HashtableConfigurationStore#getPropertyNamesByPrefix(String)} to look the
+     * names up in the sorted properties.
+     *
+     * @param prefix the prefix of the property names to get
+     * @return an array of the property names which start with <code>prefix</code>
+     *
+     * @see ConfigurationStore#getPropertyNamesByPrefix(String)
+     */
+    @Override
+    public String[] getPropertyNamesByPrefix(String prefix) {
+        if (prefix.startsWith(AccountID.ACCOUNT_UUID_PREFIX))
+            return super.getPropertyNamesByPrefix(prefix);
+
+        List<String> propertyNames = new ArrayList<>();
+        for (String name : mConfigProperties.tailMap(prefix).keySet()) {
+            if (!name.startsWith(prefix))
+                break;
+            propertyNames.add(name);
         }
         return propertyNames.toArray(new String[0]);
     }
 
+    /**
+     * Overrides {@link HashtableConfigurationStore#getPropertyNamesBySuffix(String)} to look the
+     * names up in the suffix index.
+     *
+     * @param suffix the suffix of the property names to get
+     * @return an array of the property names whose last dot separated part is <code>suffix</code>
+     *
+     * @see ConfigurationStore#getPropertyNamesBySuffix(String)
+     */
+    @Override
+    public String[] getPropertyNamesBySuffix(String suffix) {
+        if (suffix.startsWith(AccountID.ACCOUNT_UUID_PREFIX))
+            return super.getPropertyNamesBySuffix(suffix);
+
+        Set<String> propertyNames = mSuffixIndex.get(suffix);
+        return (propertyNames == null) ? new String[0] : propertyNames.toArray(new String[0]);
+    }
+
     /**
      * Removes all property name-value associations currently present in this
      * <code>ConfigurationStore</code> instance and de-serializes new property name-value
-     * associations from its underlying database (storage).
+     * associations from its underlying database (storage). As all the database changes go through
+     * this store, the in-memory properties are the database content once the pending changes are
+     * written.
      *
      * @throws IOException if there is an input error while reading from the underlying database (storage)
      */
-
+    @Override
     protected void reloadConfiguration()
             throws IOException {
-        // TODO Auto-generated method stub
+        writePendingChanges();
+    }
+
+    /**
+     * Writes the pending property changes to the database, as one transaction.
+     *
+     * @throws IOException never
+     */
+    @Override
+    protected void storeConfiguration()
+            throws IOException {
+        writePendingChanges();
+    }
+
+    /**
+     * Writes the pending property changes to the database now, e.g. before reading the
+     * accountProperties table directly.
+     */
+    public static void flushPendingChanges() {
+        SQLiteConfigurationStore store = mInstance;
+        if (store != null)
+            store.writePendingChanges();
     }
 
     /**
@@ -172,20 +277,26 @@ public class SQLiteConfigurationStore extends DatabaseConfigurationStore {
         synchronized (openHelper) {
             if (name.startsWith(AccountID.ACCOUNT_UUID_PREFIX)) {
                 int idx = name.indexOf(".");
-                // remove user account if only accountUuid is specified
+                // remove user account if only accountUuid is specified; its accountProperties are deleted on cascade
                 if (idx == -1) {
+                    String keyPrefix = name + ".";
+                    mPendingWrites.keySet().removeIf(key -> key.startsWith(keyPrefix));
+                    // '/' follows '.', so the sub map holds all the names starting with keyPrefix
+                    mAccountProperties.subMap(keyPrefix, name + "/").clear();
+
                     String[] args = {name};
                     mDB.delete(AccountID.TABLE_NAME, AccountID.ACCOUNT_UUID + "=?", args);
                 }
                 // Otherwise, remove the accountProperty from the AccountID.TBL_PROPERTIES
                 else {
-                    String[] args = {name.substring(0, idx), name.substring(idx + 1)};
-                    mDB.delete(AccountID.TBL_PROPERTIES,
-                            AccountID.ACCOUNT_UUID + "=? AND " + COLUMN_NAME + "=?", args);
+                    mAccountProperties.remove(name);
+                    queueWrite(name, null);
                 }
             }
             else {
-                mDB.delete(TABLE_NAME, COLUMN_NAME + "=?", new String[]{name});
+                if (mConfigProperties.remove(name) != null)
+                    removeFromSuffixIndex(name);
+                queueWrite(name, null);
             }
         }
         Timber.log(TimberLog.FINER, "### Remove property from table: %s", name);
@@ -203,30 +314,106 @@ public class SQLiteConfigurationStore extends DatabaseConfigurationStore {
      */
     @Override
     public void setNonSystemProperty(String name, Object value) {
+        String text = value.toString();
         synchronized (openHelper) {
-            String tableName = TABLE_NAME;
+            if (name.startsWith(AccountID.ACCOUNT_UUID_PREFIX)) {
+                mAccountProperties.put(name, text);
+            }
+            else if (mConfigProperties.put(name, text) == null) {
+                addToSuffixIndex(name);
+            }
+            queueWrite(name, text);
+        }
+        Timber.log(TimberLog.FINER, "### Set non-system property: %s <= %s", name, value);
 
-            ContentValues contentValues = new ContentValues();
-            contentValues.put(COLUMN_VALUE, value.toString());
+        // To take care of cached properties and accountProperties
+        super.setNonSystemProperty(name, value);
+    }
 
-            if (name.startsWith(AccountID.ACCOUNT_UUID_PREFIX)) {
-                int idx = name.indexOf(".");
-                contentValues.put(AccountID.ACCOUNT_UUID, name.substring(0, idx));
-                contentValues.put(COLUMN_NAME, name.substring(idx + 1));
-                tableName = AccountID.TBL_PROPERTIES;
+    /**
+     * Queues a property change for the next database write. Must be called with openHelper held.
+     *
+     * @param name the property name
+     * @param value the new property value; null to delete the property
+     */
+    private void queueWrite(String name, String value) {
+        mPendingWrites.put(name, value);
+    }
+
+    /**
+     * Writes the pending property changes to the database in a single transaction.
+     */
+    private void writePendingChanges() {
+        synchronized (openHelper) {
+            if (mPendingWrites.isEmpty())
+                return;
+
+            long startTime = System.nanoTime();
+            int count = mPendingWrites.size();
+            try {
+                mDB.beginTransaction();
+                try {
+                    for (Map.Entry<String, String> entry : mPendingWrites.entrySet()) {
+                        writeProperty(entry.getKey(), entry.getValue());
+                    }
+                    mDB.setTransactionSuccessful();
+                } finally {
+                    mDB.endTransaction();
+                }
+                // Only drop the queued changes once committed; on rollback they are retried on the next write.
+                mPendingWrites.clear();
+            } catch (RuntimeException e) {
+                Timber.e(e, "Failed to write %s properties; kept for retry", count);
+                return;
             }
-            else {
-                contentValues.put(COLUMN_NAME, name);
+            Timber.log(TimberLog.FINER, "### Wrote %s properties in %s ms", count,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        }
+    }
+
+    private void writeProperty(String name, String value) {
+        String tableName = TABLE_NAME;
+        String whereClause = COLUMN_NAME + "=?";
+        String[] args = {name};
+
+        ContentValues contentValues = new ContentValues();
+        if (name.startsWith(AccountID.ACCOUNT_UUID_PREFIX)) {
+            int idx = name.indexOf(".");
+            if (idx == -1) {
+                Timber.e("Invalid account property name: %s", name);
+                return;
             }
+            tableName = AccountID.TBL_PROPERTIES;
+            whereClause = AccountID.ACCOUNT_UUID + "=? AND " + COLUMN_NAME + "=?";
+            args = new String[]{name.substring(0, idx), name.substring(idx + 1)};
+            contentValues.put(AccountID.ACCOUNT_UUID, args[0]);
+            contentValues.put(COLUMN_NAME, args[1]);
+        }
+        else {
+            contentValues.put(COLUMN_NAME, name);
+        }
 
+        if (value == null) {
+            mDB.delete(tableName, whereClause, args);
+        }
+        else {
+            contentValues.put(COLUMN_VALUE, value);
             // Insert the properties in DB, replace if exist
             long rowId = mDB.replace(tableName, null, contentValues);
             if (rowId == -1)
                 Timber.e("Failed to set non-system property: %s: %s <= %s", tableName, name, value);
-
-            Timber.log(TimberLog.FINER, "### Set non-system property: %s: %s <= %s", tableName, name, value);
         }
-        // To take care of cached properties and accountProperties
-        super.setNonSystemProperty(name, value);
+    }
+
+    private void addToSuffixIndex(String name) {
+        int ix = name.lastIndexOf('.');
+        if (ix != -1)
+            mSuffixIndex.computeIfAbsent(name.substring(ix + 1), k -> new ConcurrentSkipListSet<>()).add(name);
+    }
+
+    private void removeFromSuffixIndex(String name) {
+        Set<String> names = mSuffixIndex.get(name.substring(name.lastIndexOf('.') + 1));
+        if (names != null)
+            names.remove(name);
     }
 }
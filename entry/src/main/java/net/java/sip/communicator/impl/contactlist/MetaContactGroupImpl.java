@@ -611,6 +611,8 @@ public class MetaContactGroupImpl implements MetaContactGroup
         // set this group as a callback in the meta contact
         metaContact.setParentGroup(this);
         lightAddMetaContact(metaContact);
+        if (isAttached())
+            mclServiceImpl.getIndex().addMetaContact(metaContact);
     }
 
     /**
@@ -659,6 +661,23 @@ public class MetaContactGroupImpl implements MetaContactGroup
     {
         metaContact.unsetParentGroup(this);
         lightRemoveMetaContact(metaContact);
+        // keep the index if the meta contact has already been added to another group
+        if (metaContact.getParentGroup() == null)
+            mclServiceImpl.getIndex().removeMetaContact(metaContact);
+    }
+
+    /**
+     * Determines whether this group is the root group or one of its descendants, whose meta
+     * contacts are indexed by the <code>MetaContactListService</code>.
+     *
+     * @return <code>true</code> if this group is attached to the root group.
+     */
+    boolean isAttached()
+    {
+        MetaContactGroupImpl group = this;
+        while (group.parentMetaContactGroup != null)
+            group = group.parentMetaContactGroup;
+        return group == mclServiceImpl.getRoot();
     }
 
     /**
@@ -854,6 +873,8 @@ public class MetaContactGroupImpl implements MetaContactGroup
         ((MetaContactGroupImpl) subgroup).parentMetaContactGroup = this;
 
         this.subgroupsOrderedCopy = new LinkedList<>(subgroups);
+        if (isAttached())
+            mclServiceImpl.getIndex().addGroup((MetaContactGroupImpl) subgroup);
     }
 
     /**
@@ -870,6 +891,7 @@ public class MetaContactGroupImpl implements MetaContactGroup
             subgroup.parentMetaContactGroup = null;
 
         subgroupsOrderedCopy = new LinkedList<>(subgroups);
+        mclServiceImpl.getIndex().removeGroup(subgroup);
         return subgroup;
     }
 
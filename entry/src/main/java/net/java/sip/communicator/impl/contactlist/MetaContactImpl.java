@@ -679,6 +679,8 @@ public class MetaContactImpl extends DataObject implements MetaContact {
             contactsOnline += contact.getPresenceStatus().isOnline() ? 1 : 0;
 
             this.protoContacts.add(contact);
+            if ((parentGroup != null) && parentGroup.isAttached())
+                parentGroup.getMclServiceImpl().getIndex().addProtoContact(this, contact);
 
             // Re-init the default contact.
             defaultContact = null;
@@ -759,6 +761,8 @@ public class MetaContactImpl extends DataObject implements MetaContact {
                 parentGroup.lightRemoveMetaContact(this);
             contactsOnline -= contact.getPresenceStatus().isOnline() ? 1 : 0;
             this.protoContacts.remove(contact);
+            if (parentGroup != null)
+                parentGroup.getMclServiceImpl().getIndex().removeProtoContact(this, contact);
 
             if (defaultContact == contact)
                 defaultContact = null;
@@ -800,6 +804,8 @@ public class MetaContactImpl extends DataObject implements MetaContact {
 
             if (contact.getProtocolProvider() == provider) {
                 contactsIter.remove();
+                if (parentGroup != null)
+                    parentGroup.getMclServiceImpl().getIndex().removeProtoContact(this, contact);
                 modified = true;
             }
         }
@@ -825,6 +831,8 @@ public class MetaContactImpl extends DataObject implements MetaContact {
             Contact contact = contacts.next();
             if (contact.getParentContactGroup() == protoGroup) {
                 contacts.remove();
+                if (parentGroup != null)
+                    parentGroup.getMclServiceImpl().getIndex().removeProtoContact(this, contact);
                 modified = true;
             }
         }
@@ -0,0 +1,276 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.contactlist;
+
+import net.java.sip.communicator.service.contactlist.MetaContact;
+import net.java.sip.communicator.service.contactlist.MetaContactGroup;
+import net.java.sip.communicator.service.protocol.Contact;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Secondary indexes over the meta contact list tree, so that the lookups done for every incoming
+ * message, presence and avatar update do not have to walk all the groups and their contacts.
+ * <p>
+ * The indexes hold the <code>MetaContact</code>s and <code>MetaContactGroup</code>s attached to the
+ * root group. They are maintained by <code>MetaContactGroupImpl</code> when a meta contact or a
+ * subgroup is added or removed, and by <code>MetaContactImpl</code> when a protocol contact is
+ * added or removed while it is attached. {@link #verify(MetaContactGroupImpl)} compares the indexes
+ * with a full walk of the tree.
+ *
+ * @author Eng Chong Meng
+ */
+final class MetaContactListIndex {
+    /**
+     * The meta contact of each protocol contact, keyed by account UID and contact address.
+     */
+    private final Map<String, MetaContactImpl> byContact = new ConcurrentHashMap<>();
+
+    /**
+     * The meta contacts holding a protocol contact with a given address, of any account.
+     */
+    private final Map<String, Set<MetaContactImpl>> byAddress = new ConcurrentHashMap<>();
+
+    /**
+     * The meta contacts by meta UID.
+     */
+    private final Map<String, MetaContactImpl> contactsByUID = new ConcurrentHashMap<>();
+
+    /**
+     * The meta contact groups by meta UID.
+     */
+    private final Map<String, MetaContactGroupImpl> groupsByUID = new ConcurrentHashMap<>();
+
+    private static String key(String accountUID, String address) {
+        return accountUID + '\u0000' + address;
+    }
+
+    private static String key(Contact contact) {
+        return key(contact.getProtocolProvider().getAccountID().getAccountUid(), contact.getAddress());
+    }
+
+    /**
+     * Indexes a group, its meta contacts and all its subgroups.
+     *
+     * @param group the group just attached to the tree.
+     */
+    void addGroup(MetaContactGroupImpl group) {
+        groupsByUID.put(group.getMetaUID(), group);
+
+        Iterator<MetaContact> contacts = group.getChildContacts();
+        while (contacts.hasNext())
+            addMetaContact((MetaContactImpl) contacts.next());
+
+        Iterator<MetaContactGroup> subgroups = group.getSubgroups();
+        while (subgroups.hasNext())
+            addGroup((MetaContactGroupImpl) subgroups.next());
+    }
+
+    /**
+     * Removes a group, its meta contacts and all its subgroups from the indexes.
+     *
+     * @param group the group just detached from the tree.
+     */
+    void removeGroup(MetaContactGroupImpl group) {
+        groupsByUID.remove(group.getMetaUID(), group);
+
+        Iterator<MetaContact> contacts = group.getChildContacts();
+        while (contacts.hasNext())
+            removeMetaContact((MetaContactImpl) contacts.next());
+
+        Iterator<MetaContactGroup> subgroups = group.getSubgroups();
+        while (subgroups.hasNext())
+            removeGroup((MetaContactGroupImpl) subgroups.next());
+    }
+
+    /**
+     * Indexes a meta contact and its protocol contacts.
+     *
+     * @param metaContact the meta contact just attached to the tree.
+     */
+    void addMetaContact(MetaContactImpl metaContact) {
+        contactsByUID.put(metaContact.getMetaUID(), metaContact);
+
+        Iterator<Contact> contacts = metaContact.getContacts();
+        while (contacts.hasNext())
+            addProtoContact(metaContact, contacts.next());
+    }
+
+    /**
+     * Removes a meta contact and its protocol contacts from the indexes.
+     *
+     * @param metaContact the meta contact just detached from the tree.
+     */
+    void removeMetaContact(MetaContactImpl metaContact) {
+        contactsByUID.remove(metaContact.getMetaUID(), metaContact);
+
+        Iterator<Contact> contacts = metaContact.getContacts();
+        while (contacts.hasNext()) {
+            Contact contact = contacts.next();
+            byContact.remove(key(contact), metaContact);
+            removeAddress(contact.getAddress(), metaContact);
+        }
+    }
+
+    /**
+     * Indexes a protocol contact of an attached meta contact.
+     *
+     * @param metaContact the meta contact holding <code>contact</code>.
+     * @param contact the protocol contact just added.
+     */
+    void addProtoContact(MetaContactImpl metaContact, Contact contact) {
+        byContact.put(key(contact), metaContact);
+        byAddress.computeIfAbsent(contact.getAddress(), k -> ConcurrentHashMap.newKeySet()).add(metaContact);
+    }
+
+    /**
+     * Removes a protocol contact of an attached meta contact from the indexes.
+     *
+     * @param metaContact the meta contact which held <code>contact</code>.
+     * @param contact the protocol contact just removed.
+     */
+    void removeProtoContact(MetaContactImpl metaContact, Contact contact) {
+        byContact.remove(key(contact), metaContact);
+
+        // the meta contact may still hold a contact with the same address from another account
+        String address = contact.getAddress();
+        Iterator<Contact> contacts = metaContact.getContacts();
+        while (contacts.hasNext()) {
+            if (contacts.next().getAddress().equals(address))
+                return;
+        }
+        removeAddress(address, metaContact);
+    }
+
+    private void removeAddress(String address, MetaContactImpl metaContact) {
+        Set<MetaContactImpl> metaContacts = byAddress.get(address);
+        if (metaContacts != null) {
+            metaContacts.remove(metaContact);
+            if (metaContacts.isEmpty())
+                byAddress.remove(address, metaContacts);
+        }
+    }
+
+    /**
+     * Returns the meta contact indexed for the specified protocol contact; the caller verifies it
+     * still holds the contact.
+     *
+     * @param contact the protocol contact.
+     * @return the indexed meta contact, or <code>null</code> if none.
+     */
+    MetaContactImpl findMetaContactByContact(Contact contact) {
+        return byContact.get(key(contact));
+    }
+
+    /**
+     * Returns the meta contact indexed for the protocol contact of the specified address and
+     * account; the caller verifies it still holds the contact.
+     *
+     * @param contactAddress the address of the protocol contact.
+     * @param accountID the account UID of the protocol contact.
+     * @return the indexed meta contact, or <code>null</code> if none.
+     */
+    MetaContactImpl findMetaContactByContact(String contactAddress, String accountID) {
+        return byContact.get(key(accountID, contactAddress));
+    }
+
+    /**
+     * Returns the meta contacts holding a protocol contact with the specified address.
+     *
+     * @param contactAddress the address of the protocol contacts.
+     * @return the indexed meta contacts, possibly empty.
+     */
+    List<MetaContact> findAllMetaContactsForAddress(String contactAddress) {
+        Set<MetaContactImpl> metaContacts = byAddress.get(contactAddress);
+        if (metaContacts == null)
+            return Collections.emptyList();
+        return new ArrayList<>(metaContacts);
+    }
+
+    /**
+     * Returns the meta contact with the specified meta UID.
+     *
+     * @param metaUID the meta UID.
+     * @return the meta contact, or <code>null</code>.
+     */
+    MetaContactImpl findMetaContactByMetaUID(String metaUID) {
+        return contactsByUID.get(metaUID);
+    }
+
+    /**
+     * Returns the meta contact group with the specified meta UID.
+     *
+     * @param metaUID the meta UID.
+     * @return the meta contact group, or <code>null</code>.
+     */
+    MetaContactGroupImpl findMetaContactGroupByMetaUID(String metaUID) {
+        return groupsByUID.get(metaUID);
+    }
+
+    /**
+     * Clears and rebuilds the indexes from the tree under <code>root</code>.
+     *
+     * @param root the root group of the meta contact list.
+     */
+    void rebuild(MetaContactGroupImpl root) {
+        byContact.clear();
+        byAddress.clear();
+        contactsByUID.clear();
+        groupsByUID.clear();
+        addGroup(root);
+    }
+
+    /**
+     * Consistency checker: compares the indexes with a fresh index built by walking the tree under
+     * <code>root</code>.
+     *
+     * @param root the root group of the meta contact list.
+     * @return a description of each difference found; empty when the indexes are consistent.
+     */
+    List<String> verify(MetaContactGroupImpl root) {
+        MetaContactListIndex expected = new MetaContactListIndex();
+        expected.addGroup(root);
+
+        List<String> errors = new ArrayList<>();
+        compare("contact", expected.byContact, byContact, errors);
+        compare("metaUID", expected.contactsByUID, contactsByUID, errors);
+        compare("groupUID", expected.groupsByUID, groupsByUID, errors);
+        compare("address", expected.byAddress, byAddress, errors);
+        return errors;
+    }
+
+    private static <V> void compare(String index, Map<String, V> expected, Map<String, V> actual,
+            List<String> errors) {
+        for (Map.Entry<String, V> entry : expected.entrySet()) {
+            V value = actual.get(entry.getKey());
+            if (!entry.getValue().equals(value)) {
+                errors.add(index + " " + entry.getKey().replace('\u0000', '/')
+                        + ": expected " + entry.getValue() + " but indexed " + value);
+            }
+        }
+        for (String key : actual.keySet()) {
+            if (!expected.containsKey(key))
+                errors.add(index + " " + key.replace('\u0000', '/') + ": stale entry");
+        }
+    }
+}
@@ -23,9 +23,11 @@ import java.util.ArrayList;
 import java.util.EventObject;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 
 import net.java.sip.communicator.service.contactlist.MetaContact;
@@ -143,11 +145,17 @@ public class MetaContactListServiceImpl implements MetaContactListService, Servi
      */
     private final MclStorageManager storageManager = new MclStorageManager();
 
+    /**
+     * The indexes over the meta contact list tree used by the find methods.
+     */
+    private final MetaContactListIndex mIndex = new MetaContactListIndex();
+
     /**
      * Creates an instance of this class.
      */
     public MetaContactListServiceImpl() {
         rootMetaGroup = new MetaContactGroupImpl(this, ContactGroup.ROOT_GROUP_NAME, ContactGroup.ROOT_GROUP_UID);
+        mIndex.addGroup(rootMetaGroup);
     }
 
     /**
@@ -178,6 +186,7 @@ public class MetaContactListServiceImpl implements MetaContactListService, Servi
         } catch (Exception ex) {
             Timber.e("Failed loading the stored contact list: %s", ex.getMessage());
         }
+        checkIndexConsistency();
 
         // start listening for newly register or removed protocol providers
         bc.addServiceListener(this);
@@ -1161,6 +1170,12 @@ public class MetaContactListServiceImpl implements MetaContactListService, Servi
      * present in this contact list.
      */
     public MetaContact findMetaContactByContact(Contact contact) {
+        MetaContactImpl metaContact = mIndex.findMetaContactByContact(contact);
+        if ((metaContact == null)
+                || (metaContact.getContact(contact.getAddress(), contact.getProtocolProvider()) != null))
+            return metaContact;
+
+        Timber.w("Stale meta contact index entry for: %s", contact.getAddress());
         return rootMetaGroup.findMetaContactByContact(contact);
     }
 
@@ -1178,6 +1193,11 @@ public class MetaContactListServiceImpl implements MetaContactListService, Servi
      * present in this contact list.
      */
     public MetaContact findMetaContactByContact(String contactAddress, String accountID) {
+        MetaContactImpl metaContact = mIndex.findMetaContactByContact(contactAddress, accountID);
+        if ((metaContact == null) || (metaContact.getContact(contactAddress, accountID) != null))
+            return metaContact;
+
+        Timber.w("Stale meta contact index entry for: %s", contactAddress);
         return rootMetaGroup.findMetaContactByContact(contactAddress, accountID);
     }
 
@@ -1190,7 +1210,7 @@ public class MetaContactListServiceImpl implements MetaContactListService, Servi
      * contact was found.
      */
     public MetaContact findMetaContactByMetaUID(String metaContactID) {
-        return rootMetaGroup.findMetaContactByMetaUID(metaContactID);
+        return mIndex.findMetaContactByMetaUID(metaContactID);
     }
 
     /**
@@ -1202,7 +1222,7 @@ public class MetaContactListServiceImpl implements MetaContactListService, Servi
      * contact was found.
      */
     public MetaContactGroup findMetaContactGroupByMetaUID(String metaGroupID) {
-        return rootMetaGroup.findMetaContactGroupByMetaUID(metaGroupID);
+        return mIndex.findMetaContactGroupByMetaUID(metaGroupID);
     }
 
     /**
@@ -1239,7 +1259,9 @@ public class MetaContactListServiceImpl implements MetaContactListService, Servi
 
     /**
      * Returns a list of all <code>MetaContact</code>s containing a protocol contact corresponding to
-     * the given <code>contactAddress</code> string.
+     * the given <code>contactAddress</code> string, either as address or as display name. Contacts are
+     * matched by address from the index; display names are not indexed, so the contact list is walked
+     * to match them.
      *
      * @param contactAddress the contact address for which we're looking for a parent <code>MetaContact</code>.
      *
@@ -1247,21 +1269,46 @@ public class MetaContactListServiceImpl implements MetaContactListService, Servi
      * the given <code>contactAddress</code> string.
      */
     public Iterator<MetaContact> findAllMetaContactsForAddress(String contactAddress) {
-        List<MetaContact> resultList = new LinkedList<>();
-        findAllMetaContactsForAddress(rootMetaGroup, contactAddress, resultList);
-        return resultList.iterator();
+        Set<MetaContact> resultSet = new LinkedHashSet<>(mIndex.findAllMetaContactsForAddress(contactAddress));
+        findAllMetaContactsForDisplayName(rootMetaGroup, contactAddress, resultSet);
+        return resultSet.iterator();
     }
 
     /**
-     * Returns a list of all <code>MetaContact</code>s containing a protocol contact corresponding to
-     * the given <code>contactAddress</code> string.
+     * Returns the indexes over the meta contact list tree.
+     *
+     * @return the indexes over the meta contact list tree.
+     */
+    MetaContactListIndex getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * Checks the meta contact list indexes against a walk of the contact list tree; logs any
+     * inconsistency found and rebuilds the indexes.
+     *
+     * @return <code>true</code> if the indexes were consistent.
+     */
+    public boolean checkIndexConsistency() {
+        List<String> errors = mIndex.verify(rootMetaGroup);
+        if (errors.isEmpty())
+            return true;
+
+        for (String error : errors)
+            Timber.w("Meta contact list index: %s", error);
+        mIndex.rebuild(rootMetaGroup);
+        return false;
+    }
+
+    /**
+     * Adds to a set all <code>MetaContact</code>s containing a protocol contact with the given display name.
      *
-     * @param contactAddress the contact address for which we're looking for a parent <code>MetaContact</code>.
      * @param metaContactGroup the parent group.
-     * @param resultList the list containing the result of the search.
+     * @param displayName the display name for which we're looking for a parent <code>MetaContact</code>.
+     * @param resultSet the set containing the result of the search.
      */
-    private void findAllMetaContactsForAddress(MetaContactGroup metaContactGroup,
-            String contactAddress, List<MetaContact> resultList) {
+    private void findAllMetaContactsForDisplayName(MetaContactGroup metaContactGroup,
+            String displayName, Set<MetaContact> resultSet) {
         Iterator<MetaContact> childContacts = metaContactGroup.getChildContacts();
         while (childContacts.hasNext()) {
             MetaContact metaContact = childContacts.next();
@@ -1271,9 +1318,8 @@ public class MetaContactListServiceImpl implements MetaContactListService, Servi
             while (protocolContacts.hasNext()) {
                 Contact protocolContact = protocolContacts.next();
 
-                if (protocolContact.getAddress().equals(contactAddress)
-                        || protocolContact.getDisplayName().equals(contactAddress))
-                    resultList.add(metaContact);
+                if (protocolContact.getDisplayName().equals(displayName))
+                    resultSet.add(metaContact);
             }
         }
 
@@ -1283,7 +1329,7 @@ public class MetaContactListServiceImpl implements MetaContactListService, Servi
 
             Iterator<ContactGroup> protocolSubgroups = subGroup.getContactGroups();
             if (protocolSubgroups.hasNext()) {
-                findAllMetaContactsForAddress(subGroup, contactAddress, resultList);
+                findAllMetaContactsForDisplayName(subGroup, displayName, resultSet);
             }
         }
     }
@@ -5,16 +5,21 @@
  */
 package net.java.sip.communicator.impl.history;
 
+import static net.java.sip.communicator.service.history.HistoryService.DATE_FORMAT;
+
 import net.java.sip.communicator.service.history.History;
 import net.java.sip.communicator.service.history.HistoryID;
 import net.java.sip.communicator.service.history.HistoryReader;
 import net.java.sip.communicator.service.history.HistoryWriter;
 import net.java.sip.communicator.service.history.InteractiveHistoryReader;
+import net.java.sip.communicator.service.history.records.HistoryRecord;
 import net.java.sip.communicator.service.history.records.HistoryRecordStructure;
 
 import org.atalk.impl.timberlog.TimberLog;
 import org.atalk.util.xml.XMLUtils;
 import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
@@ -23,7 +28,11 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidParameterException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.Iterator;
+import java.util.Locale;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
@@ -60,6 +69,11 @@ public class HistoryImpl implements History
 
     private SortedMap<String, Object> historyDocuments = new TreeMap<>();
 
+    /**
+     * The log holding the records of this history, opened on first use.
+     */
+    private HistoryRecordLog recordLog;
+
     /**
      * Creates an instance of <code>HistoryImpl</code> by specifying the history identifier, the directory, the
      * <code>HistoryRecordStructure</code> to use and the parent <code>HistoryServiceImpl</code>.
@@ -155,6 +169,85 @@ public class HistoryImpl implements History
         return writer;
     }
 
+    /**
+     * Returns the log holding the records of this history. The first time it is opened, the records of the xml files
+     * of the history are imported into the log; the xml files are kept but no longer read or written.
+     *
+     * @return the record log of this history
+     * @throws IOException if the log cannot be opened or the import failed
+     */
+    synchronized HistoryRecordLog getRecordLog()
+            throws IOException
+    {
+        if (recordLog == null) {
+            HistoryRecordLog log = new HistoryRecordLog(directory);
+            try {
+                if (!log.isImported())
+                    importDocuments(log);
+            } catch (IOException | RuntimeException e) {
+                log.close();
+                throw e;
+            }
+            recordLog = log;
+        }
+        return recordLog;
+    }
+
+    /**
+     * Imports the records of all the xml files of this history into the given log.
+     *
+     * @param log the record log of this history
+     * @throws IOException if a record cannot be written
+     */
+    private void importDocuments(HistoryRecordLog log)
+            throws IOException
+    {
+        // Restart an interrupted import from scratch
+        if (log.getRecordCount() > 0)
+            log.clear();
+
+        int count = 0;
+        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT, Locale.US);
+        for (String filename : HistoryReaderImpl.filterFilesByDate(getFileList(), null, null)) {
+            Document doc = getDocumentForFile(filename);
+            if (doc == null)
+                continue;
+
+            NodeList nodes = doc.getElementsByTagName("record");
+            for (int i = 0; i < nodes.getLength(); i++) {
+                Node node = nodes.item(i);
+                Date timestamp;
+                String ts = node.getAttributes().getNamedItem("timestamp").getNodeValue();
+                try {
+                    timestamp = sdf.parse(ts);
+                } catch (ParseException e) {
+                    timestamp = new Date(Long.parseLong(ts));
+                }
+
+                HistoryRecord record = HistoryReaderImpl.filterByKeyword(node.getChildNodes(), timestamp,
+                        null, null, false);
+                log.append(record.getPropertyNames(), record.getPropertyValues(), timestamp);
+                count++;
+            }
+        }
+        log.setImported();
+
+        // drop the documents cached during the import
+        reloadDocumentList();
+        Timber.i("Imported %d records of history %s", count, directory);
+    }
+
+    /**
+     * Closes the record log of this history, e.g. when the history is moved or purged.
+     */
+    synchronized void close()
+    {
+        if (recordLog != null) {
+            recordLog.close();
+            recordLog = null;
+        }
+    }
+
     protected HistoryServiceImpl getHistoryServiceImpl()
     {
         return this.historyServiceImpl;
@@ -181,63 +274,6 @@ public class HistoryImpl implements History
         }
     }
 
-    protected Document createDocument(String filename)
-    {
-        Document retVal = null;
-
-        synchronized (this.historyDocuments) {
-            if (this.historyDocuments.containsKey(filename)) {
-                retVal = getDocumentForFile(filename);
-            }
-            else {
-                retVal = this.historyServiceImpl.getDocumentBuilder().newDocument();
-                retVal.appendChild(retVal.createElement("history"));
-
-                this.historyDocuments.put(filename, retVal);
-            }
-        }
-
-        return retVal;
-    }
-
-    protected void writeFile(String filename)
-            throws InvalidParameterException, IOException
-    {
-        File file = new File(this.directory, filename);
-
-        synchronized (this.historyDocuments) {
-            if (!this.historyDocuments.containsKey(filename)) {
-                throw new InvalidParameterException("The requested filename does not exist in the document list.");
-            }
-
-            Object obj = this.historyDocuments.get(filename);
-
-            if (obj instanceof Document) {
-                Document doc = (Document) obj;
-
-                synchronized (doc) {
-                    XMLUtils.writeXML(doc, file);
-                }
-            }
-        }
-    }
-
-    protected void writeFile(String filename, Document doc)
-            throws InvalidParameterException, IOException
-    {
-        File file = new File(this.directory, filename);
-
-        synchronized (this.historyDocuments) {
-            if (!this.historyDocuments.containsKey(filename)) {
-                throw new InvalidParameterException("The requested filename does not exist in the document list.");
-            }
-
-            synchronized (doc) {
-                XMLUtils.writeXML(doc, file);
-            }
-        }
-    }
-
     protected Iterator<String> getFileList()
     {
         return this.historyDocuments.keySet().iterator();
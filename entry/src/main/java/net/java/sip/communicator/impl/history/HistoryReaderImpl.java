@@ -5,8 +5,6 @@
  */
 package net.java.sip.communicator.impl.history;
 
-import static net.java.sip.communicator.service.history.HistoryService.DATE_FORMAT;
-
 import net.java.sip.communicator.service.history.HistoryReader;
 import net.java.sip.communicator.service.history.QueryResultSet;
 import net.java.sip.communicator.service.history.event.HistorySearchProgressListener;
@@ -14,19 +12,14 @@ import net.java.sip.communicator.service.history.event.ProgressEvent;
 import net.java.sip.communicator.service.history.records.HistoryRecord;
 
 import org.apache.commons.text.StringEscapeUtils;
-import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.Iterator;
-import java.util.List;
-import java.util.Locale;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.Vector;
@@ -193,64 +186,7 @@ public class HistoryReaderImpl implements HistoryReader
 			String field, boolean caseSensitive)
 		throws RuntimeException
 	{
-		// the files are supposed to be ordered from oldest to newest
-		Vector<String> filelist = filterFilesByDate(this.historyImpl.getFileList(), null, null);
-
-		TreeSet<HistoryRecord> result = new TreeSet<>(new HistoryRecordComparator());
-		int leftCount = count;
-		int currentFile = filelist.size() - 1;
-
-		SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT, Locale.US);
-		while ((leftCount > 0) && (currentFile >= 0)) {
-			Document doc = this.historyImpl.getDocumentForFile(filelist.get(currentFile));
-
-			if (doc == null) {
-				currentFile--;
-				continue;
-			}
-
-			// will get nodes and construct a List of nodes so we can easily get sublist of it
-			List<Node> nodes = new ArrayList<>();
-			NodeList nodesList = doc.getElementsByTagName("record");
-			for (int i = 0; i < nodesList.getLength(); i++) {
-				nodes.add(nodesList.item(i));
-			}
-
-			List<Node> lNodes = null;
-
-			if (nodes.size() > leftCount) {
-				lNodes = nodes.subList(nodes.size() - leftCount, nodes.size());
-				leftCount = 0;
-			}
-			else {
-				lNodes = nodes;
-				leftCount -= nodes.size();
-			}
-
-			Iterator<Node> i = lNodes.iterator();
-			while (i.hasNext()) {
-				Node node = i.next();
-
-				NodeList propertyNodes = node.getChildNodes();
-
-				Date timestamp;
-				String ts = node.getAttributes().getNamedItem("timestamp").getNodeValue();
-				try {
-					timestamp = sdf.parse(ts);
-				}
-				catch (ParseException e) {
-					timestamp = new Date(Long.parseLong(ts));
-				}
-
-				HistoryRecord record = filterByKeyword(propertyNodes, timestamp, keywords, field, caseSensitive);
-
-				if (record != null) {
-					result.add(record);
-				}
-			}
-			currentFile--;
-		}
-		return new OrderedQueryResultSet<>(result);
+		return find(null, null, keywords, field, caseSensitive, count, true);
 	}
 
 	/**
@@ -328,82 +264,7 @@ public class HistoryReaderImpl implements HistoryReader
 	public QueryResultSet<HistoryRecord> findFirstRecordsAfter(Date date, int count)
 		throws RuntimeException
 	{
-		TreeSet<HistoryRecord> result = new TreeSet<>(new HistoryRecordComparator());
-
-		Vector<String> filelist = filterFilesByDate(this.historyImpl.getFileList(), date, null);
-
-		int leftCount = count;
-		int currentFile = 0;
-
-		SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT, Locale.US);
-		while (leftCount > 0 && currentFile < filelist.size()) {
-			Document doc = this.historyImpl.getDocumentForFile(filelist.get(currentFile));
-
-			if (doc == null) {
-				currentFile++;
-				continue;
-			}
-
-			NodeList nodes = doc.getElementsByTagName("record");
-
-			Node node;
-			for (int i = 0; i < nodes.getLength() && leftCount > 0; i++) {
-				node = nodes.item(i);
-
-				NodeList propertyNodes = node.getChildNodes();
-
-				Date timestamp;
-				String ts = node.getAttributes().getNamedItem("timestamp").getNodeValue();
-				try {
-					timestamp = sdf.parse(ts);
-				}
-				catch (ParseException e) {
-					timestamp = new Date(Long.parseLong(ts));
-				}
-
-				if (!isInPeriod(timestamp, date, null))
-					continue;
-
-				ArrayList<String> nameVals = new ArrayList<>();
-
-				boolean isRecordOK = true;
-				int len = propertyNodes.getLength();
-				for (int j = 0; j < len; j++) {
-					Node propertyNode = propertyNodes.item(j);
-					if (propertyNode.getNodeType() == Node.ELEMENT_NODE) {
-						// Get nested TEXT node's value
-						Node nodeValue = propertyNode.getFirstChild();
-
-						if (nodeValue != null) {
-							nameVals.add(propertyNode.getNodeName());
-							nameVals.add(nodeValue.getNodeValue());
-						}
-						else
-							isRecordOK = false;
-					}
-				}
-
-				// if we found a broken record - just skip it
-				if (!isRecordOK)
-					continue;
-
-				String[] propertyNames = new String[nameVals.size() / 2];
-				String[] propertyValues = new String[propertyNames.length];
-				for (int j = 0; j < propertyNames.length; j++) {
-					propertyNames[j] = nameVals.get(j * 2);
-					propertyValues[j] = nameVals.get(j * 2 + 1);
-				}
-
-				HistoryRecord record = new HistoryRecord(propertyNames, propertyValues, timestamp);
-
-				result.add(record);
-				leftCount--;
-			}
-
-			currentFile++;
-		}
-
-		return new OrderedQueryResultSet<>(result);
+		return find(date, null, null, null, false, count, false);
 	}
 
 	/**
@@ -419,138 +280,54 @@ public class HistoryReaderImpl implements HistoryReader
 	public QueryResultSet<HistoryRecord> findLastRecordsBefore(Date date, int count)
 		throws RuntimeException
 	{
-		// the files are supposed to be ordered from oldest to newest
-		Vector<String> filelist = filterFilesByDate(this.historyImpl.getFileList(), null, date);
-
-		TreeSet<HistoryRecord> result = new TreeSet<>(new HistoryRecordComparator());
-		int leftCount = count;
-
-		int currentFile = filelist.size() - 1;
-
-		SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT, Locale.US);
-		while (leftCount > 0 && currentFile >= 0) {
-			Document doc = this.historyImpl.getDocumentForFile(filelist.get(currentFile));
-
-			if (doc == null) {
-				currentFile--;
-			}
-			else {
-
-				NodeList nodes = doc.getElementsByTagName("record");
-	
-				Node node;
-				for (int i = nodes.getLength() - 1; i >= 0 && leftCount > 0; i--) {
-					node = nodes.item(i);
-					NodeList propertyNodes = node.getChildNodes();
-	
-					Date timestamp;
-					String ts = node.getAttributes().getNamedItem("timestamp").getNodeValue();
-					try {
-						timestamp = sdf.parse(ts);
-					}
-					catch (ParseException e) {
-						timestamp = new Date(Long.parseLong(ts));
-					}
-	
-					if (isInPeriod(timestamp, null, date)) {
-	
-						ArrayList<String> nameVals = new ArrayList<>();
-	
-						boolean isRecordOK = true;
-						int len = propertyNodes.getLength();
-						for (int j = 0; j < len; j++) {
-							Node propertyNode = propertyNodes.item(j);
-							if (propertyNode.getNodeType() == Node.ELEMENT_NODE) {
-								// Get nested TEXT node's value
-								Node nodeValue = propertyNode.getFirstChild();
-	
-								if (nodeValue != null) {
-									nameVals.add(propertyNode.getNodeName());
-									nameVals.add(nodeValue.getNodeValue());
-								}
-								else {
-									isRecordOK = false;
-								}
-							}
-						}
-
-						// if we found a broken record - just skip it
-						if (isRecordOK) {
-							String[] propertyNames = new String[nameVals.size() / 2];
-							String[] propertyValues = new String[propertyNames.length];
-							for (int j = 0; j < propertyNames.length; j++) {
-								propertyNames[j] = nameVals.get(j * 2);
-								propertyValues[j] = nameVals.get(j * 2 + 1);
-							}
-	
-							HistoryRecord record = new HistoryRecord(propertyNames, propertyValues, timestamp);
-							result.add(record);
-							leftCount--;
-						}
-					}
-				}
-				currentFile--;
-			}
-		}
-		return new OrderedQueryResultSet<>(result);
+		return find(null, date, null, null, false, count, true);
 	}
 
 	private QueryResultSet<HistoryRecord> find(Date startDate, Date endDate, String[] keywords, String field, boolean caseSensitive)
 	{
-		TreeSet<HistoryRecord> result = new TreeSet<>(new HistoryRecordComparator());
-
-		Vector<String> filelist = filterFilesByDate(this.historyImpl.getFileList(), startDate, endDate);
-
-		double currentProgress = HistorySearchProgressListener.PROGRESS_MINIMUM_VALUE;
-		double fileProgressStep = HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE;
-
-		if (filelist.size() != 0)
-			fileProgressStep = HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE / filelist.size();
-
 		// start progress - minimum value
 		fireProgressStateChanged(startDate, endDate, keywords, HistorySearchProgressListener.PROGRESS_MINIMUM_VALUE);
 
-		SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT, Locale.US);
-        for (String filename : filelist) {
-            Document doc = this.historyImpl.getDocumentForFile(filename);
-            if (doc == null)
-                continue;
-
-            NodeList nodes = doc.getElementsByTagName("record");
-            double nodesProgressStep = fileProgressStep;
-
-            if (nodes.getLength() != 0)
-                nodesProgressStep = fileProgressStep / nodes.getLength();
-
-            Node node;
-            for (int i = 0; i < nodes.getLength(); i++) {
-                node = nodes.item(i);
-                Date timestamp;
-                String ts = node.getAttributes().getNamedItem("timestamp").getNodeValue();
-                try {
-                    timestamp = sdf.parse(ts);
-                } catch (ParseException e) {
-                    timestamp = new Date(Long.parseLong(ts));
-                }
-
-                if (isInPeriod(timestamp, startDate, endDate)) {
-                    NodeList propertyNodes = node.getChildNodes();
-
-                    HistoryRecord record = filterByKeyword(propertyNodes, timestamp, keywords, field, caseSensitive);
-                    if (record != null) {
-                        result.add(record);
-                    }
-                }
-                currentProgress += nodesProgressStep;
-                fireProgressStateChanged(startDate, endDate, keywords, (int) currentProgress);
-            }
-        }
-
-		// if maximum value is not reached fire an event
-		if ((int) currentProgress < HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE) {
-			fireProgressStateChanged(startDate, endDate, keywords, HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE);
+		QueryResultSet<HistoryRecord> result = find(startDate, endDate, keywords, field, caseSensitive, -1, false);
+
+		fireProgressStateChanged(startDate, endDate, keywords, HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE);
+		return result;
+	}
+
+	/**
+	 * Searches the history log index for the matching records. The returned result set holds the log offsets of the
+	 * records only, and reads each record from the log when iterated to it.
+	 *
+	 * @param startDate
+	 *        start of the interval in which we search or <code>null</code>
+	 * @param endDate
+	 *        end of the interval in which we search or <code>null</code>
+	 * @param keywords
+	 *        array of keywords we search for or <code>null</code>
+	 * @param field
+	 *        the field where to look for the keyword
+	 * @param caseSensitive
+	 *        is keywords search case sensitive
+	 * @param count
+	 *        the maximum number of records to return, or -1 for all of them
+	 * @param fromEnd
+	 *        whether to return the most recent records when limited by <code>count</code>
+	 * @return the found records ordered by timestamp
+	 * @throws RuntimeException
+	 *         Thrown if an exception occurs during the execution of the query, such as internal IO error.
+	 */
+	private QueryResultSet<HistoryRecord> find(Date startDate, Date endDate, String[] keywords, String field,
+		boolean caseSensitive, int count, boolean fromEnd)
+		throws RuntimeException
+	{
+		try {
+			HistoryRecordLog log = this.historyImpl.getRecordLog();
+			return new LogQueryResultSet(log,
+				log.findOffsets(startDate, endDate, keywords, field, caseSensitive, count, fromEnd));
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Error occurred while searching history.", e);
 		}
-		return new OrderedQueryResultSet<>(result);
 	}
 
 	/**
@@ -827,9 +604,7 @@ public class HistoryReaderImpl implements HistoryReader
 	}
 
 	/**
-	 * Count the number of messages that a search will return Actually only the last file is parsed and its nodes are
-	 * counted. We accept that the other files are full with max records, this way we escape parsing all files which
-	 * will significantly slow the process and for one search will parse the files twice.
+	 * Count the number of messages that a search will return, which is the number of records of the history log.
 	 *
 	 * @return the number of searched messages
 	 * @throws UnsupportedOperationException
@@ -838,37 +613,11 @@ public class HistoryReaderImpl implements HistoryReader
 	public int countRecords()
 		throws UnsupportedOperationException
 	{
-		int result = 0;
-		String lastFile = null;
-		Iterator<String> filelistIter = this.historyImpl.getFileList();
-		while (filelistIter.hasNext()) {
-			lastFile = filelistIter.next();
-			result += HistoryWriterImpl.MAX_RECORDS_PER_FILE;
+		try {
+			return this.historyImpl.getRecordLog().getRecordCount();
 		}
-
-		if (lastFile == null)
-			return result;
-
-		Document doc = this.historyImpl.getDocumentForFile(lastFile);
-
-		if (doc == null)
-			return result;
-
-		NodeList nodes = doc.getElementsByTagName("record");
-
-		result += nodes.getLength();
-
-		return result;
-	}
-
-	/**
-	 * Used to compare HistoryRecords ant to be ordered in TreeSet
-	 */
-	private static class HistoryRecordComparator implements Comparator<HistoryRecord>
-	{
-		public int compare(HistoryRecord h1, HistoryRecord h2)
-		{
-			return h1.getTimestamp().compareTo(h2.getTimestamp());
+		catch (IOException e) {
+			throw new UnsupportedOperationException("Error occurred while counting history records.", e);
 		}
 	}
 }
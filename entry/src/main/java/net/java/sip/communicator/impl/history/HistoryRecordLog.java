@@ -0,0 +1,891 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license. See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import net.java.sip.communicator.service.history.records.HistoryRecord;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/**
+ * The records of a history, kept in an append-only binary log with memory-mapped sidecar indexes instead of the XML
+ * files, which had to be parsed whole on each search and written whole on each new record.
+ * <p>
+ * <code>records.log</code> holds the records one after the other as their timestamp and property names and values. A
+ * change of a record is logged as its new version followed by the delete of the old one, so the log is never written
+ * in place; it is compacted when opened if most of it is deleted records.
+ * <p>
+ * <code>records.idx</code> is memory mapped and holds one (timestamp, offset) entry per logged record in log order,
+ * with the offset of the deleted records set to -1. Records are mostly added in time order, so searches by period are
+ * a binary search of the mapped entries. <code>tokens.idx</code> holds the posting lists of the lower cased words of
+ * each record property; it is loaded on the first keyword search, which then only reads the records holding words
+ * that match the keywords. Both indexes are rebuilt from the log when they do not cover it, e.g. after a crash.
+ *
+ * @author Eng Chong Meng
+ */
+class HistoryRecordLog
+{
+	/**
+	 * The name of the record log file.
+	 */
+	static final String LOG_FILE = "records.log";
+
+	/**
+	 * The name of the timestamp index file.
+	 */
+	static final String INDEX_FILE = "records.idx";
+
+	/**
+	 * The name of the token index file.
+	 */
+	static final String TOKENS_FILE = "tokens.idx";
+
+	private static final int LOG_MAGIC = 0x484c4f47;
+	private static final int INDEX_MAGIC = 0x48494458;
+	private static final int TOKENS_MAGIC = 0x48544f4b;
+	private static final int VERSION = 1;
+
+	/**
+	 * The log header: magic, version and flags.
+	 */
+	private static final int LOG_HEADER_SIZE = 12;
+
+	/**
+	 * The log flag set once the XML files of the history have been imported.
+	 */
+	private static final int FLAG_IMPORTED = 1;
+
+	private static final byte TYPE_RECORD = 1;
+	private static final byte TYPE_DELETE = 2;
+
+	/**
+	 * The header of each logged record: type and payload length.
+	 */
+	private static final int RECORD_HEADER_SIZE = 5;
+
+	/**
+	 * The index header: magic, version, entry count and the log length covered by the entries.
+	 */
+	private static final int INDEX_HEADER_SIZE = 20;
+
+	/**
+	 * An index entry: timestamp and log offset.
+	 */
+	private static final int ENTRY_SIZE = 16;
+
+	private static final int MIN_CAPACITY = 256;
+
+	/**
+	 * The token index header: magic, version and the number of entries covered by the postings.
+	 */
+	private static final int TOKENS_HEADER_SIZE = 12;
+
+	/**
+	 * Longer words are not indexed; the records holding them are read by all the keyword searches.
+	 */
+	private static final int MAX_TOKEN_LENGTH = 64;
+
+	/**
+	 * The posting list of all the records holding a property.
+	 */
+	private static final String ANY_TOKEN = "";
+
+	/**
+	 * The posting list of the records holding a word too long to be indexed.
+	 */
+	private static final String LONG_TOKEN = "\u0000";
+
+	/**
+	 * The number of deleted records from which the log is compacted when opened.
+	 */
+	private static final int COMPACT_THRESHOLD = 256;
+
+	private final File directory;
+
+	private FileChannel logChannel;
+
+	private FileChannel indexChannel;
+
+	private MappedByteBuffer index;
+
+	private int capacity;
+
+	private int entryCount;
+
+	private int deletedCount;
+
+	private long logLength;
+
+	private int flags;
+
+	/**
+	 * Whether the entries are in timestamp order; else <code>order</code> holds them sorted.
+	 */
+	private boolean sorted;
+
+	private int[] order;
+
+	/**
+	 * The posting lists by property name and word; <code>null</code> until the first keyword search.
+	 */
+	private Map<String, Map<String, Postings>> postings;
+
+	private FileChannel tokensChannel;
+
+	private long tokensLength;
+
+	/**
+	 * Opens the record log in the given history directory, creating it if needed.
+	 *
+	 * @param directory
+	 *        the history directory
+	 * @throws IOException
+	 *         if the log files cannot be opened
+	 */
+	HistoryRecordLog(File directory)
+		throws IOException
+	{
+		this.directory = directory;
+		open();
+
+		if (deletedCount >= COMPACT_THRESHOLD && deletedCount > entryCount - deletedCount)
+			compact();
+	}
+
+	private void open()
+		throws IOException
+	{
+		logChannel = new RandomAccessFile(new File(directory, LOG_FILE), "rw").getChannel();
+		if (logChannel.size() < LOG_HEADER_SIZE) {
+			flags = 0;
+			logChannel.truncate(0);
+			write(logChannel, ByteBuffer.allocate(LOG_HEADER_SIZE).putInt(LOG_MAGIC).putInt(VERSION).putInt(flags), 0);
+		}
+		else {
+			ByteBuffer header = read(logChannel, 0, LOG_HEADER_SIZE);
+			if (header.getInt() != LOG_MAGIC || header.getInt() != VERSION)
+				throw new IOException("Unsupported history log: " + directory);
+			flags = header.getInt();
+		}
+
+		indexChannel = new RandomAccessFile(new File(directory, INDEX_FILE), "rw").getChannel();
+		entryCount = 0;
+		long covered = 0;
+		if (indexChannel.size() >= INDEX_HEADER_SIZE) {
+			ByteBuffer header = read(indexChannel, 0, INDEX_HEADER_SIZE);
+			if (header.getInt() == INDEX_MAGIC && header.getInt() == VERSION) {
+				entryCount = header.getInt();
+				covered = header.getLong();
+			}
+		}
+
+		// The index is written after the log, but the mapped pages may reach the disk first
+		if (covered < LOG_HEADER_SIZE || covered > logChannel.size() || entryCount < 0
+			|| INDEX_HEADER_SIZE + (long) entryCount * ENTRY_SIZE > indexChannel.size()) {
+			entryCount = 0;
+			covered = LOG_HEADER_SIZE;
+		}
+
+		mapIndex(Math.max(MIN_CAPACITY, entryCount * 2));
+		index.putInt(0, INDEX_MAGIC);
+		index.putInt(4, VERSION);
+
+		sorted = true;
+		deletedCount = 0;
+		for (int entry = 0; entry < entryCount; entry++) {
+			if (offsetAt(entry) < 0)
+				deletedCount++;
+			if (entry > 0 && timestampAt(entry) < timestampAt(entry - 1))
+				sorted = false;
+		}
+		replay(covered);
+	}
+
+	/**
+	 * Indexes the records logged from <code>position</code>, which the index does not cover yet.
+	 */
+	private void replay(long position)
+		throws IOException
+	{
+		long size = logChannel.size();
+		while (position + RECORD_HEADER_SIZE <= size) {
+			ByteBuffer header = read(logChannel, position, RECORD_HEADER_SIZE);
+			byte type = header.get();
+			int length = header.getInt();
+			long next = position + RECORD_HEADER_SIZE + length;
+			if (length < 0 || next > size)
+				break;
+
+			if (type == TYPE_RECORD) {
+				addEntry(read(logChannel, position + RECORD_HEADER_SIZE, 8).getLong(), position);
+			}
+			else if (type == TYPE_DELETE) {
+				markDeleted(read(logChannel, position + RECORD_HEADER_SIZE, 4).getInt());
+			}
+			else {
+				break;
+			}
+			position = next;
+		}
+
+		if (position < size) {
+			Timber.w("Truncating the incomplete history log %s at %d of %d", directory, position, size);
+			logChannel.truncate(position);
+		}
+		logLength = position;
+		writeIndexHeader();
+	}
+
+	private void mapIndex(int capacity)
+		throws IOException
+	{
+		index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER_SIZE + (long) capacity * ENTRY_SIZE);
+		this.capacity = capacity;
+	}
+
+	private void writeIndexHeader()
+	{
+		index.putInt(8, entryCount);
+		index.putLong(12, logLength);
+	}
+
+	private long timestampAt(int entry)
+	{
+		return index.getLong(INDEX_HEADER_SIZE + entry * ENTRY_SIZE);
+	}
+
+	private long offsetAt(int entry)
+	{
+		return index.getLong(INDEX_HEADER_SIZE + entry * ENTRY_SIZE + 8);
+	}
+
+	private int addEntry(long timestamp, long offset)
+		throws IOException
+	{
+		if (entryCount == capacity)
+			mapIndex(capacity * 2);
+
+		if (entryCount > 0 && timestamp < timestampAt(entryCount - 1))
+			sorted = false;
+		order = null;
+
+		int position = INDEX_HEADER_SIZE + entryCount * ENTRY_SIZE;
+		index.putLong(position, timestamp);
+		index.putLong(position + 8, offset);
+		return entryCount++;
+	}
+
+	private void markDeleted(int entry)
+	{
+		if (entry >= 0 && entry < entryCount && offsetAt(entry) >= 0) {
+			index.putLong(INDEX_HEADER_SIZE + entry * ENTRY_SIZE + 8, -1);
+			deletedCount++;
+		}
+	}
+
+	/**
+	 * Appends a record to the log.
+	 *
+	 * @param propertyNames
+	 *        the property names of the record
+	 * @param propertyValues
+	 *        the non-null property values of the record
+	 * @param timestamp
+	 *        the record timestamp
+	 * @return the index entry of the record
+	 * @throws IOException
+	 *         if the record cannot be written
+	 */
+	synchronized int append(String[] propertyNames, String[] propertyValues, Date timestamp)
+		throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeLong(timestamp.getTime());
+		out.writeInt(propertyNames.length);
+		for (int i = 0; i < propertyNames.length; i++) {
+			writeString(out, propertyNames[i]);
+			writeString(out, propertyValues[i]);
+		}
+
+		long offset = writeLog(TYPE_RECORD, bytes.toByteArray());
+		int entry = addEntry(timestamp.getTime(), offset);
+		writeIndexHeader();
+
+		if (postings != null)
+			indexTokens(entry, propertyNames, propertyValues);
+		return entry;
+	}
+
+	/**
+	 * Deletes a record from the log.
+	 *
+	 * @param entry
+	 *        the index entry of the record
+	 * @throws IOException
+	 *         if the delete cannot be written
+	 */
+	synchronized void delete(int entry)
+		throws IOException
+	{
+		if (offsetAt(entry) < 0)
+			return;
+
+		writeLog(TYPE_DELETE, ByteBuffer.allocate(4).putInt(entry).array());
+		markDeleted(entry);
+		writeIndexHeader();
+	}
+
+	/**
+	 * Replaces a record by its new version, logged as a new record.
+	 *
+	 * @param entry
+	 *        the index entry of the record to replace
+	 * @param propertyNames
+	 *        the property names of the new version
+	 * @param propertyValues
+	 *        the non-null property values of the new version
+	 * @param timestamp
+	 *        the timestamp of the new version
+	 * @throws IOException
+	 *         if the record cannot be written
+	 */
+	synchronized void replace(int entry, String[] propertyNames, String[] propertyValues, Date timestamp)
+		throws IOException
+	{
+		append(propertyNames, propertyValues, timestamp);
+		delete(entry);
+	}
+
+	/**
+	 * Deletes the oldest record of the log, if any.
+	 *
+	 * @throws IOException
+	 *         if the delete cannot be written
+	 */
+	synchronized void deleteOldest()
+		throws IOException
+	{
+		int[] oldest = find(null, null, null, null, false, 1, false);
+		if (oldest.length > 0)
+			delete(oldest[0]);
+	}
+
+	private long writeLog(byte type, byte[] payload)
+		throws IOException
+	{
+		long offset = logLength;
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+		record.put(type).putInt(payload.length).put(payload);
+		write(logChannel, record, offset);
+		logLength = offset + record.capacity();
+		return offset;
+	}
+
+	/**
+	 * Reads the record logged at <code>offset</code>.
+	 *
+	 * @param offset
+	 *        the log offset of the record
+	 * @return the record
+	 * @throws IOException
+	 *         if the record cannot be read
+	 */
+	synchronized HistoryRecord read(long offset)
+		throws IOException
+	{
+		ByteBuffer header = read(logChannel, offset, RECORD_HEADER_SIZE);
+		if (header.get() != TYPE_RECORD)
+			throw new IOException("No history record at " + offset + " of " + directory);
+
+		ByteBuffer payload = read(logChannel, offset + RECORD_HEADER_SIZE, header.getInt());
+		Date timestamp = new Date(payload.getLong());
+		int count = payload.getInt();
+		String[] propertyNames = new String[count];
+		String[] propertyValues = new String[count];
+		for (int i = 0; i < count; i++) {
+			propertyNames[i] = readString(payload);
+			propertyValues[i] = readString(payload);
+		}
+		return new HistoryRecord(propertyNames, propertyValues, timestamp);
+	}
+
+	/**
+	 * Reads the record of an index entry.
+	 *
+	 * @param entry
+	 *        the index entry of the record
+	 * @return the record
+	 * @throws IOException
+	 *         if the record was deleted or cannot be read
+	 */
+	synchronized HistoryRecord readEntry(int entry)
+		throws IOException
+	{
+		long offset = offsetAt(entry);
+		if (offset < 0)
+			throw new IOException("Deleted history record " + entry + " of " + directory);
+		return read(offset);
+	}
+
+	/**
+	 * Returns the number of records in the log.
+	 *
+	 * @return the number of records
+	 */
+	synchronized int getRecordCount()
+	{
+		return entryCount - deletedCount;
+	}
+
+	/**
+	 * Searches for the records with timestamp in [<code>startDate</code>, <code>endDate</code>) and containing all the
+	 * <code>keywords</code> in the property <code>field</code>.
+	 *
+	 * @param startDate
+	 *        the start of the period or <code>null</code>
+	 * @param endDate
+	 *        the end of the period or <code>null</code>
+	 * @param keywords
+	 *        the keywords to search for or <code>null</code>
+	 * @param field
+	 *        the property where to look for the keywords
+	 * @param caseSensitive
+	 *        is keywords search case sensitive
+	 * @param limit
+	 *        the maximum number of records to return, or -1 for all of them
+	 * @param fromEnd
+	 *        whether to return the newest records when limited, else the oldest ones
+	 * @return the index entries of the records found, in timestamp order
+	 * @throws IOException
+	 *         if a record or the token index cannot be read
+	 */
+	synchronized int[] find(Date startDate, Date endDate, String[] keywords, String field, boolean caseSensitive,
+		int limit, boolean fromEnd)
+		throws IOException
+	{
+		boolean filter = (keywords != null) && (keywords.length > 0);
+		// as with the xml history, records never match keywords of an unspecified field
+		if (filter && field == null)
+			return new int[0];
+
+		BitSet candidates = filter ? getCandidates(field, keywords) : null;
+		int from = lowerBound((startDate == null) ? Long.MIN_VALUE : startDate.getTime());
+		int to = Math.max(from, lowerBound((endDate == null) ? Long.MAX_VALUE : endDate.getTime()));
+		int max = (limit < 0) ? Integer.MAX_VALUE : limit;
+
+		int[] result = new int[Math.min(to - from, Math.min(max, 1024))];
+		int count = 0;
+		for (int i = 0; i < to - from && count < max; i++) {
+			int entry = entryAt(fromEnd ? to - 1 - i : from + i);
+			long offset = offsetAt(entry);
+			if (offset < 0 || (candidates != null && !candidates.get(entry)))
+				continue;
+
+			if (filter) {
+				String value = read(offset).getProperties().get(field);
+				if (value == null || !HistoryReaderImpl.matchKeyword(value, keywords, caseSensitive))
+					continue;
+			}
+
+			if (count == result.length)
+				result = Arrays.copyOf(result, count * 2);
+			result[count++] = entry;
+		}
+
+		result = Arrays.copyOf(result, count);
+		if (fromEnd) {
+			for (int i = 0, j = count - 1; i < j; i++, j--) {
+				int entry = result[i];
+				result[i] = result[j];
+				result[j] = entry;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Same as {@link #find} but returns the log offsets of the records, which stay valid while the log is open.
+	 */
+	synchronized long[] findOffsets(Date startDate, Date endDate, String[] keywords, String field,
+		boolean caseSensitive, int limit, boolean fromEnd)
+		throws IOException
+	{
+		int[] entries = find(startDate, endDate, keywords, field, caseSensitive, limit, fromEnd);
+		long[] offsets = new long[entries.length];
+		for (int i = 0; i < entries.length; i++)
+			offsets[i] = offsetAt(entries[i]);
+		return offsets;
+	}
+
+	/**
+	 * Returns the entry at the given position in timestamp order.
+	 */
+	private int entryAt(int position)
+	{
+		return (order == null) ? position : order[position];
+	}
+
+	/**
+	 * Returns the first position in timestamp order with a timestamp not before <code>timestamp</code>.
+	 */
+	private int lowerBound(long timestamp)
+	{
+		if (!sorted && order == null) {
+			Integer[] entries = new Integer[entryCount];
+			for (int i = 0; i < entryCount; i++)
+				entries[i] = i;
+			Arrays.sort(entries, (e1, e2) -> {
+				int result = Long.compare(timestampAt(e1), timestampAt(e2));
+				return (result != 0) ? result : Integer.compare(e1, e2);
+			});
+
+			order = new int[entryCount];
+			for (int i = 0; i < entryCount; i++)
+				order[i] = entries[i];
+		}
+
+		int low = 0;
+		int high = entryCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (timestampAt(entryAt(middle)) < timestamp)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the entries which may contain all the keywords in the given property: those holding, for each word of
+	 * each keyword, an indexed word containing it.
+	 */
+	private BitSet getCandidates(String field, String[] keywords)
+		throws IOException
+	{
+		if (postings == null)
+			loadPostings();
+
+		BitSet result = new BitSet(entryCount);
+		Map<String, Postings> fieldPostings = postings.get(field);
+		if (fieldPostings == null)
+			return result;
+
+		fieldPostings.get(ANY_TOKEN).addTo(result);
+		for (String keyword : keywords) {
+			for (String word : tokenize(keyword)) {
+				BitSet matching = new BitSet(entryCount);
+				for (Map.Entry<String, Postings> e : fieldPostings.entrySet()) {
+					String token = e.getKey();
+					if (LONG_TOKEN.equals(token) || (!ANY_TOKEN.equals(token) && token.contains(word)))
+						e.getValue().addTo(matching);
+				}
+				result.and(matching);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Loads the token index, then indexes the records it does not cover yet.
+	 */
+	private void loadPostings()
+		throws IOException
+	{
+		postings = new HashMap<>();
+		tokensChannel = new RandomAccessFile(new File(directory, TOKENS_FILE), "rw").getChannel();
+
+		int covered = 0;
+		tokensLength = TOKENS_HEADER_SIZE;
+		long size = tokensChannel.size();
+		if (size >= TOKENS_HEADER_SIZE) {
+			MappedByteBuffer tokens = tokensChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if (tokens.getInt() == TOKENS_MAGIC && tokens.getInt() == VERSION) {
+				covered = Math.min(tokens.getInt(), entryCount);
+				// the postings are written in entry order, the ones past the covered count are incomplete
+				try {
+					while (tokens.hasRemaining()) {
+						int entry = tokens.getInt();
+						if (entry >= covered)
+							break;
+						String field = readString(tokens);
+						getPostings(field, readString(tokens)).add(entry);
+						tokensLength = tokens.position();
+					}
+				}
+				catch (BufferUnderflowException e) {
+					Timber.w("Incomplete history token index %s", directory);
+				}
+			}
+		}
+
+		if (tokensLength < size)
+			tokensChannel.truncate(tokensLength);
+		write(tokensChannel, ByteBuffer.allocate(8).putInt(TOKENS_MAGIC).putInt(VERSION), 0);
+
+		for (int entry = covered; entry < entryCount; entry++) {
+			long offset = offsetAt(entry);
+			if (offset >= 0) {
+				HistoryRecord record = read(offset);
+				indexTokens(entry, record.getPropertyNames(), record.getPropertyValues());
+			}
+		}
+		write(tokensChannel, ByteBuffer.allocate(4).putInt(entryCount), 8);
+	}
+
+	/**
+	 * Adds the words of a record to the postings and appends them to the token index.
+	 */
+	private void indexTokens(int entry, String[] propertyNames, String[] propertyValues)
+		throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		for (int i = 0; i < propertyNames.length; i++) {
+			Set<String> tokens = new HashSet<>();
+			tokens.add(ANY_TOKEN);
+			for (String token : tokenize(propertyValues[i]))
+				tokens.add((token.length() > MAX_TOKEN_LENGTH) ? LONG_TOKEN : token);
+
+			for (String token : tokens) {
+				getPostings(propertyNames[i], token).add(entry);
+				out.writeInt(entry);
+				writeString(out, propertyNames[i]);
+				writeString(out, token);
+			}
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+		write(tokensChannel, buffer, tokensLength);
+		tokensLength += buffer.capacity();
+		write(tokensChannel, ByteBuffer.allocate(4).putInt(entry + 1), 8);
+	}
+
+	private Postings getPostings(String field, String token)
+	{
+		Map<String, Postings> fieldPostings = postings.get(field);
+		if (fieldPostings == null) {
+			fieldPostings = new HashMap<>();
+			postings.put(field, fieldPostings);
+		}
+
+		Postings result = fieldPostings.get(token);
+		if (result == null) {
+			result = new Postings();
+			fieldPostings.put(token, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Splits a value in its lower cased words. Characters are lower cased one by one, so that a value matching a
+	 * keyword, case sensitive or not, has words containing each lower cased word of the keyword.
+	 *
+	 * @param value
+	 *        the value to split
+	 * @return the words of the value
+	 */
+	static Set<String> tokenize(String value)
+	{
+		Set<String> tokens = new HashSet<>();
+		StringBuilder token = new StringBuilder();
+		for (int i = 0; i <= value.length(); i++) {
+			char c = (i < value.length()) ? value.charAt(i) : ' ';
+			if (Character.isLetterOrDigit(c)) {
+				token.append(Character.toLowerCase(c));
+			}
+			else if (token.length() > 0) {
+				tokens.add(token.toString());
+				token.setLength(0);
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * Returns whether the XML files of the history have been imported into the log.
+	 *
+	 * @return whether the XML files have been imported
+	 */
+	synchronized boolean isImported()
+	{
+		return (flags & FLAG_IMPORTED) != 0;
+	}
+
+	/**
+	 * Records that the XML files of the history have been imported into the log.
+	 *
+	 * @throws IOException
+	 *         if the log header cannot be written
+	 */
+	synchronized void setImported()
+		throws IOException
+	{
+		flags |= FLAG_IMPORTED;
+		write(logChannel, ByteBuffer.allocate(4).putInt(flags), 8);
+	}
+
+	/**
+	 * Deletes all the records of the log, e.g. the ones of an interrupted import.
+	 *
+	 * @throws IOException
+	 *         if the log cannot be recreated
+	 */
+	synchronized void clear()
+		throws IOException
+	{
+		close();
+		deleteFiles();
+		open();
+	}
+
+	/**
+	 * Rewrites the log without its deleted records and rebuilds the indexes. The compacted log is synced to
+	 * disk and renamed over the log, so that a crash at any point leaves either the old or the new log.
+	 */
+	private void compact()
+		throws IOException
+	{
+		Timber.i("Compacting history log %s: %d deleted of %d records", directory, deletedCount, entryCount);
+		File compacted = new File(directory, LOG_FILE + ".tmp");
+		try (FileChannel out = new RandomAccessFile(compacted, "rw").getChannel()) {
+			out.truncate(0);
+			write(out, ByteBuffer.allocate(LOG_HEADER_SIZE).putInt(LOG_MAGIC).putInt(VERSION).putInt(flags), 0);
+
+			long position = LOG_HEADER_SIZE;
+			for (int entry = 0; entry < entryCount; entry++) {
+				long offset = offsetAt(entry);
+				if (offset < 0)
+					continue;
+
+				int length = read(logChannel, offset + 1, 4).getInt();
+				ByteBuffer record = read(logChannel, offset, RECORD_HEADER_SIZE + length);
+				write(out, record, position);
+				position += record.capacity();
+			}
+			out.force(true);
+		}
+
+		close();
+		// The indexes hold offsets in the old log; they are rebuilt from whichever log is left
+		deleteIndexFiles();
+		if (!compacted.renameTo(new File(directory, LOG_FILE))) {
+			Timber.w("Could not replace history log %s, keeping it uncompacted", directory);
+			compacted.delete();
+		}
+		open();
+	}
+
+	private void deleteFiles()
+	{
+		new File(directory, LOG_FILE).delete();
+		deleteIndexFiles();
+	}
+
+	private void deleteIndexFiles()
+	{
+		new File(directory, INDEX_FILE).delete();
+		new File(directory, TOKENS_FILE).delete();
+	}
+
+	/**
+	 * Closes the log files.
+	 */
+	synchronized void close()
+	{
+		try {
+			logChannel.close();
+			indexChannel.close();
+			if (tokensChannel != null)
+				tokensChannel.close();
+		}
+		catch (IOException e) {
+			Timber.w("Could not close history log %s: %s", directory, e.getMessage());
+		}
+		tokensChannel = null;
+		postings = null;
+		order = null;
+	}
+
+	private static void writeString(DataOutputStream out, String value)
+		throws IOException
+	{
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer)
+	{
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static ByteBuffer read(FileChannel channel, long position, int length)
+		throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new EOFException();
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer, long position)
+		throws IOException
+	{
+		buffer.rewind();
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+
+	/**
+	 * The ascending index entries of the records holding a word.
+	 */
+	private static class Postings
+	{
+		private int[] entries = new int[4];
+
+		private int size;
+
+		void add(int entry)
+		{
+			if (size > 0 && entries[size - 1] == entry)
+				return;
+			if (size == entries.length)
+				entries = Arrays.copyOf(entries, size * 2);
+			entries[size++] = entry;
+		}
+
+		void addTo(BitSet set)
+		{
+			for (int i = 0; i < size; i++)
+				set.set(entries[i]);
+		}
+	}
+}
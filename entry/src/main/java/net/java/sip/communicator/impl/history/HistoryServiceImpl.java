@@ -310,10 +310,14 @@ public class HistoryServiceImpl implements HistoryService
             while (iter.hasNext()) {
                 Map.Entry<HistoryID, History> entry = iter.next();
                 if (isSubHistory(ids, entry.getKey())) {
+                    closeHistory(entry.getValue());
                     iter.remove();
                 }
             }
         }
+        else {
+            closeHistory(history);
+        }
     }
 
     /**
@@ -337,9 +341,22 @@ public class HistoryServiceImpl implements HistoryService
      */
     public void purgeLocallyCachedHistories()
     {
+        for (History history : histories.values())
+            closeHistory(history);
         histories.clear();
     }
 
+    /**
+     * Closes the record log of a history removed from the cached histories.
+     *
+     * @param history the history
+     */
+    private void closeHistory(History history)
+    {
+        if (history instanceof HistoryImpl)
+            ((HistoryImpl) history).close();
+    }
+
     /**
      * Checks the ids of the parent, do they exist in the supplied history ids. If it exist the
      * history is sub history
@@ -443,7 +460,7 @@ public class HistoryServiceImpl implements HistoryService
             throw new IOException("Cannot move history!");
         }
 
-        histories.remove(oldId);
+        closeHistory(histories.remove(oldId));
     }
 
     /**
@@ -524,7 +541,9 @@ public class HistoryServiceImpl implements HistoryService
             @Override
             public int compare(File o1, File o2)
             {
-                return o1.getName().compareTo(o2.getName());
+                // the record logs of all the histories have the same name
+                int result = o1.getName().compareTo(o2.getName());
+                return (result != 0) ? result : o1.compareTo(o2);
             }
         });
 
@@ -557,7 +576,9 @@ public class HistoryServiceImpl implements HistoryService
                 getExistingFiles(f, newRawID, res);
             }
             else {
-                if (f.getName().equals(DATA_FILE))
+                String name = f.getName();
+                if (name.equals(DATA_FILE) || name.equals(HistoryRecordLog.INDEX_FILE)
+                        || name.equals(HistoryRecordLog.TOKENS_FILE))
                     continue;
                 res.put(f, HistoryID.createFromRawStrings(rawID.toArray(new String[0])));
             }
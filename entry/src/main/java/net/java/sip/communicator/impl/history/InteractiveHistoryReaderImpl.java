@@ -5,23 +5,14 @@
  */
 package net.java.sip.communicator.impl.history;
 
-import static net.java.sip.communicator.service.history.HistoryService.DATE_FORMAT;
-
 import net.java.sip.communicator.service.history.HistoryQuery;
 import net.java.sip.communicator.service.history.InteractiveHistoryReader;
 import net.java.sip.communicator.service.history.event.HistoryQueryStatusEvent;
-import net.java.sip.communicator.service.history.records.HistoryRecord;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.IOException;
 import java.util.Date;
-import java.util.Iterator;
-import java.util.Locale;
-import java.util.Vector;
+
+import timber.log.Timber;
 
 /**
  * The <code>InteractiveHistoryReaderImpl</code> is an implementation of the
@@ -144,44 +135,19 @@ public class InteractiveHistoryReaderImpl implements InteractiveHistoryReader
 	private void find(Date startDate, Date endDate, String[] keywords, String field,
 			boolean caseSensitive, int resultCount, HistoryQueryImpl query)
 	{
-		Vector<String> fileList = HistoryReaderImpl.filterFilesByDate(history.getFileList(),
-				startDate, endDate, true);
-		Iterator<String> fileIterator = fileList.iterator();
-
-		SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT, Locale.US);
-		while (fileIterator.hasNext() && resultCount > 0 && !query.isCanceled()) {
-			String filename = fileIterator.next();
-			Document doc = history.getDocumentForFile(filename);
-
-			if (doc == null)
-				continue;
-
-			NodeList nodes = doc.getElementsByTagName("record");
-
-			for (int i = nodes.getLength() - 1; i >= 0 && !query.isCanceled(); i--) {
-				Node node = nodes.item(i);
-				Date timestamp;
-				String ts = node.getAttributes().getNamedItem("timestamp").getNodeValue();
-				try {
-					timestamp = sdf.parse(ts);
-				}
-				catch (ParseException e) {
-					timestamp = new Date(Long.parseLong(ts));
-				}
-
-				if (HistoryReaderImpl.isInPeriod(timestamp, startDate, endDate)) {
-					NodeList propertyNodes = node.getChildNodes();
-
-					HistoryRecord record = HistoryReaderImpl.filterByKeyword(propertyNodes,
-							timestamp, keywords, field, caseSensitive);
-
-					if (record != null) {
-						query.addHistoryRecord(record);
-						resultCount--;
-					}
-				}
+		try {
+			HistoryRecordLog log = history.getRecordLog();
+			long[] offsets = log.findOffsets(startDate, endDate, keywords, field, caseSensitive,
+					resultCount, true);
+
+			// most recent records first
+			for (int i = offsets.length - 1; i >= 0 && !query.isCanceled(); i--) {
+				query.addHistoryRecord(log.read(offsets[i]));
 			}
 		}
+		catch (IOException e) {
+			Timber.e(e, "Error occurred while searching history.");
+		}
 
 		if (query.isCanceled())
 			query.setStatus(HistoryQueryStatusEvent.QUERY_CANCELED);
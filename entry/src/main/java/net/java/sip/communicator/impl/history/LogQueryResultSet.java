@@ -0,0 +1,139 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license. See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import net.java.sip.communicator.service.history.QueryResultSet;
+import net.java.sip.communicator.service.history.records.HistoryRecord;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * A <code>QueryResultSet</code> over records of a {@link HistoryRecordLog}. It holds the log offsets of the records
+ * only and reads each record from the log when the iteration reaches it.
+ *
+ * @author Eng Chong Meng
+ */
+public class LogQueryResultSet implements QueryResultSet<HistoryRecord>
+{
+	private final HistoryRecordLog log;
+
+	private final long[] offsets;
+
+	private int currentPos = -1;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param log
+	 *        the log holding the records
+	 * @param offsets
+	 *        the log offsets of the records, in iteration order
+	 */
+	LogQueryResultSet(HistoryRecordLog log, long[] offsets) {
+		this.log = log;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * Returns <code>true</code> if the iteration has more elements.
+	 *
+	 * @return <code>true</code> if the iterator has more elements.
+	 */
+	public boolean hasNext()
+	{
+		return this.currentPos + 1 < this.offsets.length;
+	}
+
+	/**
+	 * Returns true if the iteration has elements preceeding the current one.
+	 *
+	 * @return true if the iterator has preceeding elements.
+	 */
+	public boolean hasPrev()
+	{
+		return this.currentPos - 1 >= 0;
+	}
+
+	/**
+	 * Returns the next element in the iteration.
+	 *
+	 * @return the next element in the iteration.
+	 */
+	public HistoryRecord next()
+	{
+		this.currentPos++;
+
+		if (this.currentPos >= this.offsets.length) {
+			throw new NoSuchElementException();
+		}
+
+		return read(this.currentPos);
+	}
+
+	/**
+	 * A strongly-typed variant of <code>next()</code>.
+	 *
+	 * @return the next history record.
+	 * @throws NoSuchElementException
+	 *         iteration has no more elements.
+	 */
+	public HistoryRecord nextRecord()
+		throws NoSuchElementException
+	{
+		return this.next();
+	}
+
+	/**
+	 * Returns the previous element in the iteration.
+	 *
+	 * @return the previous element in the iteration.
+	 * @throws NoSuchElementException
+	 *         iteration has no more elements.
+	 */
+	public HistoryRecord prev()
+		throws NoSuchElementException
+	{
+		this.currentPos--;
+
+		if (this.currentPos < 0) {
+			throw new NoSuchElementException();
+		}
+
+		return read(this.currentPos);
+	}
+
+	/**
+	 * A strongly-typed variant of <code>prev()</code>.
+	 *
+	 * @return the previous history record.
+	 * @throws NoSuchElementException
+	 *         iteration has no more elements.
+	 */
+	public HistoryRecord prevRecord()
+		throws NoSuchElementException
+	{
+		return this.prev();
+	}
+
+	/**
+	 * Removes from the underlying collection the last element returned by the iterator (optional operation).
+	 */
+	public void remove()
+	{
+		throw new UnsupportedOperationException("Cannot remove elements from underlaying collection.");
+	}
+
+	private HistoryRecord read(int position)
+	{
+		try {
+			return log.read(offsets[position]);
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Error occurred while reading history record.", e);
+		}
+	}
+}
@@ -34,15 +34,28 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.Hashtable;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.TreeSet;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import timber.log.Timber;
 
 /**
  * The Meta History Service is wrapper around the other known history services. Query them all at
  * once, sort the result and return all merged records in one collection.
+ * <p>
+ * The services are queried concurrently, each with the count limit of the query, and their sorted
+ * records are merged with a k-way merge which stops after the requested number of records. A search
+ * progress listener may cancel a search with {@link ProgressEvent#cancel()}; the search then returns
+ * no records.
  *
  * @author Damian Minkov
  * @author Eng Chong Meng
@@ -61,6 +74,26 @@ public class MetaHistoryServiceImpl implements MetaHistoryService, ServiceListen
 
     private final List<HistorySearchProgressListener> progressListeners = new ArrayList<>();
 
+    /**
+     * The count limit value for the queries returning all the records found.
+     */
+    private static final int NO_LIMIT = -1;
+
+    /**
+     * The interval in ms at which the progress of the concurrent service queries is fired.
+     */
+    private static final long PROGRESS_INTERVAL = 100;
+
+    /**
+     * The threads querying the wrapped history services concurrently. The progress listeners are never called
+     * on these threads, but on the thread of the search.
+     */
+    private static final ExecutorService queryExecutor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "MetaHistoryQuery");
+        t.setDaemon(true);
+        return t;
+    });
+
     /**
      * Returns all the records for the descriptor after the given date.
      *
@@ -71,35 +104,10 @@ public class MetaHistoryServiceImpl implements MetaHistoryService, ServiceListen
      */
     public Collection<Object> findByStartDate(String[] services, Object descriptor, Date startDate)
     {
-        MessageProgressWrapper listenWrapper = new MessageProgressWrapper(services.length);
-
-        TreeSet<Object> result = new TreeSet<>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++) {
-            String name = services[i];
-            Object serv = getService(name);
-            if (serv instanceof MessageHistoryService) {
-                MessageHistoryService mhs = (MessageHistoryService) serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
-                if (descriptor instanceof MetaContact) {
-                    result.addAll(mhs.findByStartDate((MetaContact) descriptor, startDate));
-                }
-                else if (descriptor instanceof ChatRoom) {
-                    result.addAll(mhs.findByStartDate((ChatRoom) descriptor, startDate));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
-            }
-            else if (serv instanceof CallHistoryService) {
-                CallHistoryService chs = (CallHistoryService) serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-                result.addAll(chs.findByStartDate(startDate));
-                chs.removeSearchProgressListener(listenWrapper);
-            }
-        }
-        listenWrapper.fireLastProgress(startDate, null, null);
-        return result;
+        return query(services, startDate, null, null, NO_LIMIT, false,
+                mhs -> (descriptor instanceof MetaContact) ? mhs.findByStartDate((MetaContact) descriptor, startDate)
+                        : (descriptor instanceof ChatRoom) ? mhs.findByStartDate((ChatRoom) descriptor, startDate) : null,
+                chs -> chs.findByStartDate(startDate));
     }
 
     /**
@@ -112,35 +120,10 @@ public class MetaHistoryServiceImpl implements MetaHistoryService, ServiceListen
      */
     public Collection<Object> findByEndDate(String[] services, Object descriptor, Date endDate)
     {
-        MessageProgressWrapper listenWrapper = new MessageProgressWrapper(services.length);
-
-        TreeSet<Object> result = new TreeSet<>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++) {
-            String name = services[i];
-            Object serv = getService(name);
-            if (serv instanceof MessageHistoryService) {
-                MessageHistoryService mhs = (MessageHistoryService) serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
-                if (descriptor instanceof MetaContact) {
-                    result.addAll(mhs.findByEndDate((MetaContact) descriptor, endDate));
-                }
-                else if (descriptor instanceof ChatRoom) {
-                    result.addAll(mhs.findByEndDate((ChatRoom) descriptor, endDate));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
-            }
-            else if (serv instanceof CallHistoryService) {
-                CallHistoryService chs = (CallHistoryService) serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-                result.addAll(chs.findByEndDate(endDate));
-                chs.removeSearchProgressListener(listenWrapper);
-            }
-        }
-        listenWrapper.fireLastProgress(null, endDate, null);
-        return result;
+        return query(services, null, endDate, null, NO_LIMIT, false,
+                mhs -> (descriptor instanceof MetaContact) ? mhs.findByEndDate((MetaContact) descriptor, endDate)
+                        : (descriptor instanceof ChatRoom) ? mhs.findByEndDate((ChatRoom) descriptor, endDate) : null,
+                chs -> chs.findByEndDate(endDate));
     }
 
     /**
@@ -154,37 +137,10 @@ public class MetaHistoryServiceImpl implements MetaHistoryService, ServiceListen
      */
     public Collection<Object> findByPeriod(String[] services, Object descriptor, Date startDate, Date endDate)
     {
-        MessageProgressWrapper listenWrapper = new MessageProgressWrapper(services.length);
-
-        LinkedList<Object> result = new LinkedList<>();
-        for (int i = 0; i < services.length; i++) {
-            String name = services[i];
-            Object serv = getService(name);
-            if (serv instanceof MessageHistoryService) {
-                MessageHistoryService mhs = (MessageHistoryService) serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
-                if (descriptor instanceof MetaContact) {
-                    result.addAll(mhs.findByPeriod((MetaContact) descriptor, startDate, endDate));
-                }
-                else if (descriptor instanceof ChatRoom) {
-                    result.addAll(mhs.findByPeriod((ChatRoom) descriptor, startDate, endDate));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
-            }
-            else if (serv instanceof CallHistoryService) {
-                CallHistoryService chs = (CallHistoryService) serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-                result.addAll(chs.findByPeriod(startDate, endDate));
-                chs.removeSearchProgressListener(listenWrapper);
-            }
-        }
-        listenWrapper.fireLastProgress(startDate, endDate, null);
-
-        Collections.sort(result, new RecordsComparator());
-        return result;
+        return query(services, startDate, endDate, null, NO_LIMIT, false,
+                mhs -> (descriptor instanceof MetaContact) ? mhs.findByPeriod((MetaContact) descriptor, startDate, endDate)
+                        : (descriptor instanceof ChatRoom) ? mhs.findByPeriod((ChatRoom) descriptor, startDate, endDate) : null,
+                chs -> chs.findByPeriod(startDate, endDate));
     }
 
     /**
@@ -217,41 +173,12 @@ public class MetaHistoryServiceImpl implements MetaHistoryService, ServiceListen
     public Collection<Object> findByPeriod(String[] services, Object descriptor, Date startDate,
             Date endDate, String[] keywords, boolean caseSensitive)
     {
-        MessageProgressWrapper listenWrapper = new MessageProgressWrapper(services.length);
-
-        TreeSet<Object> result = new TreeSet<>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++) {
-            String name = services[i];
-            Object serv = getService(name);
-            if (serv instanceof MessageHistoryService) {
-                MessageHistoryService mhs = (MessageHistoryService) serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
-                if (descriptor instanceof MetaContact) {
-                    result.addAll(mhs.findByPeriod((MetaContact) descriptor, startDate, endDate, keywords, caseSensitive));
-                }
-                else if (descriptor instanceof ChatRoom) {
-                    result.addAll(mhs.findByPeriod((ChatRoom) descriptor, startDate, endDate, keywords, caseSensitive));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
-            }
-            else if (serv instanceof CallHistoryService) {
-                CallHistoryService chs = (CallHistoryService) serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-                Collection<CallRecord> cs = chs.findByPeriod(startDate, endDate);
-
-                for (CallRecord callRecord : cs) {
-                    if (matchCallPeer(callRecord.getPeerRecords(), keywords, caseSensitive))
-                        result.add(callRecord);
-                }
-                chs.removeSearchProgressListener(listenWrapper);
-            }
-        }
-        listenWrapper.fireLastProgress(startDate, endDate, keywords);
-
-        return result;
+        return query(services, startDate, endDate, keywords, NO_LIMIT, false,
+                mhs -> (descriptor instanceof MetaContact)
+                        ? mhs.findByPeriod((MetaContact) descriptor, startDate, endDate, keywords, caseSensitive)
+                        : (descriptor instanceof ChatRoom)
+                        ? mhs.findByPeriod((ChatRoom) descriptor, startDate, endDate, keywords, caseSensitive) : null,
+                chs -> matchCallPeers(chs.findByPeriod(startDate, endDate), keywords, caseSensitive));
     }
 
     /**
@@ -305,42 +232,11 @@ public class MetaHistoryServiceImpl implements MetaHistoryService, ServiceListen
      */
     public Collection<Object> findByKeywords(String[] services, Object descriptor, String[] keywords, boolean caseSensitive)
     {
-        MessageProgressWrapper listenWrapper = new MessageProgressWrapper(services.length);
-
-        TreeSet<Object> result = new TreeSet<>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++) {
-            String name = services[i];
-            Object serv = getService(name);
-            if (serv instanceof MessageHistoryService) {
-                MessageHistoryService mhs = (MessageHistoryService) serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
-                if (descriptor instanceof MetaContact) {
-                    result.addAll(mhs.findByKeywords((MetaContact) descriptor, keywords, caseSensitive));
-                }
-                else if (descriptor instanceof ChatRoom) {
-                    result.addAll(mhs.findByKeywords((ChatRoom) descriptor, keywords, caseSensitive));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
-            }
-            else if (serv instanceof CallHistoryService) {
-                CallHistoryService chs = (CallHistoryService) serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-
+        return query(services, null, null, keywords, NO_LIMIT, false,
+                mhs -> (descriptor instanceof MetaContact) ? mhs.findByKeywords((MetaContact) descriptor, keywords, caseSensitive)
+                        : (descriptor instanceof ChatRoom) ? mhs.findByKeywords((ChatRoom) descriptor, keywords, caseSensitive) : null,
                 // this will get all call records
-                Collection<CallRecord> cs = chs.findByEndDate(new Date());
-
-                for (CallRecord callRecord : cs) {
-                    if (matchCallPeer(callRecord.getPeerRecords(), keywords, caseSensitive))
-                        result.add(callRecord);
-                }
-                chs.removeSearchProgressListener(listenWrapper);
-            }
-        }
-        listenWrapper.fireLastProgress(null, null, keywords);
-        return result;
+                chs -> matchCallPeers(chs.findByEndDate(new Date()), keywords, caseSensitive));
     }
 
     /**
@@ -353,42 +249,11 @@ public class MetaHistoryServiceImpl implements MetaHistoryService, ServiceListen
      */
     public Collection<Object> findLast(String[] services, Object descriptor, int count)
     {
-        MessageProgressWrapper listenWrapper = new MessageProgressWrapper(services.length);
-        TreeSet<Object> result = new TreeSet<>(new RecordsComparator());
-
-        for (int i = 0; i < services.length; i++) {
-            String name = services[i];
-            Object serv = getService(name);
-            if (serv instanceof MessageHistoryService) {
-                MessageHistoryService mhs = (MessageHistoryService) serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
-                // will also get fileHistory for metaContact and chatRoom
-                if (descriptor instanceof MetaContact) {
-                    result.addAll(mhs.findLast((MetaContact) descriptor, count));
-                }
-                else if (descriptor instanceof ChatRoom) {
-                    result.addAll(mhs.findLast((ChatRoom) descriptor, count));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
-            }
-            else if (serv instanceof CallHistoryService) {
-                CallHistoryService chs = (CallHistoryService) serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-                result.addAll(chs.findLast(count));
-                chs.removeSearchProgressListener(listenWrapper);
-            }
-        }
-        listenWrapper.fireLastProgress(null, null, null);
-
-        LinkedList<Object> resultAsList = new LinkedList<>(result);
-        int startIndex = resultAsList.size() - count;
-
-        if (startIndex < 0)
-            startIndex = 0;
-        return resultAsList.subList(startIndex, resultAsList.size());
+        // will also get fileHistory for metaContact and chatRoom
+        return query(services, null, null, null, count, true,
+                mhs -> (descriptor instanceof MetaContact) ? mhs.findLast((MetaContact) descriptor, count)
+                        : (descriptor instanceof ChatRoom) ? mhs.findLast((ChatRoom) descriptor, count) : null,
+                chs -> chs.findLast(count));
     }
 
     /**
@@ -402,50 +267,10 @@ public class MetaHistoryServiceImpl implements MetaHistoryService, ServiceListen
      */
     public Collection<Object> findFirstMessagesAfter(String[] services, Object descriptor, Date date, int count)
     {
-        MessageProgressWrapper listenWrapper = new MessageProgressWrapper(services.length);
-
-        TreeSet<Object> result = new TreeSet<>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++) {
-            String name = services[i];
-            Object serv = getService(name);
-            if (serv instanceof MessageHistoryService) {
-                MessageHistoryService mhs = (MessageHistoryService) serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
-                if (descriptor instanceof MetaContact) {
-                    result.addAll(mhs.findFirstMessagesAfter((MetaContact) descriptor, date, count));
-                }
-                else if (descriptor instanceof ChatRoom) {
-                    result.addAll(mhs.findFirstMessagesAfter((ChatRoom) descriptor, date, count));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
-            }
-            else if (serv instanceof CallHistoryService) {
-                CallHistoryService chs = (CallHistoryService) serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-
-                Collection<CallRecord> col = chs.findByStartDate(date);
-                if (col.size() > count) {
-                    // before we make a sublist make sure there are sorted in the right order
-                    List<CallRecord> l = new LinkedList<>(col);
-                    Collections.sort(l, new RecordsComparator());
-                    result.addAll(l.subList(0, count));
-                }
-                else
-                    result.addAll(col);
-                chs.removeSearchProgressListener(listenWrapper);
-            }
-        }
-        listenWrapper.fireLastProgress(date, null, null);
-        LinkedList<Object> resultAsList = new LinkedList<>(result);
-
-        int toIndex = count;
-        if (toIndex > resultAsList.size())
-            toIndex = resultAsList.size();
-
-        return resultAsList.subList(0, toIndex);
+        return query(services, date, null, null, count, false,
+                mhs -> (descriptor instanceof MetaContact) ? mhs.findFirstMessagesAfter((MetaContact) descriptor, date, count)
+                        : (descriptor instanceof ChatRoom) ? mhs.findFirstMessagesAfter((ChatRoom) descriptor, date, count) : null,
+                chs -> chs.findFirstCallsAfter(date, count));
     }
 
     /**
@@ -459,48 +284,184 @@ public class MetaHistoryServiceImpl implements MetaHistoryService, ServiceListen
      */
     public Collection<Object> findLastMessagesBefore(String[] services, Object descriptor, Date date, int count)
     {
-        MessageProgressWrapper listenWrapper = new MessageProgressWrapper(services.length);
+        return query(services, date, null, null, count, true,
+                mhs -> (descriptor instanceof MetaContact) ? mhs.findLastMessagesBefore((MetaContact) descriptor, date, count)
+                        : (descriptor instanceof ChatRoom) ? mhs.findLastMessagesBefore((ChatRoom) descriptor, date, count) : null,
+                chs -> chs.findLastCallsBefore(date, count));
+    }
 
-        TreeSet<Object> result = new TreeSet<>(new RecordsComparator());
+    /**
+     * Queries the given services concurrently and merges their records in time order.
+     *
+     * @param services the services classNames we will query
+     * @param startDate the start date of the search condition, for the progress events
+     * @param endDate the end date of the search condition, for the progress events
+     * @param keywords the keywords of the search condition, for the progress events
+     * @param limit the maximum number of records to return, or {@link #NO_LIMIT}
+     * @param fromEnd <code>true</code> to return the last <code>limit</code> records, else the first ones
+     * @param mhsQuery the query of a message history service; returns <code>null</code> for an unknown descriptor
+     * @param chsQuery the query of a call history service
+     * @return the records sorted by time; empty if the search is cancelled by a progress listener
+     */
+    private List<Object> query(String[] services, Date startDate, Date endDate, String[] keywords, int limit,
+            boolean fromEnd, ServiceQuery<MessageHistoryService> mhsQuery, ServiceQuery<CallHistoryService> chsQuery)
+    {
+        SearchState state = new SearchState(services.length, startDate, endDate, keywords);
+        List<Callable<List<Object>>> tasks = new ArrayList<>();
         for (int i = 0; i < services.length; i++) {
-            String name = services[i];
-            Object serv = getService(name);
+            Object serv = getService(services[i]);
+            MessageProgressWrapper listenWrapper = new MessageProgressWrapper(services.length, i, state);
             if (serv instanceof MessageHistoryService) {
                 MessageHistoryService mhs = (MessageHistoryService) serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
-                if (descriptor instanceof MetaContact) {
-                    result.addAll(mhs.findLastMessagesBefore((MetaContact) descriptor, date, count));
-                }
-                else if (descriptor instanceof ChatRoom) {
-                    result.addAll(mhs.findLastMessagesBefore((ChatRoom) descriptor, date, count));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
+                tasks.add(() -> {
+                    mhs.addSearchProgressListener(listenWrapper);
+                    try {
+                        return orderedRecords(mhsQuery.find(mhs));
+                    } finally {
+                        mhs.removeSearchProgressListener(listenWrapper);
+                    }
+                });
             }
             else if (serv instanceof CallHistoryService) {
                 CallHistoryService chs = (CallHistoryService) serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
+                tasks.add(() -> {
+                    chs.addSearchProgressListener(listenWrapper);
+                    try {
+                        return orderedRecords(chsQuery.find(chs));
+                    } finally {
+                        chs.removeSearchProgressListener(listenWrapper);
+                    }
+                });
+            }
+        }
+
+        List<List<Object>> results = new ArrayList<>();
+        if (tasks.size() == 1) {
+            try {
+                results.add(tasks.get(0).call());
+            } catch (Exception e) {
+                Timber.e(e, "History query failed");
+            }
+        }
+        else if (!tasks.isEmpty()) {
+            // The progress of the services is queued, and fired on this thread while waiting for the results
+            state.queueProgress();
+            List<Future<List<Object>>> futures = new ArrayList<>();
+            for (Callable<List<Object>> task : tasks)
+                futures.add(queryExecutor.submit(task));
+
+            try {
+                for (Future<List<Object>> future : futures) {
+                    while (!state.isCancelled()) {
+                        try {
+                            results.add(future.get(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS));
+                            break;
+                        } catch (TimeoutException e) {
+                            state.fireQueuedProgress();
+                        } catch (ExecutionException e) {
+                            Timber.e(e.getCause(), "History query failed");
+                            break;
+                        }
+                    }
+                    if (state.isCancelled())
+                        break;
 
-                Collection<CallRecord> col = chs.findByEndDate(date);
-                if (col.size() > count) {
-                    List<CallRecord> l = new LinkedList<>(col);
-                    result.addAll(l.subList(l.size() - count, l.size()));
+                    state.fireQueuedProgress();
+                    state.serviceCompleted();
+                    if (state.isCancelled())
+                        break;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                state.cancel();
+            } finally {
+                if (state.isCancelled()) {
+                    for (Future<List<Object>> future : futures)
+                        future.cancel(true);
                 }
-                else
-                    result.addAll(col);
-                chs.removeSearchProgressListener(listenWrapper);
             }
         }
-        listenWrapper.fireLastProgress(date, null, null);
 
-        LinkedList<Object> resultAsList = new LinkedList<>(result);
-        int startIndex = resultAsList.size() - count;
-        if (startIndex < 0)
-            startIndex = 0;
+        if (state.isCancelled())
+            return new ArrayList<>();
 
-        return resultAsList.subList(startIndex, resultAsList.size());
+        state.fireLastProgress();
+        return merge(results, new RecordsComparator(), limit, fromEnd);
+    }
+
+    /**
+     * Returns the records of a service in time order, for the merge. The records are taken as returned when
+     * already in time order, e.g. the count limited queries, or reversed when in reverse time order, e.g. the
+     * call records sets; only the records of the unordered queries, e.g. the message period queries, are sorted.
+     */
+    private static List<Object> orderedRecords(Collection<?> records)
+    {
+        if (records == null)
+            return Collections.emptyList();
+
+        List<Object> list = new ArrayList<>(records);
+        Comparator<Object> comparator = new RecordsComparator();
+        boolean ascending = true;
+        boolean descending = true;
+        for (int i = 1; i < list.size() && (ascending || descending); i++) {
+            int c = comparator.compare(list.get(i - 1), list.get(i));
+            if (c > 0)
+                ascending = false;
+            else if (c < 0)
+                descending = false;
+        }
+        if (!ascending) {
+            if (descending)
+                Collections.reverse(list);
+            else
+                Collections.sort(list, comparator);
+        }
+        return list;
+    }
+
+    /**
+     * Bounded k-way merge of the sorted records of each service; stops after <code>limit</code> records.
+     * Records of the same time keep the order of the services.
+     *
+     * @param lists the records of each service, each sorted by <code>comparator</code>
+     * @param comparator the records order
+     * @param limit the maximum number of records to return, or {@link #NO_LIMIT}
+     * @param fromEnd <code>true</code> to merge from the end of the lists, i.e. return the last records
+     * @return the merged records, sorted by <code>comparator</code>
+     */
+    static List<Object> merge(List<List<Object>> lists, Comparator<Object> comparator, int limit, boolean fromEnd)
+    {
+        int total = 0;
+        for (List<Object> list : lists)
+            total += list.size();
+        int size = (limit == NO_LIMIT) ? total : Math.min(limit, total);
+
+        // Heads of each list: {list index, position}
+        PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, lists.size()), (a, b) -> {
+            int c = comparator.compare(lists.get(a[0]).get(a[1]), lists.get(b[0]).get(b[1]));
+            if (c == 0)
+                c = Integer.compare(a[0], b[0]);
+            return fromEnd ? -c : c;
+        });
+        for (int i = 0; i < lists.size(); i++) {
+            List<Object> list = lists.get(i);
+            if (!list.isEmpty())
+                heads.add(new int[]{i, fromEnd ? list.size() - 1 : 0});
+        }
+
+        ArrayList<Object> result = new ArrayList<>(size);
+        while (result.size() < size) {
+            int[] head = heads.poll();
+            List<Object> list = lists.get(head[0]);
+            result.add(list.get(head[1]));
+
+            head[1] += fromEnd ? -1 : 1;
+            if (head[1] >= 0 && head[1] < list.size())
+                heads.add(head);
+        }
+        if (fromEnd)
+            Collections.reverse(result);
+        return result;
     }
 
     /**
@@ -582,6 +543,20 @@ public class MetaHistoryServiceImpl implements MetaHistoryService, ServiceListen
         return false;
     }
 
+    /**
+     * Returns the call records having a call peer matching all the keywords.
+     */
+    private List<CallRecord> matchCallPeers(Collection<CallRecord> callRecords, String[] keywords,
+            boolean caseSensitive)
+    {
+        List<CallRecord> result = new ArrayList<>();
+        for (CallRecord callRecord : callRecords) {
+            if (matchCallPeer(callRecord.getPeerRecords(), keywords, caseSensitive))
+                result.add(callRecord);
+        }
+        return result;
+    }
+
     public void serviceChanged(ServiceEvent serviceEvent)
     {
         if (serviceEvent.getType() == ServiceEvent.UNREGISTERING) {
@@ -647,35 +622,109 @@ public class MetaHistoryServiceImpl implements MetaHistoryService, ServiceListen
         }
     }
 
-    private class MessageProgressWrapper implements MessageHistorySearchProgressListener, CallHistorySearchProgressListener
+    /**
+     * A query of one history service.
+     */
+    private interface ServiceQuery<S>
+    {
+        Collection<?> find(S service);
+    }
+
+    /**
+     * The progress and cancellation state of a search over all the services.
+     */
+    private class SearchState
     {
         private final int count;
 
-        private int ix;
+        private final Date startDate;
+
+        private final Date endDate;
+
+        private final String[] keywords;
+
+        private int completed = 0;
 
-        public MessageProgressWrapper(int count)
+        private volatile boolean cancelled = false;
+
+        /**
+         * The progress events of the services queried concurrently, to be fired on the thread of the search;
+         * <code>null</code> to fire them on the thread of the service query.
+         */
+        private volatile Queue<ProgressEvent> queuedEvents = null;
+
+        SearchState(int count, Date startDate, Date endDate, String[] keywords)
         {
             this.count = count;
+            this.startDate = startDate;
+            this.endDate = endDate;
+            this.keywords = keywords;
         }
 
-        public void setIx(int ix)
+        boolean isCancelled()
         {
-            this.ix = ix;
+            return cancelled;
         }
 
-        private void fireProgress(int origProgress, int maxVal, Date startDate, Date endDate, String[] keywords)
+        void cancel()
         {
-            ProgressEvent ev = new ProgressEvent(MetaHistoryServiceImpl.this, startDate, endDate, keywords);
+            cancelled = true;
+        }
 
-            double part1 = origProgress / ((double) maxVal * count);
-            double convProgress = part1 * HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE
-                    + ix * HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE / count;
+        /**
+         * Fires the progress of the services completed so far.
+         */
+        void serviceCompleted()
+        {
+            completed++;
+            if (completed < count) {
+                ProgressEvent ev = new ProgressEvent(MetaHistoryServiceImpl.this, startDate, endDate, keywords);
+                ev.setProgress(completed * HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE / count);
+                fireEvent(ev);
+            }
+        }
 
-            ev.setProgress((int) convProgress);
+        /**
+         * Queues the progress of the services for {@link #fireQueuedProgress()}, instead of firing it.
+         */
+        void queueProgress()
+        {
+            queuedEvents = new ConcurrentLinkedQueue<>();
+        }
+
+        /**
+         * Fires the progress of a service, or queues it if the services are queried concurrently.
+         */
+        void serviceProgress(ProgressEvent ev)
+        {
+            Queue<ProgressEvent> queue = queuedEvents;
+            if (queue != null)
+                queue.add(ev);
+            else
+                fireEvent(ev);
+        }
+
+        /**
+         * Fires the progress queued by the services so far; called on the thread of the search.
+         */
+        void fireQueuedProgress()
+        {
+            ProgressEvent ev;
+            while (!cancelled && (ev = queuedEvents.poll()) != null)
+                fireEvent(ev);
+        }
+
+        void fireLastProgress()
+        {
+            ProgressEvent ev = new ProgressEvent(MetaHistoryServiceImpl.this, startDate, endDate, keywords);
+            ev.setProgress(HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE);
             fireEvent(ev);
         }
 
-        private void fireEvent(ProgressEvent ev)
+        /**
+         * Fires the event to the search progress listeners; any of them may cancel the search.
+         */
+        void fireEvent(ProgressEvent ev)
         {
             Iterable<HistorySearchProgressListener> listeners;
             synchronized (progressListeners) {
@@ -683,14 +732,37 @@ public class MetaHistoryServiceImpl implements MetaHistoryService, ServiceListen
             }
             for (HistorySearchProgressListener listener : listeners)
                 listener.progressChanged(ev);
+
+            if (ev.isCancelled())
+                cancel();
+        }
+    }
+
+    private class MessageProgressWrapper implements MessageHistorySearchProgressListener, CallHistorySearchProgressListener
+    {
+        private final int count;
+
+        private final int ix;
+
+        private final SearchState state;
+
+        public MessageProgressWrapper(int count, int ix, SearchState state)
+        {
+            this.count = count;
+            this.ix = ix;
+            this.state = state;
         }
 
-        public void fireLastProgress(Date startDate, Date endDate, String[] keywords)
+        private void fireProgress(int origProgress, int maxVal, Date startDate, Date endDate, String[] keywords)
         {
             ProgressEvent ev = new ProgressEvent(MetaHistoryServiceImpl.this, startDate, endDate, keywords);
-            ev.setProgress(HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE);
 
-            fireEvent(ev);
+            double part1 = origProgress / ((double) maxVal * count);
+            double convProgress = part1 * HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE
+                    + ix * HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE / count;
+
+            ev.setProgress((int) convProgress);
+            state.serviceProgress(ev);
         }
 
         public void progressChanged(
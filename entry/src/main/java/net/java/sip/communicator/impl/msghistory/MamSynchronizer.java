@@ -0,0 +1,275 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.msghistory;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import net.java.sip.communicator.service.protocol.ProtocolProviderService;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.atalk.ohos.gui.chat.ChatSession;
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smackx.forward.packet.Forwarded;
+import org.jivesoftware.smackx.mam.MamManager;
+import org.jivesoftware.smackx.muc.MultiUserChat;
+import org.jivesoftware.smackx.muc.MultiUserChatManager;
+import org.jivesoftware.smackx.omemo.OmemoManager;
+import org.jxmpp.jid.EntityBareJid;
+import org.jxmpp.jid.EntityFullJid;
+import org.jxmpp.jid.impl.JidCreate;
+import org.jxmpp.stringprep.XmppStringprepException;
+
+import timber.log.Timber;
+
+/**
+ * Synchronizes the server message archive (XEP-0313) of all the chat sessions of an account into the
+ * history database when the account has registered, instead of a single page fetched when a chat is opened.
+ * <p>
+ * Each chat session is paged through the archive from its own cursor, the chat session mam date, and each page
+ * is saved with {@link MessageHistoryServiceImpl#saveMamPage}, which looks up all the already stored messages
+ * of the page at once and inserts the new messages and advances the cursor in one transaction. An interrupted
+ * sync hence resumes from the last page saved.
+ *
+ * @author Eng Chong Meng
+ */
+public class MamSynchronizer {
+    /**
+     * The number of messages requested per mam page.
+     */
+    private static final int PAGE_SIZE = 100;
+
+    /**
+     * The single thread running the syncs of all accounts, to keep the database writes sequential.
+     */
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "MamSynchronizer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * The account Uuids with a sync queued or in progress.
+     */
+    private final Set<String> syncingAccounts = Collections.synchronizedSet(new HashSet<>());
+
+    private final MessageHistoryServiceImpl mMHS;
+
+    private final SQLiteDatabase mDB;
+
+    private final AtomicLong sessionCount = new AtomicLong();
+    private final AtomicLong pageCount = new AtomicLong();
+    private final AtomicLong fetchedCount = new AtomicLong();
+    private final AtomicLong insertedCount = new AtomicLong();
+    private final AtomicLong syncTime = new AtomicLong();
+
+    MamSynchronizer(MessageHistoryServiceImpl mhs, SQLiteDatabase db) {
+        mMHS = mhs;
+        mDB = db;
+    }
+
+    /**
+     * Queues the sync of all the chat sessions of the given account; ignored if one is already pending.
+     *
+     * @param pps the registered protocol provider
+     */
+    public void sync(ProtocolProviderService pps) {
+        String accountUuid = pps.getAccountID().getAccountUuid();
+        if (syncingAccounts.add(accountUuid)) {
+            executor.execute(() -> {
+                try {
+                    syncAccount(pps, accountUuid);
+                } catch (RuntimeException e) {
+                    Timber.e(e, "Mam sync failed: %s", pps.getAccountID());
+                } finally {
+                    syncingAccounts.remove(accountUuid);
+                }
+            });
+        }
+    }
+
+    private void syncAccount(ProtocolProviderService pps, String accountUuid) {
+        XMPPConnection connection = pps.getConnection();
+        EntityFullJid userJid = pps.getOurJid();
+        if (connection == null || userJid == null || !connection.isAuthenticated())
+            return;
+
+        long startTime = System.currentTimeMillis();
+        long fetched = fetchedCount.get();
+        long inserted = insertedCount.get();
+
+        OmemoManager omemoManager = OmemoManager.getInstanceFor(connection);
+        MultiUserChatManager mucManager = MultiUserChatManager.getInstanceFor(connection);
+        MamManager userMamManager = MamManager.getInstanceFor(connection, null);
+
+        String[] columns = {ChatSession.SESSION_UUID, ChatSession.ENTITY_JID, ChatSession.MODE};
+        String[] args = {accountUuid};
+        Cursor cursor = mDB.query(ChatSession.TABLE_NAME, columns, ChatSession.ACCOUNT_UUID + "=?",
+                args, null, null, null);
+        List<String[]> sessions = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            sessions.add(new String[]{cursor.getString(0), cursor.getString(1), cursor.getString(2)});
+        }
+        cursor.close();
+
+        try {
+            if (!userMamManager.isSupported())
+                return;
+
+            for (String[] session : sessions) {
+                if (!connection.isAuthenticated())
+                    break;
+
+                EntityBareJid jid = JidCreate.entityBareFrom(session[1]);
+                MamManager mamManager;
+                if (Integer.toString(ChatSession.MODE_MULTI).equals(session[2])) {
+                    // The room archive is only accessible to the joined members
+                    MultiUserChat muc = mucManager.getMultiUserChat(jid);
+                    if (!muc.isJoined())
+                        continue;
+                    mamManager = MamManager.getInstanceFor(muc);
+                }
+                else {
+                    mamManager = userMamManager;
+                }
+                syncSession(omemoManager, mamManager, session[0], jid, userJid);
+                sessionCount.incrementAndGet();
+            }
+        } catch (SmackException.NoResponseException | XMPPException.XMPPErrorException
+                 | SmackException.NotConnectedException | SmackException.NotLoggedInException
+                 | XmppStringprepException | InterruptedException e) {
+            Timber.e("Mam sync: %s", e.getMessage());
+        }
+
+        long elapsed = System.currentTimeMillis() - startTime;
+        syncTime.addAndGet(elapsed);
+        fetched = fetchedCount.get() - fetched;
+        Timber.d("Mam sync %s: %d sessions; fetched %d; inserted %d in %d ms (%d msg/s)", pps.getAccountID(),
+                sessions.size(), fetched, insertedCount.get() - inserted, elapsed,
+                (elapsed > 0) ? fetched * 1000 / elapsed : fetched);
+    }
+
+    /**
+     * Pages through the archive of a chat session from its cursor until the archive is complete.
+     */
+    private void syncSession(OmemoManager omemoManager, MamManager mamManager, String sessionUuid,
+            EntityBareJid jid, EntityFullJid userJid)
+            throws SmackException.NoResponseException, XMPPException.XMPPErrorException,
+            SmackException.NotConnectedException, SmackException.NotLoggedInException, InterruptedException {
+        // Resume from the later of the mam date and the last message received; default to the last 7 days.
+        Date lmrDate = mMHS.getLastMessageDateForSessionUuid(sessionUuid);
+        Date mamDate = mMHS.getMamDate(sessionUuid);
+        if ((lmrDate != null) && (mamDate != null) && mamDate.before(lmrDate)) {
+            mamDate = lmrDate;
+        }
+        if (mamDate == null) {
+            Calendar c = Calendar.getInstance(TimeZone.getDefault());
+            c.add(Calendar.DAY_OF_MONTH, -7);
+            mamDate = c.getTime();
+        }
+
+        MamManager.MamQueryArgs mamQueryArgs = MamManager.MamQueryArgs.builder()
+                .limitResultsToJid(jid)
+                .limitResultsSince(mamDate)
+                .setResultPageSizeTo(PAGE_SIZE)
+                .build();
+
+        // The omemo stanza listeners are left running: they only act on the omemo messages received live, not
+        // on the ones forwarded in the mam results, which saveMamPage decrypts in sync with the live messages.
+        MamManager.MamQuery query = mamManager.queryArchive(mamQueryArgs);
+        List<Forwarded<Message>> forwardedList = query.getPage().getForwarded();
+        while (true) {
+            pageCount.incrementAndGet();
+            if (!forwardedList.isEmpty()) {
+                fetchedCount.addAndGet(forwardedList.size());
+                insertedCount.addAndGet(mMHS.saveMamPage(omemoManager, sessionUuid, userJid, forwardedList, null));
+            }
+            if (query.isComplete())
+                break;
+            query.pageNext(PAGE_SIZE);
+            forwardedList = query.getPage().getForwarded();
+        }
+    }
+
+    /**
+     * Returns the number of chat sessions synchronized.
+     *
+     * @return the number of chat sessions synchronized
+     */
+    public long getSessionCount() {
+        return sessionCount.get();
+    }
+
+    /**
+     * Returns the number of mam pages fetched.
+     *
+     * @return the number of mam pages fetched
+     */
+    public long getPageCount() {
+        return pageCount.get();
+    }
+
+    /**
+     * Returns the number of mam messages fetched.
+     *
+     * @return the number of mam messages fetched
+     */
+    public long getFetchedCount() {
+        return fetchedCount.get();
+    }
+
+    /**
+     * Returns the number of new messages saved.
+     *
+     * @return the number of new messages saved
+     */
+    public long getInsertedCount() {
+        return insertedCount.get();
+    }
+
+    /**
+     * Returns the number of mam messages fetched but already in the history, or sent by own self.
+     *
+     * @return the number of skipped mam messages
+     */
+    public long getSkippedCount() {
+        return fetchedCount.get() - insertedCount.get();
+    }
+
+    /**
+     * Returns the total time spent in syncs, in milliseconds.
+     *
+     * @return the total sync time in ms
+     */
+    public long getSyncTime() {
+        return syncTime.get();
+    }
+}
@@ -19,6 +19,7 @@ package net.java.sip.communicator.impl.msghistory;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.text.TextUtils;
 
 import java.beans.PropertyChangeEvent;
@@ -26,6 +27,7 @@ import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -108,6 +110,7 @@ import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smackx.delay.packet.DelayInformation;
 import org.jivesoftware.smackx.forward.packet.Forwarded;
 import org.jivesoftware.smackx.omemo.OmemoManager;
 import org.jivesoftware.smackx.omemo.OmemoMessage;
@@ -154,6 +157,21 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
      */
     private static final String ORDER_ASC = ChatMessage.TIME_STAMP + " ASC";
     private static final String ORDER_DESC = ChatMessage.TIME_STAMP + " DESC";
+
+    /**
+     * Maximum number of arguments in a single SQL query; SQLite default SQLITE_MAX_VARIABLE_NUMBER is 999.
+     */
+    private static final int MAX_SQL_ARGS = 500;
+
+    /**
+     * Prepared insert of a mam message; same columns as written by {@link #writeMessageToDB(IMessage, String, int)}.
+     */
+    private static final String INSERT_MAM_MESSAGE = "INSERT OR IGNORE INTO " + ChatMessage.TABLE_NAME + " ("
+            + ChatMessage.SESSION_UUID + ", " + ChatMessage.TIME_STAMP + ", " + ChatMessage.ENTITY_JID + ", "
+            + ChatMessage.JID + ", " + ChatMessage.UUID + ", " + ChatMessage.MSG_BODY + ", "
+            + ChatMessage.ENC_TYPE + ", " + ChatMessage.CARBON + ", " + ChatMessage.DIRECTION + ", "
+            + ChatMessage.MSG_TYPE + ", " + ChatMessage.STATUS + ", " + ChatMessage.SERVER_MSG_ID + ", "
+            + ChatMessage.REMOTE_MSG_ID + ", " + ChatMessage.READ + ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
     /**
      * Indicates if history logging is enabled.
      */
@@ -185,6 +203,21 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
     private SQLiteDatabase mDB;
     private final ContentValues contentValues = new ContentValues();
 
+    /**
+     * The full-text search index of the message bodies.
+     */
+    private MessageSearchIndex mSearchIndex;
+
+    /**
+     * The background sync of the server message archive into the history.
+     */
+    private MamSynchronizer mMamSynchronizer;
+
+    /**
+     * The last message summary of the chat sessions.
+     */
+    private RecentConversations mRecentConversations;
+
     /**
      * Starts the service. Check the current registered protocol providers which supports
      * BasicIM and adds message listener to them
@@ -195,6 +228,12 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         this.bundleContext = bc;
         mDB = DatabaseBackend.getWritableDB();
 
+        // Index in background the messages of a database created before the search index
+        mSearchIndex = new MessageSearchIndex(mDB);
+        new Thread(mSearchIndex::backfill, "MessageSearchIndex").start();
+        mMamSynchronizer = new MamSynchronizer(this, mDB);
+        mRecentConversations = new RecentConversations(mDB);
+
         ServiceReference<?> refConfig = bundleContext.getServiceReference(ConfigurationService.class.getName());
         configService = (ConfigurationService) bundleContext.getService(refConfig);
 
@@ -552,8 +591,13 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
             while (cursor.moveToNext()) {
                 result.add(convertHistoryRecordToMessageEvent(cursor, contact));
             }
+            cursor.close();
         }
         result.sort(new MessageEventComparator<>());
+
+        // Keep only the last count messages of all the contacts
+        while (result.size() > count)
+            result.removeFirst();
         return result;
     }
 
@@ -797,6 +841,27 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         return mDB.update(ChatSession.TABLE_NAME, contentValues, ChatSession.SESSION_UUID + "=?", args);
     }
 
+    /**
+     * Sync in background the server message archive of all the chat sessions of the given account
+     * into the history database.
+     *
+     * @param pps the registered protocol provider
+     */
+    public void syncMamArchive(ProtocolProviderService pps) {
+        if (isHistoryLoggingEnabled() && (mMamSynchronizer != null)) {
+            mMamSynchronizer.sync(pps);
+        }
+    }
+
+    /**
+     * Returns the server message archive synchronizer, e.g. for its sync statistics.
+     *
+     * @return the <code>MamSynchronizer</code>
+     */
+    public MamSynchronizer getMamSynchronizer() {
+        return mMamSynchronizer;
+    }
+
     public void saveMamIfNotExit(OmemoManager omemoManager, ChatPanel chatPanel, List<Forwarded<Message>> forwardedList) {
         String chatId;
         Object descriptor = chatPanel.getDescriptor();
@@ -807,10 +872,33 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
             chatId = getSessionUuidByJid(((MetaContact) descriptor).getDefaultContact());
         }
         EntityFullJid userJid = chatPanel.getProtocolProvider().getOurJid();
+        saveMamPage(omemoManager, chatId, userJid, forwardedList, chatPanel);
+    }
 
-        Date timeStamp = new Date();
+    /**
+     * Save a page of mam messages not yet in the database, together with the session mam date, in a single
+     * transaction. The messages already stored are found with one lookup for the whole page.
+     *
+     * @param omemoManager to decrypt the omemo messages
+     * @param chatId the chat session Uuid of the messages
+     * @param userJid our own jid
+     * @param forwardedList the page of mam messages
+     * @param chatPanel the chatPanel to cache the new messages in when history logging is disabled; may be null
+     *
+     * @return the number of new messages saved
+     */
+    int saveMamPage(OmemoManager omemoManager, String chatId, EntityFullJid userJid,
+            List<Forwarded<Message>> forwardedList, ChatPanel chatPanel) {
+        // The newest <delay/> stamp seen in the page; the mam date is left unchanged if there is none
+        Date timeStamp = null;
+        List<Forwarded<Message>> candidates = new ArrayList<>();
+        List<String> msgIds = new ArrayList<>();
         for (Forwarded<Message> forwarded : forwardedList) {
             Message msg = forwarded.getForwardedStanza();
+            DelayInformation delayInfo = forwarded.getDelayInformation();
+            if (delayInfo != null && (timeStamp == null || delayInfo.getStamp().after(timeStamp))) {
+                timeStamp = delayInfo.getStamp();
+            }
 
             // Skip all messages that are being sent by own self
             Jid sender = msg.getFrom();
@@ -831,50 +919,168 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
                 continue;
             }
             // mam messages always sent as <delay/>
-            timeStamp = forwarded.getDelayInformation().getStamp();
+            if (delayInfo == null) {
+                continue;
+            }
+            candidates.add(forwarded);
+            msgIds.add(msgId);
+        }
 
-            String[] args = {msgId, chatId};
-            Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null, ChatMessage.UUID
-                    + "=? AND " + ChatMessage.SESSION_UUID + "=?", args, null, null, null);
-            int msgCount = cursor.getCount();
-            cursor.close();
+        // Proceed only with the mam messages not found in database, nor earlier in this page.
+        Set<String> existingIds = findExistingMessageUuids(msgIds);
+        List<MamRecord> records = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            String msgId = msgIds.get(i);
+            if (!existingIds.add(msgId)) {
+                continue;
+            }
 
-            // Proceed only if mam message is not found in database.
-            if (msgCount == 0) {
-                IMessage iMessage = null;
-
-                if (msg.hasExtension(OmemoElement.NAME_ENCRYPTED, OmemoConstants.OMEMO_NAMESPACE_V_AXOLOTL)) {
-                    OmemoElement omemoElement =
-                            (OmemoElement) msg.getExtensionElement(OmemoElement.NAME_ENCRYPTED, OmemoConstants.OMEMO_NAMESPACE_V_AXOLOTL);
-                    try {
-                        OmemoMessage.Received oReceive = omemoManager.decrypt(sender.asBareJid(), omemoElement);
-                        iMessage = new MessageJabberImpl(oReceive.getBody(), iMessage.ENCRYPTION_OMEMO, null, msgId);
-                    } catch (SmackException.NotLoggedInException | CorruptedOmemoKeyException | NoRawSessionException
-                             | CryptoFailedException | IOException | IllegalArgumentException e) {
-                        Timber.e("Omemo decrypt message (%s): %s", msgId, e.getMessage());
+            Message msg = candidates.get(i).getForwardedStanza();
+            Jid sender = msg.getFrom();
+            IMessage iMessage = null;
+            if (msg.hasExtension(OmemoElement.NAME_ENCRYPTED, OmemoConstants.OMEMO_NAMESPACE_V_AXOLOTL)) {
+                OmemoElement omemoElement =
+                        (OmemoElement) msg.getExtensionElement(OmemoElement.NAME_ENCRYPTED, OmemoConstants.OMEMO_NAMESPACE_V_AXOLOTL);
+                try {
+                    // Serialize with the live omemo messages decryption, which is synchronized on the manager
+                    OmemoMessage.Received oReceive;
+                    synchronized (omemoManager) {
+                        oReceive = omemoManager.decrypt(sender.asBareJid(), omemoElement);
                     }
+                    iMessage = new MessageJabberImpl(oReceive.getBody(), IMessage.ENCRYPTION_OMEMO, null, msgId);
+                } catch (SmackException.NotLoggedInException | CorruptedOmemoKeyException | NoRawSessionException
+                         | CryptoFailedException | IOException | IllegalArgumentException e) {
+                    Timber.e("Omemo decrypt message (%s): %s", msgId, e.getMessage());
+                }
+            }
+            else {
+                iMessage = new MessageJabberImpl(msg.getBody(), IMessage.ENCRYPTION_NONE, null, msgId);
+            }
+
+            if (iMessage != null) {
+                String direction = userJid.asBareJid().isParentOf(sender) ? ChatMessage.DIR_OUT : ChatMessage.DIR_IN;
+                int msgType = (Message.Type.groupchat == msg.getType()) ? ChatMessage.MESSAGE_ACTION : ChatMessage.MESSAGE_IN;
+                Date msgTimeStamp = candidates.get(i).getDelayInformation().getStamp();
+                if (isHistoryLoggingEnabled()) {
+                    records.add(new MamRecord(sender, iMessage, msgTimeStamp, direction, msgType));
                 }
-                else {
-                    iMessage = new MessageJabberImpl(msg.getBody(), iMessage.ENCRYPTION_NONE, null, msgId);
+                else if (chatPanel != null) {
+                    String fromJid = sender.toString();
+                    chatPanel.cacheNextMsg(new ChatMessageImpl(fromJid, fromJid, msgTimeStamp,
+                            msgType, iMessage, null, direction));
                 }
+                // Timber.d("Message body# %s: (%s) %s => %s", sender, msgId, msgTimeStamp, iMessage.getContent());
+            }
+        }
 
-                if (iMessage != null) {
-                    String direction = userJid.asBareJid().isParentOf(sender) ? ChatMessage.DIR_OUT : ChatMessage.DIR_IN;
-                    int msgType = (Message.Type.groupchat == msg.getType()) ? ChatMessage.MESSAGE_ACTION : ChatMessage.MESSAGE_IN;
-                    if (isHistoryLoggingEnabled()) {
-                        writeMessage(chatId, direction, sender, iMessage, timeStamp, msgType);
-                    }
-                    else {
-                        String fromJid = sender.toString();
-                        chatPanel.cacheNextMsg(new ChatMessageImpl(fromJid, fromJid, timeStamp,
-                                msgType, iMessage, null, direction));
-                    }
-                    // Timber.d("Message body# %s: (%s) %s => %s", sender, msgId, timeStamp, iMessage.getContent());
+        // Save the new messages and the last mam retrieval timeStamp
+        return insertMamRecords(chatId, records, timeStamp);
+    }
+
+    /**
+     * Returns the given message Uuids which are already in the database, in a single query.
+     *
+     * @param msgUuids the message Uuids to look up
+     *
+     * @return the Uuids found; a modifiable set
+     */
+    private Set<String> findExistingMessageUuids(List<String> msgUuids) {
+        Set<String> existingIds = new HashSet<>();
+        // stay within the SQLite host parameters limit
+        for (int start = 0; start < msgUuids.size(); start += MAX_SQL_ARGS) {
+            List<String> ids = msgUuids.subList(start, Math.min(start + MAX_SQL_ARGS, msgUuids.size()));
+            String[] columns = {ChatMessage.UUID};
+            String inClause = TextUtils.join(",", Collections.nCopies(ids.size(), "?"));
+            Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, columns, ChatMessage.UUID + " IN (" + inClause + ")",
+                    ids.toArray(new String[0]), null, null, null);
+            while (cursor.moveToNext()) {
+                existingIds.add(cursor.getString(0));
+            }
+            cursor.close();
+        }
+        return existingIds;
+    }
+
+    /**
+     * Insert the mam messages and update the session mam date in one transaction, using a prepared statement.
+     * The mam date is the chat session sync cursor; it only advances together with the messages saved.
+     * A message already saved meanwhile, e.g. by the chat window mam query, is ignored instead of failing the page.
+     *
+     * @param chatId the chat session Uuid
+     * @param records the new mam messages
+     * @param mamDate the last mam message timeStamp; null to leave the session mam date unchanged
+     *
+     * @return the number of messages inserted
+     */
+    private int insertMamRecords(String chatId, List<MamRecord> records, Date mamDate) {
+        int inserted = 0;
+        mDB.beginTransaction();
+        try {
+            if (!records.isEmpty()) {
+                SQLiteStatement insert = mDB.compileStatement(INSERT_MAM_MESSAGE);
+                for (MamRecord record : records) {
+                    // Strip off the resourcePart
+                    String jid = record.sender.toString();
+                    String entityJid = jid.replaceAll("(\\w+)/.*", "$1");
+                    IMessage message = record.message;
+                    boolean isOut = ChatMessage.DIR_OUT.equals(record.direction);
+
+                    insert.clearBindings();
+                    bindString(insert, 1, chatId);
+                    insert.bindLong(2, record.timeStamp.getTime());
+                    bindString(insert, 3, entityJid);
+                    bindString(insert, 4, jid);
+                    bindString(insert, 5, message.getMessageUID());
+                    bindString(insert, 6, message.getContent());
+                    insert.bindLong(7, message.getEncType());
+                    insert.bindLong(8, message.isCarbon() ? 1 : 0);
+                    bindString(insert, 9, record.direction);
+                    insert.bindLong(10, record.msgType);
+                    insert.bindLong(11, isOut ? ChatMessage.MESSAGE_OUT : ChatMessage.MESSAGE_IN);
+                    bindString(insert, 12, isOut ? message.getServerMsgId() : null);
+                    bindString(insert, 13, isOut ? message.getRemoteMsgId() : message.getMessageUID());
+                    insert.bindLong(14, isOut ? ChatMessage.MESSAGE_DELIVERY_CLIENT_SENT : 0);
+                    if (insert.executeInsert() != -1)
+                        inserted++;
                 }
+                insert.close();
             }
+            if (mamDate != null) {
+                ContentValues values = new ContentValues();
+                values.put(ChatSession.MAM_DATE, Long.toString(mamDate.getTime() + 10));
+                mDB.update(ChatSession.TABLE_NAME, values, ChatSession.SESSION_UUID + "=?", new String[]{chatId});
+            }
+            mDB.setTransactionSuccessful();
+        } finally {
+            mDB.endTransaction();
+        }
+        return inserted;
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null)
+            statement.bindNull(index);
+        else
+            statement.bindString(index, value);
+    }
+
+    /**
+     * A new mam message to be saved.
+     */
+    private static class MamRecord {
+        final Jid sender;
+        final IMessage message;
+        final Date timeStamp;
+        final String direction;
+        final int msgType;
+
+        MamRecord(Jid sender, IMessage message, Date timeStamp, String direction, int msgType) {
+            this.sender = sender;
+            this.message = message;
+            this.timeStamp = timeStamp;
+            this.direction = direction;
+            this.msgType = msgType;
         }
-        // Save the last mam retrieval timeStamp
-        setMamDate(chatId, timeStamp);
     }
 
     // ============== End mam Message utilities ======================
@@ -892,80 +1098,30 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
      */
     public Collection<EventObject> findRecentMessagesPerContact(int count, String providerToFilter,
             String contactToFilter, boolean isSMSEnabled) {
-        String sessionUuid;
-        String accountUuid;
-        String entityJid;
-        String whereCondition = "";
-        String[] args = {};
-        Cursor cursorMsg;
-        Object descriptor;
         LinkedList<EventObject> result = new LinkedList<>();
 
         // Timber.i("Find recent message for: " + providerToFilter + " -> " + contactToFilter);
-        List<String> argList = new ArrayList<>();
-        if (StringUtils.isNotEmpty(providerToFilter)) {
-            whereCondition = ChatSession.ACCOUNT_UID + "=?";
-            argList.add(providerToFilter);
-        }
-        if (StringUtils.isNotEmpty(contactToFilter)) {
-            if (StringUtils.isNotEmpty(whereCondition))
-                whereCondition += " AND ";
-            whereCondition += ChatSession.ENTITY_JID + "=?";
-            argList.add(contactToFilter);
-        }
-        if (argList.size() > 0)
-            args = argList.toArray(new String[0]);
-
-        Cursor cursor = mDB.query(ChatSession.TABLE_NAME, null, whereCondition, args, null,
-                null, null);
-
-        // Iterate over all the found sessionsUuid for the given accountUuid
+        // The last message of each chatSession, most recent first, in a single query
+        Cursor cursor = mRecentConversations.query(providerToFilter, contactToFilter, isSMSEnabled);
         while (cursor.moveToNext()) {
             if (result.size() >= count)
                 break;
 
-            sessionUuid = cursor.getString(cursor.getColumnIndexOrThrow(ChatSession.SESSION_UUID));
-            // skip for null sessionUuid i.e. message from non-persistent contact e.g server announcement.
-            if (StringUtils.isEmpty(sessionUuid))
-                continue;
-
-            accountUuid = cursor.getString(cursor.getColumnIndexOrThrow(ChatSession.ACCOUNT_UUID));
-            entityJid = cursor.getString(cursor.getColumnIndexOrThrow(ChatSession.ENTITY_JID));
+            String accountUuid = cursor.getString(cursor.getColumnIndexOrThrow(RecentConversations.SESSION_ACCOUNT_UUID));
+            String entityJid = cursor.getString(cursor.getColumnIndexOrThrow(RecentConversations.SESSION_ENTITY_JID));
 
             // find contact or chatRoom for given contactJid; skip if not found contacts,
             // disabled accounts and hidden one
-            descriptor = getContactOrRoomByID(accountUuid, entityJid, isSMSEnabled);
-            if (descriptor == null)
-                continue;
-
-            whereCondition = ChatMessage.SESSION_UUID + "=?";
-            argList.clear();
-            argList.add(sessionUuid);
-            if (isSMSEnabled) {
-                whereCondition += " AND (" + ChatMessage.MSG_TYPE + "=? OR " + ChatMessage.MSG_TYPE + "=?)";
-                argList.add(String.valueOf(ChatMessage.MESSAGE_SMS_IN));
-                argList.add(String.valueOf(ChatMessage.MESSAGE_SMS_OUT));
+            Object descriptor = getContactOrRoomByID(accountUuid, entityJid, isSMSEnabled);
+            if (descriptor instanceof Contact) {
+                result.add(convertHistoryRecordToMessageEvent(cursor, (Contact) descriptor));
             }
-            args = argList.toArray(new String[0]);
-
-            cursorMsg = mDB.query(ChatMessage.TABLE_NAME, null, whereCondition, args,
-                    null, null, ORDER_DESC, String.valueOf(count));
-
-
-            while (cursorMsg.moveToNext()) {
-                if (descriptor instanceof Contact) {
-                    EventObject o = convertHistoryRecordToMessageEvent(cursorMsg, (Contact) descriptor);
-                    result.add(o);
-                }
-                if (descriptor instanceof ChatRoom) {
-                    EventObject o = convertHistoryRecordToMessageEvent(cursorMsg, (ChatRoom) descriptor);
-                    result.add(o);
-                }
+            else if (descriptor instanceof ChatRoom) {
+                result.add(convertHistoryRecordToMessageEvent(cursor, (ChatRoom) descriptor));
             }
-            cursorMsg.close();
         }
-
         cursor.close();
+
         result.sort(new MessageEventComparator<>());
         return result;
     }
@@ -1882,21 +2038,18 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         HashSet<EventObject> result = new HashSet<>();
         String startTimeStamp = String.valueOf(startDate.getTime());
         String endTimeStamp = String.valueOf(endDate.getTime());
-        StringBuilder filterLike = new StringBuilder("( ");
-        for (String word : keywords) {
-            filterLike.append(ChatMessage.MSG_BODY + " LIKE '%").append(word).append("%' OR ");
-        }
-        filterLike = new StringBuilder(filterLike.substring(0, filterLike.length() - 4) + " )");
 
         Iterator<Contact> contacts = metaContact.getContacts();
         while (contacts.hasNext()) {
             Contact contact = contacts.next();
             String sessionUuid = getSessionUuidByJid(contact);
-            String[] args = {sessionUuid, startTimeStamp, endTimeStamp};
+            List<String> args = new ArrayList<>(Arrays.asList(sessionUuid, startTimeStamp, endTimeStamp));
+            String filter = mSearchIndex.keywordFilter(keywords, args);
 
             Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null,
                     ChatMessage.SESSION_UUID + "=? AND " + ChatMessage.TIME_STAMP + ">=? AND "
-                            + ChatMessage.TIME_STAMP + "<? AND " + filterLike, args, null, null, ORDER_ASC);
+                            + ChatMessage.TIME_STAMP + "<? AND " + filter, args.toArray(new String[0]),
+                    null, null, ORDER_ASC);
 
             while (cursor.moveToNext()) {
                 result.add(convertHistoryRecordToMessageEvent(cursor, contact));
@@ -1917,23 +2070,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
      */
     public Collection<EventObject> findByKeyword(MetaContact metaContact, String keyword,
             boolean caseSensitive) {
-        HashSet<EventObject> result = new HashSet<>();
-        String filterLike = "( " + ChatMessage.MSG_BODY + " LIKE '%" + keyword + "%' )";
-
-        Iterator<Contact> contacts = metaContact.getContacts();
-        while (contacts.hasNext()) {
-            Contact contact = contacts.next();
-            String sessionUuid = getSessionUuidByJid(contact);
-            String[] args = {sessionUuid};
-
-            Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null,
-                    ChatMessage.SESSION_UUID + "=? AND " + filterLike, args, null, null, ORDER_ASC);
-
-            while (cursor.moveToNext()) {
-                result.add(convertHistoryRecordToMessageEvent(cursor, contact));
-            }
-        }
-        return result;
+        return findByKeywords(metaContact, new String[]{keyword}, caseSensitive);
     }
 
     /**
@@ -1949,20 +2086,17 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
     public Collection<EventObject> findByKeywords(MetaContact metaContact,
             String[] keywords, boolean caseSensitive) {
         HashSet<EventObject> result = new HashSet<>();
-        StringBuilder filterLike = new StringBuilder("( ");
-        for (String word : keywords) {
-            filterLike.append(ChatMessage.MSG_BODY + " LIKE '%").append(word).append("%' OR ");
-        }
-        filterLike = new StringBuilder(filterLike.substring(0, filterLike.length() - 4) + " )");
 
         Iterator<Contact> contacts = metaContact.getContacts();
         while (contacts.hasNext()) {
             Contact contact = contacts.next();
             String sessionUuid = getSessionUuidByJid(contact);
-            String[] args = {sessionUuid};
+            List<String> args = new ArrayList<>(Collections.singletonList(sessionUuid));
+            String filter = mSearchIndex.keywordFilter(keywords, args);
 
             Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null,
-                    ChatMessage.SESSION_UUID + "=? AND " + filterLike, args, null, null, ORDER_ASC);
+                    ChatMessage.SESSION_UUID + "=? AND " + filter, args.toArray(new String[0]),
+                    null, null, ORDER_ASC);
 
             while (cursor.moveToNext()) {
                 result.add(convertHistoryRecordToMessageEvent(cursor, contact));
@@ -2079,16 +2213,13 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         String startTimeStamp = String.valueOf(startDate.getTime());
         String endTimeStamp = String.valueOf(endDate.getTime());
         String sessionUuid = getSessionUuidByJid(room);
-        String[] args = {sessionUuid, startTimeStamp, endTimeStamp};
-        StringBuilder filterLike = new StringBuilder("( ");
-        for (String word : keywords) {
-            filterLike.append(ChatMessage.MSG_BODY + " LIKE '%").append(word).append("%' OR ");
-        }
-        filterLike = new StringBuilder(filterLike.substring(0, filterLike.length() - 4) + " )");
+        List<String> args = new ArrayList<>(Arrays.asList(sessionUuid, startTimeStamp, endTimeStamp));
+        String filter = mSearchIndex.keywordFilter(keywords, args);
 
         Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null,
                 ChatMessage.SESSION_UUID + "=? AND " + ChatMessage.TIME_STAMP + ">=? AND "
-                        + ChatMessage.TIME_STAMP + "<? AND " + filterLike, args, null, null, ORDER_ASC);
+                        + ChatMessage.TIME_STAMP + "<? AND " + filter, args.toArray(new String[0]),
+                null, null, ORDER_ASC);
 
         while (cursor.moveToNext()) {
             result.add(convertHistoryRecordToMessageEvent(cursor, room));
@@ -2120,18 +2251,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
      */
     public Collection<EventObject> findByKeyword(ChatRoom room, String keyword,
             boolean caseSensitive) {
-        HashSet<EventObject> result = new HashSet<>();
-        String sessionUuid = getSessionUuidByJid(room);
-        String[] args = {sessionUuid};
-        String filterLike = "( " + ChatMessage.MSG_BODY + " LIKE '%" + keyword + "%' )";
-
-        Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null,
-                ChatMessage.SESSION_UUID + "=? AND " + filterLike, args, null, null, ORDER_ASC);
-
-        while (cursor.moveToNext()) {
-            result.add(convertHistoryRecordToMessageEvent(cursor, room));
-        }
-        return result;
+        return findByKeywords(room, new String[]{keyword}, caseSensitive);
     }
 
     /**
@@ -2160,15 +2280,12 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
     public Collection<EventObject> findByKeywords(ChatRoom room, String[] keywords, boolean caseSensitive) {
         HashSet<EventObject> result = new HashSet<>();
         String sessionUuid = getSessionUuidByJid(room);
-        String[] args = {sessionUuid};
-        StringBuilder filterLike = new StringBuilder("( ");
-        for (String word : keywords) {
-            filterLike.append(ChatMessage.MSG_BODY + " LIKE '%").append(word).append("%' OR ");
-        }
-        filterLike = new StringBuilder(filterLike.substring(0, filterLike.length() - 4) + " )");
+        List<String> args = new ArrayList<>(Collections.singletonList(sessionUuid));
+        String filter = mSearchIndex.keywordFilter(keywords, args);
 
         Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null,
-                ChatMessage.SESSION_UUID + "=? AND " + filterLike, args, null, null, ORDER_ASC);
+                ChatMessage.SESSION_UUID + "=? AND " + filter, args.toArray(new String[0]),
+                null, null, ORDER_ASC);
 
         while (cursor.moveToNext()) {
             result.add(convertHistoryRecordToMessageEvent(cursor, room));
@@ -0,0 +1,241 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.msghistory;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.List;
+
+import org.atalk.ohos.gui.chat.ChatMessage;
+
+import timber.log.Timber;
+
+/**
+ * Full-text search index over the bodies of the {@link ChatMessage#TABLE_NAME} records, replacing
+ * the <code>msgBody LIKE '%keyword%'</code> table scans of the history search.
+ * <p>
+ * The index is an FTS4 shadow table with <code>docid</code> equal to the <code>rowid</code> of the
+ * message; it is maintained by triggers on the messages table, so that all the services writing
+ * messages keep it up to date. FTS4 is used as FTS5 is not available in the Android framework SQLite.
+ * <p>
+ * An existing database is migrated incrementally: the migration only creates the index, the triggers
+ * and a watermark of the messages present; {@link #backfill()} then indexes those messages in small
+ * batches in the background. Until the backfill completes, the searches fall back to escaped and
+ * parameterised <code>LIKE</code> clauses.
+ *
+ * @author Eng Chong Meng
+ */
+public final class MessageSearchIndex {
+    /**
+     * The FTS4 table indexing the message bodies.
+     */
+    public static final String TABLE_NAME = "messages_fts";
+
+    /**
+     * The single row table holding the backfill progress of an existing database.
+     */
+    public static final String STATE_TABLE_NAME = "messages_fts_state";
+    private static final String BACKFILL_NEXT = "backfillNext";
+    private static final String BACKFILL_END = "backfillEnd";
+
+    /**
+     * The number of messages indexed per backfill transaction.
+     */
+    private static final int BACKFILL_BATCH = 2000;
+
+    private final SQLiteDatabase mDB;
+
+    /**
+     * <code>true</code> once all the messages are indexed.
+     */
+    private volatile boolean isReady = false;
+
+    public MessageSearchIndex(SQLiteDatabase db) {
+        mDB = db;
+    }
+
+    /**
+     * Creates the index, its triggers and the backfill watermark. Called when the database is
+     * created, and by the migration of an existing database.
+     *
+     * @param db the database, within the create or upgrade transaction
+     */
+    public static void createIndex(SQLiteDatabase db) {
+        try {
+            db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE_NAME + " USING fts4("
+                    + ChatMessage.MSG_BODY + ", tokenize=unicode61)");
+        } catch (SQLException e) {
+            Timber.w("FTS4 unicode61 tokenizer is not available, use simple: %s", e.getMessage());
+            db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE_NAME + " USING fts4("
+                    + ChatMessage.MSG_BODY + ")");
+        }
+
+        // Requires recursive_triggers for the rows deleted by the messages' ON CONFLICT REPLACE
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TABLE_NAME + "_ai AFTER INSERT ON "
+                + ChatMessage.TABLE_NAME + " BEGIN INSERT OR REPLACE INTO " + TABLE_NAME
+                + "(docid, " + ChatMessage.MSG_BODY + ") VALUES (new.rowid, new." + ChatMessage.MSG_BODY + "); END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TABLE_NAME + "_ad AFTER DELETE ON "
+                + ChatMessage.TABLE_NAME + " BEGIN DELETE FROM " + TABLE_NAME
+                + " WHERE docid = old.rowid; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TABLE_NAME + "_au AFTER UPDATE OF " + ChatMessage.MSG_BODY
+                + " ON " + ChatMessage.TABLE_NAME + " BEGIN UPDATE " + TABLE_NAME + " SET "
+                + ChatMessage.MSG_BODY + " = new." + ChatMessage.MSG_BODY + " WHERE docid = old.rowid; END");
+
+        // All messages up to the current max rowid are indexed by the backfill
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + STATE_TABLE_NAME + " ("
+                + BACKFILL_NEXT + " INTEGER, " + BACKFILL_END + " INTEGER)");
+        db.execSQL("DELETE FROM " + STATE_TABLE_NAME);
+        db.execSQL("INSERT INTO " + STATE_TABLE_NAME + " SELECT 0, IFNULL(MAX(rowid), 0) FROM "
+                + ChatMessage.TABLE_NAME);
+    }
+
+    /**
+     * Indexes the messages which existed before the index was created, in batches of
+     * {@link #BACKFILL_BATCH} messages each committed in its own transaction, so that the backfill
+     * resumes where it stopped when the application is killed.
+     */
+    public void backfill() {
+        long start = System.currentTimeMillis();
+        long count = 0;
+        try {
+            while (true) {
+                mDB.beginTransaction();
+                try {
+                    long next, end;
+                    try (Cursor cursor = mDB.rawQuery("SELECT " + BACKFILL_NEXT + ", " + BACKFILL_END
+                            + " FROM " + STATE_TABLE_NAME, null)) {
+                        if (!cursor.moveToFirst())
+                            break;
+                        next = cursor.getLong(0);
+                        end = cursor.getLong(1);
+                    }
+                    if (next >= end)
+                        break;
+
+                    long batchEnd = Math.min(next + BACKFILL_BATCH, end);
+                    String[] args = {Long.toString(next), Long.toString(batchEnd)};
+                    mDB.execSQL("INSERT OR REPLACE INTO " + TABLE_NAME + "(docid, " + ChatMessage.MSG_BODY
+                            + ") SELECT rowid, " + ChatMessage.MSG_BODY + " FROM " + ChatMessage.TABLE_NAME
+                            + " WHERE rowid > ? AND rowid <= ? AND " + ChatMessage.MSG_BODY + " IS NOT NULL", args);
+                    mDB.execSQL("UPDATE " + STATE_TABLE_NAME + " SET " + BACKFILL_NEXT + " = ?",
+                            new Object[]{batchEnd});
+                    mDB.setTransactionSuccessful();
+                    count += batchEnd - next;
+                } finally {
+                    mDB.endTransaction();
+                }
+            }
+            isReady = true;
+            if (count > 0) {
+                Timber.i("Message search index backfilled %d rows in %d ms", count,
+                        System.currentTimeMillis() - start);
+            }
+        } catch (SQLException e) {
+            Timber.e(e, "Message search index backfill failed; use LIKE search");
+        }
+    }
+
+    /**
+     * Returns <code>true</code> when all the messages are indexed.
+     *
+     * @return <code>true</code> when the index can be used for the searches
+     */
+    public boolean isReady() {
+        return isReady;
+    }
+
+    /**
+     * Returns the selection clause on the messages table for the messages having any of the given
+     * keywords, and appends its arguments to <code>args</code>.
+     *
+     * @param keywords the keywords; see {@link #toMatchQuery(String[])}
+     * @param args the selection arguments of the query
+     *
+     * @return the selection clause, to be AND'ed with the other clauses
+     */
+    public String keywordFilter(String[] keywords, List<String> args) {
+        String match = isReady ? toMatchQuery(keywords) : null;
+        if (match != null) {
+            args.add(match);
+            return "( rowid IN (SELECT docid FROM " + TABLE_NAME + " WHERE " + TABLE_NAME + " MATCH ?) )";
+        }
+
+        // Fallback while backfilling: parameterised LIKE with the wildcards escaped
+        StringBuilder filterLike = new StringBuilder("( ");
+        for (String word : keywords) {
+            if (filterLike.length() > 2)
+                filterLike.append(" OR ");
+            filterLike.append(ChatMessage.MSG_BODY).append(" LIKE ? ESCAPE '\\'");
+            args.add("%" + word.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%");
+        }
+        return filterLike.append(" )").toString();
+    }
+
+    /**
+     * Converts the user keywords into an FTS query matching any of them. Each keyword is a prefix
+     * query on all its words, to be close to the former <code>LIKE '%keyword%'</code>; a keyword
+     * enclosed in double quotes is an exact phrase. The FTS query syntax characters are removed,
+     * so that the keywords can never alter the query.
+     *
+     * @param keywords the keywords
+     *
+     * @return the FTS query, or <code>null</code> if the keywords hold no searchable word
+     */
+    static String toMatchQuery(String[] keywords) {
+        StringBuilder query = new StringBuilder();
+        for (String keyword : keywords) {
+            if (keyword == null)
+                continue;
+
+            String kw = keyword.trim();
+            boolean isPhrase = kw.length() > 1 && kw.startsWith("\"") && kw.endsWith("\"");
+            StringBuilder phrase = new StringBuilder();
+            for (String word : kw.split("\\s+")) {
+                String token = toToken(word);
+                if (token.isEmpty())
+                    continue;
+                if (phrase.length() > 0)
+                    phrase.append(' ');
+                phrase.append(token);
+                if (!isPhrase)
+                    phrase.append('*');
+            }
+            if (phrase.length() == 0)
+                continue;
+
+            if (query.length() > 0)
+                query.append(" OR ");
+            query.append('"').append(phrase).append('"');
+        }
+        return (query.length() == 0) ? null : query.toString();
+    }
+
+    /**
+     * Keeps only the letters and digits of a word, the characters the tokenizer indexes.
+     */
+    private static String toToken(String word) {
+        StringBuilder token = new StringBuilder(word.length());
+        for (int i = 0; i < word.length(); ) {
+            int cp = word.codePointAt(i);
+            token.appendCodePoint(Character.isLetterOrDigit(cp) ? cp : ' ');
+            i += Character.charCount(cp);
+        }
+        return token.toString().trim().replaceAll("\\s+", " ");
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.msghistory;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.apache.commons.lang3.StringUtils;
+import org.atalk.ohos.gui.chat.ChatMessage;
+import org.atalk.ohos.gui.chat.ChatSession;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Summary of the chat sessions for the recent conversations list: the last message and its time stamp of
+ * each session, so that the list is read with one indexed query instead of one messages query per chat
+ * session.
+ * <p>
+ * The summary table is maintained by triggers on the messages table, in the same way as the
+ * {@link MessageSearchIndex}, so that all the services writing messages keep it up to date.
+ *
+ * @author Eng Chong Meng
+ */
+public final class RecentConversations {
+    /**
+     * The table holding one summary row per chat session having messages.
+     */
+    public static final String TABLE_NAME = "recentSessions";
+    public static final String LAST_MESSAGE_ID = "lastMessageId";   // rowid of the last message
+
+    /**
+     * The column aliases of the chat session values in the cursor returned by {@link #query}.
+     */
+    public static final String SESSION_ACCOUNT_UUID = "sessionAccountUuid";
+    public static final String SESSION_ENTITY_JID = "sessionEntityJid";
+
+    /**
+     * The index of the messages of a session in time order; used by all the per session history queries.
+     */
+    private static final String MESSAGES_SESSION_INDEX = "messages_session_time_idx";
+
+    private final SQLiteDatabase mDB;
+
+    public RecentConversations(SQLiteDatabase db) {
+        mDB = db;
+    }
+
+    /**
+     * Creates the composite index of the messages, the summary table and its triggers, and fills the
+     * summary from the existing messages. Called when the database is created, and by the migration of
+     * an existing database.
+     *
+     * @param db the database, within the create or upgrade transaction
+     */
+    public static void createTables(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + MESSAGES_SESSION_INDEX + " ON " + ChatMessage.TABLE_NAME
+                + "(" + ChatMessage.SESSION_UUID + ", " + ChatMessage.TIME_STAMP + ")");
+
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " ("
+                + ChatSession.SESSION_UUID + " TEXT PRIMARY KEY, "
+                + LAST_MESSAGE_ID + " INTEGER, "
+                + ChatMessage.TIME_STAMP + " NUMBER, FOREIGN KEY("
+                + ChatSession.SESSION_UUID + ") REFERENCES "
+                + ChatSession.TABLE_NAME + "(" + ChatSession.SESSION_UUID + ") ON DELETE CASCADE)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_time_idx ON " + TABLE_NAME
+                + "(" + ChatMessage.TIME_STAMP + ")");
+
+        String lastMessage = "(SELECT rowid FROM " + ChatMessage.TABLE_NAME + " WHERE "
+                + ChatMessage.SESSION_UUID + " = old." + ChatMessage.SESSION_UUID
+                + " ORDER BY " + ChatMessage.TIME_STAMP + " DESC LIMIT 1)";
+
+        // Requires recursive_triggers for the rows deleted by the messages' ON CONFLICT REPLACE
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TABLE_NAME + "_ai AFTER INSERT ON "
+                + ChatMessage.TABLE_NAME + " BEGIN"
+                + " INSERT OR IGNORE INTO " + TABLE_NAME + "(" + ChatSession.SESSION_UUID + ", " + LAST_MESSAGE_ID
+                + ", " + ChatMessage.TIME_STAMP + ") VALUES (new." + ChatMessage.SESSION_UUID + ", new.rowid, new."
+                + ChatMessage.TIME_STAMP + ");"
+                + " UPDATE " + TABLE_NAME + " SET "
+                + LAST_MESSAGE_ID + " = CASE WHEN new." + ChatMessage.TIME_STAMP + " >= " + ChatMessage.TIME_STAMP
+                + " THEN new.rowid ELSE " + LAST_MESSAGE_ID + " END, "
+                + ChatMessage.TIME_STAMP + " = MAX(" + ChatMessage.TIME_STAMP + ", new." + ChatMessage.TIME_STAMP + ")"
+                + " WHERE " + ChatSession.SESSION_UUID + " = new." + ChatMessage.SESSION_UUID + "; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TABLE_NAME + "_ad AFTER DELETE ON "
+                + ChatMessage.TABLE_NAME + " BEGIN"
+                + " UPDATE " + TABLE_NAME + " SET "
+                + LAST_MESSAGE_ID + " = " + lastMessage + ", "
+                + ChatMessage.TIME_STAMP + " = (SELECT " + ChatMessage.TIME_STAMP + " FROM " + ChatMessage.TABLE_NAME
+                + " WHERE rowid = " + lastMessage + ")"
+                + " WHERE " + ChatSession.SESSION_UUID + " = old." + ChatMessage.SESSION_UUID
+                + " AND " + LAST_MESSAGE_ID + " = old.rowid;"
+                + " DELETE FROM " + TABLE_NAME + " WHERE " + ChatSession.SESSION_UUID + " = old."
+                + ChatMessage.SESSION_UUID + " AND " + LAST_MESSAGE_ID + " IS NULL; END");
+
+        // Existing messages
+        db.execSQL("DELETE FROM " + TABLE_NAME);
+        db.execSQL("INSERT INTO " + TABLE_NAME + "(" + ChatSession.SESSION_UUID + ", " + LAST_MESSAGE_ID + ", "
+                + ChatMessage.TIME_STAMP + ") SELECT " + ChatSession.SESSION_UUID
+                + ", lastId, lastTime FROM (SELECT s." + ChatSession.SESSION_UUID
+                + ", (SELECT rowid FROM " + ChatMessage.TABLE_NAME + " WHERE " + ChatMessage.SESSION_UUID + " = s."
+                + ChatSession.SESSION_UUID + " ORDER BY " + ChatMessage.TIME_STAMP + " DESC LIMIT 1) AS lastId, "
+                + "(SELECT MAX(" + ChatMessage.TIME_STAMP + ") FROM " + ChatMessage.TABLE_NAME + " WHERE "
+                + ChatMessage.SESSION_UUID + " = s." + ChatSession.SESSION_UUID + ") AS lastTime FROM "
+                + ChatSession.TABLE_NAME + " s) WHERE lastId IS NOT NULL");
+    }
+
+    /**
+     * Returns the last message of each chat session, most recent first, with the chat session account
+     * and entity in the columns {@link #SESSION_ACCOUNT_UUID} and {@link #SESSION_ENTITY_JID}.
+     *
+     * @param accountUid the account UID of the sessions e.g. Jabber:abc123@atalk.org, or <code>null</code> for all
+     * @param entityJid the contact or chat room of the session, or <code>null</code> for all
+     * @param isSMSEnabled <code>true</code> to return the last sms message of each session instead
+     *
+     * @return the cursor of the messages records; to be closed by the caller
+     */
+    public Cursor query(String accountUid, String entityJid, boolean isSMSEnabled) {
+        List<String> args = new ArrayList<>();
+        String lastMessage;
+        if (isSMSEnabled) {
+            lastMessage = "(SELECT rowid FROM " + ChatMessage.TABLE_NAME + " WHERE "
+                    + ChatMessage.SESSION_UUID + " = s." + ChatSession.SESSION_UUID + " AND ("
+                    + ChatMessage.MSG_TYPE + "=? OR " + ChatMessage.MSG_TYPE + "=?) ORDER BY "
+                    + ChatMessage.TIME_STAMP + " DESC LIMIT 1)";
+            args.add(String.valueOf(ChatMessage.MESSAGE_SMS_IN));
+            args.add(String.valueOf(ChatMessage.MESSAGE_SMS_OUT));
+        }
+        else {
+            lastMessage = "r." + LAST_MESSAGE_ID;
+        }
+
+        StringBuilder sql = new StringBuilder("SELECT m.*, s." + ChatSession.ACCOUNT_UUID
+                + " AS " + SESSION_ACCOUNT_UUID + ", s." + ChatSession.ENTITY_JID + " AS " + SESSION_ENTITY_JID
+                + " FROM " + TABLE_NAME + " r JOIN " + ChatSession.TABLE_NAME + " s ON s." + ChatSession.SESSION_UUID
+                + " = r." + ChatSession.SESSION_UUID + " JOIN " + ChatMessage.TABLE_NAME + " m ON m.rowid = "
+                + lastMessage + " WHERE 1");
+        if (StringUtils.isNotEmpty(accountUid)) {
+            sql.append(" AND s." + ChatSession.ACCOUNT_UID + "=?");
+            args.add(accountUid);
+        }
+        if (StringUtils.isNotEmpty(entityJid)) {
+            sql.append(" AND s." + ChatSession.ENTITY_JID + "=?");
+            args.add(entityJid);
+        }
+        sql.append(" ORDER BY ").append(isSMSEnabled ? "m." : "r.").append(ChatMessage.TIME_STAMP).append(" DESC");
+        return mDB.rawQuery(sql.toString(), args.toArray(new String[0]));
+    }
+}
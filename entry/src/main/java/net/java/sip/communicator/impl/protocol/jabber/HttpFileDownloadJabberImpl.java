@@ -16,35 +16,24 @@
  */
 package net.java.sip.communicator.impl.protocol.jabber;
 
-import android.app.DownloadManager;
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
-import android.database.Cursor;
 import android.net.Uri;
-import android.os.Handler;
-
-import androidx.core.content.ContextCompat;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.util.Hashtable;
-import java.util.Map;
-
-import javax.crypto.Cipher;
-import javax.crypto.CipherOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import net.java.sip.communicator.service.protocol.AbstractFileTransfer;
 import net.java.sip.communicator.service.protocol.Contact;
 import net.java.sip.communicator.service.protocol.IMessage;
 import net.java.sip.communicator.service.protocol.event.FileTransferStatusChangeEvent;
 
-import org.atalk.ohos.R;
-import org.atalk.ohos.aTalkApp;
-import org.atalk.persistance.FileBackend;
-import org.atalk.persistance.FilePathHelper;
+import org.jivesoftware.smackx.omemo_media_sharing.AesgcmStreamCipher;
 import org.jivesoftware.smackx.omemo_media_sharing.AesgcmUrl;
 
 import timber.log.Timber;
@@ -55,12 +44,28 @@ import timber.log.Timber;
  * @author Eng Chong Meng
  */
 public class HttpFileDownloadJabberImpl extends AbstractFileTransfer {
-    /* DownloadManager Broadcast Receiver Handler */
-    private DownloadReceiver downloadReceiver = null;
-    private final DownloadManager downloadManager = aTalkApp.getDownloadManager();
+    /*
+     * The http file size queries and downloads run on these threads, off the UI thread.
+     */
+    private static final ExecutorService downloadExecutor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "HttpFileDownload");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /*
+     * The maximum wait in seconds for the file size query; the file size is only needed for auto-accept.
+     */
+    private static final int QUERY_TIMEOUT = 3;
+
+    /*
+     * The progress event interval in ms.
+     */
+    private static final int PROGRESS_DELAY = 500;
 
-    /* previousDownloads <DownloadJobId, Download Link> */
-    private final Hashtable<Long, String> previousDownloads = new Hashtable<>();
+    /* The ongoing download; null if none */
+    private volatile HttpFileDownloader mDownloader = null;
+    private volatile long mTransferredBytes = -1;
 
     private final String msgUuid;
     private final Contact mSender;
@@ -77,7 +82,7 @@ public class HttpFileDownloadJabberImpl extends AbstractFileTransfer {
     private final String dnLink;
     // https download uri link; extracted from dnLink if it is AesgcmUrl
     private final Uri mUri;
-    private long mFileSize;
+    private volatile long mFileSize;
 
     /**
      * The transfer file full path for saving the received file.
@@ -127,7 +132,7 @@ public class HttpFileDownloadJabberImpl extends AbstractFileTransfer {
     }
 
     /**
-     * Unregister the HttpDownload transfer downloadReceiver.
+     * Cancel the ongoing http download, and delete its partially downloaded file.
      */
     @Override
     public void cancel() {
@@ -206,6 +211,16 @@ public class HttpFileDownloadJabberImpl extends AbstractFileTransfer {
         return mEncryption;
     }
 
+    /**
+     * Returns the number of bytes of the remote file received so far.
+     *
+     * @return the number of bytes received; -1 before the download starts
+     */
+    @Override
+    public long getTransferredBytes() {
+        return mTransferredBytes;
+    }
+
     // ********************************************************************************************//
     // Routines supporting HTTP File Download
 
@@ -213,302 +228,105 @@ public class HttpFileDownloadJabberImpl extends AbstractFileTransfer {
      * Method fired when the chat message is clicked. {@inheritDoc} Trigger from @see ChatFragment#
      */
     public void initHttpFileDownload() {
-        if (previousDownloads.contains(dnLink))
+        if (mDownloader != null)
             return;
 
-        // queryFileSize will also trigger onReceived; just ignore
-        if (downloadReceiver == null) {
-            downloadReceiver = new DownloadReceiver();
-            ContextCompat.registerReceiver(aTalkApp.getInstance(), downloadReceiver,
-                    new IntentFilter(DownloadManager.ACTION_DOWNLOAD_COMPLETE), ContextCompat.RECEIVER_EXPORTED);
-        }
         if (mFileSize == -1) {
             mFileSize = queryFileSize();
         }
-        // Timber.d("Download receiver registered %s: file size: %s", downloadReceiver, mFileSize);
+        // Timber.d("Http file download file size: %s", mFileSize);
     }
 
     /**
-     * Query the http uploaded file size for auto download.
+     * Query the http uploaded file size for auto download. The HEAD request runs on the download thread, as
+     * network access is not allowed on the UI thread; wait for QUERY_TIMEOUT seconds for slow server.
      */
     private long queryFileSize() {
-        mFileSize = -1;
-        DownloadManager.Request request = new DownloadManager.Request(mUri);
-        long id = downloadManager.enqueue(request);
-        DownloadManager.Query query = new DownloadManager.Query();
-        query.setFilterById(id);
-
-        // allow loop for 3 seconds for slow server. Server may return size == 0 ?
-        int wait = 3;
-        while ((wait-- > 0) && (mFileSize <= 0)) {
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                Timber.w("Download Manager query file size exception: %s", e.getMessage());
-                return -1;
-            }
-            Cursor cursor = downloadManager.query(query);
-            if (cursor.moveToFirst()) {
-                mFileSize = cursor.getInt(cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_TOTAL_SIZE_BYTES));
-            }
-            cursor.close();
+        Future<Long> query = downloadExecutor.submit(() -> new HttpFileDownloader(getDownloadUrl(), null).querySize());
+        try {
+            return query.get(QUERY_TIMEOUT, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Timber.w("Http download query file size exception: %s", e.getMessage());
         }
-
-        // Timber.d("Download Manager file size query id: %s %s (%s)", id, mFileSize, wait);
-        return mFileSize;
+        query.cancel(true);
+        return -1;
     }
 
     /**
-     * Schedules media file download.
+     * Schedules media file download; resumes a previously interrupted download of the same xferFile.
      */
     public void download(File xferFile) {
-        mXferFile = xferFile;
-
-        DownloadManager.Request request = new DownloadManager.Request(mUri);
-        request.setNotificationVisibility(DownloadManager.Request.VISIBILITY_VISIBLE_NOTIFY_COMPLETED);
+        if (mDownloader != null)
+            return;
 
+        mXferFile = xferFile;
+        final HttpFileDownloader downloader;
         try {
-            File tmpFile = new File(FileBackend.getaTalkStore(FileBackend.TMP, true), mFileName);
-            request.setDestinationUri(Uri.fromFile(tmpFile));
-
-            long jobId = downloadManager.enqueue(request);
-            if (jobId > 0) {
-                previousDownloads.put(jobId, dnLink);
-                startProgressChecker();
-                // Timber.d("Download Manager HttpFileDownload Size: %s %s", mFileSize, previousDownloads.toString());
-                fireStatusChangeEvent(FileTransferStatusChangeEvent.IN_PROGRESS, null);
-
-                // Send a fake progressChangeEvent to show progressBar
-                fireProgressChangeEvent(System.currentTimeMillis(), 100);
-            }
-        } catch (SecurityException e) {
-            aTalkApp.showToastMessage(e.getMessage());
-        } catch (Exception e) {
-            aTalkApp.showToastMessage(R.string.file_does_not_exist);
+            AesgcmStreamCipher decrypter = (mEncryption == IMessage.ENCRYPTION_OMEMO)
+                    ? new AesgcmUrl(dnLink).getStreamDecrypter() : null;
+            downloader = new HttpFileDownloader(getDownloadUrl(), decrypter);
+        } catch (MalformedURLException | GeneralSecurityException e) {
+            fireStatusChangeEvent(FileTransferStatusChangeEvent.FAILED, e.getMessage());
+            return;
         }
+
+        mDownloader = downloader;
+        mTransferredBytes = 0;
+        fireStatusChangeEvent(FileTransferStatusChangeEvent.IN_PROGRESS, null);
+        // Send a progressChangeEvent to show progressBar
+        fireProgressChangeEvent(System.currentTimeMillis(), 0);
+        downloadExecutor.execute(() -> runDownload(downloader));
     }
 
     /**
-     * Queries the <code>DownloadManager</code> for the status of download job identified by given <code>id</code>.
+     * Runs the download on the download thread, and reports its progress and result.
      *
-     * @param id download identifier which status will be returned.
-     *
-     * @return download status of the job identified by given id. If given job is not found
-     * {@link DownloadManager#STATUS_FAILED} will be returned.
+     * @param downloader the download engine
      */
-    private int checkDownloadStatus(long id) {
-        DownloadManager.Query query = new DownloadManager.Query();
-        query.setFilterById(id);
-
-        try (Cursor cursor = downloadManager.query(query)) {
-            if (!cursor.moveToFirst())
-                return DownloadManager.STATUS_FAILED;
-            else {
-                // update fileSize if last queryFileSize failed within the given timeout
-                if (mFileSize <= 0) {
-                    mFileSize = cursor.getInt(cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_TOTAL_SIZE_BYTES));
+    private void runDownload(HttpFileDownloader downloader) {
+        final long[] lastProgressTime = {0};
+        try {
+            downloader.download(mXferFile, transferred -> {
+                mTransferredBytes = transferred;
+                long now = System.currentTimeMillis();
+                if (now - lastProgressTime[0] >= PROGRESS_DELAY) {
+                    lastProgressTime[0] = now;
+                    fireProgressChangeEvent(now, transferred);
                 }
-                return cursor.getInt(cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_STATUS));
+            });
+
+            // update fileSize for progress bar update, in case the file size query has failed
+            if (mFileSize <= 0)
+                mFileSize = mTransferredBytes;
+            fireProgressChangeEvent(System.currentTimeMillis(), mTransferredBytes);
+            fireStatusChangeEvent(FileTransferStatusChangeEvent.COMPLETED, null);
+        } catch (GeneralSecurityException e) {
+            fireStatusChangeEvent(FileTransferStatusChangeEvent.FAILED,
+                    "Failed to decrypt OMEMO media file: " + mXferFile);
+        } catch (IOException e) {
+            if (!downloader.isCancelled()) {
+                Timber.w("Http file download failed: %s", e.getMessage());
+                fireStatusChangeEvent(FileTransferStatusChangeEvent.FAILED, dnLink);
             }
+        } finally {
+            mDownloader = null;
         }
     }
 
-    private class DownloadReceiver extends BroadcastReceiver {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            // Fetching the download id received with the broadcast and
-            // if the received broadcast is for our enqueued download by matching download id
-            long lastDownloadId = intent.getLongExtra(DownloadManager.EXTRA_DOWNLOAD_ID, -1);
-            int lastJobStatus = checkDownloadStatus(lastDownloadId);
-            // Timber.d("Download receiver %s (%s): %s", lastDownloadId, previousDownloads, lastJobStatus);
-
-            // Just ignore all unrelated download JobId.
-            if (previousDownloads.containsKey(lastDownloadId)) {
-                if (lastJobStatus == DownloadManager.STATUS_SUCCESSFUL) {
-                    String dnLink = previousDownloads.get(lastDownloadId);
-
-                    Uri fileUri = downloadManager.getUriForDownloadedFile(lastDownloadId);
-                    File inFile = new File(FilePathHelper.getFilePath(context, fileUri));
-
-                    // update fileSize for progress bar update, in case it is still not updated by download Manager
-                    mFileSize = inFile.length();
-
-                    if (inFile.exists()) {
-                        // OMEMO media file sharing - need to decrypt file content
-                        if ((dnLink != null) && dnLink.matches("^aesgcm:.*")) {
-                            try {
-                                AesgcmUrl aesgcmUrl = new AesgcmUrl(dnLink);
-                                Cipher decryptCipher = aesgcmUrl.getDecryptionCipher();
-
-                                FileInputStream fis = new FileInputStream(inFile);
-                                FileOutputStream outputStream = new FileOutputStream(mXferFile);
-                                CipherOutputStream cipherOutputStream = new CipherOutputStream(outputStream, decryptCipher);
-
-                                int count;
-                                byte[] buffer = new byte[4096];
-                                while ((count = fis.read(buffer)) != -1) {
-                                    cipherOutputStream.write(buffer, 0, count);
-                                }
-
-                                fis.close();
-                                outputStream.flush();
-                                cipherOutputStream.close();
-                                // inFile.delete();
-
-                                fireStatusChangeEvent(FileTransferStatusChangeEvent.COMPLETED, null);
-                            } catch (Exception e) {
-                                fireStatusChangeEvent(FileTransferStatusChangeEvent.FAILED,
-                                        "Failed to decrypt OMEMO media file: " + inFile);
-                            }
-                        }
-                        else {
-                            // Plain media file sharing; rename will move the infile to outfile dir.
-                            if (inFile.renameTo(mXferFile)) {
-                                fireStatusChangeEvent(FileTransferStatusChangeEvent.COMPLETED, null);
-                            }
-                        }
-
-                        // Timber.d("Downloaded fileSize: %s (%s)", outFile.length(), fileSize);
-                        previousDownloads.remove(lastDownloadId);
-                        // Remove lastDownloadId from downloadManager record and delete the tmp file
-                        downloadManager.remove(lastDownloadId);
-                    }
-                }
-                else if (lastJobStatus == DownloadManager.STATUS_FAILED) {
-                    fireStatusChangeEvent(FileTransferStatusChangeEvent.FAILED, dnLink);
-                }
-                doCleanup();
-            }
-        }
-    }
-
-    /**
-     * Get the jobId for the given dnLink
-     *
-     * @param dnLink previously download link
-     *
-     * @return jobId for the dnLink if available else -1
-     */
-    private long getJobId(String dnLink) {
-        for (Map.Entry<Long, String> entry : previousDownloads.entrySet()) {
-            if (entry.getValue().equals(dnLink)) {
-                return entry.getKey();
-            }
-        }
-        return -1;
+    private URL getDownloadUrl()
+            throws MalformedURLException {
+        return new URL(mUri.toString());
     }
 
     /**
      * Perform cleanup at end of http file transfer process: passed, failed or cancel.
      */
     private void doCleanup() {
-        stopProgressChecker();
-        long jobId = getJobId(dnLink);
-        if (jobId != -1) {
-            previousDownloads.remove(jobId);
-            downloadManager.remove(jobId);
-        }
-
-        // Unregister the HttpDownload transfer downloadReceiver.
-        // Receiver not registered exception - may occur if window is refreshed while download is in progress?
-        if (downloadReceiver != null) {
-            try {
-                aTalkApp.getInstance().unregisterReceiver(downloadReceiver);
-            } catch (IllegalArgumentException ie) {
-                Timber.w("Unregister download receiver exception: %s", ie.getMessage());
-            }
-            downloadReceiver = null;
-        }
-        // Timber.d("Download Manager for JobId: %s; File: %s (status: %s)", jobId, dnLink, status);
-    }
-
-    //=========================================================
-    /*
-     * Monitoring file download progress at PROGRESS_DELAY ms interval
-     */
-    private static final int PROGRESS_DELAY = 500;
-
-    // Maximum download idle time, 60s = MAX_IDLE_TIME * PROGRESS_DELAY mS before giving up and force to stop
-    private static final int MAX_IDLE_TIME = 120;
-
-    private boolean isProgressCheckerRunning = false;
-    private final Handler handler = new Handler();
-
-    private long previousProgress;
-    private int waitTime;
-
-    /**
-     * Checks http download progress.
-     */
-    private void checkProgress() {
-        long lastDownloadId = getJobId(dnLink);
-        int lastJobStatus = checkDownloadStatus(lastDownloadId);
-        // Timber.d("Downloading file last jobId: %s; lastJobStatus: %s; dnProgress: %s (%s)",
-        //       lastDownloadId, lastJobStatus, previousProgress, waitTime);
-
-        // Terminate downloading task if failed or idleTime timeout
-        if (lastJobStatus == DownloadManager.STATUS_FAILED || waitTime < 0) {
-            File tmpFile = new File(FileBackend.getaTalkStore(FileBackend.TMP, true), mFileName);
-            Timber.d("Downloaded fileSize (failed): %s (%s)", tmpFile.length(), mFileSize);
-            fireStatusChangeEvent(FileTransferStatusChangeEvent.FAILED, null);
-            doCleanup();
-            return;
+        HttpFileDownloader downloader = mDownloader;
+        if (downloader != null) {
+            downloader.cancel();
         }
-
-        DownloadManager.Query query = new DownloadManager.Query();
-        query.setFilterByStatus(~(DownloadManager.STATUS_FAILED | DownloadManager.STATUS_SUCCESSFUL));
-        Cursor cursor = downloadManager.query(query);
-
-        if (!cursor.moveToFirst()) {
-            waitTime--;
-        }
-        else {
-            do {
-                long progress = cursor.getLong(cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_BYTES_DOWNLOADED_SO_FAR));
-                if (progress <= previousProgress)
-                    waitTime--;
-                else {
-                    waitTime = MAX_IDLE_TIME;
-                    previousProgress = progress;
-                    fireProgressChangeEvent(System.currentTimeMillis(), progress);
-                }
-            } while (cursor.moveToNext());
-        }
-        cursor.close();
     }
-
-    /**
-     * Starts watching download progress.
-     *
-     * This method is safe to call multiple times. Starting an already running progress checker is a no-op.
-     */
-    private void startProgressChecker() {
-        if (!isProgressCheckerRunning) {
-            isProgressCheckerRunning = true;
-            waitTime = MAX_IDLE_TIME;
-            previousProgress = -1;
-            progressChecker.run();
-        }
-    }
-
-    /**
-     * Stops watching download progress.
-     */
-    private void stopProgressChecker() {
-        isProgressCheckerRunning = false;
-        handler.removeCallbacks(progressChecker);
-    }
-
-    /**
-     * Checks download progress and updates status, then re-schedules itself.
-     */
-    private final Runnable progressChecker = new Runnable() {
-        @Override
-        public void run() {
-            if (isProgressCheckerRunning) {
-                checkProgress();
-                handler.postDelayed(this, PROGRESS_DELAY);
-            }
-        }
-    };
 }
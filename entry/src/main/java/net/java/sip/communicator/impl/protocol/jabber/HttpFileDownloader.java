@@ -0,0 +1,311 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.crypto.AEADBadTagException;
+
+import org.jivesoftware.smackx.omemo_media_sharing.AesgcmStreamCipher;
+
+import timber.log.Timber;
+
+/**
+ * The http file download engine: sizes the file with a HEAD request, and streams the GET response body straight into
+ * the target file, decrypting aesgcm: media on the fly with an {@link AesgcmStreamCipher}.
+ * <p>
+ * The data is first written to a <code>.part</code> file next to the target file, which is renamed on completion.
+ * An interrupted download leaves the <code>.part</code> file behind; the next attempt resumes from its end with an
+ * HTTP Range request. For aesgcm: media the <code>.part</code> file holds the plaintext, which is fed back into the
+ * decrypter so that the tag still covers the whole file.
+ *
+ * @author Eng Chong Meng
+ */
+public class HttpFileDownloader {
+    /**
+     * Listener of the download progress, called on the download thread.
+     */
+    public interface ProgressListener {
+        /**
+         * @param transferred the bytes of the remote file received so far, including those of a resumed part
+         */
+        void onProgress(long transferred);
+    }
+
+    public static final String PART_SUFFIX = ".part";
+
+    private static final int CONNECT_TIMEOUT = 15000;
+    private static final int READ_TIMEOUT = 30000;
+
+    /**
+     * Number of attempts, each resuming from where the previous one was interrupted.
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes\\s+(\\d+)-\\d+/(\\d+|\\*)");
+
+    private final URL mUrl;
+    private final AesgcmStreamCipher mDecrypter;
+
+    private volatile boolean cancelled = false;
+    private volatile HttpURLConnection mConnection;
+
+    /**
+     * Creates a downloader for the given http(s) url.
+     *
+     * @param url the http(s) download url
+     * @param decrypter the aesgcm: decrypter of the content; null if the content is not encrypted
+     */
+    public HttpFileDownloader(URL url, AesgcmStreamCipher decrypter) {
+        mUrl = url;
+        mDecrypter = decrypter;
+    }
+
+    /**
+     * Queries the remote file size with a HEAD request.
+     *
+     * @return the content length, or -1 if the server does not tell
+     *
+     * @throws IOException on a connection error or an error http response
+     */
+    public long querySize()
+            throws IOException {
+        HttpURLConnection conn = openConnection();
+        try {
+            conn.setRequestMethod("HEAD");
+            int code = conn.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK)
+                throw new IOException("HEAD " + mUrl.getPath() + ": " + code + " " + conn.getResponseMessage());
+            return conn.getContentLengthLong();
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Downloads the file into the target file, resuming from a <code>.part</code> file left by an earlier attempt.
+     * A failed attempt is retried up to {@link #MAX_ATTEMPTS} times; the <code>.part</code> file is kept if all
+     * fail, but deleted if the aesgcm: tag does not verify or the download is cancelled.
+     *
+     * @param target the file to save the content to
+     * @param listener the progress listener; may be null
+     *
+     * @throws IOException if the download failed, or was cancelled ({@link InterruptedIOException})
+     * @throws GeneralSecurityException if the aesgcm: tag does not match the content
+     */
+    public void download(File target, ProgressListener listener)
+            throws IOException, GeneralSecurityException {
+        File partFile = new File(target.getPath() + PART_SUFFIX);
+        long startTime = System.currentTimeMillis();
+        long received = 0;
+
+        try (FileChannel channel = FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    received += transfer(channel, listener);
+                    break;
+                } catch (IOException e) {
+                    if (cancelled || attempt == MAX_ATTEMPTS)
+                        throw e;
+                    Timber.w("Http download attempt %s interrupted, resuming at %s: %s",
+                            attempt, channel.size(), e.getMessage());
+                }
+            }
+            if (mDecrypter != null)
+                mDecrypter.doFinal();
+            channel.force(false);
+        } catch (AEADBadTagException e) {
+            partFile.delete();
+            throw e;
+        } catch (IOException e) {
+            if (cancelled)
+                partFile.delete();
+            throw e;
+        }
+
+        if (!partFile.renameTo(target))
+            throw new IOException("Failed to rename " + partFile + " to " + target);
+
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        Timber.i("Http downloaded %s: %s bytes (%s received) in %s ms: %s KB/s", target.getName(),
+                target.length(), received, elapsed, received * 1000 / 1024 / elapsed);
+    }
+
+    /**
+     * Aborts the ongoing download; the <code>.part</code> file is deleted.
+     */
+    public void cancel() {
+        cancelled = true;
+        HttpURLConnection conn = mConnection;
+        if (conn != null)
+            conn.disconnect();
+    }
+
+    /**
+     * Returns true if the download has been cancelled.
+     *
+     * @return true if cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Performs one GET request, with a Range from the end of the <code>.part</code> file.
+     *
+     * @return the number of bytes received
+     */
+    private long transfer(FileChannel channel, ProgressListener listener)
+            throws IOException {
+        long offset = resume(channel);
+
+        HttpURLConnection conn = openConnection();
+        mConnection = conn;
+        try {
+            // Keep the server from compressing the body, so the Range offsets are the file offsets
+            conn.setRequestProperty("Accept-Encoding", "identity");
+            if (offset > 0)
+                conn.setRequestProperty("Range", "bytes=" + offset + "-");
+
+            int code = conn.getResponseCode();
+            if (code == HttpURLConnection.HTTP_PARTIAL) {
+                Matcher m = CONTENT_RANGE.matcher(String.valueOf(conn.getHeaderField("Content-Range")));
+                if (!m.matches() || Long.parseLong(m.group(1)) != offset)
+                    throw new IOException("Unexpected Content-Range: " + conn.getHeaderField("Content-Range"));
+            }
+            else if (code == HttpURLConnection.HTTP_OK || code == 416) {
+                // Range not supported, or the part file is no longer a prefix of the remote file: start over
+                if (offset > 0) {
+                    Timber.w("Http download restarts from the beginning (%s)", code);
+                    offset = 0;
+                    resetPart(channel);
+                }
+                if (code == 416) {
+                    conn.disconnect();
+                    conn = openConnection();
+                    mConnection = conn;
+                    conn.setRequestProperty("Accept-Encoding", "identity");
+                    code = conn.getResponseCode();
+                }
+            }
+            if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL)
+                throw new IOException("GET " + mUrl.getPath() + ": " + code + " " + conn.getResponseMessage());
+
+            long received = copy(conn.getInputStream(), channel, offset, listener);
+            // A connection closed early may end the body without an error; resume rather than fail the tag
+            long expected = conn.getContentLengthLong();
+            if (expected >= 0 && received < expected)
+                throw new IOException("Premature end of body: " + received + " of " + expected);
+            return received;
+        } finally {
+            mConnection = null;
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Positions the channel and the decrypter at the end of the <code>.part</code> file.
+     *
+     * @return the offset in the remote file to resume from
+     */
+    private long resume(FileChannel channel)
+            throws IOException {
+        long size = channel.size();
+        if (mDecrypter != null) {
+            mDecrypter.reset();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            channel.position(0);
+            while (channel.read(buffer) > 0) {
+                mDecrypter.absorb(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+        }
+        channel.position(size);
+        return size;
+    }
+
+    private void resetPart(FileChannel channel)
+            throws IOException {
+        channel.truncate(0);
+        channel.position(0);
+        if (mDecrypter != null)
+            mDecrypter.reset();
+    }
+
+    private long copy(InputStream in, FileChannel channel, long offset, ProgressListener listener)
+            throws IOException {
+        byte[] inBuf = new byte[BUFFER_SIZE];
+        ByteBuffer outBuf = (mDecrypter == null) ? ByteBuffer.wrap(inBuf)
+                : ByteBuffer.allocate(BUFFER_SIZE + AesgcmStreamCipher.TAG_LENGTH);
+
+        long received = 0;
+        int count;
+        while ((count = readFully(in, inBuf)) > 0) {
+            if (cancelled)
+                throw new InterruptedIOException("Download cancelled");
+
+            int length = (mDecrypter == null) ? count
+                    : mDecrypter.update(inBuf, 0, count, outBuf.array(), 0);
+            outBuf.clear().limit(length);
+            while (outBuf.hasRemaining())
+                channel.write(outBuf);
+
+            received += count;
+            if (listener != null)
+                listener.onProgress(offset + received);
+        }
+        if (cancelled)
+            throw new InterruptedIOException("Download cancelled");
+        return received;
+    }
+
+    /**
+     * Fills the buffer from the stream, so each channel write and decrypter update handles a full buffer.
+     *
+     * @return the number of bytes read; 0 at the end of the stream
+     */
+    private static int readFully(InputStream in, byte[] buffer)
+            throws IOException {
+        int count = 0;
+        int n;
+        while (count < buffer.length && (n = in.read(buffer, count, buffer.length - count)) != -1)
+            count += n;
+        return count;
+    }
+
+    private HttpURLConnection openConnection()
+            throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) mUrl.openConnection();
+        conn.setConnectTimeout(CONNECT_TIMEOUT);
+        conn.setReadTimeout(READ_TIMEOUT);
+        return conn;
+    }
+}
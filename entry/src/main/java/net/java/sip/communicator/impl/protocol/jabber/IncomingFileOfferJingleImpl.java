@@ -236,6 +236,17 @@ public class IncomingFileOfferJingleImpl implements IncomingFileTransferRequest
         return thumbnail;
     }
 
+    /**
+     * Checks if the given existing file is the partial download of this file offer by an earlier broken transfer.
+     *
+     * @param file the existing file
+     * @return <code>true</code> if the transfer can resume into the file
+     */
+    @Override
+    public boolean canResume(File file) {
+        return mOffer.canResume(file);
+    }
+
     /**
      * Accepts the file and starts the transfer.
      * Note: If user cancels while in protocol negotiation; the accept() will return an error:
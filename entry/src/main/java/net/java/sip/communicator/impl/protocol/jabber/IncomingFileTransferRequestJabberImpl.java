@@ -204,6 +204,17 @@ public class IncomingFileTransferRequestJabberImpl implements IncomingFileTransf
         return thumbnail;
     }
 
+    /**
+     * Legacy si file transfer always receives the whole file.
+     *
+     * @param file the existing file
+     * @return false
+     */
+    @Override
+    public boolean canResume(File file) {
+        return false;
+    }
+
     /**
      * Accepts the file and starts the transfer.
      */
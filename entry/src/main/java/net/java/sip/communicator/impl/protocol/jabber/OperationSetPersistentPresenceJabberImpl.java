@@ -5,9 +5,11 @@
  */
 package net.java.sip.communicator.impl.protocol.jabber;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -912,6 +914,8 @@ public class OperationSetPersistentPresenceJabberImpl
 
             if (eventNew == RegistrationState.REGISTERING) {
                 // contactChangesListener will be used to store presence events till roster is initialized
+                if (mContactChangesListener != null)
+                    mContactChangesListener.dispose();
                 mContactChangesListener = new ContactChangesListener();
                 mContactChangesListener.storeEvents();
             }
@@ -995,6 +999,10 @@ public class OperationSetPersistentPresenceJabberImpl
                 // ourselves our own status as well as set to offline all contacts in our contact list that were online
                 PresenceStatus oldStatus = currentStatus;
                 PresenceStatus currentStatus = mPPS.getJabberStatusEnum().getStatus(JabberStatusEnum.OFFLINE);
+
+                // drop presences still being coalesced before clearing the resources, the contacts are all going offline
+                if (mContactChangesListener != null)
+                    mContactChangesListener.dispose();
                 clearLocalContactResources();
 
                 OperationSetServerStoredAccountInfo accountInfoOpSet
@@ -1226,6 +1234,11 @@ public class OperationSetPersistentPresenceJabberImpl
          */
         private final Map<Jid, TreeSet<Presence>> statuses = new Hashtable<>();
 
+        /**
+         * Coalesces the presences per bare JID before they are processed.
+         */
+        private final PresenceCoalescer presenceCoalescer = new PresenceCoalescer(this);
+
         /**
          * Received on resource status change.
          *
@@ -1280,7 +1293,7 @@ public class OperationSetPersistentPresenceJabberImpl
         }
 
         /**
-         * Fires the status change, respecting resource priorities.
+         * Queues the status change for the next coalesced batch of its bare JID.
          *
          * @param presence the presence changed.
          */
@@ -1295,85 +1308,126 @@ public class OperationSetPersistentPresenceJabberImpl
                 storedPresences.add(presence);
                 return;
             }
+            presenceCoalescer.add(presence);
+        }
 
-            try {
-                Jid userJid = presence.getFrom().asBareJid();
-                OperationSetMultiUserChat mucOpSet = mPPS.getOperationSet(OperationSetMultiUserChat.class);
-                if ((userJid != null) && (mucOpSet != null)) {
-                    List<ChatRoom> chatRooms = mucOpSet.getCurrentlyJoinedChatRooms();
-                    for (ChatRoom chatRoom : chatRooms) {
-                        if (userJid.equals(chatRoom.getIdentifier())) {
-                            userJid = presence.getFrom();
-                            break;
-                        }
+        /**
+         * Fires the status changes for a coalesced batch of presences of the same bare JID, respecting resource
+         * priorities. The resource statuses are all updated first, so that the contact status changes at most once
+         * per batch; an event is still fired for each changed resource, as the contact capabilities are tracked per
+         * full JID.
+         *
+         * @param presences the latest presence of each changed resource.
+         */
+        void firePresenceStatusChanged(Collection<Presence> presences) {
+            // the userJid of each presence whose statuses have been updated
+            Map<Presence, Jid> updated = new LinkedHashMap<>();
+            for (Presence presence : presences) {
+                try {
+                    updated.put(presence, updateStatuses(presence));
+                } catch (IllegalStateException | IllegalArgumentException ex) {
+                    Timber.e(ex, "Failed changing status");
+                }
+            }
+
+            for (Map.Entry<Presence, Jid> entry : updated.entrySet()) {
+                Presence presence = entry.getKey();
+                Jid userJid = entry.getValue();
+                try {
+                    TreeSet<Presence> userStats = statuses.get(userJid);
+                    Presence currentPresence = (userStats == null) ? presence : userStats.first();
+
+                    ContactJabberImpl sourceContact = ssContactList.findContactById(userJid);
+                    if (sourceContact == null) {
+                        Timber.w("Ignore own or no source contact found for id = %s", userJid);
+                        continue;
                     }
+                    // Timber.d("Smack presence update for: %s", presence.toXML());
+                    // statuses may be the same and only change in status message
+                    sourceContact.setStatusMessage(currentPresence.getStatus());
+                    updateContactStatus(sourceContact, presence.getFrom(),
+                            jabberStatusToPresenceStatus(currentPresence, mPPS),
+                            presence.hasExtension(CapsExtension.QNAME));
+                } catch (IllegalStateException | IllegalArgumentException ex) {
+                    Timber.e(ex, "Failed changing status");
                 }
-                // all contact statuses that are received from all its resources ordered by priority (higher first)
-                // and those with equal priorities order with the one that is most connected as first
-                TreeSet<Presence> userStats = statuses.get(userJid);
-                if (userStats == null) {
-                    userStats = new TreeSet<>((o1, o2) -> {
-                        int res = o2.getPriority() - o1.getPriority();
-
-                        // if statuses are with same priorities return which one is more
-                        // available counts the JabberStatusEnum order
+            }
+        }
+
+        /**
+         * Updates the statuses of the user resources with the given presence.
+         *
+         * @param presence the presence changed.
+         *
+         * @return the userJid the presence belongs to; the full jid for a chat room occupant.
+         */
+        private Jid updateStatuses(Presence presence) {
+            Jid userJid = presence.getFrom().asBareJid();
+            OperationSetMultiUserChat mucOpSet = mPPS.getOperationSet(OperationSetMultiUserChat.class);
+            if ((userJid != null) && (mucOpSet != null)) {
+                List<ChatRoom> chatRooms = mucOpSet.getCurrentlyJoinedChatRooms();
+                for (ChatRoom chatRoom : chatRooms) {
+                    if (userJid.equals(chatRoom.getIdentifier())) {
+                        userJid = presence.getFrom();
+                        break;
+                    }
+                }
+            }
+            // all contact statuses that are received from all its resources ordered by priority (higher first)
+            // and those with equal priorities order with the one that is most connected as first
+            TreeSet<Presence> userStats = statuses.get(userJid);
+            if (userStats == null) {
+                userStats = new TreeSet<>((o1, o2) -> {
+                    int res = o2.getPriority() - o1.getPriority();
+
+                    // if statuses are with same priorities return which one is more
+                    // available counts the JabberStatusEnum order
+                    if (res == 0) {
+                        res = jabberStatusToPresenceStatus(o2, mPPS).getStatus()
+                                - jabberStatusToPresenceStatus(o1, mPPS).getStatus();
+                        // We have run out of "logical" ways to order the presences inside
+                        // the TreeSet. We have make sure we are consistent with equals.
+                        // We do this by comparing the unique resource names. If this
+                        // evaluates to 0 again, then we can safely assume this presence
+                        // object represents the same resource and by that the same client.
                         if (res == 0) {
-                            res = jabberStatusToPresenceStatus(o2, mPPS).getStatus()
-                                    - jabberStatusToPresenceStatus(o1, mPPS).getStatus();
-                            // We have run out of "logical" ways to order the presences inside
-                            // the TreeSet. We have make sure we are consistent with equals.
-                            // We do this by comparing the unique resource names. If this
-                            // evaluates to 0 again, then we can safely assume this presence
-                            // object represents the same resource and by that the same client.
-                            if (res == 0) {
-                                res = o1.getFrom().compareTo(o2.getFrom());
-                            }
+                            res = o1.getFrom().compareTo(o2.getFrom());
                         }
-                        return res;
-                    });
-                    statuses.put(userJid, userStats);
-                }
-                else {
-                    // remove the status for this resource if we are online we will update its value with the new status
-                    Resourcepart resource = presence.getFrom().getResourceOrEmpty();
-                    for (Iterator<Presence> iter = userStats.iterator(); iter.hasNext(); ) {
-                        Presence p = iter.next();
-                        if (resource.equals(p.getFrom().getResourceOrEmpty()))
-                            iter.remove();
                     }
+                    return res;
+                });
+                statuses.put(userJid, userStats);
+            }
+            else {
+                // remove the status for this resource if we are online we will update its value with the new status
+                Resourcepart resource = presence.getFrom().getResourceOrEmpty();
+                for (Iterator<Presence> iter = userStats.iterator(); iter.hasNext(); ) {
+                    Presence p = iter.next();
+                    if (resource.equals(p.getFrom().getResourceOrEmpty()))
+                        iter.remove();
                 }
+            }
 
-                if (!jabberStatusToPresenceStatus(presence, mPPS)
-                        .equals(mPPS.getJabberStatusEnum().getStatus(JabberStatusEnum.OFFLINE))) {
-                    userStats.add(presence);
-                }
+            if (!jabberStatusToPresenceStatus(presence, mPPS)
+                    .equals(mPPS.getJabberStatusEnum().getStatus(JabberStatusEnum.OFFLINE))) {
+                userStats.add(presence);
+            }
 
-                Presence currentPresence;
-                if (userStats.size() == 0) {
-                    currentPresence = presence;
-                    /*
-                     * We no longer have statuses for userJid so it doesn't make sense to retain
-                     * (1) the TreeSet and
-                     * (2) its slot in the statuses Map.
-                     */
-                    statuses.remove(userJid);
-                }
-                else
-                    currentPresence = userStats.first();
+            /*
+             * We no longer have statuses for userJid so it doesn't make sense to retain
+             * (1) the TreeSet and
+             * (2) its slot in the statuses Map.
+             */
+            if (userStats.isEmpty())
+                statuses.remove(userJid);
+            return userJid;
+        }
 
-                ContactJabberImpl sourceContact = ssContactList.findContactById(userJid);
-                if (sourceContact == null) {
-                    Timber.w("Ignore own or no source contact found for id = %s", userJid);
-                    return;
-                }
-                // Timber.d("Smack presence update for: %s", presence.toXML());
-                // statuses may be the same and only change in status message
-                sourceContact.setStatusMessage(currentPresence.getStatus());
-                updateContactStatus(sourceContact, presence.getFrom(),
-                        jabberStatusToPresenceStatus(currentPresence, mPPS), presence.hasExtension(CapsExtension.QNAME));
-            } catch (IllegalStateException | IllegalArgumentException ex) {
-                Timber.e(ex, "Failed changing status");
-            }
+        /**
+         * Discards the presences still being coalesced, waiting for a batch being applied.
+         */
+        void dispose() {
+            presenceCoalescer.dispose();
         }
     }
 
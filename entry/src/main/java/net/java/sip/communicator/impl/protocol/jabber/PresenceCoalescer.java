@@ -0,0 +1,216 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber;
+
+import org.jivesoftware.smack.packet.Presence;
+import org.jxmpp.jid.BareJid;
+import org.jxmpp.jid.Jid;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Collects the incoming presence stanzas of an account for a short window and hands them over to
+ * the {@link OperationSetPersistentPresenceJabberImpl.ContactChangesListener} per bare JID in one
+ * batch, keeping only the latest presence of each resource. A roster of a few thousand entries
+ * sends several presences per contact on login; without coalescing each of them walks the
+ * contact resources and ripples through the MetaContactList down to the contact list UI.
+ *
+ * @author Eng Chong Meng
+ */
+final class PresenceCoalescer {
+    /**
+     * The time in milliseconds presences are collected before they are delivered.
+     */
+    static final long COALESCE_WINDOW = 250;
+
+    /**
+     * The single thread delivering the coalesced presences of all accounts.
+     */
+    private static ScheduledExecutorService scheduler;
+
+    /**
+     * The listener the coalesced presences are delivered to.
+     */
+    private final OperationSetPersistentPresenceJabberImpl.ContactChangesListener listener;
+
+    /**
+     * The latest presence of each resource received within the current window, per bare JID and
+     * in the order the bare JIDs were first seen.
+     */
+    private Map<BareJid, Map<Jid, Presence>> pending = new LinkedHashMap<>();
+
+    /**
+     * <code>true</code> when a delivery of {@link #pending} has been scheduled.
+     */
+    private boolean flushScheduled = false;
+
+    /**
+     * <code>true</code> once this instance has been disposed and must discard all presences.
+     */
+    private volatile boolean disposed = false;
+
+    /**
+     * Held while presences are delivered, so that {@link #dispose()} can wait for a delivery in progress.
+     */
+    private final Object deliveryLock = new Object();
+
+    /**
+     * The number of presences received.
+     */
+    private final AtomicLong receivedCount = new AtomicLong();
+
+    /**
+     * The number of presences delivered after coalescing.
+     */
+    private final AtomicLong deliveredCount = new AtomicLong();
+
+    /**
+     * The number of batches i.e. bare JID updates delivered.
+     */
+    private final AtomicLong batchCount = new AtomicLong();
+
+    /**
+     * Creates a new <code>PresenceCoalescer</code> delivering to the specified listener.
+     *
+     * @param listener the listener to deliver the coalesced presences to
+     */
+    PresenceCoalescer(OperationSetPersistentPresenceJabberImpl.ContactChangesListener listener) {
+        this.listener = listener;
+    }
+
+    private static synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "PresenceCoalescer");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return scheduler;
+    }
+
+    /**
+     * Queues a presence for delivery with the next batch, replacing any earlier presence of the
+     * same resource still pending.
+     *
+     * @param presence the presence received
+     */
+    synchronized void add(Presence presence) {
+        if (disposed)
+            return;
+
+        receivedCount.incrementAndGet();
+        Jid from = presence.getFrom();
+        BareJid bareJid = from.asBareJid();
+        Map<Jid, Presence> resources = pending.get(bareJid);
+        if (resources == null) {
+            resources = new LinkedHashMap<>();
+            pending.put(bareJid, resources);
+        }
+        // re-insert so that the resource keeps the order of its latest presence
+        resources.remove(from);
+        resources.put(from, presence);
+
+        if (!flushScheduled) {
+            flushScheduled = true;
+            getScheduler().schedule(this::flush, COALESCE_WINDOW, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Delivers all the pending presences, one batch per bare JID.
+     */
+    private void flush() {
+        Map<BareJid, Map<Jid, Presence>> batches;
+        synchronized (this) {
+            flushScheduled = false;
+            if (disposed || pending.isEmpty())
+                return;
+
+            batches = pending;
+            pending = new LinkedHashMap<>();
+        }
+
+        synchronized (deliveryLock) {
+            for (Map<Jid, Presence> resources : batches.values()) {
+                if (disposed)
+                    return;
+
+                Collection<Presence> presences = new ArrayList<>(resources.values());
+                deliveredCount.addAndGet(presences.size());
+                batchCount.incrementAndGet();
+                try {
+                    listener.firePresenceStatusChanged(presences);
+                } catch (Exception e) {
+                    Timber.e(e, "Failed delivering presences");
+                }
+            }
+        }
+    }
+
+    /**
+     * Discards all pending presences; no further presences are accepted. Returns only once a delivery
+     * in progress has stopped, so that no presence is applied after this call.
+     */
+    void dispose() {
+        synchronized (this) {
+            disposed = true;
+            pending.clear();
+        }
+        synchronized (deliveryLock) {
+            // wait for the batch being delivered, if any
+        }
+        Timber.d("Presence events received: %d; delivered: %d in %d batches",
+                receivedCount.get(), deliveredCount.get(), batchCount.get());
+    }
+
+    /**
+     * Returns the number of presences received.
+     *
+     * @return the number of presences received
+     */
+    long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    /**
+     * Returns the number of presences delivered after coalescing.
+     *
+     * @return the number of presences delivered after coalescing
+     */
+    long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    /**
+     * Returns the number of bare JID batches delivered.
+     *
+     * @return the number of bare JID batches delivered
+     */
+    long getBatchCount() {
+        return batchCount.get();
+    }
+}
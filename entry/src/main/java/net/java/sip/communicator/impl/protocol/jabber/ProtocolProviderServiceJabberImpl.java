@@ -1597,6 +1597,9 @@ public class ProtocolProviderServiceJabberImpl extends AbstractProtocolProviderS
                 // <a href="https://xmpp.org/extensions/xep-0441.html">XEP-0441: Message Archive Management Preferences 0.2.0 (2020-08-25)</a>
                 MessageHistoryServiceImpl mMHS = MessageHistoryActivator.getMessageHistoryService();
                 enableMam(connection, mMHS.isHistoryLoggingEnabled());
+
+                // Fetch in background the server archived messages of all the chat sessions
+                mMHS.syncMamArchive(ProtocolProviderServiceJabberImpl.this);
             }
         }
     }
@@ -123,6 +123,24 @@ public interface CallHistoryService
      */
     Collection<CallRecord> findLast(int count);
 
+    /**
+     * Returns the supplied number of first calls made on and after the given date.
+     *
+     * @param startDate Date the start date of the calls
+     * @param count calls count
+     * @return List of CallRecords with CallPeerRecord, in ascending start time order
+     */
+    List<CallRecord> findFirstCallsAfter(Date startDate, int count);
+
+    /**
+     * Returns the supplied number of last calls made before the given date.
+     *
+     * @param endDate Date the end date of the calls
+     * @param count calls count
+     * @return List of CallRecords with CallPeerRecord, in ascending start time order
+     */
+    List<CallRecord> findLastCallsBefore(Date endDate, int count);
+
     /**
      * Find the calls made by the supplied peer address
      *
@@ -43,6 +43,11 @@ public class ProgressEvent extends java.util.EventObject
 	 */
 	private int progress = 0;
 
+	/**
+	 * Set by a listener to stop the search in progress.
+	 */
+	private boolean cancelled = false;
+
 	/**
 	 * Constructs a new <code>ProgressEvent</code>.
 	 *
@@ -147,4 +152,22 @@ public class ProgressEvent extends java.util.EventObject
 		this.progress = progress;
 	}
 
+	/**
+	 * Requests the search firing this event to stop; the search then returns no records.
+	 */
+	public void cancel()
+	{
+		cancelled = true;
+	}
+
+	/**
+	 * Returns whether a listener has requested the search to stop.
+	 * 
+	 * @return <code>true</code> if the search is cancelled
+	 */
+	public boolean isCancelled()
+	{
+		return cancelled;
+	}
+
 }
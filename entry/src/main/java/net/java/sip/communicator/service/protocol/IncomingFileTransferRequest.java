@@ -98,4 +98,13 @@ public interface IncomingFileTransferRequest
      * @return the thumbnail contained in this request; use callback to update thumbnail.
      */
     byte[] getThumbnail(FileReceiveConversation callback);
+
+    /**
+     * Checks if the given existing file is the partial download of this same file by an earlier broken
+     * transfer, which accepting this request into will resume.
+     *
+     * @param file the existing file
+     * @return <code>true</code> if the transfer can resume into the file
+     */
+    boolean canResume(File file);
 }
@@ -193,6 +193,11 @@ public class ConfigurationUtils {
      */
     private static int acceptFileSize;
 
+    /**
+     * The number of times a failed http file upload is retried, each on a fresh slot.
+     */
+    private static int fileUploadRetries = 2;
+
     /**
      * The size of the chat write area.
      */
@@ -441,6 +446,7 @@ public class ConfigurationUtils {
     public static final String pAutoStart = "gui.AUTO_START_ON_REBOOT";
     private static final String pChatHistorySize = "gui.MESSAGE_HISTORY_SIZE";
     private static final String pChatWriteAreaSize = "gui.CHAT_WRITE_AREA_SIZE";
+    private static final String pFileUploadRetries = "gui.FILE_UPLOAD_RETRIES";
     private static final String pHideAccountMenu = "gui.HIDE_SELECTION_ON_SINGLE_ACCOUNT";
     private static final String pHideAccountStatusSelectors = "gui.HIDE_ACCOUNT_STATUS_SELECTORS";
     private static final String pHideExtendedAwayStatus = "protocol.globalstatus.HIDE_EXTENDED_AWAY_STATUS";
@@ -632,6 +638,9 @@ public class ConfigurationUtils {
         String fileSize = mConfigService.getString(pAcceptFileSize, aTalkApp.getResString(R.string.auto_accept_filesize));
         acceptFileSize = Integer.parseInt(fileSize);
 
+        // Load the "fileUploadRetries" property.
+        fileUploadRetries = mConfigService.getInt(pFileUploadRetries, fileUploadRetries);
+
         // Load the "chatHistorySize" property.
         String chatHistorySizeString = mConfigService.getString(pChatHistorySize, "30");
         chatHistorySize = Integer.parseInt(chatHistorySizeString);
@@ -1066,6 +1075,15 @@ public class ConfigurationUtils {
         return acceptFileSize;
     }
 
+    /**
+     * The number of times a failed http file upload is retried, each on a fresh upload slot.
+     *
+     * @return the number of upload retries; 0 to give up on the first failure.
+     */
+    public static int getFileUploadRetries() {
+        return fileUploadRetries;
+    }
+
     /**
      * Updates the "acceptFileSize" property through the <code>ConfigurationService</code>.
      *
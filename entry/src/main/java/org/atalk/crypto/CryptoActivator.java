@@ -38,6 +38,11 @@ public class CryptoActivator implements BundleActivator {
     @Override
     public void stop(BundleContext bundleContext)
             throws Exception {
+        // Write the pending OMEMO sessions and message counters to the database
+        OmemoStore omemoStore = SignalOmemoService.getInstance().getOmemoStoreBackend();
+        if (omemoStore instanceof SQLiteOmemoStore) {
+            ((SQLiteOmemoStore) omemoStore).flush();
+        }
     }
 
     /**
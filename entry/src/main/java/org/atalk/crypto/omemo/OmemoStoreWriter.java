@@ -0,0 +1,174 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.crypto.omemo;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.atalk.persistance.DatabaseBackend;
+import org.jivesoftware.smackx.omemo.internal.OmemoDevice;
+
+import timber.log.Timber;
+
+/**
+ * Write-behind queue of the OMEMO message counters updated by {@link SQLiteOmemoStore} for every
+ * message sent or received. The latest value of each device is kept until the next flush,
+ * which writes all the dirty entries in a single transaction on a background thread.
+ * <p>
+ * Ordering guarantees:
+ * - A flush is atomic; after a crash the database holds the state of the last completed flush.
+ * - Flushes are serialized, so a later flush never gets overwritten by an older one.
+ * - Deletes and purges are run with {@link #runExclusive(Runnable)}, which first flushes the pending
+ * entries, so that a pending write can never resurrect a deleted device.
+ * The sessions are not queued here: they are written synchronously by {@link SQLiteOmemoStore}, as
+ * libsignal consumes the preKey of a new session as soon as the session is stored.
+ *
+ * @author Eng Chong Meng
+ */
+final class OmemoStoreWriter {
+    /**
+     * The time in ms the dirty entries are collected before they are written to the database.
+     */
+    private static final long FLUSH_DELAY = 500;
+
+    private final DatabaseBackend mDB;
+
+    /**
+     * The message counters pending to be written, in the order they were first dirtied.
+     */
+    private Map<OmemoDevice, Integer> pendingCounters = new LinkedHashMap<>();
+
+    /**
+     * The message counters of the flush in progress; still visible to the readers until they are
+     * committed.
+     */
+    private Map<OmemoDevice, Integer> flushingCounters = Collections.emptyMap();
+
+    /**
+     * Held while writing to the database, to serialize the flushes with the deletes.
+     */
+    private final Object flushLock = new Object();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "OmemoStoreWriter");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private boolean flushScheduled = false;
+
+    OmemoStoreWriter(DatabaseBackend db) {
+        mDB = db;
+    }
+
+    /**
+     * Queues the message counter of a device for writing.
+     *
+     * @param device the contact device
+     * @param counter the message counter
+     */
+    synchronized void storeMessageCounter(OmemoDevice device, int counter) {
+        pendingCounters.put(device, counter);
+        scheduleFlush();
+    }
+
+    /**
+     * Returns the pending message counter of a device.
+     *
+     * @param device the contact device
+     *
+     * @return the message counter not yet written, or <code>null</code> if none
+     */
+    synchronized Integer getPendingMessageCounter(OmemoDevice device) {
+        Integer counter = pendingCounters.get(device);
+        return (counter != null) ? counter : flushingCounters.get(device);
+    }
+
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            executor.schedule(this::flush, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes all the pending entries to the database in one transaction.
+     */
+    void flush() {
+        synchronized (flushLock) {
+            flushLocked();
+        }
+    }
+
+    /**
+     * Flushes the pending entries and runs the given database update before any further flush.
+     *
+     * @param dbUpdate the deletion or purge to run on the database
+     */
+    void runExclusive(Runnable dbUpdate) {
+        synchronized (flushLock) {
+            flushLocked();
+            dbUpdate.run();
+        }
+    }
+
+    private void flushLocked() {
+        Map<OmemoDevice, Integer> counters;
+        synchronized (this) {
+            flushScheduled = false;
+            if (pendingCounters.isEmpty())
+                return;
+
+            counters = flushingCounters = pendingCounters;
+            pendingCounters = new LinkedHashMap<>();
+        }
+
+        SQLiteDatabase db = mDB.getWritableDatabase();
+        try {
+            db.beginTransaction();
+            try {
+                for (Map.Entry<OmemoDevice, Integer> entry : counters.entrySet()) {
+                    mDB.setOmemoMessageCounter(entry.getKey(), entry.getValue());
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            Timber.d("OMEMO store flushed %d counters", counters.size());
+        } catch (RuntimeException e) {
+            Timber.e(e, "OMEMO store flush failed; retry with next flush");
+            synchronized (this) {
+                // keep any newer value queued while flushing
+                for (Map.Entry<OmemoDevice, Integer> entry : counters.entrySet()) {
+                    if (!pendingCounters.containsKey(entry.getKey()))
+                        pendingCounters.put(entry.getKey(), entry.getValue());
+                }
+                scheduleFlush();
+            }
+        } finally {
+            synchronized (this) {
+                flushingCounters = Collections.emptyMap();
+            }
+        }
+    }
+}
@@ -121,29 +121,47 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
 
     private static final int NUM_TRUSTS_TO_CACHE = 100;
 
+    private static final int NUM_SESSIONS_TO_CACHE = 500;
+
+    private static final int NUM_IDENTITY_KEYS_TO_CACHE = 500;
+
+    private static final int NUM_COUNTERS_TO_CACHE = 500;
+
     private final DatabaseBackend mDB;
 
-    /*
-     * mDevice is used by overridden method create(String fingerprint) for trustCache self update
-     * @see LruCache#create(Object)
+    /**
+     * Write-behind queue of the message counters.
      */
-    private OmemoDevice mDevice;
+    private final OmemoStoreWriter mWriter;
 
     public SQLiteOmemoStore() {
         super();
         mDB = DatabaseBackend.getInstance(aTalkApp.getInstance());
+        mWriter = new OmemoStoreWriter(mDB);
+        mDB.setOmemoStore(this);
     }
 
     /**
      * Cache of a map fingerPrint string to FingerprintStatus
      */
-    private final LruCache<String, FingerprintStatus> trustCache =
-            new LruCache<String, FingerprintStatus>(NUM_TRUSTS_TO_CACHE) {
-                @Override
-                protected FingerprintStatus create(String fingerprint) {
-                    return mDB.getFingerprintStatus(mDevice, fingerprint);
-                }
-            };
+    private final LruCache<String, FingerprintStatus> trustCache = new LruCache<>(NUM_TRUSTS_TO_CACHE);
+
+    /**
+     * Cache of the serialized sessions of the contacts devices, as last written to the database.
+     * A new SessionRecord is returned for every load, as libsignal modifies the loaded record before
+     * storing it, and may fail before it is stored.
+     */
+    private final LruCache<OmemoDevice, byte[]> sessionCache = new LruCache<>(NUM_SESSIONS_TO_CACHE);
+
+    /**
+     * Cache of the public identityKeys of the contacts devices.
+     */
+    private final LruCache<OmemoDevice, IdentityKey> identityKeyCache = new LruCache<>(NUM_IDENTITY_KEYS_TO_CACHE);
+
+    /**
+     * Cache of the message counters of the contacts devices.
+     */
+    private final LruCache<OmemoDevice, Integer> counterCache = new LruCache<>(NUM_COUNTERS_TO_CACHE);
 
     // --------------------------------------
     // FingerprintStatus utilities
@@ -151,19 +169,23 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
 
     /**
      * Get the fingerprint status for the specified device
-     * Need to pass device to create(String fingerprint) for trustCache
      *
      * @param device omemoDevice for which its fingerprint status is to be retrieved
      * @param fingerprint fingerprint to check
      *
      * @return the fingerprint status for the specified device
-     *
-     * @see LruCache#create(Object)
      */
     public FingerprintStatus getFingerprintStatus(OmemoDevice device, String fingerprint) {
-        /* Must setup mDevice for FingerprintStatus#create(String fingerprint) */
-        mDevice = device;
-        return (fingerprint == null) ? null : trustCache.get(fingerprint);
+        if (fingerprint == null)
+            return null;
+
+        FingerprintStatus status = trustCache.get(fingerprint);
+        if (status == null) {
+            status = mDB.getFingerprintStatus(device, fingerprint);
+            if (status != null)
+                trustCache.put(fingerprint, status);
+        }
+        return status;
     }
 
     private void setFingerprintStatus(OmemoDevice device, String fingerprint, FingerprintStatus status) {
@@ -404,9 +426,14 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
     @Override
     public IdentityKey loadOmemoIdentityKey(OmemoDevice userDevice, OmemoDevice contactDevice)
             throws CorruptedOmemoKeyException {
-        IdentityKey identityKey;
+        IdentityKey identityKey = identityKeyCache.get(contactDevice);
+        if (identityKey != null)
+            return identityKey;
+
         try {
             identityKey = mDB.loadIdentityKey(contactDevice);
+            if (identityKey != null)
+                identityKeyCache.put(contactDevice, identityKey);
         } catch (CorruptedOmemoKeyException e) {
             // throw only if key is corrupted else return null
             Timber.e("Corrupted Omemo IdentityKey: %s", e.getMessage());
@@ -439,6 +466,10 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
             return;
         }
 
+        // Same key as the cached one (one identityKey per device): nothing to update
+        if (contactKey.equals(identityKeyCache.get(contactDevice)))
+            return;
+
         String bareJid = contactDevice.getJid().toString();
         String fingerprint = keyUtil().getFingerprintOfIdentityKey(contactKey).toString();
 
@@ -462,6 +493,7 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
             mDB.storeIdentityKey(contactDevice, contactKey, fingerprint, fpStatus);
             trustCache.remove(fingerprint);
         }
+        identityKeyCache.put(contactDevice, contactKey);
         // else {
         //     // Timber.d("Skip Update duplicated identityKey for: %s; %s; %s", contactDevice, contactKey.toString(), fingerprint);
         //     // Code for testing only
@@ -480,7 +512,8 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
      */
     @Override
     public void removeOmemoIdentityKey(OmemoDevice userDevice, OmemoDevice contactDevice) {
-        mDB.deleteIdentityKey(contactDevice);
+        // the identities row also holds the message counter
+        mWriter.runExclusive(() -> mDB.deleteIdentityKey(contactDevice));
     }
 
     public OmemoTrustCallback getTrustCallBack() {
@@ -616,7 +649,22 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
      */
     @Override
     public SessionRecord loadRawSession(OmemoDevice userDevice, OmemoDevice contactDevice) {
-        return mDB.loadSession(contactDevice);
+        synchronized (sessionCache) {
+            byte[] serialized = sessionCache.get(contactDevice);
+            if (serialized == null) {
+                SessionRecord session = mDB.loadSession(contactDevice);
+                if (session != null)
+                    sessionCache.put(contactDevice, session.serialize());
+                return session;
+            }
+            try {
+                return new SessionRecord(serialized);
+            } catch (IOException e) {
+                Timber.w("Could not deserialize raw session. %s", e.getMessage());
+                sessionCache.remove(contactDevice);
+                return null;
+            }
+        }
     }
 
     /**
@@ -633,7 +681,9 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
     }
 
     /**
-     * Store a crypto-lib specific session to storage.
+     * Store a crypto-lib specific session to storage. The session is written synchronously: libsignal deletes the
+     * preKey a new session is built from once the session is stored, and a ratchet state lost in a crash would make
+     * message keys be reused.
      *
      * @param userDevice our OmemoDevice.
      * @param contactDevice OmemoDevice whose session we want to store
@@ -641,7 +691,11 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
      */
     @Override
     public void storeRawSession(OmemoDevice userDevice, OmemoDevice contactDevice, SessionRecord session) {
-        mDB.storeSession(contactDevice, session);
+        byte[] serialized = session.serialize();
+        synchronized (sessionCache) {
+            mDB.storeSession(contactDevice, serialized);
+            sessionCache.put(contactDevice, serialized);
+        }
     }
 
     /**
@@ -652,7 +706,9 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
      */
     @Override
     public void removeRawSession(OmemoDevice userDevice, OmemoDevice contactDevice) {
-        mDB.deleteSession(contactDevice);
+        synchronized (sessionCache) {
+            mDB.deleteSession(contactDevice);
+        }
     }
 
     /**
@@ -663,7 +719,9 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
      */
     @Override
     public void removeAllRawSessionsOf(OmemoDevice userDevice, BareJid contact) {
-        mDB.deleteAllSessions(contact);
+        synchronized (sessionCache) {
+            mDB.deleteAllSessions(contact);
+        }
     }
 
     /**
@@ -677,7 +735,9 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
      */
     @Override
     public boolean containsRawSession(OmemoDevice userDevice, OmemoDevice contactDevice) {
-        return mDB.containsSession(contactDevice);
+        synchronized (sessionCache) {
+            return (sessionCache.get(contactDevice) != null) || mDB.containsSession(contactDevice);
+        }
     }
 
     /**
@@ -742,7 +802,10 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
      */
     @Override
     public void storeOmemoMessageCounter(OmemoDevice userDevice, OmemoDevice contactsDevice, int counter) {
-        mDB.setOmemoMessageCounter(contactsDevice, counter);
+        synchronized (counterCache) {
+            counterCache.put(contactsDevice, counter);
+            mWriter.storeMessageCounter(contactsDevice, counter);
+        }
     }
 
     /**
@@ -757,7 +820,100 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
      */
     @Override
     public int loadOmemoMessageCounter(OmemoDevice userDevice, OmemoDevice contactsDevice) {
-        return mDB.getOmemoMessageCounter(contactsDevice);
+        synchronized (counterCache) {
+            Integer counter = counterCache.get(contactsDevice);
+            if (counter == null) {
+                counter = mWriter.getPendingMessageCounter(contactsDevice);
+                if (counter == null)
+                    counter = mDB.getOmemoMessageCounter(contactsDevice);
+                counterCache.put(contactsDevice, counter);
+            }
+            return counter;
+        }
+    }
+
+    /**
+     * Write all the pending message counters to the database.
+     */
+    public void flush() {
+        mWriter.flush();
+    }
+
+    /**
+     * Delete all devices with null identityKey, together with their pending message counter.
+     *
+     * @return the number of devices deleted
+     */
+    private int deleteNullIdentityKeyDevices() {
+        int[] count = new int[1];
+        mWriter.runExclusive(() -> count[0] = mDB.deleteNullIdentityKeyDevices());
+        return count[0];
+    }
+
+    // ========== Cache invalidation on the database deletes ==========
+    // The DatabaseBackend calls these after it deletes the rows, whoever initiated the delete.
+
+    /**
+     * Evict the cached identityKey of a device, after its identities row has been deleted.
+     * The identities row also holds the trust status and the message counter of the device.
+     *
+     * @param device the device whose identities row has been deleted
+     */
+    public void evictIdentity(OmemoDevice device) {
+        identityKeyCache.remove(device);
+        synchronized (counterCache) {
+            counterCache.remove(device);
+        }
+        // trustCache is keyed by fingerprint; evict all rather than derive it from the key
+        trustCache.evictAll();
+    }
+
+    /**
+     * Evict the cached message counters, after devices have been deleted in bulk.
+     */
+    public void evictCounters() {
+        synchronized (counterCache) {
+            counterCache.evictAll();
+        }
+    }
+
+    /**
+     * Evict the cached session of a device, after its session row has been deleted.
+     *
+     * @param device the device whose session row has been deleted
+     */
+    public void evictSession(OmemoDevice device) {
+        synchronized (sessionCache) {
+            sessionCache.remove(device);
+        }
+    }
+
+    /**
+     * Evict the cached sessions of all the devices of a contact, after their session rows have been deleted.
+     *
+     * @param contact BareJid of the contact
+     */
+    public void evictSessionsOf(BareJid contact) {
+        synchronized (sessionCache) {
+            for (OmemoDevice device : sessionCache.snapshot().keySet()) {
+                if (device.getJid().equals(contact))
+                    sessionCache.remove(device);
+            }
+        }
+    }
+
+    /**
+     * Evict all cached data, after the database has been purged.
+     */
+    public void evictAllCaches() {
+        trustCache.evictAll();
+        synchronized (sessionCache) {
+            sessionCache.evictAll();
+        }
+        identityKeyCache.evictAll();
+        synchronized (counterCache) {
+            counterCache.evictAll();
+        }
     }
 
     // ========== aTalk methods to handle omemo specific tasks ==========
@@ -769,8 +925,7 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
      */
     @Override
     public void purgeOwnDeviceKeys(OmemoDevice userDevice) {
-        mDB.purgeOmemoDb(userDevice);
-        trustCache.evictAll();
+        mWriter.runExclusive(() -> mDB.purgeOmemoDb(userDevice));
     }
 
     /**
@@ -846,8 +1001,7 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
                 purgeBundleDeviceList(connection, userJid, omemoDevice);
 
                 // Purge all omemo devices info in the local database for the specified accountId
-                mDB.purgeOmemoDb(accountId);
-                trustCache.evictAll();
+                mWriter.runExclusive(() -> mDB.purgeOmemoDb(accountId));
 
                 // Create new omemoDeice
                 new AndroidOmemoService(pps).initOmemoDevice();
@@ -891,7 +1045,7 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
                 }
 
                 // Also delete all devices with null Identity key - omemoService will re-create them if needed
-                int count = mDB.deleteNullIdentityKeyDevices();
+                int count = deleteNullIdentityKeyDevices();
                 Timber.d("Number of null identities deleted: %s", count);
 
                 // publish a new device list with our own deviceId and cached active devices
@@ -919,7 +1073,7 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
             purgeOwnDeviceKeys(omemoDevice);
 
             // Also delete all devices with null Identity key - omemoService will re-create them if needed
-            int count = mDB.deleteNullIdentityKeyDevices();
+            int count = deleteNullIdentityKeyDevices();
             Timber.d("Number of null identities deleted: %s", count);
 
             // publish a new device list with our own deviceId and cached active devices
@@ -951,8 +1105,7 @@ public class SQLiteOmemoStore extends SignalOmemoStore {
 
         // Must first remove the omemoDevice and associated data from local database
         // Purge local omemo database for the specified account
-        mDB.purgeOmemoDb(accountId);
-        trustCache.evictAll();
+        mWriter.runExclusive(() -> mDB.purgeOmemoDb(accountId));
 
         // Purge server omemo bundle nodes for the deleted account (only if online and authenticated)
         ProtocolProviderService pps = accountId.getProtocolProvider();
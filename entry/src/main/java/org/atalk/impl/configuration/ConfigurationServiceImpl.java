@@ -25,6 +25,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -34,6 +36,10 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import timber.log.Timber;
@@ -86,6 +92,26 @@ public class ConfigurationServiceImpl implements ConfigurationService
      */
     private static String PASSWORD_SYS_PROPS;
 
+    /**
+     * The quiet period after a property change before the configuration is stored, in ms.
+     */
+    private static final long STORE_DELAY = 1000;
+
+    /**
+     * The longest time a property change waits to be stored while further changes keep coming, in ms.
+     */
+    private static final long MAX_STORE_DELAY = 5000;
+
+    /**
+     * The thread storing the configuration after property changes, so that the callers of the
+     * <code>setProperty()</code> methods do not wait for the disk.
+     */
+    private static final ScheduledExecutorService storeExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ConfigurationStore");
+        t.setDaemon(true);
+        return t;
+    });
+
     /**
      * A reference to the currently used configuration file.
      */
@@ -132,6 +158,32 @@ public class ConfigurationServiceImpl implements ConfigurationService
      */
     private ConfigurationStore store;
 
+    /**
+     * The names of the properties changed since the configuration was last stored; also guards
+     * the fields of the scheduled store.
+     */
+    private final Set<String> dirtyProperties = new HashSet<>();
+
+    /**
+     * The scheduled store of the dirty properties; <code>null</code> if none.
+     */
+    private ScheduledFuture<?> storeFuture = null;
+
+    /**
+     * The time the oldest dirty property was changed, in ms.
+     */
+    private long dirtySince;
+
+    /*
+     * Statistics of the configuration stores: their count, the number of dirty properties they
+     * saved, the largest such batch and the time spent storing in ms.
+     */
+    private int storeCount = 0;
+    private long storedPropertyCount = 0;
+    private int maxStoreBatchSize = 0;
+    private long storeTime = 0;
+    private long maxStoreTime = 0;
+
     public ConfigurationServiceImpl()
     {
         /*
@@ -195,11 +247,7 @@ public class ConfigurationServiceImpl implements ConfigurationService
         // no exception was thrown - lets change the property and fire a change event
         // cmeng - define the location where to store the change properties - can be removed??? file system not use
         doSetProperty(propertyName, property, isSystem);
-        try {
-            storeConfiguration();
-        } catch (IOException ex) {
-            Timber.e("Failed to store configuration after a property change");
-        }
+        scheduleStore(Collections.singleton(propertyName));
 
         if (changeEventDispatcher.hasPropertyChangeListeners(propertyName))
             changeEventDispatcher.firePropertyChange(propertyName, oldValue, property);
@@ -230,12 +278,7 @@ public class ConfigurationServiceImpl implements ConfigurationService
 
         for (Map.Entry<String, Object> property : properties.entrySet())
             doSetProperty(property.getKey(), property.getValue(), false);
-
-        try {
-            storeConfiguration();
-        } catch (IOException ex) {
-            Timber.e("Failed to store configuration after property changes");
-        }
+        scheduleStore(properties.keySet());
 
         for (Map.Entry<String, Object> property : properties.entrySet()) {
             String propertyName = property.getKey();
@@ -305,11 +348,8 @@ public class ConfigurationServiceImpl implements ConfigurationService
         // remove the parent properties if any
         removePropertyInternal(propertyName);
 
-        try {
-            storeConfiguration();
-        } catch (IOException ex) {
-            Timber.e("Failed to store configuration after a property change");
-        }
+        childPropertyNames.add(propertyName);
+        scheduleStore(childPropertyNames);
         return size;
     }
 
@@ -421,7 +461,7 @@ public class ConfigurationServiceImpl implements ConfigurationService
         }
 
         // now get property names from the current store.
-        getPropertyNamesByPrefix(prefix, exactPrefixMatch, store.getPropertyNames(prefix), resultKeySet);
+        getPropertyNamesByPrefix(prefix, exactPrefixMatch, store.getPropertyNamesByPrefix(prefix), resultKeySet);
 
         // finally, get property names from mutable default property set.
         if (!defaultProperties.isEmpty()) {
@@ -492,7 +532,7 @@ public class ConfigurationServiceImpl implements ConfigurationService
     {
         List<String> resultKeySet = new LinkedList<>();
 
-        for (String key : store.getPropertyNames(suffix)) {
+        for (String key : store.getPropertyNamesBySuffix(suffix)) {
             int ix = key.lastIndexOf('.');
 
             if ((ix != -1) && suffix.equals(key.substring(ix + 1)))
@@ -625,13 +665,75 @@ public class ConfigurationServiceImpl implements ConfigurationService
     }
 
     /*
-     * Implements ConfigurationService#storeConfiguration().
+     * Implements ConfigurationService#storeConfiguration(). Stores the configuration now, including
+     * the property changes waiting for their scheduled store.
      */
     @Override
     public synchronized void storeConfiguration()
             throws IOException
     {
+        int batchSize;
+        synchronized (dirtyProperties) {
+            if (storeFuture != null) {
+                storeFuture.cancel(false);
+                storeFuture = null;
+            }
+            batchSize = dirtyProperties.size();
+            dirtyProperties.clear();
+        }
+
+        long startTime = System.nanoTime();
         storeConfiguration(getConfigurationFile());
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+        storeCount++;
+        storedPropertyCount += batchSize;
+        maxStoreBatchSize = Math.max(maxStoreBatchSize, batchSize);
+        storeTime += elapsed;
+        maxStoreTime = Math.max(maxStoreTime, elapsed);
+        Timber.log(TimberLog.FINER, "Stored configuration with %s changed properties in %s ms; %s",
+                batchSize, elapsed, getStoreStatistics());
+    }
+
+    /**
+     * Returns the statistics of the configuration stores, for diagnostics.
+     *
+     * @return the store count, the average and largest number of changed properties per store and
+     * the average and longest store time
+     */
+    public synchronized String getStoreStatistics()
+    {
+        return String.format("stores: %s, properties per store: %s avg / %s max, store time: %s ms avg / %s ms max",
+                storeCount, (storeCount == 0) ? 0 : storedPropertyCount / storeCount, maxStoreBatchSize,
+                (storeCount == 0) ? 0 : storeTime / storeCount, maxStoreTime);
+    }
+
+    /**
+     * Marks the specified properties as changed and (re)schedules the store of the configuration
+     * after {@link #STORE_DELAY} without further changes, or at most {@link #MAX_STORE_DELAY} after
+     * the oldest unsaved change.
+     *
+     * @param propertyNames the names of the changed properties
+     */
+    private void scheduleStore(Collection<String> propertyNames)
+    {
+        synchronized (dirtyProperties) {
+            long now = System.currentTimeMillis();
+            if (dirtyProperties.isEmpty())
+                dirtySince = now;
+            dirtyProperties.addAll(propertyNames);
+
+            if (storeFuture != null)
+                storeFuture.cancel(false);
+            long delay = Math.max(0, Math.min(STORE_DELAY, dirtySince + MAX_STORE_DELAY - now));
+            storeFuture = storeExecutor.schedule(() -> {
+                try {
+                    storeConfiguration();
+                } catch (IOException ex) {
+                    Timber.e("Failed to store configuration after property changes");
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
     }
 
     /**
@@ -869,6 +971,7 @@ public class ConfigurationServiceImpl implements ConfigurationService
             // in the sys props next time and so that it is available for other bundles to consult.
             if (store != null) {
                 store.setNonSystemProperty(PNAME_SC_HOME_DIR_LOCATION, scHomeDirLocation);
+                scheduleStore(Collections.singleton(PNAME_SC_HOME_DIR_LOCATION));
             }
         }
         return scHomeDirLocation;
@@ -900,8 +1003,10 @@ public class ConfigurationServiceImpl implements ConfigurationService
 
             // now save all this as a configuration property so that we don't have to look for it
             // in the sys props next time and so that it is available for other bundles to consult.
-            if (store != null)
+            if (store != null) {
                 store.setNonSystemProperty(PNAME_SC_HOME_DIR_NAME, scHomeDirName);
+                scheduleStore(Collections.singleton(PNAME_SC_HOME_DIR_NAME));
+            }
         }
         return scHomeDirName;
     }
@@ -1231,9 +1336,12 @@ public class ConfigurationServiceImpl implements ConfigurationService
             configurationFile.delete();
             configurationFile = null;
         }
-        if (store != null)
-            for (String name : store.getPropertyNames(""))
+        if (store != null) {
+            String[] names = store.getPropertyNames("");
+            for (String name : names)
                 store.removeProperty(name);
+            scheduleStore(Arrays.asList(names));
+        }
     }
 
     /**
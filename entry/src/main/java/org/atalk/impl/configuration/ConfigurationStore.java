@@ -43,6 +43,28 @@ public interface ConfigurationStore
 	 */
 	public String[] getPropertyNames(String name);
 
+	/**
+	 * Gets the names of the properties, as returned by {@link #getPropertyNames(String)}, which
+	 * start with a specific prefix.
+	 *
+	 * @param prefix
+	 * 		the prefix of the property names to get
+	 * @return an array of <code>String</code>s which specify the names of the properties that start
+	 * with <code>prefix</code>; an empty array if there are none
+	 */
+	public String[] getPropertyNamesByPrefix(String prefix);
+
+	/**
+	 * Gets the names of the properties, as returned by {@link #getPropertyNames(String)}, whose
+	 * last dot separated part is a specific suffix.
+	 *
+	 * @param suffix
+	 * 		the suffix of the property names to get
+	 * @return an array of <code>String</code>s which specify the names of the properties ending with
+	 * <code>suffix</code>; an empty array if there are none
+	 */
+	public String[] getPropertyNamesBySuffix(String suffix);
+
 	/**
 	 * Determines whether a specific name stands for a system property.
 	 *
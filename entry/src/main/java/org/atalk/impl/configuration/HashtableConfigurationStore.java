@@ -5,7 +5,9 @@
  */
 package org.atalk.impl.configuration;
 
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -76,6 +78,45 @@ public abstract class HashtableConfigurationStore<T extends Hashtable>
 		}
 	}
 
+	/**
+	 * Implements {@link ConfigurationStore#getPropertyNamesByPrefix(String)} by filtering the names
+	 * returned by {@link #getPropertyNames(String)}.
+	 *
+	 * @param prefix
+	 * 		the prefix of the property names to get
+	 * @return an array of the property names which start with <code>prefix</code>
+	 * @see ConfigurationStore#getPropertyNamesByPrefix(String)
+	 */
+	public String[] getPropertyNamesByPrefix(String prefix)
+	{
+		List<String> propertyNames = new ArrayList<>();
+		for (String name : getPropertyNames(prefix)) {
+			if (name.startsWith(prefix))
+				propertyNames.add(name);
+		}
+		return propertyNames.toArray(new String[0]);
+	}
+
+	/**
+	 * Implements {@link ConfigurationStore#getPropertyNamesBySuffix(String)} by filtering the names
+	 * returned by {@link #getPropertyNames(String)}.
+	 *
+	 * @param suffix
+	 * 		the suffix of the property names to get
+	 * @return an array of the property names whose last dot separated part is <code>suffix</code>
+	 * @see ConfigurationStore#getPropertyNamesBySuffix(String)
+	 */
+	public String[] getPropertyNamesBySuffix(String suffix)
+	{
+		List<String> propertyNames = new ArrayList<>();
+		for (String name : getPropertyNames(suffix)) {
+			int ix = name.lastIndexOf('.');
+			if ((ix != -1) && suffix.equals(name.substring(ix + 1)))
+				propertyNames.add(name);
+		}
+		return propertyNames.toArray(new String[0]);
+	}
+
 	/**
 	 * Implements {@link ConfigurationStore#isSystemProperty(String)}. Considers a property to be
 	 * system if the system properties contain a value associated with its name.
@@ -19,7 +19,9 @@ import org.xml.sax.SAXException;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
@@ -146,6 +148,43 @@ public class XMLConfigurationStore implements ConfigurationStore
         return propertyNames.toArray(new String[0]);
     }
 
+    /**
+     * Implements {ConfigurationStore#getPropertyNamesByPrefix(String)}. Gets the names of the
+     * properties which start with a specific prefix.
+     *
+     * @param prefix the prefix of the property names to get
+     * @return an array of the property names which start with <code>prefix</code>
+     * @see ConfigurationStore#getPropertyNamesByPrefix(String)
+     */
+    public String[] getPropertyNamesByPrefix(String prefix)
+    {
+        List<String> propertyNames = new ArrayList<>();
+        for (String name : getPropertyNames(prefix)) {
+            if (name.startsWith(prefix))
+                propertyNames.add(name);
+        }
+        return propertyNames.toArray(new String[0]);
+    }
+
+    /**
+     * Implements {ConfigurationStore#getPropertyNamesBySuffix(String)}. Gets the names of the
+     * properties whose last dot separated part is a specific suffix.
+     *
+     * @param suffix the suffix of the property names to get
+     * @return an array of the property names whose last dot separated part is <code>suffix</code>
+     * @see ConfigurationStore#getPropertyNamesBySuffix(String)
+     */
+    public String[] getPropertyNamesBySuffix(String suffix)
+    {
+        List<String> propertyNames = new ArrayList<>();
+        for (String name : getPropertyNames(suffix)) {
+            int ix = name.lastIndexOf('.');
+            if ((ix != -1) && suffix.equals(name.substring(ix + 1)))
+                propertyNames.add(name);
+        }
+        return propertyNames.toArray(new String[0]);
+    }
+
     /**
      * Implements {ConfigurationStore#isSystemProperty(String)}. Determines whether a specific
      * name stands for a system property.
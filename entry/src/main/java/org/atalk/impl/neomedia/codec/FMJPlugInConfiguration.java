@@ -52,6 +52,7 @@ public class FMJPlugInConfiguration
             OSUtils.IS_ANDROID ? "org.atalk.impl.neomedia.codec.video.AndroidEncoder" : null,
             OSUtils.IS_ANDROID ? "org.atalk.impl.neomedia.codec.video.AndroidDecoder" : null,
             "org.atalk.impl.neomedia.codec.audio.alaw.DePacketizer",
+            "org.atalk.impl.neomedia.codec.audio.alaw.JavaDecoder",
             "org.atalk.impl.neomedia.codec.audio.alaw.JavaEncoder",
             "org.atalk.impl.neomedia.codec.audio.alaw.Packetizer",
             "org.atalk.impl.neomedia.codec.audio.ulaw.JavaDecoder",
@@ -62,10 +63,14 @@ public class FMJPlugInConfiguration
             "org.atalk.impl.neomedia.codec.audio.speex.JNIDecoder",
             "org.atalk.impl.neomedia.codec.audio.speex.JNIEncoder",
             "org.atalk.impl.neomedia.codec.audio.speex.SpeexResampler",
+            // Registered after SpeexResampler so that it takes precedence; Speex remains as fallback.
+            "org.atalk.impl.neomedia.codec.audio.resampler.JavaResampler",
             "org.atalk.impl.neomedia.codec.audio.ilbc.JavaDecoder",
             "org.atalk.impl.neomedia.codec.audio.ilbc.JavaEncoder",
 
-            // g722
+            // g722: the java codecs are registered first so the JNI ones take precedence when available
+            "org.atalk.impl.neomedia.codec.audio.g722.JavaDecoder",
+            "org.atalk.impl.neomedia.codec.audio.g722.JavaEncoder",
             "org.atalk.impl.neomedia.codec.audio.g722.JNIDecoder",
             "org.atalk.impl.neomedia.codec.audio.g722.JNIEncoder",
 
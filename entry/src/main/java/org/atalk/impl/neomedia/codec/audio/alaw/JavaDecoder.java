@@ -0,0 +1,141 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license. See terms of license at gnu.org.
+ */
+package org.atalk.impl.neomedia.codec.audio.alaw;
+
+import com.sun.media.controls.SilenceSuppressionAdapter;
+
+import javax.media.Buffer;
+import javax.media.Format;
+import javax.media.format.AudioFormat;
+
+/**
+ * The ALAW Decoder. Table driven; bit-exact with the FMJ ALawDecoderUtil.
+ *
+ * @author Eng Chong Meng
+ */
+public class JavaDecoder extends com.ibm.media.codec.audio.AudioCodec {
+    /**
+     * The low order byte of the 16-bit PCM value for each a-law input byte.
+     */
+    private static final byte[] lutTableL = new byte[256];
+
+    /**
+     * The high order byte of the 16-bit PCM value for each a-law input byte.
+     */
+    private static final byte[] lutTableH = new byte[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            short value = decode((byte) i);
+
+            lutTableL[i] = (byte) value;
+            lutTableH[i] = (byte) (value >> 8);
+        }
+    }
+
+    /**
+     * Constructs the decoder and init the supported formats.
+     */
+    public JavaDecoder() {
+        supportedInputFormats = new AudioFormat[]{new AudioFormat(AudioFormat.ALAW)};
+        defaultOutputFormats = new AudioFormat[]{new AudioFormat(AudioFormat.LINEAR)};
+        PLUGIN_NAME = "A-Law Decoder";
+    }
+
+    @Override
+    public Object[] getControls() {
+        if (controls == null) {
+            controls = new Object[]{new SilenceSuppressionAdapter(this, false, false)};
+        }
+        return controls;
+    }
+
+    /**
+     * Returns the output formats according to the input.
+     *
+     * @param in the input format.
+     *
+     * @return the possible output formats.
+     */
+    @Override
+    protected Format[] getMatchingOutputFormats(Format in) {
+        AudioFormat af = (AudioFormat) in;
+
+        supportedOutputFormats = new AudioFormat[]{new AudioFormat(AudioFormat.LINEAR,
+                af.getSampleRate(), 16, af.getChannels(), AudioFormat.LITTLE_ENDIAN, AudioFormat.SIGNED)};
+        return supportedOutputFormats;
+    }
+
+    /**
+     * No resources to be opened.
+     */
+    @Override
+    public void open() {
+    }
+
+    /**
+     * Decodes the input buffer into 16-bit little endian PCM.
+     *
+     * @param inputBuffer Buffer
+     * @param outputBuffer Buffer
+     *
+     * @return int
+     */
+    public int process(Buffer inputBuffer, Buffer outputBuffer) {
+        if (!checkInputBuffer(inputBuffer)) {
+            return BUFFER_PROCESSED_FAILED;
+        }
+
+        if (isEOM(inputBuffer)) {
+            propagateEOM(outputBuffer);
+            return BUFFER_PROCESSED_OK;
+        }
+
+        byte[] inData = (byte[]) inputBuffer.getData();
+        int inpLength = inputBuffer.getLength();
+        int outLength = 2 * inpLength;
+
+        int inOffset = inputBuffer.getOffset();
+        int outOffset = outputBuffer.getOffset();
+        byte[] outData = validateByteArraySize(outputBuffer, outOffset + outLength);
+
+        final byte[] tableL = lutTableL;
+        final byte[] tableH = lutTableH;
+        for (int end = inOffset + inpLength; inOffset < end; inOffset++) {
+            int temp = inData[inOffset] & 0xff;
+            outData[outOffset++] = tableL[temp];
+            outData[outOffset++] = tableH[temp];
+        }
+
+        updateOutput(outputBuffer, outputFormat, outLength, outputBuffer.getOffset());
+        return BUFFER_PROCESSED_OK;
+    }
+
+    /**
+     * Decode one a-law byte. Internal use only.
+     *
+     * @param alaw The encoded a-law byte
+     *
+     * @return the 16-bit pcm value
+     */
+    private static short decode(byte alaw) {
+        // Invert every other bit, and the sign bit (0xD5 = 1101 0101)
+        alaw ^= 0xD5;
+
+        int sign = alaw & 0x80;
+        int exponent = (alaw & 0x70) >> 4;
+        // The four mantissa bits, put in the middle of their quantization interval
+        int data = ((alaw & 0x0f) << 4) + 8;
+
+        // A non zero exponent implies a leading 1 before the four mantissa bits
+        if (exponent != 0)
+            data += 0x100;
+        if (exponent > 1)
+            data <<= (exponent - 1);
+
+        return (short) (sign == 0 ? data : -data);
+    }
+}
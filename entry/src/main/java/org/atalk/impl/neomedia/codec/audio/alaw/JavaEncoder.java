@@ -160,7 +160,7 @@ public class JavaEncoder extends com.ibm.media.codec.audio.AudioCodec {
     static {
         pcmToALawMap = new byte[65536];
         for (int i = Short.MIN_VALUE; i <= Short.MAX_VALUE; i++)
-            pcmToALawMap[uShortToInt((short) i)] = encode(i);
+            pcmToALawMap[i & 0xffff] = encode(i);
     }
 
     /**
@@ -208,10 +208,10 @@ public class JavaEncoder extends com.ibm.media.codec.audio.AudioCodec {
      * @param target the target array to fill.
      */
     public static void aLawEncodeLittleEndian(byte[] data, int offset, int length, byte[] target) {
-        int size = length / 2;
-        for (int i = 0; i < size; i++)
-            target[i] = aLawEncode(((data[offset + 2 * i + 1] & 0xff) << 8)
-                    | (data[offset + 2 * i]) & 0xff);
+        final byte[] map = pcmToALawMap;
+        int end = offset + (length & ~1);
+        for (int i = offset, t = 0; i < end; i += 2)
+            target[t++] = map[((data[i + 1] & 0xff) << 8) | (data[i] & 0xff)];
     }
 
     /**
@@ -223,10 +223,10 @@ public class JavaEncoder extends com.ibm.media.codec.audio.AudioCodec {
      * @param target the target array to fill.
      */
     public static void aLawEncodeBigEndian(byte[] data, int offset, int length, byte[] target) {
-        int size = length / 2;
-        for (int i = 0; i < size; i++)
-            target[i] = aLawEncode(((data[offset + 2 * i + 1]) & 0xff)
-                    | ((data[offset + 2 * i] & 0xff) << 8));
+        final byte[] map = pcmToALawMap;
+        int end = offset + (length & ~1);
+        for (int i = offset, t = 0; i < end; i += 2)
+            target[t++] = map[((data[i] & 0xff) << 8) | (data[i + 1] & 0xff)];
     }
 
     /**
@@ -237,7 +237,7 @@ public class JavaEncoder extends com.ibm.media.codec.audio.AudioCodec {
      * @return A a-law encoded byte
      */
     public static byte aLawEncode(int pcm) {
-        return pcmToALawMap[uShortToInt((short) (pcm & 0xffff))];
+        return pcmToALawMap[pcm & 0xffff];
     }
 
     /**
@@ -19,6 +19,15 @@ public class G722
         System.loadLibrary("jng722");
     }
 
+    /**
+     * Asserts that the native jng722 library is loaded and functional, so that the JNI codecs
+     * fail their registration rather than their open() when the library is missing.
+     */
+    public static void assertG722IsFunctional()
+    {
+        g722_encoder_close(g722_encoder_open());
+    }
+
     public static native void g722_decoder_close(long decoder);
 
     public static native long g722_decoder_open();
@@ -0,0 +1,253 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.codec.audio.g722;
+
+/**
+ * The per sub-band ADPCM state of the G.722 codec together with the tables and the adaptive
+ * predictor (block 4) shared by {@link G722Encoder} and {@link G722Decoder}.
+ *
+ * Ported from the SpanDSP g722.c (Steve Underwood, based on the CMU single channel G.722 codec)
+ * used by the native jng722 library, so that the output is bit-exact with the JNI codec.
+ *
+ * @author Eng Chong Meng
+ */
+final class G722Band
+{
+    static final short[] QMF_COEFFS_FWD = {
+            3, -11, 12, 32, -210, 951, 3876, -805, 362, -156, 53, -11
+    };
+
+    static final short[] QMF_COEFFS_REV = {
+            -11, 53, -156, 362, -805, 3876, 951, -210, 32, 12, -11, 3
+    };
+
+    static final short[] QM2 = {
+            -7408, -1616, 7408, 1616
+    };
+
+    static final short[] QM4 = {
+            0, -20456, -12896, -8968, -6288, -4240, -2584, -1200,
+            20456, 12896, 8968, 6288, 4240, 2584, 1200, 0
+    };
+
+    static final short[] QM6 = {
+            -136, -136, -136, -136, -24808, -21904, -19008, -16704,
+            -14984, -13512, -12280, -11192, -10232, -9360, -8576, -7856,
+            -7192, -6576, -6000, -5456, -4944, -4464, -4008, -3576,
+            -3168, -2776, -2400, -2032, -1688, -1360, -1040, -728,
+            24808, 21904, 19008, 16704, 14984, 13512, 12280, 11192,
+            10232, 9360, 8576, 7856, 7192, 6576, 6000, 5456,
+            4944, 4464, 4008, 3576, 3168, 2776, 2400, 2032,
+            1688, 1360, 1040, 728, 432, 136, -432, -136
+    };
+
+    static final short[] Q6 = {
+            0, 35, 72, 110, 150, 190, 233, 276,
+            323, 370, 422, 473, 530, 587, 650, 714,
+            786, 858, 940, 1023, 1121, 1219, 1339, 1458,
+            1612, 1765, 1980, 2195, 2557, 2919, 0, 0
+    };
+
+    static final short[] ILB = {
+            2048, 2093, 2139, 2186, 2233, 2282, 2332, 2383,
+            2435, 2489, 2543, 2599, 2656, 2714, 2774, 2834,
+            2896, 2960, 3025, 3091, 3158, 3228, 3298, 3371,
+            3444, 3520, 3597, 3676, 3756, 3838, 3922, 4008
+    };
+
+    static final short[] ILN = {
+            0, 63, 62, 31, 30, 29, 28, 27,
+            26, 25, 24, 23, 22, 21, 20, 19,
+            18, 17, 16, 15, 14, 13, 12, 11,
+            10, 9, 8, 7, 6, 5, 4, 0
+    };
+
+    static final short[] ILP = {
+            0, 61, 60, 59, 58, 57, 56, 55,
+            54, 53, 52, 51, 50, 49, 48, 47,
+            46, 45, 44, 43, 42, 41, 40, 39,
+            38, 37, 36, 35, 34, 33, 32, 0
+    };
+
+    static final short[] IHN = {
+            0, 1, 0
+    };
+
+    static final short[] IHP = {
+            0, 3, 2
+    };
+
+    static final short[] WL = {
+            -60, -30, 58, 172, 334, 538, 1198, 3042
+    };
+
+    static final short[] RL42 = {
+            0, 7, 6, 5, 4, 3, 2, 1, 7, 6, 5, 4, 3, 2, 1, 0
+    };
+
+    static final short[] WH = {
+            0, -214, 798
+    };
+
+    static final short[] RH2 = {
+            2, 1, 2, 1
+    };
+
+    short nb;
+    short det;
+    short s;
+    short sz;
+    short r;
+    final short[] p = new short[2];
+    final short[] a = new short[2];
+    final short[] b = new short[6];
+    final short[] d = new short[7];
+
+    /**
+     * Initializes a new <code>G722Band</code> with the specified initial quantizer scale factor.
+     *
+     * @param det the initial quantizer scale factor (32 for the lower band, 8 for the higher band)
+     */
+    G722Band(int det)
+    {
+        this.det = (short) det;
+    }
+
+    static short saturate(int amp)
+    {
+        short amp16 = (short) amp;
+
+        if (amp == amp16)
+            return amp16;
+        return (amp > Short.MAX_VALUE) ? Short.MAX_VALUE : Short.MIN_VALUE;
+    }
+
+    static short saturate15(int amp)
+    {
+        if (amp > 16383)
+            return 16383;
+        if (amp < -16384)
+            return -16384;
+        return (short) amp;
+    }
+
+    static short add16(int a, int b)
+    {
+        return saturate(a + b);
+    }
+
+    static short sub16(int a, int b)
+    {
+        return saturate(a - b);
+    }
+
+    /**
+     * Circular dot product of the QMF history <code>x</code>, starting at <code>pos</code>, with <code>y</code>.
+     */
+    static int circularDotProduct(short[] x, short[] y, int pos)
+    {
+        int n = x.length;
+        int z = 0;
+        int k = 0;
+
+        for (int i = pos; i < n; i++)
+            z += x[i] * y[k++];
+        for (int i = 0; i < pos; i++)
+            z += x[i] * y[k++];
+        return z;
+    }
+
+    /**
+     * Updates the quantizer scale factor from the current log scale factor <code>nb</code>.
+     *
+     * @param shift 8 for the lower band (SCALEL), 10 for the higher band (SCALEH)
+     */
+    void scale(int shift)
+    {
+        int wd1 = (nb >> 6) & 31;
+        int wd2 = shift - (nb >> 11);
+        int wd3 = (wd2 < 0) ? (ILB[wd1] << -wd2) : (ILB[wd1] >> wd2);
+
+        det = (short) (wd3 << 2);
+    }
+
+    /**
+     * Block 4: reconstructs the signal and adapts the pole and zero predictor for the next sample.
+     *
+     * @param dx the quantized difference signal
+     */
+    void block4(short dx)
+    {
+        int wd1, wd2, wd3;
+        int wd32;
+
+        /* RECONS */
+        short r = add16(s, dx);
+        /* PARREC */
+        short p = add16(sz, dx);
+
+        /* UPPOL2 */
+        wd1 = saturate(a[0] << 2);
+        wd32 = (((p ^ this.p[0]) & 0x8000) != 0) ? wd1 : -wd1;
+        if (wd32 > 32767)
+            wd32 = 32767;
+        wd3 = (short) (((((p ^ this.p[1]) & 0x8000) != 0) ? -128 : 128)
+                + (wd32 >> 7)
+                + ((a[1] * 32512) >> 15));
+        if (Math.abs(wd3) > 12288)
+            wd3 = (wd3 < 0) ? -12288 : 12288;
+        short ap1 = (short) wd3;
+
+        /* UPPOL1 */
+        wd1 = (((p ^ this.p[0]) & 0x8000) != 0) ? -192 : 192;
+        wd2 = (short) ((a[0] * 32640) >> 15);
+        short ap0 = add16(wd1, wd2);
+
+        wd3 = sub16(15360, ap1);
+        if (Math.abs(ap0) > wd3)
+            ap0 = (short) ((ap0 < 0) ? -wd3 : wd3);
+
+        /* FILTEP */
+        wd1 = add16(r, r);
+        wd1 = (short) ((ap0 * wd1) >> 15);
+        wd2 = add16(this.r, this.r);
+        wd2 = (short) ((ap1 * wd2) >> 15);
+        short sp = add16(wd1, wd2);
+        this.r = r;
+        a[1] = ap1;
+        a[0] = ap0;
+        this.p[1] = this.p[0];
+        this.p[0] = p;
+
+        /* UPZERO, DELAYA, FILTEZ */
+        wd1 = (dx == 0) ? 0 : 128;
+        d[0] = dx;
+        int sz = 0;
+        for (int i = 5; i >= 0; i--) {
+            wd2 = (((d[i + 1] ^ dx) & 0x8000) != 0) ? -wd1 : wd1;
+            wd3 = (short) ((b[i] * 32640) >> 15);
+            b[i] = add16(wd2, wd3);
+            wd3 = add16(d[i], d[i]);
+            sz += (b[i] * wd3) >> 15;
+            d[i + 1] = d[i];
+        }
+        this.sz = saturate(sz);
+
+        /* PREDIC */
+        s = add16(sp, this.sz);
+    }
+}
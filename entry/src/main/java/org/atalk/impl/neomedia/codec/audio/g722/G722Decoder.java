@@ -0,0 +1,127 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.codec.audio.g722;
+
+import static org.atalk.impl.neomedia.codec.audio.g722.G722Band.*;
+
+/**
+ * A pure-java G.722 decoder at 64 kbit/s: each code byte is split into its 6-bit lower and 2-bit
+ * higher sub-band ADPCM codes, which are decoded and recombined by the receive QMF into two 16 kHz
+ * 16-bit PCM samples. All the state is allocated on construction; {@link #decode} does not allocate.
+ *
+ * @author Eng Chong Meng
+ */
+public class G722Decoder
+{
+    /**
+     * The lower and higher sub-band ADPCM state.
+     */
+    private final G722Band low = new G722Band(32);
+
+    private final G722Band high = new G722Band(8);
+
+    /**
+     * The receive QMF signal history.
+     */
+    private final short[] x = new short[12];
+
+    private final short[] y = new short[12];
+
+    private int ptr;
+
+    /**
+     * Decodes G.722 code words into 16-bit little endian PCM sampled at 16 kHz.
+     *
+     * @param input the G.722 code words
+     * @param inputOffset the offset in <code>input</code> of the first code word
+     * @param output the array to receive the PCM samples
+     * @param outputOffset the byte offset in <code>output</code> at which to write
+     * @param outputLength the number of bytes to produce i.e. four times the number of code words
+     */
+    public void decode(byte[] input, int inputOffset, byte[] output, int outputOffset, int outputLength)
+    {
+        final G722Band low = this.low;
+        final G722Band high = this.high;
+        int j = inputOffset;
+
+        for (int o = outputOffset, end = outputOffset + (outputLength & ~3); o < end; ) {
+            int code = input[j++] & 0xFF;
+            int wd1 = code & 0x3F;
+            int ihigh = (code >> 6) & 0x03;
+            int wd2 = QM6[wd1];
+            wd1 >>= 2;
+
+            /* Block 5L, LOW BAND INVQBL */
+            wd2 = (low.det * wd2) >> 15;
+            /* Block 5L, RECONS; Block 6L, LIMIT */
+            int rlow = saturate15(low.s + wd2);
+
+            /* Block 2L, INVQAL */
+            short dlow = (short) ((low.det * QM4[wd1]) >> 15);
+
+            /* Block 3L, LOGSCL */
+            wd2 = RL42[wd1];
+            wd1 = (low.nb * 127) >> 7;
+            wd1 += WL[wd2];
+            if (wd1 < 0)
+                wd1 = 0;
+            else if (wd1 > 18432)
+                wd1 = 18432;
+            low.nb = (short) wd1;
+
+            /* Block 3L, SCALEL */
+            low.scale(8);
+            low.block4(dlow);
+
+            /* Block 2H, INVQAH */
+            short dhigh = (short) ((high.det * QM2[ihigh]) >> 15);
+            /* Block 5H, RECONS; Block 6H, LIMIT */
+            int rhigh = saturate15(dhigh + high.s);
+
+            /* Block 3H, LOGSCH */
+            wd2 = RH2[ihigh];
+            wd1 = (high.nb * 127) >> 7;
+            wd1 += WH[wd2];
+            if (wd1 < 0)
+                wd1 = 0;
+            else if (wd1 > 22528)
+                wd1 = 22528;
+            high.nb = (short) wd1;
+
+            /* Block 3H, SCALEH */
+            high.scale(10);
+            high.block4(dhigh);
+
+            /* Apply the QMF to build the final signal */
+            x[ptr] = (short) (rlow + rhigh);
+            y[ptr] = (short) (rlow - rhigh);
+            if (++ptr >= 12)
+                ptr = 0;
+            /*
+             * Shift by 12 for the QMF filters (DC gain = 4096), less 1 for the 15 bit input
+             * to the G.722 algorithm.
+             */
+            int s0 = circularDotProduct(y, QMF_COEFFS_REV, ptr) >> 11;
+            int s1 = circularDotProduct(x, QMF_COEFFS_FWD, ptr) >> 11;
+
+            output[o++] = (byte) s0;
+            output[o++] = (byte) (s0 >> 8);
+            output[o++] = (byte) s1;
+            output[o++] = (byte) (s1 >> 8);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.codec.audio.g722;
+
+import static org.atalk.impl.neomedia.codec.audio.g722.G722Band.*;
+
+/**
+ * A pure-java G.722 encoder at 64 kbit/s: 16 kHz 16-bit PCM is split by the transmit QMF into two
+ * sub-bands which are ADPCM coded with 6 and 2 bits respectively, giving one byte per pair of input
+ * samples. All the state is allocated on construction; {@link #encode} does not allocate.
+ *
+ * @author Eng Chong Meng
+ */
+public class G722Encoder
+{
+    /**
+     * The lower and higher sub-band ADPCM state.
+     */
+    private final G722Band low = new G722Band(32);
+
+    private final G722Band high = new G722Band(8);
+
+    /**
+     * The transmit QMF signal history.
+     */
+    private final short[] x = new short[12];
+
+    private final short[] y = new short[12];
+
+    private int ptr;
+
+    /**
+     * Encodes 16-bit little endian PCM sampled at 16 kHz.
+     *
+     * @param input the PCM samples
+     * @param inputOffset the byte offset in <code>input</code> of the first sample
+     * @param output the array to receive the G.722 code words
+     * @param outputOffset the offset in <code>output</code> at which to write
+     * @param outputLength the number of bytes to produce i.e. half the number of input samples
+     */
+    public void encode(byte[] input, int inputOffset, byte[] output, int outputOffset, int outputLength)
+    {
+        final G722Band low = this.low;
+        final G722Band high = this.high;
+        int j = inputOffset;
+
+        for (int o = outputOffset, end = outputOffset + outputLength; o < end; o++) {
+            /* Apply the transmit QMF */
+            x[ptr] = (short) ((input[j] & 0xFF) | (input[j + 1] << 8));
+            y[ptr] = (short) ((input[j + 2] & 0xFF) | (input[j + 3] << 8));
+            j += 4;
+            if (++ptr >= 12)
+                ptr = 0;
+            int sumodd = circularDotProduct(x, QMF_COEFFS_FWD, ptr);
+            int sumeven = circularDotProduct(y, QMF_COEFFS_REV, ptr);
+            /*
+             * Shift by 12 for the QMF filters (DC gain = 4096), plus 1 for summing two filters,
+             * plus 1 for the 15 bit input to the G.722 algorithm.
+             */
+            short xlow = (short) ((sumeven + sumodd) >> 14);
+            short xhigh = (short) ((sumeven - sumodd) >> 14);
+
+            /* Block 1L, SUBTRA */
+            short el = sub16(xlow, low.s);
+
+            /* Block 1L, QUANTL */
+            int wd = (el >= 0) ? el : ~el;
+            int i;
+            for (i = 1; i < 30; i++) {
+                if (wd < ((Q6[i] * low.det) >> 12))
+                    break;
+            }
+            int ilow = (el < 0) ? ILN[i] : ILP[i];
+
+            /* Block 2L, INVQAL */
+            int ril = ilow >> 2;
+            short dlow = (short) ((low.det * QM4[ril]) >> 15);
+
+            /* Block 3L, LOGSCL */
+            wd = (low.nb * 127) >> 7;
+            low.nb = (short) (wd + WL[RL42[ril]]);
+            if (low.nb < 0)
+                low.nb = 0;
+            else if (low.nb > 18432)
+                low.nb = 18432;
+
+            /* Block 3L, SCALEL */
+            low.scale(8);
+            low.block4(dlow);
+
+            /* Block 1H, SUBTRA */
+            short eh = sub16(xhigh, high.s);
+
+            /* Block 1H, QUANTH */
+            wd = (eh >= 0) ? eh : ~eh;
+            int mih = (wd >= ((564 * high.det) >> 12)) ? 2 : 1;
+            int ihigh = (eh < 0) ? IHN[mih] : IHP[mih];
+
+            /* Block 2H, INVQAH */
+            short dhigh = (short) ((high.det * QM2[ihigh]) >> 15);
+
+            /* Block 3H, LOGSCH */
+            wd = (high.nb * 127) >> 7;
+            high.nb = (short) (wd + WH[RH2[ihigh]]);
+            if (high.nb < 0)
+                high.nb = 0;
+            else if (high.nb > 22528)
+                high.nb = 22528;
+
+            /* Block 3H, SCALEH */
+            high.scale(10);
+            high.block4(dhigh);
+
+            output[o] = (byte) ((ihigh << 6) | ilow);
+        }
+    }
+}
@@ -27,6 +27,14 @@ import javax.media.format.AudioFormat;
  * @author Lyubomir Marinov
  */
 public class JNIDecoder extends AbstractCodec2 {
+    /*
+     * If the G722 class or its supporting JNI library are not functional, it is too late to
+     * discover the fact in #doOpen(); let the registration fail so that the JavaDecoder is used.
+     */
+    static {
+        G722.assertG722IsFunctional();
+    }
+
     private long decoder;
 
     static final Format[] SUPPORTED_INPUT_FORMATS = new Format[]{
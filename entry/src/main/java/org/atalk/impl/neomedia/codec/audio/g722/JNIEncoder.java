@@ -28,6 +28,10 @@ import javax.media.format.AudioFormat;
  */
 public class JNIEncoder extends AbstractCodec2
 {
+    static {
+        G722.assertG722IsFunctional();
+    }
+
     private long encoder;
 
     /**
@@ -0,0 +1,127 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.codec.audio.g722;
+
+import org.atalk.impl.neomedia.codec.AbstractCodec2;
+
+import javax.media.Buffer;
+import javax.media.Format;
+import javax.media.ResourceUnavailableException;
+import javax.media.format.AudioFormat;
+
+/**
+ * Implements the G.722 encoder in pure java as an FMJ <code>Codec</code>; used when the native
+ * jng722 library backing {@link JNIEncoder} is not available.
+ *
+ * @author Eng Chong Meng
+ */
+public class JavaEncoder extends AbstractCodec2
+{
+    private G722Encoder encoder;
+
+    /**
+     * Initializes a new {@code JavaEncoder} instance.
+     */
+    public JavaEncoder()
+    {
+        super("G.722 Java Encoder", AudioFormat.class, JavaDecoder.SUPPORTED_INPUT_FORMATS);
+
+        inputFormats = JavaDecoder.SUPPORTED_OUTPUT_FORMATS;
+    }
+
+    private long computeDuration(long length)
+    {
+        return (length * 1000000L) / 8L;
+    }
+
+    /**
+     * @see AbstractCodec2#doClose()
+     */
+    @Override
+    protected void doClose()
+    {
+        encoder = null;
+    }
+
+    /**
+     * @see AbstractCodec2#doOpen()
+     */
+    @Override
+    protected void doOpen()
+            throws ResourceUnavailableException
+    {
+        encoder = new G722Encoder();
+    }
+
+    /**
+     * @see AbstractCodec2#doProcess(Buffer, Buffer)
+     */
+    @Override
+    protected int doProcess(Buffer inputBuffer, Buffer outputBuffer)
+    {
+        int inputOffset = inputBuffer.getOffset();
+        int inputLength = inputBuffer.getLength();
+        byte[] input = (byte[]) inputBuffer.getData();
+
+        int outputOffset = outputBuffer.getOffset();
+        int outputLength = inputLength / 4;
+        byte[] output = validateByteArraySize(outputBuffer, outputOffset + outputLength, true);
+
+        encoder.encode(input, inputOffset, output, outputOffset, outputLength);
+        outputBuffer.setDuration(computeDuration(outputLength));
+        outputBuffer.setFormat(getOutputFormat());
+        outputBuffer.setLength(outputLength);
+        return BUFFER_PROCESSED_OK;
+    }
+
+    /**
+     * Get the output <code>Format</code>.
+     *
+     * @return output <code>Format</code> configured for this <code>Codec</code>
+     * @see net.sf.fmj.media.AbstractCodec#getOutputFormat()
+     */
+    @Override
+    public Format getOutputFormat()
+    {
+        Format outputFormat = super.getOutputFormat();
+
+        if ((outputFormat != null) && (outputFormat.getClass() == AudioFormat.class)) {
+            AudioFormat outputAudioFormat = (AudioFormat) outputFormat;
+
+            outputFormat = setOutputFormat(new AudioFormat(
+                    outputAudioFormat.getEncoding(),
+                    outputAudioFormat.getSampleRate(),
+                    outputAudioFormat.getSampleSizeInBits(),
+                    outputAudioFormat.getChannels(),
+                    outputAudioFormat.getEndian(),
+                    outputAudioFormat.getSigned(),
+                    outputAudioFormat.getFrameSizeInBits(),
+                    outputAudioFormat.getFrameRate(),
+                    outputAudioFormat.getDataType())
+            {
+                private static final long serialVersionUID = 0L;
+
+                @Override
+                public long computeDuration(long length)
+                {
+                    return JavaEncoder.this.computeDuration(length);
+                }
+            });
+        }
+        return outputFormat;
+    }
+}
@@ -8,9 +8,6 @@ package org.atalk.impl.neomedia.codec.audio.ilbc;
 import org.atalk.impl.neomedia.codec.AbstractCodec2;
 import org.atalk.service.neomedia.codec.Constants;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import javax.media.Buffer;
 import javax.media.Codec;
 import javax.media.Format;
@@ -35,11 +32,6 @@ public class JavaDecoder extends AbstractCodec2
 	 */
 	private int inputLength;
 
-	/**
-	 * List of offsets for a "more than one" iLBC frame per RTP packet.
-	 */
-	private List<Integer> offsets = new ArrayList<Integer>();
-
 	/**
 	 * Initializes a new iLBC <code>JavaDecoder</code> instance.
 	 */
@@ -90,47 +82,34 @@ public class JavaDecoder extends AbstractCodec2
 		byte[] input = (byte[]) inputBuffer.getData();
 		int inputLength = inputBuffer.getLength();
 
-		if (offsets.size() == 0 && inputLength > ilbc_constants.NO_OF_BYTES_20MS && inputLength != ilbc_constants.NO_OF_BYTES_30MS) {
-			int nb = 0;
-			int len = 0;
-
-			if ((inputLength % ilbc_constants.NO_OF_BYTES_20MS) == 0) {
-				nb = (inputLength % ilbc_constants.NO_OF_BYTES_20MS);
-				len = ilbc_constants.NO_OF_BYTES_20MS;
-			}
-			else if ((inputLength % ilbc_constants.NO_OF_BYTES_30MS) == 0) {
-				nb = (inputLength % ilbc_constants.NO_OF_BYTES_30MS);
-				len = ilbc_constants.NO_OF_BYTES_30MS;
-			}
-
-			if (this.inputLength != len)
-				initDec(len);
-
-			for (int i = 0; i < nb; i++) {
-				offsets.add(inputLength + (i * len));
-			}
-		}
-		else if (this.inputLength != inputLength)
-			initDec(inputLength);
-
-		int outputLength = dec.ULP_inst.blockl * 2;
+		/*
+		 * An RTP packet may carry more than one iLBC frame (RFC 3952), all of the same mode. Keep
+		 * the current mode when the length is a multiple of its frame size, otherwise try 30 ms
+		 * and then 20 ms.
+		 */
+		int frameLength;
+
+		if ((this.inputLength != 0) && (inputLength % this.inputLength) == 0)
+			frameLength = this.inputLength;
+		else if ((inputLength % ilbc_constants.NO_OF_BYTES_30MS) == 0)
+			frameLength = ilbc_constants.NO_OF_BYTES_30MS;
+		else if ((inputLength % ilbc_constants.NO_OF_BYTES_20MS) == 0)
+			frameLength = ilbc_constants.NO_OF_BYTES_20MS;
+		else
+			frameLength = inputLength;
+
+		if (this.inputLength != frameLength)
+			initDec(frameLength);
+
+		int frames = inputLength / frameLength;
+		int outputLength = frames * dec.ULP_inst.blockl * 2;
 		byte[] output = validateByteArraySize(outputBuffer, outputLength, false);
 		int outputOffset = 0;
 
-		int offsetToAdd = 0;
-
-		if (offsets.size() > 0)
-			offsetToAdd = offsets.remove(0);
-
-		dec.decode(output, outputOffset, input, inputBuffer.getOffset() + offsetToAdd, (short) 1);
+		dec.decode(output, outputOffset, input, inputBuffer.getOffset(), frames, (short) 1);
 
 		updateOutput(outputBuffer, getOutputFormat(), outputLength, outputOffset);
-		int flags = BUFFER_PROCESSED_OK;
-
-		if (offsets.size() > 0)
-			flags |= INPUT_BUFFER_NOT_CONSUMED;
-
-		return flags;
+		return BUFFER_PROCESSED_OK;
 	}
 
 	@Override
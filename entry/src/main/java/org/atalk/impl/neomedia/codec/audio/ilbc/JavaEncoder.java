@@ -47,7 +47,7 @@ public class JavaEncoder extends AbstractCodec2 implements FormatParametersAware
 
 	/**
 	 * The input from previous calls to {@link #doProcess(Buffer, Buffer)} which has not been
-	 * consumed yet.
+	 * consumed yet. Sized for the longer 30 ms frame so that a mode change does not reallocate it.
 	 */
 	private byte[] prevIn;
 
@@ -117,6 +117,7 @@ public class JavaEncoder extends AbstractCodec2 implements FormatParametersAware
 		int inLen = inBuffer.getLength();
 		byte[] in = (byte[]) inBuffer.getData();
 		int inOff = inBuffer.getOffset();
+		int frames = 1;
 
 		if ((prevInLen != 0) || (inLen < this.inLen)) {
 			int bytesToCopy = this.inLen - prevInLen;
@@ -134,8 +135,13 @@ public class JavaEncoder extends AbstractCodec2 implements FormatParametersAware
 			inOff = 0;
 		}
 		else {
-			inBuffer.setLength(inLen - this.inLen);
-			inBuffer.setOffset(inOff + this.inLen);
+			/*
+			 * Encode all the whole frames of a larger input in one go and send them in a single
+			 * RTP packet, which RFC 3952 allows.
+			 */
+			frames = inLen / this.inLen;
+			inBuffer.setLength(inLen - frames * this.inLen);
+			inBuffer.setOffset(inOff + frames * this.inLen);
 		}
 
 		int ret;
@@ -149,12 +155,11 @@ public class JavaEncoder extends AbstractCodec2 implements FormatParametersAware
 			prevInLen = 0;
 
 			int outOff = 0;
-			byte[] out = validateByteArraySize(outBuffer, outOff + outLen, true);
-
-			enc.encode(out, outOff, in, inOff);
+			byte[] out = validateByteArraySize(outBuffer, outOff + frames * outLen, true);
+			int len = enc.encode(out, outOff, in, inOff, frames);
 
-			updateOutput(outBuffer, getOutputFormat(), outLen, outOff);
-			outBuffer.setDuration(duration);
+			updateOutput(outBuffer, getOutputFormat(), len, outOff);
+			outBuffer.setDuration(frames * duration);
 			ret = BUFFER_PROCESSED_OK;
 		}
 		else {
@@ -227,7 +232,8 @@ public class JavaEncoder extends AbstractCodec2 implements FormatParametersAware
 		/* mode is 20 or 30 ms, duration must be in nanoseconds */
 		duration = mode * 1000000;
 		inLen = enc.ULP_inst.blockl * 2;
-		prevIn = new byte[inLen];
+		if (prevIn == null)
+			prevIn = new byte[ilbc_constants.BLOCKL_MAX * 2];
 		prevInLen = 0;
 	}
 
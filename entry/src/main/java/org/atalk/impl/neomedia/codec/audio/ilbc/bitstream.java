@@ -17,20 +17,46 @@ class bitstream
 
 	int pos;
 
-	final byte[] buffer;
+	byte[] buffer;
 
 	/**
 	 * The offset in {@link #buffer} of the first octet of this <code>bitstream</code>.
 	 */
-	final int buffer_off;
+	int buffer_off;
 
 	/**
 	 * The length in {@link #buffer} which is available to octets of this <code>bitstream</code>.
 	 */
-	final int buffer_len;
+	int buffer_len;
 	private int buffer_pos;
 
+	/**
+	 * The result of {@link #packsplit(int, int, int)}, reused from call to call.
+	 */
+	private final bitpack pack = new bitpack();
+
+	/**
+	 * Initializes a <code>bitstream</code> which is to be {@link #reset(byte[], int, int)} before use.
+	 */
+	public bitstream()
+	{
+	}
+
 	public bitstream(byte[] buffer, int offset, int length)
+	{
+		reset(buffer, offset, length);
+	}
+
+	/**
+	 * Points this <code>bitstream</code> at the start of a new frame so that one instance can serve
+	 * every frame of an encoder or decoder.
+	 *
+	 * @param buffer the octets of the frame
+	 * @param offset the offset in <code>buffer</code> of the first octet of the frame
+	 * @param length the number of octets of the frame
+	 * @return this <code>bitstream</code>
+	 */
+	bitstream reset(byte[] buffer, int offset, int length)
 	{
 		pos = 0;
 
@@ -40,11 +66,13 @@ class bitstream
 
 		buffer_pos = buffer_off;
 		bitcount = 0;
+		return this;
 	}
 
 	/*----------------------------------------------------------------*
 	 *  splitting an integer into first most significant bits and
-	 *  remaining least significant bits
+	 *  remaining least significant bits; the returned bitpack is
+	 *  reused by the next call
 	 *---------------------------------------------------------------*/
 
 	public bitpack packsplit(int index, /* (i) the value to split */
@@ -56,7 +84,7 @@ class bitstream
 						 */
 	{
 		int bitno_rest = bitno_total - bitno_firstpart;
-		bitpack rval = new bitpack();
+		bitpack rval = pack;
 
 		int fp = index >>> bitno_rest;
 
@@ -5,11 +5,56 @@
  */
 package org.atalk.impl.neomedia.codec.audio.ilbc;
 
+import java.util.Arrays;
+
 /**
  * @author Jean Lorchat
  */
 class ilbc_common
 {
+	/*
+	 * Work buffers of StateConstructW, lsf2a, getCBvec and iCBConstruct. Each encoder and decoder
+	 * owns an ilbc_common so these routines do not allocate for every frame.
+	 */
+	final float[] StateConstructW_tmpbuf = new float[ilbc_constants.LPC_FILTERORDER + 2 * ilbc_constants.STATE_LEN];
+	final float[] StateConstructW_numerator = new float[ilbc_constants.LPC_FILTERORDER + 1];
+	final float[] StateConstructW_foutbuf = new float[ilbc_constants.LPC_FILTERORDER + 2 * ilbc_constants.STATE_LEN];
+	final float[] lsf2a_p = new float[ilbc_constants.LPC_HALFORDER];
+	final float[] lsf2a_q = new float[ilbc_constants.LPC_HALFORDER];
+	final float[] lsf2a_a = new float[ilbc_constants.LPC_HALFORDER + 1];
+	final float[] lsf2a_a1 = new float[ilbc_constants.LPC_HALFORDER];
+	final float[] lsf2a_a2 = new float[ilbc_constants.LPC_HALFORDER];
+	final float[] lsf2a_b = new float[ilbc_constants.LPC_HALFORDER + 1];
+	final float[] lsf2a_b1 = new float[ilbc_constants.LPC_HALFORDER];
+	final float[] lsf2a_b2 = new float[ilbc_constants.LPC_HALFORDER];
+	final float[] getCBvec_tmpbuf = new float[ilbc_constants.CB_MEML];
+	final float[] getCBvec_tempbuff2 = new float[ilbc_constants.CB_MEML + ilbc_constants.CB_FILTERLEN + 1];
+	final float[] iCBConstruct_gain = new float[ilbc_constants.CB_NSTAGES];
+	final float[] iCBConstruct_cbvec = new float[ilbc_constants.SUBL];
+
+	/**
+	 * Zeroes a work buffer, as a newly allocated one would be.
+	 *
+	 * @param a the buffer to clear
+	 * @return <code>a</code>
+	 */
+	static float[] clear(float[] a)
+	{
+		Arrays.fill(a, 0);
+		return a;
+	}
+
+	/**
+	 * Zeroes a work buffer, as a newly allocated one would be.
+	 *
+	 * @param a the buffer to clear
+	 * @return <code>a</code>
+	 */
+	static int[] clear(int[] a)
+	{
+		Arrays.fill(a, 0);
+		return a;
+	}
 
 	/*----------------------------------------------------------------*
 	 *  check for stability of lsf coefficients
@@ -70,7 +115,7 @@ class ilbc_common
 	 *  decoding of the start state
 	 *---------------------------------------------------------------*/
 
-	public static void StateConstructW(int idxForMax, /*
+	public void StateConstructW(int idxForMax, /*
 													 * (i) 6-bit index for the quantization of max
 													 * amplitude
 													 */
@@ -81,11 +126,11 @@ class ilbc_common
 	)
 	{
 		float maxVal;
-		float[] tmpbuf = new float[ilbc_constants.LPC_FILTERORDER + 2 * ilbc_constants.STATE_LEN];
+		float[] tmpbuf = clear(this.StateConstructW_tmpbuf);
 		// , *tmp,
 		int tmp;
-		float[] numerator = new float[ilbc_constants.LPC_FILTERORDER + 1];
-		float[] foutbuf = new float[ilbc_constants.LPC_FILTERORDER + 2 * ilbc_constants.STATE_LEN];
+		float[] numerator = clear(this.StateConstructW_numerator);
+		float[] foutbuf = clear(this.StateConstructW_foutbuf);
 		// , *fout;
 		int fout;
 		int k, tmpi;
@@ -239,18 +284,18 @@ class ilbc_common
 	 *  conversion from lsf coefficients to lpc coefficients
 	 *---------------------------------------------------------------*/
 
-	public static void lsf2a(float a_coef[], float freq[])
+	public void lsf2a(float a_coef[], float freq[])
 	{
 		int i, j;
 		float hlp;
-		float[] p = new float[ilbc_constants.LPC_HALFORDER];
-		float[] q = new float[ilbc_constants.LPC_HALFORDER];
-		float[] a = new float[ilbc_constants.LPC_HALFORDER + 1];
-		float[] a1 = new float[ilbc_constants.LPC_HALFORDER];
-		float[] a2 = new float[ilbc_constants.LPC_HALFORDER];
-		float[] b = new float[ilbc_constants.LPC_HALFORDER + 1];
-		float[] b1 = new float[ilbc_constants.LPC_HALFORDER];
-		float[] b2 = new float[ilbc_constants.LPC_HALFORDER];
+		float[] p = clear(this.lsf2a_p);
+		float[] q = clear(this.lsf2a_q);
+		float[] a = clear(this.lsf2a_a);
+		float[] a1 = clear(this.lsf2a_a1);
+		float[] a2 = clear(this.lsf2a_a2);
+		float[] b = clear(this.lsf2a_b);
+		float[] b1 = clear(this.lsf2a_b1);
+		float[] b2 = clear(this.lsf2a_b2);
 
 		// System.out.println("debut de lsf2a");
 
@@ -402,14 +447,14 @@ class ilbc_common
 		}
 	}
 
-	public static void getCBvec(float cbvec[], /* (o) Constructed codebook vector */
+	public void getCBvec(float cbvec[], /* (o) Constructed codebook vector */
 		float mem[], /* (i) Codebook buffer */
 		int mem_idx, int index, /* (i) Codebook index */
 		int lMem, /* (i) Length of codebook buffer */
 		int cbveclen) /* (i) Codebook vector length */
 	{
 		int j, k, n, memInd, sFilt;
-		float[] tmpbuf = new float[ilbc_constants.CB_MEML];
+		float[] tmpbuf = clear(this.getCBvec_tmpbuf);
 		int base_size;
 		int ilow, ihigh;
 		float alfa, alfa1;
@@ -471,8 +516,7 @@ class ilbc_common
 			/* first non-interpolated vectors */
 
 			if (index - base_size < lMem - cbveclen + 1) {
-				float[] tempbuff2 = new float[ilbc_constants.CB_MEML + ilbc_constants.CB_FILTERLEN
-					+ 1];
+				float[] tempbuff2 = clear(this.getCBvec_tempbuff2);
 				// float *pos;
 				// float *pp, *pp1;
 				int pos, pp, pp1;
@@ -517,8 +561,7 @@ class ilbc_common
 			/* interpolated vectors */
 
 			else {
-				float[] tempbuff2 = new float[ilbc_constants.CB_MEML + ilbc_constants.CB_FILTERLEN
-					+ 1];
+				float[] tempbuff2 = clear(this.getCBvec_tempbuff2);
 
 				// float *pos;
 				// float *pp, *pp1;
@@ -674,7 +717,7 @@ class ilbc_common
 		return 0.0f;
 	}
 
-	public static void iCBConstruct(float decvector[], /* (o) Decoded vector */
+	public void iCBConstruct(float decvector[], /* (o) Decoded vector */
 		int decvector_idx, int index[], /* (i) Codebook indices */
 		int index_idx, int gain_index[],/* (i) Gain quantization indices */
 		int gain_index_idx, float mem[], /* (i) Buffer for codevector construction */
@@ -685,8 +728,8 @@ class ilbc_common
 	{
 		int j, k;
 
-		float[] gain = new float[ilbc_constants.CB_NSTAGES];
-		float[] cbvec = new float[ilbc_constants.SUBL];
+		float[] gain = clear(this.iCBConstruct_gain);
+		float[] cbvec = clear(this.iCBConstruct_cbvec);
 
 		/* gain de-quantization */
 
@@ -36,6 +36,55 @@ class ilbc_decoder
 	float enh_buf[];
 	float enh_period[];
 
+	/*
+	 * Work buffers of the per-frame routines, named after the routine and its local variable. They
+	 * are allocated once per decoder instead of once per frame; each routine clears its buffers with
+	 * ilbc_common.clear() where it used to allocate them, so it still starts from zeroed memory.
+	 */
+	final float[] LSFinterpolate2a_dec_lsftmp = new float[ilbc_constants.LPC_FILTERORDER];
+	final float[] DecoderInterpolateLSF_lp = new float[ilbc_constants.LPC_FILTERORDER + 1];
+	final int[] enh_upsample_polyp = new int[ilbc_constants.ENH_UPS0];
+	final float[] refiner_vect = new float[ilbc_constants.ENH_VECTL];
+	final float[] refiner_corrVec = new float[ilbc_constants.ENH_CORRDIM];
+	final float[] refiner_corrVecUps = new float[ilbc_constants.ENH_CORRDIM * ilbc_constants.ENH_UPS0];
+	final float[] smath_surround = new float[ilbc_constants.BLOCKL_MAX];
+	final float[] smath_wt = new float[2 * ilbc_constants.ENH_HL + 1];
+	final float[] getsseq_blockStartPos = new float[2 * ilbc_constants.ENH_HL + 1];
+	final int[] getsseq_lagBlock = new int[2 * ilbc_constants.ENH_HL + 1];
+	final float[] getsseq_plocs2 = new float[ilbc_constants.ENH_PLOCSL];
+	final float[] enhancer_sseq = new float[(2 * ilbc_constants.ENH_HL + 1) * ilbc_constants.ENH_BLOCKL];
+	final float[] enhancerInterface_plc_pred = new float[ilbc_constants.ENH_BLOCKL];
+	final float[] enhancerInterface_lpState = new float[6];
+	final float[] enhancerInterface_downsampled = new float[(ilbc_constants.ENH_NBLOCKS * ilbc_constants.ENH_BLOCKL + 120) / 2];
+	final float[] doThePLC_randvec = new float[ilbc_constants.BLOCKL_MAX];
+	final float[] doThePLC_a_gain = new float[1];
+	final float[] doThePLC_a_comp = new float[1];
+	final float[] doThePLC_a_per = new float[1];
+	final float[] decode_decblock = new float[ilbc_constants.BLOCKL_MAX];
+	final float[] Decode_reverseDecresidual = new float[ilbc_constants.BLOCKL_MAX];
+	final float[] Decode_mem = new float[ilbc_constants.CB_MEML];
+	final float[] iLBC_decode_data = new float[ilbc_constants.BLOCKL_MAX];
+	final float[] iLBC_decode_lsfdeq = new float[ilbc_constants.LPC_FILTERORDER * ilbc_constants.LPC_N_MAX];
+	final float[] iLBC_decode_PLCresidual = new float[ilbc_constants.BLOCKL_MAX];
+	final float[] iLBC_decode_PLClpc = new float[ilbc_constants.LPC_FILTERORDER + 1];
+	final float[] iLBC_decode_zeros = new float[ilbc_constants.BLOCKL_MAX];
+	final float[] iLBC_decode_one = new float[ilbc_constants.LPC_FILTERORDER + 1];
+	final int[] iLBC_decode_idxVec = new int[ilbc_constants.STATE_LEN];
+	final int[] iLBC_decode_gain_index = new int[ilbc_constants.NASUB_MAX * ilbc_constants.CB_NSTAGES];
+	final int[] iLBC_decode_extra_gain_index = new int[ilbc_constants.CB_NSTAGES];
+	final int[] iLBC_decode_cb_index = new int[ilbc_constants.CB_NSTAGES * ilbc_constants.NASUB_MAX];
+	final int[] iLBC_decode_extra_cb_index = new int[ilbc_constants.CB_NSTAGES];
+	final int[] iLBC_decode_lsf_i = new int[ilbc_constants.LSF_NSPLIT * ilbc_constants.LPC_N_MAX];
+	final float[] iLBC_decode_weightdenum = new float[(ilbc_constants.LPC_FILTERORDER + 1) * ilbc_constants.NSUB_MAX];
+	final float[] iLBC_decode_syntdenum = new float[ilbc_constants.NSUB_MAX * (ilbc_constants.LPC_FILTERORDER + 1)];
+	final float[] iLBC_decode_decresidual = new float[ilbc_constants.BLOCKL_MAX];
+
+	/* Work buffers of the routines shared with the encoder */
+	final ilbc_common common = new ilbc_common();
+
+	/* The bitstream from which each frame is unpacked */
+	private final bitstream en_data = new bitstream();
+
 	// La plupart des variables globales sont dans ilbc_constants.etc...
 
 	void syntFilter(float Out[], /* (i/o) Signal to be filtered */
@@ -129,10 +178,10 @@ class ilbc_decoder
 		int length /* (i) length of lsf vectors */
 	)
 	{
-		float[] lsftmp = new float[ilbc_constants.LPC_FILTERORDER];
+		float[] lsftmp = ilbc_common.clear(this.LSFinterpolate2a_dec_lsftmp);
 
 		ilbc_common.interpolate(lsftmp, lsf1, lsf2, lsf2_idx, coef, length);
-		ilbc_common.lsf2a(a, lsftmp);
+		common.lsf2a(a, lsftmp);
 	}
 
 	/*---------------------------------------------------------------*
@@ -189,7 +238,7 @@ class ilbc_decoder
 		int length) /* (i) length of lsf coefficient vector */
 	{
 		int i, pos, lp_length;
-		float[] lp = new float[ilbc_constants.LPC_FILTERORDER + 1];
+		float[] lp = ilbc_common.clear(this.DecoderInterpolateLSF_lp);
 		int lsfdeq2;
 
 		lsfdeq2 = length;
@@ -462,7 +511,7 @@ class ilbc_decoder
 		// float *pu,*ps;
 		int pu, ps;
 		int i, j, k, q, filterlength, hfl2;
-		int[] polyp = new int[ilbc_constants.ENH_UPS0]; /*
+		int[] polyp = ilbc_common.clear(this.enh_upsample_polyp); /*
 														 * pointers to polyphase columns
 														 */
 		// const float *pp;
@@ -569,10 +618,10 @@ class ilbc_decoder
 	{
 		int estSegPosRounded, searchSegStartPos, searchSegEndPos, corrdim;
 		int tloc, tloc2, i, st, en, fraction;
-		float[] vect = new float[ilbc_constants.ENH_VECTL];
-		float[] corrVec = new float[ilbc_constants.ENH_CORRDIM];
+		float[] vect = ilbc_common.clear(this.refiner_vect);
+		float[] corrVec = ilbc_common.clear(this.refiner_corrVec);
 		float maxv;
-		float[] corrVecUps = new float[ilbc_constants.ENH_CORRDIM * ilbc_constants.ENH_UPS0];
+		float[] corrVecUps = ilbc_common.clear(this.refiner_corrVecUps);
 		float updStartPos = 0.0f;
 
 		/* defining array bounds */
@@ -673,11 +722,11 @@ class ilbc_decoder
 	{
 		int i, k;
 		float w00, w10, w11, A, B, C, err, errs;
-		float[] surround = new float[ilbc_constants.BLOCKL_MAX]; /*
+		float[] surround = ilbc_common.clear(this.smath_surround); /*
 																 * shape contributed by other than
 																 * current
 																 */
-		float[] wt = new float[2 * ilbc_constants.ENH_HL + 1]; /*
+		float[] wt = ilbc_common.clear(this.smath_wt); /*
 																 * waveform weighting to get
 																 * surround shape
 																 */
@@ -781,9 +830,9 @@ class ilbc_decoder
 		int hl) /* (i) 2*hl+1 is the number of sequences */
 	{
 		int i, centerEndPos, q;
-		float[] blockStartPos = new float[2 * ilbc_constants.ENH_HL + 1];
-		int[] lagBlock = new int[2 * ilbc_constants.ENH_HL + 1];
-		float[] plocs2 = new float[ilbc_constants.ENH_PLOCSL];
+		float[] blockStartPos = ilbc_common.clear(this.getsseq_blockStartPos);
+		int[] lagBlock = ilbc_common.clear(this.getsseq_lagBlock);
+		float[] plocs2 = ilbc_common.clear(this.getsseq_plocs2);
 		// float *psseq;
 		int psseq;
 
@@ -866,7 +915,7 @@ class ilbc_decoder
 		int periodl /* (i) dimension of period and plocs */
 	)
 	{
-		float[] sseq = new float[(2 * ilbc_constants.ENH_HL + 1) * ilbc_constants.ENH_BLOCKL];
+		float[] sseq = ilbc_common.clear(this.enhancer_sseq);
 
 		/* get said second sequence of segments */
 
@@ -918,10 +967,10 @@ class ilbc_decoder
 		float ftmp1, ftmp2;
 		// float *inPtr, *enh_bufPtr1, *enh_bufPtr2;
 		int inPtr, enh_bufPtr1, enh_bufPtr2;
-		float[] plc_pred = new float[ilbc_constants.ENH_BLOCKL];
+		float[] plc_pred = ilbc_common.clear(this.enhancerInterface_plc_pred);
 
-		float[] lpState = new float[6];
-		float[] downsampled = new float[(ilbc_constants.ENH_NBLOCKS * ilbc_constants.ENH_BLOCKL + 120) / 2];
+		float[] lpState = ilbc_common.clear(this.enhancerInterface_lpState);
+		float[] downsampled = ilbc_common.clear(this.enhancerInterface_downsampled);
 		int inLen = ilbc_constants.ENH_NBLOCKS * ilbc_constants.ENH_BLOCKL + 120;
 		int start, plc_blockl, inlag;
 
@@ -1160,11 +1209,11 @@ class ilbc_decoder
 		float ftmp, randvec[], pitchfact, energy;
 		float[] a_gain, a_comp, a_per;
 
-		randvec = new float[ilbc_constants.BLOCKL_MAX];
+		randvec = ilbc_common.clear(this.doThePLC_randvec);
 
-		a_gain = new float[1];
-		a_comp = new float[1];
-		a_per = new float[1];
+		a_gain = ilbc_common.clear(this.doThePLC_a_gain);
+		a_comp = ilbc_common.clear(this.doThePLC_a_comp);
+		a_per = ilbc_common.clear(this.doThePLC_a_per);
 
 		/* Packet Loss */
 
@@ -1338,10 +1387,10 @@ class ilbc_decoder
 		short mode) /* (i) 0=PL, 1=Normal */
 	{
 		int k;
-		float decblock[] = new float[ilbc_constants.BLOCKL_MAX];
+		float decblock[] = ilbc_common.clear(this.decode_decblock);
 		float dtmp;
 		// char en_data[] = new char [this.ULP_inst.no_of_bytes];
-		bitstream en_data = new bitstream(encoded, encodedOffset, this.ULP_inst.no_of_bytes);
+		bitstream en_data = this.en_data.reset(encoded, encodedOffset, this.ULP_inst.no_of_bytes);
 
 		/* check if mode is valid */
 		if ((mode < 0) || (mode > 1)) {
@@ -1366,6 +1415,25 @@ class ilbc_decoder
 		return ((short) this.ULP_inst.blockl);
 	}
 
+	/*----------------------------------------------------------------*
+	 *  decodes frames consecutive iLBC frames of encoded, as carried
+	 *  by a single RTP packet (RFC 3952), into consecutive blocks of
+	 *  decoded; returns the number of decoded samples
+	 *---------------------------------------------------------------*/
+	public int decode(byte[] decoded, int decodedOffset, byte[] encoded, int encodedOffset,
+		int frames, short mode)
+	{
+		int no_of_bytes = this.ULP_inst.no_of_bytes;
+		int blockBytes = this.ULP_inst.blockl * 2;
+
+		for (int i = 0; i < frames; i++) {
+			decode(decoded, decodedOffset, encoded, encodedOffset, mode);
+			decodedOffset += blockBytes;
+			encodedOffset += no_of_bytes;
+		}
+		return frames * this.ULP_inst.blockl;
+	}
+
 	/*----------------------------------------------------------------*
 	 *  frame residual decoder function (subrutine to iLBC_decode)
 	 *---------------------------------------------------------------*/
@@ -1400,8 +1468,8 @@ class ilbc_decoder
 						 * comes last
 						 */
 	{
-		float[] reverseDecresidual = new float[ilbc_constants.BLOCKL_MAX];
-		float[] mem = new float[ilbc_constants.CB_MEML];
+		float[] reverseDecresidual = ilbc_common.clear(this.Decode_reverseDecresidual);
+		float[] mem = ilbc_common.clear(this.Decode_mem);
 		int k, meml_gotten, Nfor, Nback, i;
 		int diff, start_pos;
 		int subcount, subframe;
@@ -1417,7 +1485,7 @@ class ilbc_decoder
 
 		/* decode scalar part of start state */
 
-		ilbc_common.StateConstructW(idxForMax, idxVec, syntdenum, (start - 1)
+		common.StateConstructW(idxForMax, idxVec, syntdenum, (start - 1)
 			* (ilbc_constants.LPC_FILTERORDER + 1), decresidual, start_pos,
 			this.ULP_inst.state_short_len);
 
@@ -1437,7 +1505,7 @@ class ilbc_decoder
 
 			/* construct decoded vector */
 
-			ilbc_common.iCBConstruct(decresidual, start_pos + this.ULP_inst.state_short_len,
+			common.iCBConstruct(decresidual, start_pos + this.ULP_inst.state_short_len,
 				extra_cb_index, 0, extra_gain_index, 0, mem, ilbc_constants.CB_MEML
 					- ilbc_constants.stMemLTbl, ilbc_constants.stMemLTbl, diff,
 				ilbc_constants.CB_NSTAGES);
@@ -1464,7 +1532,7 @@ class ilbc_decoder
 
 			/* construct decoded vector */
 
-			ilbc_common.iCBConstruct(reverseDecresidual, 0, extra_cb_index, 0, extra_gain_index, 0,
+			common.iCBConstruct(reverseDecresidual, 0, extra_cb_index, 0, extra_gain_index, 0,
 				mem, ilbc_constants.CB_MEML - ilbc_constants.stMemLTbl, ilbc_constants.stMemLTbl,
 				diff, ilbc_constants.CB_NSTAGES);
 
@@ -1501,7 +1569,7 @@ class ilbc_decoder
 
 				/* construct decoded vector */
 
-				ilbc_common.iCBConstruct(decresidual, (start + 1 + subframe) * ilbc_constants.SUBL,
+				common.iCBConstruct(decresidual, (start + 1 + subframe) * ilbc_constants.SUBL,
 					cb_index, subcount * ilbc_constants.CB_NSTAGES, gain_index, subcount
 						* ilbc_constants.CB_NSTAGES, mem, ilbc_constants.CB_MEML
 						- ilbc_constants.memLfTbl[subcount], ilbc_constants.memLfTbl[subcount],
@@ -1551,7 +1619,7 @@ class ilbc_decoder
 
 				/* construct decoded vector */
 
-				ilbc_common.iCBConstruct(reverseDecresidual, subframe * ilbc_constants.SUBL,
+				common.iCBConstruct(reverseDecresidual, subframe * ilbc_constants.SUBL,
 					cb_index, subcount * ilbc_constants.CB_NSTAGES, gain_index, subcount
 						* ilbc_constants.CB_NSTAGES, mem, ilbc_constants.CB_MEML
 						- ilbc_constants.memLfTbl[subcount], ilbc_constants.memLfTbl[subcount],
@@ -1588,31 +1656,29 @@ class ilbc_decoder
 				 * (i) 0: bad packet, PLC, 1: normal
 				 */
 	{
-		float[] data = new float[ilbc_constants.BLOCKL_MAX];
-		float[] lsfdeq = new float[ilbc_constants.LPC_FILTERORDER * ilbc_constants.LPC_N_MAX];
-		float[] PLCresidual = new float[ilbc_constants.BLOCKL_MAX];
-		float[] PLClpc = new float[ilbc_constants.LPC_FILTERORDER + 1];
-		float[] zeros = new float[ilbc_constants.BLOCKL_MAX];
-		float[] one = new float[ilbc_constants.LPC_FILTERORDER + 1];
+		float[] data = ilbc_common.clear(this.iLBC_decode_data);
+		float[] lsfdeq = ilbc_common.clear(this.iLBC_decode_lsfdeq);
+		float[] PLCresidual = ilbc_common.clear(this.iLBC_decode_PLCresidual);
+		float[] PLClpc = ilbc_common.clear(this.iLBC_decode_PLClpc);
+		float[] zeros = ilbc_common.clear(this.iLBC_decode_zeros);
+		float[] one = ilbc_common.clear(this.iLBC_decode_one);
 		int k, i, start, idxForMax, /* pos, */lastpart, ulp;
 		int lag, ilag;
 		float cc, maxcc;
-		int[] idxVec = new int[ilbc_constants.STATE_LEN];
+		int[] idxVec = ilbc_common.clear(this.iLBC_decode_idxVec);
 		// int check;
-		int[] gain_index = new int[ilbc_constants.NASUB_MAX * ilbc_constants.CB_NSTAGES];
-		int[] extra_gain_index = new int[ilbc_constants.CB_NSTAGES];
-		int[] cb_index = new int[ilbc_constants.CB_NSTAGES * ilbc_constants.NASUB_MAX];
-		int[] extra_cb_index = new int[ilbc_constants.CB_NSTAGES];
-		int[] lsf_i = new int[ilbc_constants.LSF_NSPLIT * ilbc_constants.LPC_N_MAX];
+		int[] gain_index = ilbc_common.clear(this.iLBC_decode_gain_index);
+		int[] extra_gain_index = ilbc_common.clear(this.iLBC_decode_extra_gain_index);
+		int[] cb_index = ilbc_common.clear(this.iLBC_decode_cb_index);
+		int[] extra_cb_index = ilbc_common.clear(this.iLBC_decode_extra_cb_index);
+		int[] lsf_i = ilbc_common.clear(this.iLBC_decode_lsf_i);
 		int state_first;
 		int last_bit;
 		// unsigned char *pbytes;
-		float[] weightdenum = new float[(ilbc_constants.LPC_FILTERORDER + 1)
-			* ilbc_constants.NSUB_MAX];
+		float[] weightdenum = ilbc_common.clear(this.iLBC_decode_weightdenum);
 		int order_plus_one;
-		float[] syntdenum = new float[ilbc_constants.NSUB_MAX
-			* (ilbc_constants.LPC_FILTERORDER + 1)];
-		float[] decresidual = new float[ilbc_constants.BLOCKL_MAX];
+		float[] syntdenum = ilbc_common.clear(this.iLBC_decode_syntdenum);
+		float[] decresidual = ilbc_common.clear(this.iLBC_decode_decresidual);
 
 		if (mode > 0) { /* the data are good */
 
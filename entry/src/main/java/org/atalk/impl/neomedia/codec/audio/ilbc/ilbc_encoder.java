@@ -33,6 +33,67 @@ class ilbc_encoder
 
 	ilbc_ulp ULP_inst = null;
 
+	/*
+	 * Work buffers of the per-frame routines, named after the routine and its local variable. They
+	 * are allocated once per encoder instead of once per frame; each routine clears its buffers with
+	 * ilbc_common.clear() where it used to allocate them, so it still starts from zeroed memory.
+	 */
+	final float[] AbsQuantW_syntOutBuf = new float[ilbc_constants.LPC_FILTERORDER + ilbc_constants.STATE_SHORT_LEN_30MS];
+	final int[] AbsQuantW_index = new int[1];
+	final float[] StateSearchW_tmpbuf = new float[ilbc_constants.LPC_FILTERORDER + 2 * ilbc_constants.STATE_SHORT_LEN_30MS];
+	final float[] StateSearchW_numerator = new float[1 + ilbc_constants.LPC_FILTERORDER];
+	final float[] StateSearchW_foutbuf = new float[ilbc_constants.LPC_FILTERORDER + 2 * ilbc_constants.STATE_SHORT_LEN_30MS];
+	final float[] a2lsf_p = new float[ilbc_constants.LPC_HALFORDER];
+	final float[] a2lsf_q = new float[ilbc_constants.LPC_HALFORDER];
+	final float[] a2lsf_p_pre = new float[ilbc_constants.LPC_HALFORDER];
+	final float[] a2lsf_q_pre = new float[ilbc_constants.LPC_HALFORDER];
+	final float[] a2lsf_olds = new float[2];
+	final float[] SimpleAnalysis_temp = new float[ilbc_constants.BLOCKL_MAX];
+	final float[] SimpleAnalysis_lp = new float[ilbc_constants.LPC_FILTERORDER + 1];
+	final float[] SimpleAnalysis_lp2 = new float[ilbc_constants.LPC_FILTERORDER + 1];
+	final float[] SimpleAnalysis_r = new float[ilbc_constants.LPC_FILTERORDER + 1];
+	final float[] LSFinterpolate2a_enc_lsftmp = new float[ilbc_constants.LPC_FILTERORDER];
+	final float[] SimpleInterpolateLSF_lp = new float[ilbc_constants.LPC_FILTERORDER + 1];
+	final float[] LPCencode_lsf = new float[ilbc_constants.LPC_FILTERORDER * ilbc_constants.LPC_N_MAX];
+	final float[] LPCencode_lsfdeq = new float[ilbc_constants.LPC_FILTERORDER * ilbc_constants.LPC_N_MAX];
+	final float[] iCBSearch_gains = new float[ilbc_constants.CB_NSTAGES];
+	final float[] iCBSearch_target = new float[ilbc_constants.SUBL];
+	final float[] iCBSearch_buf = new float[ilbc_constants.CB_MEML + ilbc_constants.SUBL + 2 * ilbc_constants.LPC_FILTERORDER];
+	final float[] iCBSearch_invenergy = new float[ilbc_constants.CB_EXPAND * 128];
+	final float[] iCBSearch_energy = new float[ilbc_constants.CB_EXPAND * 128];
+	final float[] iCBSearch_cbvectors = new float[ilbc_constants.CB_MEML];
+	final float[] iCBSearch_cvec = new float[ilbc_constants.SUBL];
+	final float[] iCBSearch_aug_vec = new float[ilbc_constants.SUBL];
+	final float[] iCBSearch_a = new float[1];
+	final int[] iCBSearch_b = new int[1];
+	final float[] iCBSearch_c = new float[1];
+	final float[] FrameClassify_fssqEn = new float[ilbc_constants.NSUB_MAX];
+	final float[] FrameClassify_bssqEn = new float[ilbc_constants.NSUB_MAX];
+	final float[] filteredCBvecs_tempbuff2 = new float[ilbc_constants.CB_MEML + ilbc_constants.CB_FILTERLEN];
+	final float[] encode_block = new float[ilbc_constants.BLOCKL_MAX];
+	final int[] iLBC_encode_idxForMax = new int[1];
+	final float[] iLBC_encode_data = new float[ilbc_constants.BLOCKL_MAX];
+	final float[] iLBC_encode_residual = new float[ilbc_constants.BLOCKL_MAX];
+	final float[] iLBC_encode_reverseResidual = new float[ilbc_constants.BLOCKL_MAX];
+	final int[] iLBC_encode_idxVec = new int[ilbc_constants.STATE_LEN];
+	final float[] iLBC_encode_reverseDecresidual = new float[ilbc_constants.BLOCKL_MAX];
+	final float[] iLBC_encode_mem = new float[ilbc_constants.CB_MEML];
+	final int[] iLBC_encode_gain_index = new int[ilbc_constants.CB_NSTAGES * ilbc_constants.NASUB_MAX];
+	final int[] iLBC_encode_extra_gain_index = new int[ilbc_constants.CB_NSTAGES];
+	final int[] iLBC_encode_cb_index = new int[ilbc_constants.CB_NSTAGES * ilbc_constants.NASUB_MAX];
+	final int[] iLBC_encode_extra_cb_index = new int[ilbc_constants.CB_NSTAGES];
+	final int[] iLBC_encode_lsf_i = new int[ilbc_constants.LSF_NSPLIT * ilbc_constants.LPC_N_MAX];
+	final float[] iLBC_encode_weightState = new float[ilbc_constants.LPC_FILTERORDER];
+	final float[] iLBC_encode_syntdenum = new float[ilbc_constants.NSUB_MAX * (ilbc_constants.LPC_FILTERORDER + 1)];
+	final float[] iLBC_encode_weightdenum = new float[ilbc_constants.NSUB_MAX * (ilbc_constants.LPC_FILTERORDER + 1)];
+	final float[] iLBC_encode_decresidual = new float[ilbc_constants.BLOCKL_MAX];
+
+	/* Work buffers of the routines shared with the decoder */
+	final ilbc_common common = new ilbc_common();
+
+	/* The bitstream into which each frame is packed */
+	private final bitstream en_data = new bitstream();
+
 	/**
 	 * @param syntDenum
 	 *        Currently not used
@@ -58,11 +119,10 @@ class ilbc_encoder
 	{
 		// float *syntOut;
 		int syntOut;
-		float[] syntOutBuf = new float[ilbc_constants.LPC_FILTERORDER
-			+ ilbc_constants.STATE_SHORT_LEN_30MS];
+		float[] syntOutBuf = ilbc_common.clear(this.AbsQuantW_syntOutBuf);
 		float toQ;
 		int n;
-		int[] index = new int[1];
+		int[] index = ilbc_common.clear(this.AbsQuantW_index);
 
 		/* initialization of buffer for filtering */
 
@@ -154,13 +214,11 @@ class ilbc_encoder
 						 */
 	{
 		float maxVal;
-		float[] tmpbuf = new float[ilbc_constants.LPC_FILTERORDER + 2
-			* ilbc_constants.STATE_SHORT_LEN_30MS];
+		float[] tmpbuf = ilbc_common.clear(this.StateSearchW_tmpbuf);
 		// float *tmp,
 		int tmp;
-		float[] numerator = new float[1 + ilbc_constants.LPC_FILTERORDER];
-		float[] foutbuf = new float[ilbc_constants.LPC_FILTERORDER + 2
-			* ilbc_constants.STATE_SHORT_LEN_30MS];
+		float[] numerator = ilbc_common.clear(this.StateSearchW_numerator);
+		float[] foutbuf = ilbc_common.clear(this.StateSearchW_foutbuf);
 		// , *fout;
 		int fout;
 		int k;
@@ -249,13 +307,13 @@ class ilbc_encoder
 		float step;
 		int step_idx;
 		int lsp_index;
-		float[] p = new float[ilbc_constants.LPC_HALFORDER];
-		float[] q = new float[ilbc_constants.LPC_HALFORDER];
-		float[] p_pre = new float[ilbc_constants.LPC_HALFORDER];
-		float[] q_pre = new float[ilbc_constants.LPC_HALFORDER];
+		float[] p = ilbc_common.clear(this.a2lsf_p);
+		float[] q = ilbc_common.clear(this.a2lsf_q);
+		float[] p_pre = ilbc_common.clear(this.a2lsf_p_pre);
+		float[] q_pre = ilbc_common.clear(this.a2lsf_q_pre);
 		int old_p = 0, old_q = 1;
 		// float *old;
-		float[] olds = new float[2];
+		float[] olds = ilbc_common.clear(this.a2lsf_olds);
 		int old;
 		// float *pq_coef;
 		float[] pq_coef;
@@ -390,10 +448,10 @@ class ilbc_encoder
 		float data[]) /* (i) new data vector */
 	{
 		int k, is;
-		float[] temp = new float[ilbc_constants.BLOCKL_MAX];
-		float[] lp = new float[ilbc_constants.LPC_FILTERORDER + 1];
-		float[] lp2 = new float[ilbc_constants.LPC_FILTERORDER + 1];
-		float[] r = new float[ilbc_constants.LPC_FILTERORDER + 1];
+		float[] temp = ilbc_common.clear(this.SimpleAnalysis_temp);
+		float[] lp = ilbc_common.clear(this.SimpleAnalysis_lp);
+		float[] lp2 = ilbc_common.clear(this.SimpleAnalysis_lp2);
+		float[] r = ilbc_common.clear(this.SimpleAnalysis_r);
 
 		is = ilbc_constants.LPC_LOOKBACK + ilbc_constants.BLOCKL_MAX - this.ULP_inst.blockl;
 		// System.out.println("copie 1");
@@ -452,10 +510,10 @@ class ilbc_encoder
 		long length /* (i) length of coefficient vectors */
 	)
 	{
-		float[] lsftmp = new float[ilbc_constants.LPC_FILTERORDER];
+		float[] lsftmp = ilbc_common.clear(this.LSFinterpolate2a_enc_lsftmp);
 
 		ilbc_common.interpolate(lsftmp, lsf1, lsf2, lsf2_idx, coef, ((int) length));
-		ilbc_common.lsf2a(a, lsftmp);
+		common.lsf2a(a, lsftmp);
 	}
 
 	/*----------------------------------------------------------------*
@@ -481,7 +539,7 @@ class ilbc_encoder
 		int length) /* (i) should equate LPC_FILTERORDER */
 	{
 		int i, pos, lp_length;
-		float[] lp = new float[ilbc_constants.LPC_FILTERORDER + 1];
+		float[] lp = ilbc_common.clear(this.SimpleInterpolateLSF_lp);
 		int lsf2, lsfdeq2;
 
 		lsf2 = length;
@@ -599,8 +657,8 @@ class ilbc_encoder
 		int lsf_index[], /* (o) lsf quantization index */
 		float data[]) /* (i) lsf coefficients to quantize */
 	{
-		float[] lsf = new float[ilbc_constants.LPC_FILTERORDER * ilbc_constants.LPC_N_MAX];
-		float[] lsfdeq = new float[ilbc_constants.LPC_FILTERORDER * ilbc_constants.LPC_N_MAX];
+		float[] lsf = ilbc_common.clear(this.LPCencode_lsf);
+		float[] lsfdeq = ilbc_common.clear(this.LPCencode_lsfdeq);
 
 		SimpleAnalysis(lsf, data);
 		// for (int li = 0; li < ilbc_constants.LPC_FILTERORDER * ilbc_constants.LPC_N_MAX; li++)
@@ -636,25 +694,24 @@ class ilbc_encoder
 	{
 		int i, j, icount, stage, best_index, range, counter;
 		float max_measure, gain, measure, crossDot, ftmp;
-		float[] gains = new float[ilbc_constants.CB_NSTAGES];
-		float[] target = new float[ilbc_constants.SUBL];
+		float[] gains = ilbc_common.clear(this.iCBSearch_gains);
+		float[] target = ilbc_common.clear(this.iCBSearch_target);
 		int base_index, sInd, eInd, base_size;
 		int sIndAug = 0, eIndAug = 0;
-		float[] buf = new float[ilbc_constants.CB_MEML + ilbc_constants.SUBL + 2
-			* ilbc_constants.LPC_FILTERORDER];
-		float[] invenergy = new float[ilbc_constants.CB_EXPAND * 128];
-		float[] energy = new float[ilbc_constants.CB_EXPAND * 128];
+		float[] buf = ilbc_common.clear(this.iCBSearch_buf);
+		float[] invenergy = ilbc_common.clear(this.iCBSearch_invenergy);
+		float[] energy = ilbc_common.clear(this.iCBSearch_energy);
 		// float *pp, *ppi=0, *ppo=0, *ppe=0;
 		int pp, ppi = 0, ppo = 0, ppe = 0;
 		float[] ppt;
-		float[] cbvectors = new float[ilbc_constants.CB_MEML];
+		float[] cbvectors = ilbc_common.clear(this.iCBSearch_cbvectors);
 		float tene, cene;
-		float[] cvec = new float[ilbc_constants.SUBL];
-		float[] aug_vec = new float[ilbc_constants.SUBL];
+		float[] cvec = ilbc_common.clear(this.iCBSearch_cvec);
+		float[] aug_vec = ilbc_common.clear(this.iCBSearch_aug_vec);
 
-		float[] a = new float[1];
-		int[] b = new int[1];
-		float[] c = new float[1];
+		float[] a = ilbc_common.clear(this.iCBSearch_a);
+		int[] b = ilbc_common.clear(this.iCBSearch_b);
+		float[] c = ilbc_common.clear(this.iCBSearch_c);
 
 		for (int li = 0; li < ilbc_constants.SUBL; li++)
 			cvec[li] = 0.0f;
@@ -1436,8 +1493,8 @@ class ilbc_encoder
 	float residual[]) /* (i) lpc residual signal */
 	{
 		float max_ssqEn;
-		float[] fssqEn = new float[ilbc_constants.NSUB_MAX];
-		float[] bssqEn = new float[ilbc_constants.NSUB_MAX];
+		float[] fssqEn = ilbc_common.clear(this.FrameClassify_fssqEn);
+		float[] bssqEn = ilbc_common.clear(this.FrameClassify_bssqEn);
 		int pp;
 		int n, l, max_ssqEn_n;
 		// float [] ssqEn_win[NSUB_MAX-1]={(float)0.8,(float)0.9,
@@ -1592,7 +1649,7 @@ class ilbc_encoder
 		float tempbuff2[];
 		int pos;
 
-		tempbuff2 = new float[ilbc_constants.CB_MEML + ilbc_constants.CB_FILTERLEN];
+		tempbuff2 = ilbc_common.clear(this.filteredCBvecs_tempbuff2);
 
 		for (i = 0; i < ilbc_constants.CB_HALFFILTERLEN; i++)
 			tempbuff2[i] = 0.0f;
@@ -1861,8 +1918,8 @@ class ilbc_encoder
 	// }
 	public int encode(byte[] encoded, int encodedOffset, byte[] decoded, int decodedOffset)
 	{
-		float block[] = new float[this.ULP_inst.blockl];
-		bitstream en_data = new bitstream(encoded, encodedOffset, this.ULP_inst.no_of_bytes);
+		float block[] = this.encode_block;
+		bitstream en_data = this.en_data.reset(encoded, encodedOffset, this.ULP_inst.no_of_bytes);
 		// char en_data[] = new char [this.ULP_inst.no_of_bytes];
 		int k;
 
@@ -1881,11 +1938,30 @@ class ilbc_encoder
 
 	}
 
+	/*----------------------------------------------------------------*
+	 *  encodes frames consecutive blocks of decoded into frames
+	 *  consecutive iLBC frames of encoded, as carried by a single
+	 *  RTP packet (RFC 3952); returns the number of bytes written
+	 *---------------------------------------------------------------*/
+	public int encode(byte[] encoded, int encodedOffset, byte[] decoded, int decodedOffset,
+		int frames)
+	{
+		int no_of_bytes = this.ULP_inst.no_of_bytes;
+		int blockBytes = this.ULP_inst.blockl * 2;
+
+		for (int i = 0; i < frames; i++) {
+			encode(encoded, encodedOffset, decoded, decodedOffset);
+			encodedOffset += no_of_bytes;
+			decodedOffset += blockBytes;
+		}
+		return frames * no_of_bytes;
+	}
+
 	public void iLBC_encode(bitstream bytes, /* (o) encoded data bits iLBC */
 		float block[]) /* (o) speech vector to encode */
 	{
 		int start;
-		int[] idxForMax = new int[1];
+		int[] idxForMax = ilbc_common.clear(this.iLBC_encode_idxForMax);
 		int n, k, meml_gotten, Nfor, Nback, i;
 		// unsigned char *pbytes;
 		int diff, start_pos, state_first;
@@ -1895,26 +1971,24 @@ class ilbc_encoder
 		int firstpart;
 		int subcount, subframe;
 
-		float[] data = new float[ilbc_constants.BLOCKL_MAX];
-		float[] residual = new float[ilbc_constants.BLOCKL_MAX];
-		float[] reverseResidual = new float[ilbc_constants.BLOCKL_MAX];
+		float[] data = ilbc_common.clear(this.iLBC_encode_data);
+		float[] residual = ilbc_common.clear(this.iLBC_encode_residual);
+		float[] reverseResidual = ilbc_common.clear(this.iLBC_encode_reverseResidual);
 
-		int[] idxVec = new int[ilbc_constants.STATE_LEN];
-		float[] reverseDecresidual = new float[ilbc_constants.BLOCKL_MAX];
-		float[] mem = new float[ilbc_constants.CB_MEML];
+		int[] idxVec = ilbc_common.clear(this.iLBC_encode_idxVec);
+		float[] reverseDecresidual = ilbc_common.clear(this.iLBC_encode_reverseDecresidual);
+		float[] mem = ilbc_common.clear(this.iLBC_encode_mem);
 
-		int[] gain_index = new int[ilbc_constants.CB_NSTAGES * ilbc_constants.NASUB_MAX];
-		int[] extra_gain_index = new int[ilbc_constants.CB_NSTAGES];
-		int[] cb_index = new int[ilbc_constants.CB_NSTAGES * ilbc_constants.NASUB_MAX];
-		int[] extra_cb_index = new int[ilbc_constants.CB_NSTAGES];
-		int[] lsf_i = new int[ilbc_constants.LSF_NSPLIT * ilbc_constants.LPC_N_MAX];
+		int[] gain_index = ilbc_common.clear(this.iLBC_encode_gain_index);
+		int[] extra_gain_index = ilbc_common.clear(this.iLBC_encode_extra_gain_index);
+		int[] cb_index = ilbc_common.clear(this.iLBC_encode_cb_index);
+		int[] extra_cb_index = ilbc_common.clear(this.iLBC_encode_extra_cb_index);
+		int[] lsf_i = ilbc_common.clear(this.iLBC_encode_lsf_i);
 
-		float[] weightState = new float[ilbc_constants.LPC_FILTERORDER];
-		float[] syntdenum = new float[ilbc_constants.NSUB_MAX
-			* (ilbc_constants.LPC_FILTERORDER + 1)];
-		float[] weightdenum = new float[ilbc_constants.NSUB_MAX
-			* (ilbc_constants.LPC_FILTERORDER + 1)];
-		float[] decresidual = new float[ilbc_constants.BLOCKL_MAX];
+		float[] weightState = ilbc_common.clear(this.iLBC_encode_weightState);
+		float[] syntdenum = ilbc_common.clear(this.iLBC_encode_syntdenum);
+		float[] weightdenum = ilbc_common.clear(this.iLBC_encode_weightdenum);
+		float[] decresidual = ilbc_common.clear(this.iLBC_encode_decresidual);
 
 		bitpack pack;
 
@@ -1995,7 +2069,7 @@ class ilbc_encoder
 			* (ilbc_constants.LPC_FILTERORDER + 1), idxForMax, idxVec,
 			this.ULP_inst.state_short_len, state_first);
 
-		ilbc_common.StateConstructW(idxForMax[0], idxVec, syntdenum, (start - 1)
+		common.StateConstructW(idxForMax[0], idxVec, syntdenum, (start - 1)
 			* (ilbc_constants.LPC_FILTERORDER + 1), decresidual, start_pos,
 			this.ULP_inst.state_short_len);
 
@@ -2025,7 +2099,7 @@ class ilbc_encoder
 
 			/* construct decoded vector */
 
-			ilbc_common.iCBConstruct(decresidual, start_pos + this.ULP_inst.state_short_len,
+			common.iCBConstruct(decresidual, start_pos + this.ULP_inst.state_short_len,
 				extra_cb_index, 0, extra_gain_index, 0, mem, ilbc_constants.CB_MEML
 					- ilbc_constants.stMemLTbl, ilbc_constants.stMemLTbl, diff,
 				ilbc_constants.CB_NSTAGES);
@@ -2062,7 +2136,7 @@ class ilbc_encoder
 
 			/* construct decoded vector */
 
-			ilbc_common.iCBConstruct(reverseDecresidual, 0, extra_cb_index, 0, extra_gain_index, 0,
+			common.iCBConstruct(reverseDecresidual, 0, extra_cb_index, 0, extra_gain_index, 0,
 				mem, ilbc_constants.CB_MEML - ilbc_constants.stMemLTbl, ilbc_constants.stMemLTbl,
 				diff, ilbc_constants.CB_NSTAGES);
 
@@ -2113,7 +2187,7 @@ class ilbc_encoder
 
 				/* construct decoded vector */
 
-				ilbc_common.iCBConstruct(decresidual, (start + 1 + subframe) * ilbc_constants.SUBL,
+				common.iCBConstruct(decresidual, (start + 1 + subframe) * ilbc_constants.SUBL,
 					cb_index, subcount * ilbc_constants.CB_NSTAGES, gain_index, subcount
 						* ilbc_constants.CB_NSTAGES, mem, ilbc_constants.CB_MEML
 						- ilbc_constants.memLfTbl[subcount], ilbc_constants.memLfTbl[subcount],
@@ -2188,7 +2262,7 @@ class ilbc_encoder
 
 				/* construct decoded vector */
 
-				ilbc_common.iCBConstruct(reverseDecresidual, subframe * ilbc_constants.SUBL,
+				common.iCBConstruct(reverseDecresidual, subframe * ilbc_constants.SUBL,
 					cb_index, subcount * ilbc_constants.CB_NSTAGES, gain_index, subcount
 						* ilbc_constants.CB_NSTAGES, mem, ilbc_constants.CB_MEML
 						- ilbc_constants.memLfTbl[subcount], ilbc_constants.memLfTbl[subcount],
@@ -0,0 +1,368 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.codec.audio.resampler;
+
+import org.atalk.impl.neomedia.codec.AbstractCodec2;
+import org.atalk.service.configuration.ConfigurationService;
+import org.atalk.service.libjitsi.LibJitsi;
+import org.atalk.service.neomedia.codec.Constants;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.media.Buffer;
+import javax.media.Format;
+import javax.media.ResourceUnavailableException;
+import javax.media.format.AudioFormat;
+
+/**
+ * Implements an audio resampler as an FMJ <code>Codec</code> using the pure-java
+ * {@link PolyphaseResampler}. It is a drop-in replacement for the JNI based
+ * <code>SpeexResampler</code>, supporting the same formats, so that resampling can be profiled
+ * and exercised on a plain JVM without crossing JNI per audio buffer.
+ *
+ * @author Eng Chong Meng
+ */
+public class JavaResampler extends AbstractCodec2
+{
+    /**
+     * The list of <code>Format</code>s of audio data supported as input and output by <code>JavaResampler</code> instances.
+     */
+    private static final Format[] SUPPORTED_FORMATS;
+
+    /**
+     * The list of sample rates of audio data supported as input and output by <code>JavaResampler</code> instances.
+     */
+    private static final double[] SUPPORTED_SAMPLE_RATES = new double[]{
+            8000,
+            11025,
+            12000,
+            16000,
+            22050,
+            24000,
+            32000,
+            44100,
+            48000,
+            Format.NOT_SPECIFIED
+    };
+
+    static {
+        int supportedCount = SUPPORTED_SAMPLE_RATES.length;
+
+        SUPPORTED_FORMATS = new Format[4 * supportedCount];
+        for (int i = 0; i < supportedCount; i++) {
+            int j = 4 * i;
+
+            for (int channels = 1; channels <= 2; channels++) {
+                SUPPORTED_FORMATS[j++] = new AudioFormat(
+                        AudioFormat.LINEAR,
+                        SUPPORTED_SAMPLE_RATES[i],
+                        16 /* sampleSizeInBits */,
+                        channels,
+                        AudioFormat.LITTLE_ENDIAN,
+                        AudioFormat.SIGNED,
+                        Format.NOT_SPECIFIED /* frameSizeInBits */,
+                        Format.NOT_SPECIFIED /* frameRate */,
+                        Format.byteArray);
+
+                SUPPORTED_FORMATS[j++] = new AudioFormat(
+                        AudioFormat.LINEAR,
+                        SUPPORTED_SAMPLE_RATES[i],
+                        16 /* sampleSizeInBits */,
+                        channels,
+                        AudioFormat.LITTLE_ENDIAN,
+                        AudioFormat.SIGNED,
+                        Format.NOT_SPECIFIED /* frameSizeInBits */,
+                        Format.NOT_SPECIFIED /* frameRate */,
+                        Format.shortArray);
+            }
+        }
+    }
+
+    /**
+     * The filter quality preset used by new <code>PolyphaseResampler</code> instances.
+     */
+    private final PolyphaseResampler.Quality quality;
+
+    /**
+     * The <code>PolyphaseResampler</code> for the current rate pair and channel count.
+     */
+    private PolyphaseResampler resampler;
+
+    /**
+     * Initializes a new <code>JavaResampler</code> instance.
+     */
+    public JavaResampler()
+    {
+        super("Java Resampler", AudioFormat.class, SUPPORTED_FORMATS);
+
+        inputFormats = SUPPORTED_FORMATS;
+
+        ConfigurationService cfg = LibJitsi.getConfigurationService();
+        String qualityStr = (cfg == null) ? null : cfg.getString(Constants.PROP_RESAMPLER_QUALITY);
+        quality = PolyphaseResampler.Quality.parse(qualityStr, PolyphaseResampler.Quality.VOIP);
+    }
+
+    /**
+     * @see AbstractCodec2#doClose()
+     */
+    @Override
+    protected void doClose()
+    {
+        resampler = null;
+    }
+
+    /**
+     * @see AbstractCodec2#doOpen()
+     */
+    @Override
+    protected void doOpen()
+            throws ResourceUnavailableException
+    {
+    }
+
+    /**
+     * Resamples audio from a specific input <code>Buffer</code> into a specific output <code>Buffer</code>.
+     *
+     * @param inBuffer input <code>Buffer</code>
+     * @param outBuffer output <code>Buffer</code>
+     * @return <code>BUFFER_PROCESSED_OK</code> if <code>inBuffer</code> has been successfully processed
+     * @see AbstractCodec2#doProcess(Buffer, Buffer)
+     */
+    @Override
+    protected int doProcess(Buffer inBuffer, Buffer outBuffer)
+    {
+        Format inFormat = inBuffer.getFormat();
+
+        if ((inFormat != null) && (inFormat != this.inputFormat)
+                && !inFormat.equals(this.inputFormat)) {
+            if (null == setInputFormat(inFormat))
+                return BUFFER_PROCESSED_FAILED;
+        }
+        inFormat = this.inputFormat;
+
+        AudioFormat inAudioFormat = (AudioFormat) inFormat;
+        int inSampleRate = (int) inAudioFormat.getSampleRate();
+        AudioFormat outAudioFormat = (AudioFormat) getOutputFormat();
+        int outSampleRate = (int) outAudioFormat.getSampleRate();
+        Class<?> inDataType = inAudioFormat.getDataType();
+        Class<?> outDataType = outAudioFormat.getDataType();
+
+        if (inSampleRate == outSampleRate) {
+            // passthrough
+            if (Format.byteArray.equals(inDataType)) {
+                byte[] input = (byte[]) inBuffer.getData();
+
+                if (Format.byteArray.equals(outDataType)) {
+                    int length = (input == null) ? 0 : input.length;
+                    byte[] output = validateByteArraySize(outBuffer, length, false);
+
+                    if ((input != null) && (output != null))
+                        System.arraycopy(input, 0, output, 0, length);
+                    outBuffer.setFormat(inBuffer.getFormat());
+                    outBuffer.setLength(inBuffer.getLength());
+                    outBuffer.setOffset(inBuffer.getOffset());
+                }
+                else {
+                    int inLength = inBuffer.getLength();
+                    int outOffset = 0;
+                    int outLength = inLength / 2;
+                    short[] output = validateShortArraySize(outBuffer, outLength);
+
+                    for (int i = inBuffer.getOffset(), o = outOffset; o < outLength; o++) {
+                        output[o] = (short) (((input[i++] & 0xFF) | (input[i++] & 0xFF) << 8));
+                    }
+                    outBuffer.setFormat(outAudioFormat);
+                    outBuffer.setLength(outLength);
+                    outBuffer.setOffset(outOffset);
+                }
+            }
+            else {
+                short[] input = (short[]) inBuffer.getData();
+
+                if (Format.byteArray.equals(outDataType)) {
+                    int inLength = inBuffer.getLength();
+                    int outOffset = 0;
+                    int outLength = inLength * 2;
+                    byte[] output = validateByteArraySize(outBuffer, outLength, false);
+
+                    for (int i = inBuffer.getOffset(), o = outOffset; o < outLength; i++) {
+                        short s = input[i];
+
+                        output[o++] = (byte) (s & 0x00FF);
+                        output[o++] = (byte) ((s & 0xFF00) >>> 8);
+                    }
+                    outBuffer.setFormat(outAudioFormat);
+                    outBuffer.setLength(outLength);
+                    outBuffer.setOffset(outOffset);
+                }
+                else {
+                    int length = (input == null) ? 0 : input.length;
+                    short[] output = validateShortArraySize(outBuffer, length);
+
+                    if ((input != null) && (output != null))
+                        System.arraycopy(input, 0, output, 0, length);
+                    outBuffer.setFormat(inBuffer.getFormat());
+                    outBuffer.setLength(inBuffer.getLength());
+                    outBuffer.setOffset(inBuffer.getOffset());
+                }
+            }
+        }
+        else {
+            int channels = inAudioFormat.getChannels();
+
+            if ((outAudioFormat.getChannels() != channels) || !inDataType.equals(outDataType))
+                return BUFFER_PROCESSED_FAILED;
+
+            if ((resampler == null) || (resampler.getChannels() != channels)
+                    || (resampler.getInputSampleRate() != inSampleRate)
+                    || (resampler.getOutputSampleRate() != outSampleRate)) {
+                resampler = new PolyphaseResampler(channels, inSampleRate, outSampleRate, quality);
+            }
+
+            int inOffset = inBuffer.getOffset();
+            int inLength = inBuffer.getLength();
+            int outOffset = outBuffer.getOffset();
+            int outSampleCount;
+
+            /*
+             * The numbers of input and output samples given to and returned by the resampler are per-channel.
+             */
+            if (Format.byteArray.equals(inDataType)) {
+                int frameSize = channels * (inAudioFormat.getSampleSizeInBits() / 8);
+                int inSampleCount = inLength / frameSize;
+                int outMaxLength = resampler.getMaxOutputSamples(inSampleCount) * frameSize;
+                byte[] out = validateByteArraySize(outBuffer, outMaxLength + outOffset, outOffset != 0);
+
+                outSampleCount = (inSampleCount == 0) ? 0 : resampler.process(
+                        (byte[]) inBuffer.getData(), inOffset, inSampleCount, out, outOffset);
+
+                // Report how many bytes of inBuffer have been consumed in the sample rate conversion.
+                int resampled = inSampleCount * frameSize;
+                inBuffer.setLength(Math.max(0, inLength - resampled));
+                inBuffer.setOffset(inOffset + resampled);
+                outBuffer.setLength(outSampleCount * frameSize);
+            }
+            else {
+                int inSampleCount = inLength / channels;
+                int outMaxLength = resampler.getMaxOutputSamples(inSampleCount) * channels;
+                short[] out = validateShortArraySize(outBuffer, outMaxLength + outOffset);
+
+                outSampleCount = (inSampleCount == 0) ? 0 : resampler.process(
+                        (short[]) inBuffer.getData(), inOffset, inSampleCount, out, outOffset);
+
+                int resampled = inSampleCount * channels;
+                inBuffer.setLength(Math.max(0, inLength - resampled));
+                inBuffer.setOffset(inOffset + resampled);
+                outBuffer.setLength(outSampleCount * channels);
+            }
+            outBuffer.setFormat(outAudioFormat);
+            outBuffer.setOffset(outOffset);
+        }
+
+        outBuffer.setDuration(inBuffer.getDuration());
+        outBuffer.setEOM(inBuffer.isEOM());
+        outBuffer.setFlags(inBuffer.getFlags());
+        outBuffer.setHeader(inBuffer.getHeader());
+        outBuffer.setSequenceNumber(inBuffer.getSequenceNumber());
+        outBuffer.setTimeStamp(inBuffer.getTimeStamp());
+
+        return BUFFER_PROCESSED_OK;
+    }
+
+    /**
+     * Get the output formats matching a specific input format.
+     *
+     * @param inputFormat the input format to get the matching output formats of
+     * @return the output formats matching the specified input format
+     * @see AbstractCodec2#getMatchingOutputFormats(Format)
+     */
+    @Override
+    protected Format[] getMatchingOutputFormats(Format inputFormat)
+    {
+        Class<?> inDataType = inputFormat.getDataType();
+        List<Format> matchingOutputFormats = new ArrayList<>();
+
+        if (inputFormat instanceof AudioFormat) {
+            AudioFormat inAudioFormat = (AudioFormat) inputFormat;
+            int inChannels = inAudioFormat.getChannels();
+            double inSampleRate = inAudioFormat.getSampleRate();
+
+            for (Format supportedFormat : SUPPORTED_FORMATS) {
+                AudioFormat supportedAudioFormat = (AudioFormat) supportedFormat;
+
+                if (supportedAudioFormat.getChannels() != inChannels)
+                    continue;
+
+                /*
+                 * Resampling is done within the same data type; conversion between data types is
+                 * only supported when passing through.
+                 */
+                if (((inDataType != null) && inDataType.equals(supportedFormat.getDataType()))
+                        || (supportedAudioFormat.getSampleRate() == inSampleRate)) {
+                    matchingOutputFormats.add(supportedFormat);
+                }
+            }
+        }
+        return matchingOutputFormats.toArray(new Format[0]);
+    }
+
+    /**
+     * Sets the <code>Format</code> of the media data to be input for processing in this <code>Codec</code>.
+     *
+     * @param format the <code>Format</code> of the media data to be input for processing in this <code>Codec</code>
+     * @return the <code>Format</code> of the media data to be input for processing in this
+     * <code>Codec</code> if <code>format</code> is compatible with this <code>Codec</code>; otherwise, <code>null</code>
+     * @see AbstractCodec2#setInputFormat(Format)
+     */
+    @Override
+    public Format setInputFormat(Format format)
+    {
+        AudioFormat inFormat = (AudioFormat) super.setInputFormat(format);
+        if (inFormat != null) {
+            double outSampleRate;
+            Class<?> outDataType;
+
+            if (outputFormat == null) {
+                outSampleRate = inFormat.getSampleRate();
+                outDataType = inFormat.getDataType();
+            }
+            else {
+                AudioFormat outAudioFormat = (AudioFormat) outputFormat;
+                outSampleRate = outAudioFormat.getSampleRate();
+                outDataType = outAudioFormat.getDataType();
+                /*
+                 * Conversion between data types is only supported when not resampling but rather passing through.
+                 */
+                if (outSampleRate != inFormat.getSampleRate())
+                    outDataType = inFormat.getDataType();
+            }
+
+            setOutputFormat(new AudioFormat(
+                    inFormat.getEncoding(),
+                    outSampleRate,
+                    inFormat.getSampleSizeInBits(),
+                    inFormat.getChannels(),
+                    inFormat.getEndian(),
+                    inFormat.getSigned(),
+                    Format.NOT_SPECIFIED,
+                    Format.NOT_SPECIFIED,
+                    outDataType));
+        }
+        return inFormat;
+    }
+}
@@ -0,0 +1,499 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.codec.audio.resampler;
+
+import java.util.Arrays;
+
+/**
+ * A pure-java polyphase FIR sample rate converter for 16-bit signed linear PCM.
+ *
+ * The conversion ratio is reduced to <code>L/M</code> (L = upsampling factor, M = downsampling factor)
+ * and a Kaiser windowed-sinc prototype filter is split into <code>L</code> phases of <code>taps</code>
+ * coefficients each; every output sample is then a single dot product of <code>taps</code> input
+ * samples with one phase. The filter bank is computed once per rate pair; all the working memory is
+ * allocated on construction and only grows when a larger input block than previously seen arrives,
+ * so that steady state processing of the usual 10/20ms buffers is allocation-free.
+ *
+ * Multiple channels are processed as interleaved samples; each channel keeps its own history.
+ *
+ * @author Eng Chong Meng
+ */
+public class PolyphaseResampler
+{
+    /**
+     * The resampler quality presets i.e. the trade off between the prototype filter length
+     * (cpu cost per output sample) and the stop-band attenuation.
+     */
+    public enum Quality
+    {
+        /**
+         * 16 taps per phase, ~50dB stop-band attenuation.
+         */
+        LOW(16, 5.0, 0.85),
+
+        /**
+         * 32 taps per phase, ~70dB stop-band attenuation; the default for VoIP.
+         */
+        VOIP(32, 7.0, 0.90),
+
+        /**
+         * 64 taps per phase, ~90dB stop-band attenuation.
+         */
+        HIGH(64, 9.0, 0.94);
+
+        /**
+         * The number of prototype filter taps per phase when not decimating.
+         */
+        final int taps;
+
+        /**
+         * The Kaiser window beta parameter.
+         */
+        final double beta;
+
+        /**
+         * The pass-band edge relative to the Nyquist frequency of the lower of the two rates.
+         */
+        final double cutoff;
+
+        Quality(int taps, double beta, double cutoff)
+        {
+            this.taps = taps;
+            this.beta = beta;
+            this.cutoff = cutoff;
+        }
+
+        /**
+         * Returns the <code>Quality</code> with the specified name (case-insensitive) or
+         * <code>defaultValue</code> if there is no such preset.
+         *
+         * @param name the name of the quality preset
+         * @param defaultValue the <code>Quality</code> to return when <code>name</code> is not valid
+         * @return the <code>Quality</code> with the specified name or <code>defaultValue</code>
+         */
+        public static Quality parse(String name, Quality defaultValue)
+        {
+            if (name != null) {
+                for (Quality quality : values()) {
+                    if (quality.name().equalsIgnoreCase(name.trim()))
+                        return quality;
+                }
+            }
+            return defaultValue;
+        }
+    }
+
+    /**
+     * The upper limit of the filter taps per phase, applied when decimating by a large factor.
+     */
+    private static final int MAX_TAPS = 256;
+
+    /**
+     * The number of interleaved channels.
+     */
+    private final int channels;
+
+    /**
+     * The polyphase filter bank; phase <code>p</code> occupies <code>[p * taps, (p + 1) * taps)</code>.
+     */
+    private final float[] filters;
+
+    /**
+     * Per channel working memory: <code>taps - 1</code> samples of history followed by the current input.
+     */
+    private final float[][] mem;
+
+    /**
+     * The interpolation factor of the reduced conversion ratio.
+     */
+    private final int L;
+
+    /**
+     * The decimation factor of the reduced conversion ratio.
+     */
+    private final int M;
+
+    /**
+     * The input sample rate in Hz.
+     */
+    private final int inRate;
+
+    /**
+     * The output sample rate in Hz.
+     */
+    private final int outRate;
+
+    /**
+     * The number of filter taps per phase.
+     */
+    private final int taps;
+
+    /**
+     * The index in {@link #mem} of the first input sample of the next output dot product.
+     */
+    private int inIndex;
+
+    /**
+     * The filter phase of the next output sample, in <code>[0, L)</code>.
+     */
+    private int phase;
+
+    /**
+     * Initializes a new <code>PolyphaseResampler</code>.
+     *
+     * @param channels the number of interleaved channels
+     * @param inRate the input sample rate in Hz
+     * @param outRate the output sample rate in Hz
+     * @param quality the filter <code>Quality</code> preset
+     */
+    public PolyphaseResampler(int channels, int inRate, int outRate, Quality quality)
+    {
+        if (channels < 1)
+            throw new IllegalArgumentException("channels " + channels);
+        if ((inRate <= 0) || (outRate <= 0))
+            throw new IllegalArgumentException("rate " + inRate + " -> " + outRate);
+
+        int gcd = gcd(inRate, outRate);
+
+        this.channels = channels;
+        this.inRate = inRate;
+        this.outRate = outRate;
+        L = outRate / gcd;
+        M = inRate / gcd;
+
+        /*
+         * When decimating, the transition band shrinks by M/L so the filter must be proportionally
+         * longer to keep the same attenuation.
+         */
+        int taps = quality.taps;
+        if (M > L)
+            taps = (int) Math.ceil(taps * (double) M / L);
+        taps = Math.min(MAX_TAPS, (taps + 1) & ~1);
+        this.taps = taps;
+
+        filters = createFilters(L, M, taps, quality);
+        mem = new float[channels][taps - 1 + 480];
+        reset();
+    }
+
+    /**
+     * Greatest common divisor.
+     */
+    private static int gcd(int a, int b)
+    {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /**
+     * Zero-order modified Bessel function of the first kind, for the Kaiser window.
+     */
+    private static double bessel0(double x)
+    {
+        double sum = 1.0;
+        double term = 1.0;
+        double halfX = x / 2.0;
+
+        for (int k = 1; k < 50; k++) {
+            term *= halfX / k;
+            double t2 = term * term;
+            sum += t2;
+            if (t2 < sum * 1e-12)
+                break;
+        }
+        return sum;
+    }
+
+    /**
+     * Designs the Kaiser windowed-sinc prototype and splits it into <code>L</code> phases, each
+     * normalized to unity DC gain.
+     */
+    private static float[] createFilters(int L, int M, int taps, Quality quality)
+    {
+        float[] filters = new float[L * taps];
+        // cut-off relative to the input Nyquist frequency
+        double fc = quality.cutoff * Math.min(1.0, (double) L / M);
+        double halfTaps = taps / 2.0;
+        double i0Beta = bessel0(quality.beta);
+
+        for (int p = 0; p < L; p++) {
+            double frac = (double) p / L;
+            double sum = 0;
+            int base = p * taps;
+
+            for (int k = 0; k < taps; k++) {
+                // distance in input samples from the output instant to tap k
+                double t = (halfTaps - 1 + frac) - k;
+                double x = t / halfTaps;
+                double w = (Math.abs(x) >= 1.0) ? 0.0
+                        : bessel0(quality.beta * Math.sqrt(1.0 - x * x)) / i0Beta;
+                double arg = Math.PI * fc * t;
+                double sinc = (t == 0) ? 1.0 : Math.sin(arg) / arg;
+                double h = fc * sinc * w;
+
+                filters[base + k] = (float) h;
+                sum += h;
+            }
+            if (sum != 0) {
+                for (int k = 0; k < taps; k++)
+                    filters[base + k] = (float) (filters[base + k] / sum);
+            }
+        }
+        return filters;
+    }
+
+    /**
+     * Gets the number of interleaved channels.
+     *
+     * @return the number of interleaved channels
+     */
+    public int getChannels()
+    {
+        return channels;
+    }
+
+    /**
+     * Gets the input sample rate in Hz.
+     *
+     * @return the input sample rate in Hz
+     */
+    public int getInputSampleRate()
+    {
+        return inRate;
+    }
+
+    /**
+     * Gets the output sample rate in Hz.
+     *
+     * @return the output sample rate in Hz
+     */
+    public int getOutputSampleRate()
+    {
+        return outRate;
+    }
+
+    /**
+     * Gets the filter delay introduced by this resampler, in input samples per channel.
+     *
+     * @return the filter delay in input samples
+     */
+    public int getInputLatency()
+    {
+        return taps / 2;
+    }
+
+    /**
+     * Gets the maximum number of output samples per channel which {@link #process} may produce for
+     * the given number of input samples per channel.
+     *
+     * @param inSamples the number of input samples per channel
+     * @return the maximum number of output samples per channel
+     */
+    public int getMaxOutputSamples(int inSamples)
+    {
+        return (int) (((long) (inSamples + 1) * L) / M) + 1;
+    }
+
+    /**
+     * Clears the filter history so that the next {@link #process} call starts a new stream.
+     */
+    public void reset()
+    {
+        for (float[] m : mem)
+            Arrays.fill(m, 0f);
+        inIndex = 0;
+        phase = 0;
+    }
+
+    /**
+     * Makes sure the working memory can hold the history plus <code>inSamples</code> new samples.
+     */
+    private void ensureCapacity(int inSamples)
+    {
+        int required = taps - 1 + inSamples;
+
+        if (mem[0].length < required) {
+            for (int c = 0; c < channels; c++)
+                mem[c] = Arrays.copyOf(mem[c], required + (required >> 1));
+        }
+    }
+
+    /**
+     * Resamples interleaved 16-bit little endian PCM.
+     *
+     * @param in the input samples
+     * @param inOffset the offset in bytes in <code>in</code> of the first input sample
+     * @param inSamples the number of input samples per channel
+     * @param out the array to receive the resampled audio; must have room for at least
+     * {@link #getMaxOutputSamples(int)} samples per channel starting at <code>outOffset</code>
+     * @param outOffset the offset in bytes in <code>out</code> at which to write
+     * @return the number of output samples per channel written into <code>out</code>
+     */
+    public int process(byte[] in, int inOffset, int inSamples, byte[] out, int outOffset)
+    {
+        ensureCapacity(inSamples);
+
+        int frameSize = 2 * channels;
+        int hist = taps - 1;
+
+        for (int c = 0; c < channels; c++) {
+            float[] m = mem[c];
+            for (int i = 0, b = inOffset + 2 * c; i < inSamples; i++, b += frameSize)
+                m[hist + i] = (short) ((in[b] & 0xFF) | (in[b + 1] << 8));
+        }
+
+        int outSamples = 0;
+        for (int c = 0; c < channels; c++) {
+            outSamples = filter(mem[c], hist + inSamples, out, outOffset + 2 * c, frameSize, c == channels - 1);
+        }
+        return outSamples;
+    }
+
+    /**
+     * Resamples interleaved 16-bit PCM held in a <code>short</code> array.
+     *
+     * @param in the input samples
+     * @param inOffset the index in <code>in</code> of the first input sample
+     * @param inSamples the number of input samples per channel
+     * @param out the array to receive the resampled audio; must have room for at least
+     * {@link #getMaxOutputSamples(int)} samples per channel starting at <code>outOffset</code>
+     * @param outOffset the index in <code>out</code> at which to write
+     * @return the number of output samples per channel written into <code>out</code>
+     */
+    public int process(short[] in, int inOffset, int inSamples, short[] out, int outOffset)
+    {
+        ensureCapacity(inSamples);
+
+        int hist = taps - 1;
+
+        for (int c = 0; c < channels; c++) {
+            float[] m = mem[c];
+            for (int i = 0, s = inOffset + c; i < inSamples; i++, s += channels)
+                m[hist + i] = in[s];
+        }
+
+        int outSamples = 0;
+        for (int c = 0; c < channels; c++) {
+            outSamples = filter(mem[c], hist + inSamples, out, outOffset + c, channels, c == channels - 1);
+        }
+        return outSamples;
+    }
+
+    /**
+     * Runs the polyphase filter over one channel's working memory writing 16-bit LE samples.
+     *
+     * @param m the channel working memory
+     * @param available the number of valid samples in <code>m</code>
+     * @param out the output array
+     * @param outOffset the byte offset of the first output sample of this channel
+     * @param stride the byte distance between consecutive output samples of this channel
+     * @param commit <code>true</code> to save the filter position for the next call (last channel)
+     * @return the number of output samples written
+     */
+    private int filter(float[] m, int available, byte[] out, int outOffset, int stride, boolean commit)
+    {
+        final float[] filters = this.filters;
+        final int taps = this.taps;
+        int index = inIndex;
+        int phase = this.phase;
+        int count = 0;
+
+        for (int o = outOffset; index + taps <= available; o += stride, count++) {
+            int s = saturate(dot(filters, phase * taps, m, index, taps));
+
+            out[o] = (byte) s;
+            out[o + 1] = (byte) (s >> 8);
+
+            phase += M;
+            while (phase >= L) {
+                phase -= L;
+                index++;
+            }
+        }
+        retain(m, available, index, phase, commit);
+        return count;
+    }
+
+    /**
+     * Runs the polyphase filter over one channel's working memory writing <code>short</code> samples.
+     *
+     * @see #filter(float[], int, byte[], int, int, boolean)
+     */
+    private int filter(float[] m, int available, short[] out, int outOffset, int stride, boolean commit)
+    {
+        final float[] filters = this.filters;
+        final int taps = this.taps;
+        int index = inIndex;
+        int phase = this.phase;
+        int count = 0;
+
+        for (int o = outOffset; index + taps <= available; o += stride, count++) {
+            out[o] = (short) saturate(dot(filters, phase * taps, m, index, taps));
+
+            phase += M;
+            while (phase >= L) {
+                phase -= L;
+                index++;
+            }
+        }
+        retain(m, available, index, phase, commit);
+        return count;
+    }
+
+    /**
+     * Moves the samples still needed by the filter to the front of the working memory.
+     */
+    private void retain(float[] m, int available, int index, int phase, boolean commit)
+    {
+        /*
+         * Keep exactly taps - 1 samples ending at available so that the next call can append
+         * the new input at the fixed history offset; index is rebased accordingly.
+         */
+        int hist = taps - 1;
+        int shift = available - hist;
+
+        System.arraycopy(m, shift, m, 0, hist);
+        if (commit) {
+            inIndex = index - shift;
+            this.phase = phase;
+        }
+    }
+
+    private static float dot(float[] h, int hOffset, float[] x, int xOffset, int n)
+    {
+        float acc0 = 0f, acc1 = 0f;
+        int k = 0;
+
+        for (; k + 1 < n; k += 2) {
+            acc0 += h[hOffset + k] * x[xOffset + k];
+            acc1 += h[hOffset + k + 1] * x[xOffset + k + 1];
+        }
+        if (k < n)
+            acc0 += h[hOffset + k] * x[xOffset + k];
+        return acc0 + acc1;
+    }
+
+    private static int saturate(float v)
+    {
+        int s = Math.round(v);
+        return (s > Short.MAX_VALUE) ? Short.MAX_VALUE : ((s < Short.MIN_VALUE) ? Short.MIN_VALUE : s);
+    }
+}
@@ -401,7 +401,7 @@ public class ControlCodecFLP
 			psEnc.sCmn.shapingLPCOrder = 12;
 			psEnc.sCmn.nStatesDelayedDecision = 1;
 			// psEnc.NoiseShapingQuantizer = SKP_Silk_NSQ;
-			psEnc.noiseShapingQuantizerCB = new NSQImplNSQ();
+			psEnc.noiseShapingQuantizerCB = NSQImplNSQ.INSTANCE;
 			psEnc.sCmn.useInterpolatedNLSFs = 0;
 			psEnc.sCmn.LTPQuantLowComplexity = 1;
 			psEnc.sCmn.NLSF_MSVQ_Survivors = Define.MAX_NLSF_MSVQ_SURVIVORS_LC_MODE;
@@ -415,7 +415,7 @@ public class ControlCodecFLP
 			psEnc.sCmn.shapingLPCOrder = 16;
 			psEnc.sCmn.nStatesDelayedDecision = 2;
 			// psEnc.NoiseShapingQuantizer = SKP_Silk_NSQ_del_dec;
-			psEnc.noiseShapingQuantizerCB = new NSQImplNSQDelDec();
+			psEnc.noiseShapingQuantizerCB = NSQImplNSQDelDec.INSTANCE;
 			psEnc.sCmn.useInterpolatedNLSFs = 0;
 			psEnc.sCmn.LTPQuantLowComplexity = 0;
 			psEnc.sCmn.NLSF_MSVQ_Survivors = Define.MAX_NLSF_MSVQ_SURVIVORS_MC_MODE;
@@ -429,7 +429,7 @@ public class ControlCodecFLP
 			psEnc.sCmn.shapingLPCOrder = 16;
 			psEnc.sCmn.nStatesDelayedDecision = 4;
 			// psEnc.NoiseShapingQuantizer = SKP_Silk_NSQ_del_dec;
-			psEnc.noiseShapingQuantizerCB = new NSQImplNSQDelDec();
+			psEnc.noiseShapingQuantizerCB = NSQImplNSQDelDec.INSTANCE;
 			psEnc.sCmn.useInterpolatedNLSFs = 1;
 			psEnc.sCmn.LTPQuantLowComplexity = 0;
 			psEnc.sCmn.NLSF_MSVQ_Survivors = Define.MAX_NLSF_MSVQ_SURVIVORS;
@@ -622,6 +622,11 @@ public class ControlCodecFLP
  */
 class NSQImplNSQ implements NoiseShapingQuantizerFP
 {
+	/**
+	 * The implementation is stateless, so every encoder shares this instance.
+	 */
+	static final NSQImplNSQ INSTANCE = new NSQImplNSQ();
+
 	public void NoiseShapingQuantizer(SKP_Silk_encoder_state psEnc,
 		SKP_Silk_encoder_control psEncCtrl, SKP_Silk_nsq_state nsq, short[] x, byte[] q, int arg6,
 		short[] arg7, short[] arg8, short[] arg9, int[] arg10, int[] arg11, int[] arg12,
@@ -640,6 +645,11 @@ class NSQImplNSQ implements NoiseShapingQuantizerFP
  */
 class NSQImplNSQDelDec implements NoiseShapingQuantizerFP
 {
+	/**
+	 * The implementation is stateless, so every encoder shares this instance.
+	 */
+	static final NSQImplNSQDelDec INSTANCE = new NSQImplNSQDelDec();
+
 	public void NoiseShapingQuantizer(SKP_Silk_encoder_state psEnc,
 		SKP_Silk_encoder_control psEncCtrl, SKP_Silk_nsq_state NSQ, short[] x, byte[] q, int arg6,
 		short[] arg7, short[] arg8, short[] arg9, int[] arg10, int[] arg11, int[] arg12,
@@ -247,7 +247,7 @@ public class EncAPI {
                 if (MaxBytesOut == 0) {
                     /* No payload obtained so far */
                     MaxBytesOut = nBytesOut[0];
-                    short MaxBytesOut_ptr[] = new short[1];
+                    short MaxBytesOut_ptr[] = psEnc.MaxBytesOut_ptr;
                     MaxBytesOut_ptr[0] = MaxBytesOut;
                     // if( ( ret = Silk_encode_frame_FLP.SKP_Silk_encode_frame_FLP( psEnc, outData,
                     // outData_offset,
@@ -45,19 +45,20 @@ public class EncodeFrameFLP
 		short[] pIn, /* I Input speech frame */
 		int pIn_offset)
 	{
-		SKP_Silk_encoder_control_FLP sEncCtrl = new SKP_Silk_encoder_control_FLP();
-		int k, nBytes[] = new int[1], ret = 0;
+		/* Work buffers are owned by the encoder state so that no allocation is made per frame */
+		SKP_Silk_encoder_control_FLP sEncCtrl = psEnc.sEncCtrl;
+		int k, nBytes[] = psEnc.nBytes, ret = 0;
 		float[] x_frame, res_pitch_frame;
 		int x_frame_offset, res_pitch_frame_offset;
-		short[] pIn_HP = new short[Define.MAX_FRAME_LENGTH];
-		short[] pIn_HP_LP = new short[Define.MAX_FRAME_LENGTH];
-		float[] xfw = new float[Define.MAX_FRAME_LENGTH];
-		float[] res_pitch = new float[2 * Define.MAX_FRAME_LENGTH + Define.LA_PITCH_MAX];
+		short[] pIn_HP = psEnc.pIn_HP;
+		short[] pIn_HP_LP = psEnc.pIn_HP_LP;
+		float[] xfw = psEnc.xfw;
+		float[] res_pitch = psEnc.res_pitch;
 		int LBRR_idx, frame_terminator;
 
 		/* Low bitrate redundancy parameters */
-		byte[] LBRRpayload = new byte[Define.MAX_ARITHM_BYTES];
-		short[] nBytesLBRR = new short[1];
+		byte[] LBRRpayload = psEnc.LBRRpayload;
+		short[] nBytesLBRR = psEnc.nBytesLBRR;
 
 		int[] FrameTermination_CDF;
 
@@ -594,10 +595,10 @@ public class EncodeFrameFLP
 		float xfw[] /* I Input signal */
 	)
 	{
-		int[] Gains_Q16 = new int[Define.NB_SUBFR];
-		int k, TempGainsIndices[] = new int[Define.NB_SUBFR], frame_terminator;
-		int nBytes[] = new int[1], nFramesInPayloadBuf;
-		float TempGains[] = new float[Define.NB_SUBFR];
+		int[] Gains_Q16 = psEnc.LBRR_Gains_Q16;
+		int k, TempGainsIndices[] = psEnc.LBRR_TempGainsIndices, frame_terminator;
+		int nBytes[] = psEnc.nBytes, nFramesInPayloadBuf;
+		float TempGains[] = psEnc.LBRR_TempGains;
 		int typeOffset, LTP_scaleIndex, Rate_only_parameters = 0;
 		/* Control use of inband LBRR */
 		ControlCodecFLP.SKP_Silk_LBRR_ctrl_FLP(psEnc, psEncCtrl.sCmn);
@@ -640,7 +641,7 @@ public class EncodeFrameFLP
 						psEncCtrl.sCmn.GainsIndices[0], 0, Define.N_LEVELS_QGAIN - 1);
 				}
 				/* Decode to get Gains in sync with decoder */
-				int LBRRprevLastGainIndex_ptr[] = new int[1];
+				int LBRRprevLastGainIndex_ptr[] = psEnc.LBRRprevLastGainIndex_ptr;
 				LBRRprevLastGainIndex_ptr[0] = psEnc.sCmn.LBRRprevLastGainIndex;
 				GainQuant.SKP_Silk_gains_dequant(Gains_Q16, psEncCtrl.sCmn.GainsIndices,
 					LBRRprevLastGainIndex_ptr, psEnc.sCmn.nFramesInPayloadBuf);
@@ -38,10 +38,10 @@ public class FindPitchLagsFLP
 		// const SKP_float *x_buf_ptr, *x_buf;
 		float[] x_buf_ptr, x_buf;
 		int x_buf_ptr_offset, x_buf_offset;
-		float[] auto_corr = new float[Define.FIND_PITCH_LPC_ORDER_MAX + 1];
-		float[] A = new float[Define.FIND_PITCH_LPC_ORDER_MAX];
-		float[] refl_coef = new float[Define.FIND_PITCH_LPC_ORDER_MAX];
-		float[] Wsig = new float[Define.FIND_PITCH_LPC_WIN_MAX];
+		float[] auto_corr = psEnc.pitch_auto_corr;
+		float[] A = psEnc.pitch_A;
+		float[] refl_coef = psEnc.pitch_refl_coef;
+		float[] Wsig = psEnc.pitch_Wsig;
 		float thrhld;
 		float[] Wsig_ptr;
 		int Wsig_ptr_offset;
@@ -131,7 +131,7 @@ public class FindPitchLagsFLP
 		psEncCtrl.sCmn.sigtype = PitchAnalysisCoreFLP.SKP_Silk_pitch_analysis_core_FLP(res,
 			psEncCtrl.sCmn.pitchL, lagIndex_djinnaddress, contourIndex_djinnaddress,
 			LTPCorr_djinnaddress, psEnc.sCmn.prevLag, psEnc.pitchEstimationThreshold, thrhld,
-			psEnc.sCmn.fs_kHz, psEnc.sCmn.pitchEstimationComplexity);
+			psEnc.sCmn.fs_kHz, psEnc.sCmn.pitchEstimationComplexity, psEnc.sPitchScratch);
 		psEncCtrl.sCmn.lagIndex = lagIndex_djinnaddress[0];
 		psEncCtrl.sCmn.contourIndex = contourIndex_djinnaddress[0];
 		psEnc.LTPCorr = LTPCorr_djinnaddress[0];
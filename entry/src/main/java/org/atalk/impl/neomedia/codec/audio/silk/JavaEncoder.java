@@ -12,6 +12,7 @@ import org.atalk.service.neomedia.codec.Constants;
 import org.atalk.service.neomedia.control.PacketLossAwareEncoder;
 
 import java.awt.Component;
+import java.util.Arrays;
 
 import javax.media.Buffer;
 import javax.media.Format;
@@ -31,8 +32,38 @@ public class JavaEncoder extends AbstractCodec2 implements PacketLossAwareEncode
 {
     private static final int BITRATE = 40000;
 
+    /**
+     * The default complexity of the encoder, 0 to 2 where 2 is highest. The complexity selects the
+     * pitch estimation complexity, the LPC orders of the pitch and noise shaping analysis and the
+     * number of delayed decision states of the noise shaping quantizer.
+     */
     private static final int COMPLEXITY = 2;
 
+    /**
+     * The upper bounds in microseconds of the buckets of the encode time histogram; the last bucket
+     * collects everything above the preceding bound.
+     */
+    private static final int[] ENCODE_TIME_BUCKETS_US
+            = {500, 1000, 2000, 4000, 8000, 12000, 16000, 20000, Integer.MAX_VALUE};
+
+    /**
+     * The share of the frame duration the average encode time may reach before the adaptive
+     * controller lowers the complexity.
+     */
+    private static final float ENCODE_TIME_HIGH_WATERMARK = 0.5f;
+
+    /**
+     * The share of the frame duration the average encode time must fall below before the adaptive
+     * controller raises the complexity again, up to the configured one.
+     */
+    private static final float ENCODE_TIME_LOW_WATERMARK = 0.15f;
+
+    /**
+     * The number of frames to encode at a complexity before the adaptive controller may change it
+     * again, so that the average reflects the current setting.
+     */
+    private static final int COMPLEXITY_HOLD_FRAMES = 50;
+
     /**
      * The maximum number of output payload bytes per input frame. Equals peak bitrate of 100 kbps.
      */
@@ -81,6 +112,31 @@ public class JavaEncoder extends AbstractCodec2 implements PacketLossAwareEncode
      */
     private int duration = JavaDecoder.FRAME_DURATION * 1000000;
 
+    /**
+     * The complexity configured for this encoder; the adaptive controller never goes above it.
+     */
+    private final int complexity;
+
+    /**
+     * Whether to lower the complexity when the encode time of a frame nears the frame duration.
+     */
+    private final boolean adaptiveComplexity;
+
+    /**
+     * The exponential moving average of the time in nanoseconds spent in encoding a frame.
+     */
+    private float avgEncodeTimeNs;
+
+    /**
+     * The number of frames encoded since the complexity was last changed.
+     */
+    private int framesAtComplexity;
+
+    /**
+     * The number of frames per bucket of {@link #ENCODE_TIME_BUCKETS_US}.
+     */
+    private final long[] encodeTimeHistogram = new long[ENCODE_TIME_BUCKETS_US.length];
+
     static {
         int supportedCount = SUPPORTED_SAMPLE_RATES.length;
         SUPPORTED_INPUT_FORMATS = new Format[supportedCount];
@@ -144,6 +200,8 @@ public class JavaEncoder extends AbstractCodec2 implements PacketLossAwareEncode
         // here.
         useFec = cfg.getBoolean(Constants.PROP_SILK_FEC, true);
         alwaysAssumePacketLoss = cfg.getBoolean(Constants.PROP_SILK_ASSUME_PL, true);
+        complexity = Math.max(0, Math.min(2, cfg.getInt(Constants.PROP_SILK_COMPLEXITY, COMPLEXITY)));
+        adaptiveComplexity = cfg.getBoolean(Constants.PROP_SILK_ADAPTIVE_COMPLEXITY, true);
 
         // Update the statically defined value for "speech activity threshold"
         // according to our configuration
@@ -163,6 +221,10 @@ public class JavaEncoder extends AbstractCodec2 implements PacketLossAwareEncode
     @Override
     protected void doClose()
     {
+        if (encControl != null) {
+            Timber.d("SILK encode time histogram (us upper bound: frames) %s; final complexity %d",
+                    histogramToString(), encControl.complexity);
+        }
         encState = null;
         encControl = null;
     }
@@ -183,12 +245,16 @@ public class JavaEncoder extends AbstractCodec2 implements PacketLossAwareEncode
 
         encControl.API_sampleRate = (int) sampleRate;
         encControl.bitRate = BITRATE;
-        encControl.complexity = COMPLEXITY;
+        encControl.complexity = complexity;
         encControl.maxInternalSampleRate = encControl.API_sampleRate;
         setExpectedPacketLoss(0);
         encControl.packetSize = (int) ((JavaDecoder.FRAME_DURATION * sampleRate * channels) / 1000);
         encControl.useDTX = USE_DTX ? 1 : 0;
         encControl.useInBandFEC = useFec ? 1 : 0;
+
+        avgEncodeTimeNs = 0;
+        framesAtComplexity = 0;
+        Arrays.fill(encodeTimeHistogram, 0);
     }
 
     @Override
@@ -207,8 +273,12 @@ public class JavaEncoder extends AbstractCodec2 implements PacketLossAwareEncode
         int processed;
 
         outputLength[0] = MAX_BYTES_PER_FRAME;
-        if (EncAPI.SKP_Silk_SDK_Encode(encState, encControl, inputData, inputOffset, inputLength,
-                outputData, outputOffset, outputLength) == 0) {
+        long startTime = System.nanoTime();
+        int ret = EncAPI.SKP_Silk_SDK_Encode(encState, encControl, inputData, inputOffset, inputLength,
+                outputData, outputOffset, outputLength);
+        updateEncodeTime(System.nanoTime() - startTime);
+
+        if (ret == 0) {
             outputBuffer.setLength(outputLength[0]);
             outputBuffer.setOffset(outputOffset);
             processed = BUFFER_PROCESSED_OK;
@@ -232,6 +302,89 @@ public class JavaEncoder extends AbstractCodec2 implements PacketLossAwareEncode
         return processed;
     }
 
+    /**
+     * Records the time spent in encoding a frame in the histogram and, if adaptive complexity is
+     * enabled, lowers the complexity of the encoder when the average encode time reaches
+     * {@link #ENCODE_TIME_HIGH_WATERMARK} of the frame duration, or raises it back towards the
+     * configured one when it drops below {@link #ENCODE_TIME_LOW_WATERMARK}.
+     *
+     * @param encodeTimeNs the time in nanoseconds spent in encoding the last frame
+     */
+    private void updateEncodeTime(long encodeTimeNs)
+    {
+        long encodeTimeUs = encodeTimeNs / 1000;
+        int bucket = 0;
+        while (encodeTimeUs > ENCODE_TIME_BUCKETS_US[bucket])
+            bucket++;
+        encodeTimeHistogram[bucket]++;
+
+        if (!adaptiveComplexity)
+            return;
+
+        avgEncodeTimeNs = (framesAtComplexity == 0)
+                ? encodeTimeNs : (0.9f * avgEncodeTimeNs + 0.1f * encodeTimeNs);
+        if (++framesAtComplexity < COMPLEXITY_HOLD_FRAMES)
+            return;
+
+        int newComplexity = encControl.complexity;
+        if (avgEncodeTimeNs > ENCODE_TIME_HIGH_WATERMARK * duration && newComplexity > 0)
+            newComplexity--;
+        else if (avgEncodeTimeNs < ENCODE_TIME_LOW_WATERMARK * duration && newComplexity < complexity)
+            newComplexity++;
+
+        if (newComplexity != encControl.complexity) {
+            Timber.i("Changing SILK encoder complexity from %d to %d: average encode time %.2f ms",
+                    encControl.complexity, newComplexity, avgEncodeTimeNs / 1000000f);
+            encControl.complexity = newComplexity;
+            framesAtComplexity = 0;
+        }
+    }
+
+    /**
+     * Returns a copy of the encode time histogram of this encoder since it was last opened. The
+     * count at index <code>i</code> is the number of frames that took at most
+     * {@link #getEncodeTimeBucketsUs()}<code>[i]</code> microseconds (and more than the previous bound).
+     *
+     * @return the number of encoded frames per encode time bucket
+     */
+    public long[] getEncodeTimeHistogram()
+    {
+        return encodeTimeHistogram.clone();
+    }
+
+    /**
+     * Returns the upper bounds in microseconds of the buckets of {@link #getEncodeTimeHistogram()}.
+     *
+     * @return the upper bounds in microseconds of the encode time buckets
+     */
+    public static int[] getEncodeTimeBucketsUs()
+    {
+        return ENCODE_TIME_BUCKETS_US.clone();
+    }
+
+    /**
+     * Returns the current complexity of the encoder, which is lower than the configured one while
+     * the adaptive controller has reduced it.
+     *
+     * @return the current complexity, 0 to 2 where 2 is highest
+     */
+    public int getComplexity()
+    {
+        return (encControl != null) ? encControl.complexity : complexity;
+    }
+
+    private String histogramToString()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < ENCODE_TIME_BUCKETS_US.length; i++) {
+            if (i != 0)
+                sb.append(", ");
+            sb.append((ENCODE_TIME_BUCKETS_US[i] == Integer.MAX_VALUE) ? "inf" : ENCODE_TIME_BUCKETS_US[i])
+                    .append(": ").append(encodeTimeHistogram[i]);
+        }
+        return sb.toString();
+    }
+
     /**
      * Get the output formats matching a specific input format.
      *
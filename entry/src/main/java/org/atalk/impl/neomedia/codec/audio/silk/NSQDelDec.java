@@ -25,68 +25,6 @@ import static org.atalk.impl.neomedia.codec.audio.silk.Macros.SKP_SMULWW;
 
 import java.util.Arrays;
 
-/**
- *
- * @author Dingxin Xu
- */
-class NSQDelDecStruct
-{
-	int RandState[] = new int[DECISION_DELAY];
-	int Q_Q10[] = new int[DECISION_DELAY];
-	int Xq_Q10[] = new int[DECISION_DELAY];
-	int Pred_Q16[] = new int[DECISION_DELAY];
-	int Shape_Q10[] = new int[DECISION_DELAY];
-	int Gain_Q16[] = new int[DECISION_DELAY];
-	int sLPC_Q14[] = new int[MAX_FRAME_LENGTH / NB_SUBFR + NSQ_LPC_BUF_LENGTH()];
-	int LF_AR_Q12;
-	int Seed;
-	int SeedInit;
-	int RD_Q10;
-
-	public void FieldsInit()
-	{
-		Arrays.fill(this.RandState, 0);
-		Arrays.fill(this.Q_Q10, 0);
-		Arrays.fill(this.Xq_Q10, 0);
-		Arrays.fill(this.Pred_Q16, 0);
-		Arrays.fill(this.Shape_Q10, 0);
-		Arrays.fill(this.Gain_Q16, 0);
-		Arrays.fill(this.sLPC_Q14, 0);
-		this.LF_AR_Q12 = 0;
-		this.Seed = 0;
-		this.SeedInit = 0;
-		this.RD_Q10 = 0;
-	}
-}
-
-/**
- *
- * @author Dingxin Xu
- */
-class NSQ_sample_struct implements Cloneable
-{
-	int Q_Q10;
-	int RD_Q10;
-	int xq_Q14;
-	int LF_AR_Q12;
-	int sLTP_shp_Q10;
-	int LPC_exc_Q16;
-
-	@Override
-	public Object clone()
-	{
-		NSQ_sample_struct clone = null;
-		try {
-			clone = (NSQ_sample_struct) super.clone();
-		}
-		catch (CloneNotSupportedException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		return clone;
-	}
-}
-
 /**
  *
  * @author Dingxin Xu
@@ -118,20 +56,23 @@ public class NSQDelDec
 		int A_Q12_offset, B_Q14_offset, AR_shp_Q13_offset;
 		short[] pxq;
 		int pxq_offset;
-		int sLTP_Q16[] = new int[2 * MAX_FRAME_LENGTH];
-		short sLTP[] = new short[2 * MAX_FRAME_LENGTH];
+		int sLTP_Q16[] = NSQ.sLTP_Q16;
+		short sLTP[] = NSQ.sLTP;
 		int HarmShapeFIRPacked_Q14;
 		int offset_Q10;
-		int FiltState[] = new int[MAX_LPC_ORDER], RDmin_Q10;
-		int x_sc_Q10[] = new int[MAX_FRAME_LENGTH / NB_SUBFR];
-		NSQDelDecStruct psDelDec[] = new NSQDelDecStruct[DEL_DEC_STATES_MAX];
+		int FiltState[] = NSQ.FiltState, RDmin_Q10;
+		int x_sc_Q10[] = NSQ.x_sc_Q10;
+		NSQDelDecStruct psDelDec[] = NSQ.psDelDec;
 		/*
-		 * psDelDec is an array of references, which has to be created manually.
+		 * psDelDec is an array of references, which has to be created manually. It is created
+		 * once per NSQ state and reset below for every frame.
 		 */
-		{
+		if (psDelDec == null) {
+			psDelDec = new NSQDelDecStruct[DEL_DEC_STATES_MAX];
 			for (int psDelDecIni_i = 0; psDelDecIni_i < DEL_DEC_STATES_MAX; psDelDecIni_i++) {
 				psDelDec[psDelDecIni_i] = new NSQDelDecStruct();
 			}
+			NSQ.psDelDec = psDelDec;
 		}
 		NSQDelDecStruct psDD;
 
@@ -142,11 +83,10 @@ public class NSQDelDec
 
 		assert (NSQ.prev_inv_gain_Q16 != 0);
 
-		// TODO: use a local copy of the parameter short x[], which is supposed to be input;
-		short[] x_tmp = x.clone();
+		/* x is only read and q only written, so neither needs a local copy */
+		short[] x_tmp = x;
 		int x_tmp_offset = 0;
-		// TODO: use a local copy of the parameter byte[] q, which is supposed to be output;
-		byte[] q_tmp = q.clone();
+		byte[] q_tmp = q;
 		int q_tmp_offset = 0;
 
 		/* Initialize delayed decision states */
@@ -275,7 +215,7 @@ public class NSQDelDec
 				subfr_length, sLTP, sLTP_Q16, k, psEncC.nStatesDelayedDecision, smpl_buf_idx,
 				LTP_scale_Q14, Gains_Q16, psEncCtrlC.pitchL);
 
-			int smpl_buf_idx_ptr[] = new int[1];
+			int smpl_buf_idx_ptr[] = NSQ.smpl_buf_idx;
 			smpl_buf_idx_ptr[0] = smpl_buf_idx;
 			SKP_Silk_noise_shape_quantizer_del_dec(NSQ, psDelDec, psEncCtrlC.sigtype, x_sc_Q10,
 				q_tmp, q_tmp_offset, pxq, pxq_offset, sLTP_Q16, A_Q12, A_Q12_offset, B_Q14,
@@ -332,8 +272,6 @@ public class NSQDelDec
 		System.arraycopy(NSQ.xq, psEncC.frame_length, NSQ.xq, 0, psEncC.frame_length);
 		System.arraycopy(NSQ.sLTP_shp_Q10, psEncC.frame_length, NSQ.sLTP_shp_Q10, 0,
 			psEncC.frame_length);
-		// TODO: copy back the q_tmp to the output parameter q;
-		System.arraycopy(q_tmp, 0, q, 0, q.length);
 	}
 
 	/**
@@ -423,16 +361,19 @@ public class NSQDelDec
 		int pred_lag_ptr_offset, shp_lag_ptr_offset;
 		int[] psLPC_Q14;
 		int psLPC_Q14_offset;
-		NSQ_sample_struct psSampleState[][] = new NSQ_sample_struct[DEL_DEC_STATES_MAX][2];
+		NSQ_sample_struct psSampleState[][] = NSQ.psSampleState;
 		/*
 		 * psSampleState is an two-dimension array of reference, which should be created manually.
+		 * It is created once per NSQ state; every field is written before it is read.
 		 */
-		{
+		if (psSampleState == null) {
+			psSampleState = new NSQ_sample_struct[DEL_DEC_STATES_MAX][2];
 			for (int Ini_i = 0; Ini_i < DEL_DEC_STATES_MAX; Ini_i++) {
 				for (int Ini_j = 0; Ini_j < 2; Ini_j++) {
 					psSampleState[Ini_i][Ini_j] = new NSQ_sample_struct();
 				}
 			}
+			NSQ.psSampleState = psSampleState;
 		}
 		NSQDelDecStruct psDD;
 		NSQ_sample_struct[] psSS;
@@ -712,12 +653,10 @@ public class NSQDelDec
 			if (RDmin_Q10 < RDmax_Q10) {
 				// SKP_Silk_copy_del_dec_state( &psDelDec[ RDmax_ind ], &psDelDec[ RDmin_ind ], i );
 				SKP_Silk_copy_del_dec_state(psDelDec[RDmax_ind], psDelDec[RDmin_ind], i);
-				// TODO:how to copy a struct ???
 				// SKP_memcpy( &psSampleState[ RDmax_ind ][ 0 ], &psSampleState[ RDmin_ind ][ 1 ],
 				// sizeof(
 				// NSQ_sample_struct ) );
-				psSampleState[RDmax_ind][0] = (NSQ_sample_struct) psSampleState[RDmin_ind][1]
-					.clone();
+				psSampleState[RDmax_ind][0].copyFrom(psSampleState[RDmin_ind][1]);
 			}
 
 			/* Write samples from winner to output and long-term filter states */
@@ -0,0 +1,47 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ * 
+ * Distributable under LGPL license. See terms of license at gnu.org.
+ */
+package org.atalk.impl.neomedia.codec.audio.silk;
+
+import static org.atalk.impl.neomedia.codec.audio.silk.Define.DECISION_DELAY;
+import static org.atalk.impl.neomedia.codec.audio.silk.Define.MAX_FRAME_LENGTH;
+import static org.atalk.impl.neomedia.codec.audio.silk.Define.NB_SUBFR;
+import static org.atalk.impl.neomedia.codec.audio.silk.Define.NSQ_LPC_BUF_LENGTH;
+
+import java.util.Arrays;
+
+/**
+ *
+ * @author Dingxin Xu
+ */
+class NSQDelDecStruct
+{
+	int RandState[] = new int[DECISION_DELAY];
+	int Q_Q10[] = new int[DECISION_DELAY];
+	int Xq_Q10[] = new int[DECISION_DELAY];
+	int Pred_Q16[] = new int[DECISION_DELAY];
+	int Shape_Q10[] = new int[DECISION_DELAY];
+	int Gain_Q16[] = new int[DECISION_DELAY];
+	int sLPC_Q14[] = new int[MAX_FRAME_LENGTH / NB_SUBFR + NSQ_LPC_BUF_LENGTH()];
+	int LF_AR_Q12;
+	int Seed;
+	int SeedInit;
+	int RD_Q10;
+
+	public void FieldsInit()
+	{
+		Arrays.fill(this.RandState, 0);
+		Arrays.fill(this.Q_Q10, 0);
+		Arrays.fill(this.Xq_Q10, 0);
+		Arrays.fill(this.Pred_Q16, 0);
+		Arrays.fill(this.Shape_Q10, 0);
+		Arrays.fill(this.Gain_Q16, 0);
+		Arrays.fill(this.sLPC_Q14, 0);
+		this.LF_AR_Q12 = 0;
+		this.Seed = 0;
+		this.SeedInit = 0;
+		this.RD_Q10 = 0;
+	}
+}
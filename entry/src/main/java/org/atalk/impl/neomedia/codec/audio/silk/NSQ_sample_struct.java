@@ -0,0 +1,49 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ * 
+ * Distributable under LGPL license. See terms of license at gnu.org.
+ */
+package org.atalk.impl.neomedia.codec.audio.silk;
+
+/**
+ *
+ * @author Dingxin Xu
+ */
+class NSQ_sample_struct implements Cloneable
+{
+	int Q_Q10;
+	int RD_Q10;
+	int xq_Q14;
+	int LF_AR_Q12;
+	int sLTP_shp_Q10;
+	int LPC_exc_Q16;
+
+	/**
+	 * Copies all fields of <code>src</code> into this instance, like the memcpy of the C code.
+	 *
+	 * @param src the sample state to copy from
+	 */
+	void copyFrom(NSQ_sample_struct src)
+	{
+		this.Q_Q10 = src.Q_Q10;
+		this.RD_Q10 = src.RD_Q10;
+		this.xq_Q14 = src.xq_Q14;
+		this.LF_AR_Q12 = src.LF_AR_Q12;
+		this.sLTP_shp_Q10 = src.sLTP_shp_Q10;
+		this.LPC_exc_Q16 = src.LPC_exc_Q16;
+	}
+
+	@Override
+	public Object clone()
+	{
+		NSQ_sample_struct clone = null;
+		try {
+			clone = (NSQ_sample_struct) super.clone();
+		}
+		catch (CloneNotSupportedException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		return clone;
+	}
+}
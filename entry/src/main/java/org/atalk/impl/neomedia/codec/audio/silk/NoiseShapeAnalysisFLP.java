@@ -42,8 +42,8 @@ public class NoiseShapeAnalysisFLP
 		float SNR_adj_dB, HarmBoost, HarmShapeGain, Tilt;
 		float nrg, pre_nrg = 0, log_energy, log_energy_prev, energy_variation;
 		float delta, BWExp1, BWExp2, gain_mult, gain_add, strength, b;
-		float[] x_windowed = new float[Define.SHAPE_LPC_WIN_MAX];
-		float[] auto_corr = new float[Define.SHAPE_LPC_ORDER_MAX + 1];
+		float[] x_windowed = psEnc.shape_x_windowed;
+		float[] auto_corr = psEnc.shape_auto_corr;
 		float[] x_ptr, pitch_res_ptr;
 		int x_ptr_offset, pitch_res_ptr_offset = 0;
 
@@ -178,7 +178,7 @@ public class NoiseShapeAnalysisFLP
 
 			/* Make sure to fit in Q13 SKP_int16 */
 			LPC_fit_int16(psEncCtrl.AR2, k * Define.SHAPE_LPC_ORDER_MAX, 1.0f, psEnc.sCmn.shapingLPCOrder,
-				3.999f);
+				3.999f, psEnc.shape_invGain);
 
 			/* Compute noise shaping filter coefficients */
 			// SKP_memcpy(
@@ -340,16 +340,18 @@ public class NoiseShapeAnalysisFLP
 	 *        Number of LPC parameters in the input vector.
 	 * @param maxVal
 	 *        Maximum value allowed.
+	 * @param invGain
+	 *        work buffer for the inverse prediction gain.
 	 */
 	static void LPC_fit_int16(float[] a, /* I/O: Unstable/stabilized LPC vector [L] */
 		int a_offset, final float bwe, /* I: Bandwidth expansion factor */
 		final int L, /* I: Number of LPC parameters in the input vector */
-		float maxVal /* I Maximum value allowed */
+		float maxVal, /* I Maximum value allowed */
+		float[] invGain /* I work buffer */
 	)
 	{
 		float maxabs, absval, sc;
 		int k, i, idx = 0;
-		float[] invGain = new float[1];
 
 		BwexpanderFLP.SKP_Silk_bwexpander_FLP(a, a_offset, L, bwe);
 
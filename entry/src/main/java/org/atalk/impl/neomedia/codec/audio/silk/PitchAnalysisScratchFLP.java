@@ -0,0 +1,44 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ * 
+ * Distributable under LGPL license. See terms of license at gnu.org.
+ */
+package org.atalk.impl.neomedia.codec.audio.silk;
+
+import static org.atalk.impl.neomedia.codec.audio.silk.CommonPitchEstDefines.PITCH_EST_D_SRCH_LENGTH;
+import static org.atalk.impl.neomedia.codec.audio.silk.CommonPitchEstDefines.PITCH_EST_FRAME_LENGTH_MS;
+import static org.atalk.impl.neomedia.codec.audio.silk.CommonPitchEstDefines.PITCH_EST_MAX_DECIMATE_STATE_LENGTH;
+import static org.atalk.impl.neomedia.codec.audio.silk.CommonPitchEstDefines.PITCH_EST_MAX_FRAME_LENGTH;
+import static org.atalk.impl.neomedia.codec.audio.silk.CommonPitchEstDefines.PITCH_EST_MAX_LAG;
+import static org.atalk.impl.neomedia.codec.audio.silk.CommonPitchEstDefines.PITCH_EST_NB_CBKS_STAGE2_EXT;
+import static org.atalk.impl.neomedia.codec.audio.silk.CommonPitchEstDefines.PITCH_EST_NB_CBKS_STAGE3_MAX;
+import static org.atalk.impl.neomedia.codec.audio.silk.CommonPitchEstDefines.PITCH_EST_NB_STAGE3_LAGS;
+import static org.atalk.impl.neomedia.codec.audio.silk.CommonPitchEstDefines.PITCH_EST_NB_SUBFR;
+
+/**
+ * Work buffers of {@link PitchAnalysisCoreFLP#SKP_Silk_pitch_analysis_core_FLP}. They are owned
+ * by an encoder so that the pitch analysis does not allocate for every frame; they carry no
+ * state from one frame to the next.
+ *
+ * @author Eng Chong Meng
+ */
+class PitchAnalysisScratchFLP
+{
+	final float[] signal_8kHz = new float[PITCH_EST_FRAME_LENGTH_MS * 8];
+	final float[] signal_4kHz = new float[PITCH_EST_FRAME_LENGTH_MS * 4];
+	final float[] scratch_mem = new float[PITCH_EST_MAX_FRAME_LENGTH * 3];
+	final float[] filt_state = new float[PITCH_EST_MAX_DECIMATE_STATE_LENGTH];
+	/* use to be +2 but then valgrind reported errors for SWB */
+	final float[][] C = new float[PITCH_EST_NB_SUBFR][(PITCH_EST_MAX_LAG >> 1) + 5];
+	final float[] CC = new float[PITCH_EST_NB_CBKS_STAGE2_EXT];
+	final int[] d_srch = new int[PITCH_EST_D_SRCH_LENGTH];
+	final short[] d_comp = new short[(PITCH_EST_MAX_LAG >> 1) + 5];
+	final float[][][] energies_st3 = new float[PITCH_EST_NB_SUBFR][PITCH_EST_NB_CBKS_STAGE3_MAX][PITCH_EST_NB_STAGE3_LAGS];
+	final float[][][] cross_corr_st3 = new float[PITCH_EST_NB_SUBFR][PITCH_EST_NB_CBKS_STAGE3_MAX][PITCH_EST_NB_STAGE3_LAGS];
+	final float[] scratch_st3 = new float[PitchAnalysisCoreFLP.SCRATCH_SIZE];
+
+	/* Resampling to 8 kHz of 12 and 24 kHz input */
+	final short[] signal_12_24 = new short[PITCH_EST_MAX_FRAME_LENGTH];
+	final short[] signal_8 = new short[8 * PITCH_EST_FRAME_LENGTH_MS];
+	final int[] filt_state_fix = new int[8];
+}
@@ -48,6 +48,18 @@ class SKP_Silk_nsq_state implements Cloneable
 	int prev_inv_gain_Q16;
 	int rewhite_flag;
 
+	/*
+	 * Scratch buffers of SKP_Silk_NSQ and SKP_Silk_NSQ_del_dec, kept here so that they are not
+	 * allocated for every frame. They carry no state from one frame to the next.
+	 */
+	int[] sLTP_Q16 = new int[2 * MAX_FRAME_LENGTH];
+	short[] sLTP = new short[2 * MAX_FRAME_LENGTH];
+	int[] FiltState = new int[MAX_LPC_ORDER];
+	int[] x_sc_Q10 = new int[MAX_FRAME_LENGTH / NB_SUBFR];
+	int[] smpl_buf_idx = new int[1];
+	NSQDelDecStruct[] psDelDec;
+	NSQ_sample_struct[][] psSampleState;
+
 	/**
 	 * override clone mthod.
 	 */
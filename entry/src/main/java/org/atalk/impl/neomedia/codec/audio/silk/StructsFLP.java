@@ -5,13 +5,18 @@
  */
 package org.atalk.impl.neomedia.codec.audio.silk;
 
+import static org.atalk.impl.neomedia.codec.audio.silk.Define.FIND_PITCH_LPC_ORDER_MAX;
+import static org.atalk.impl.neomedia.codec.audio.silk.Define.FIND_PITCH_LPC_WIN_MAX;
+import static org.atalk.impl.neomedia.codec.audio.silk.Define.LA_PITCH_MAX;
 import static org.atalk.impl.neomedia.codec.audio.silk.Define.LA_SHAPE_MAX;
 import static org.atalk.impl.neomedia.codec.audio.silk.Define.LTP_BUF_LENGTH;
 import static org.atalk.impl.neomedia.codec.audio.silk.Define.LTP_ORDER;
+import static org.atalk.impl.neomedia.codec.audio.silk.Define.MAX_ARITHM_BYTES;
 import static org.atalk.impl.neomedia.codec.audio.silk.Define.MAX_FRAME_LENGTH;
 import static org.atalk.impl.neomedia.codec.audio.silk.Define.MAX_LPC_ORDER;
 import static org.atalk.impl.neomedia.codec.audio.silk.Define.NB_SUBFR;
 import static org.atalk.impl.neomedia.codec.audio.silk.Define.SHAPE_LPC_ORDER_MAX;
+import static org.atalk.impl.neomedia.codec.audio.silk.Define.SHAPE_LPC_WIN_MAX;
 import static org.atalk.impl.neomedia.codec.audio.silk.Define.VAD_N_BANDS;
 
 import java.util.Arrays;
@@ -269,6 +274,32 @@ class SKP_Silk_encoder_state_FLP
 																		 * voiced/unvoiced NLSF
 																		 * codebooks
 																		 */
+
+	/*
+	 * Work buffers of SKP_Silk_encode_frame_FLP and of the analysis functions it calls. They are
+	 * allocated once per encoder rather than once per frame and carry no state between frames.
+	 */
+	SKP_Silk_encoder_control_FLP sEncCtrl = new SKP_Silk_encoder_control_FLP();
+	short[] pIn_HP = new short[MAX_FRAME_LENGTH];
+	short[] pIn_HP_LP = new short[MAX_FRAME_LENGTH];
+	float[] xfw = new float[MAX_FRAME_LENGTH];
+	float[] res_pitch = new float[2 * MAX_FRAME_LENGTH + LA_PITCH_MAX];
+	byte[] LBRRpayload = new byte[MAX_ARITHM_BYTES];
+	short[] nBytesLBRR = new short[1];
+	int[] nBytes = new int[1];
+	short[] MaxBytesOut_ptr = new short[1];
+	int[] LBRR_Gains_Q16 = new int[NB_SUBFR];
+	int[] LBRR_TempGainsIndices = new int[NB_SUBFR];
+	float[] LBRR_TempGains = new float[NB_SUBFR];
+	int[] LBRRprevLastGainIndex_ptr = new int[1];
+	float[] shape_x_windowed = new float[SHAPE_LPC_WIN_MAX];
+	float[] shape_auto_corr = new float[SHAPE_LPC_ORDER_MAX + 1];
+	float[] shape_invGain = new float[1];
+	float[] pitch_auto_corr = new float[FIND_PITCH_LPC_ORDER_MAX + 1];
+	float[] pitch_A = new float[FIND_PITCH_LPC_ORDER_MAX];
+	float[] pitch_refl_coef = new float[FIND_PITCH_LPC_ORDER_MAX];
+	float[] pitch_Wsig = new float[FIND_PITCH_LPC_WIN_MAX];
+	PitchAnalysisScratchFLP sPitchScratch = new PitchAnalysisScratchFLP();
 }
 
 /**
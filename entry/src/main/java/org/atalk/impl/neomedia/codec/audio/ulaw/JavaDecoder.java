@@ -17,6 +17,23 @@ public class JavaDecoder extends com.ibm.media.codec.audio.AudioCodec
 
 	static private final byte[] lutTableL = new byte[256];
 
+	static {
+		for (int i = 0; i < 256; i++) {
+			int input = ~i;
+			int mantissa = ((input & 0xf) << 3) + 0x84;
+			int segment = (input & 0x70) >> 4;
+			int value = mantissa << segment;
+
+			value -= 0x84;
+
+			if ((input & 0x80) != 0)
+				value = -value;
+
+			lutTableL[i] = (byte) value;
+			lutTableH[i] = (byte) (value >> 8);
+		}
+	}
+
 	public JavaDecoder()
 	{
 		supportedInputFormats = new AudioFormat[] { new AudioFormat(AudioFormat.ULAW) };
@@ -45,29 +62,10 @@ public class JavaDecoder extends com.ibm.media.codec.audio.AudioCodec
 		return supportedOutputFormats;
 	}
 
-	private void initTables()
-	{
-		for (int i = 0; i < 256; i++) {
-			int input = ~i;
-			int mantissa = ((input & 0xf) << 3) + 0x84;
-			int segment = (input & 0x70) >> 4;
-			int value = mantissa << segment;
-
-			value -= 0x84;
-
-			if ((input & 0x80) != 0)
-				value = -value;
-
-			lutTableL[i] = (byte) value;
-			lutTableH[i] = (byte) (value >> 8);
-		}
-	}
-
 	/** Initializes the codec. */
 	@Override
 	public void open()
 	{
-		initTables();
 	}
 
 	/** Decodes the buffer */
@@ -81,17 +79,19 @@ public class JavaDecoder extends com.ibm.media.codec.audio.AudioCodec
 		}
 
 		byte[] inData = (byte[]) inputBuffer.getData();
-		byte[] outData = validateByteArraySize(outputBuffer, inData.length * 2);
-
 		int inpLength = inputBuffer.getLength();
 		int outLength = 2 * inpLength;
 
 		int inOffset = inputBuffer.getOffset();
 		int outOffset = outputBuffer.getOffset();
-		for (int i = 0; i < inpLength; i++) {
-			int temp = inData[inOffset++] & 0xff;
-			outData[outOffset++] = lutTableL[temp];
-			outData[outOffset++] = lutTableH[temp];
+		byte[] outData = validateByteArraySize(outputBuffer, outOffset + outLength);
+
+		final byte[] tableL = lutTableL;
+		final byte[] tableH = lutTableH;
+		for (int end = inOffset + inpLength; inOffset < end; inOffset++) {
+			int temp = inData[inOffset] & 0xff;
+			outData[outOffset++] = tableL[temp];
+			outData[outOffset++] = tableH[temp];
 		}
 
 		updateOutput(outputBuffer, outputFormat, outLength, outputBuffer.getOffset());
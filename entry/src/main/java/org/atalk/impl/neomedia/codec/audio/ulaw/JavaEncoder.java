@@ -66,11 +66,21 @@ public class JavaEncoder extends com.ibm.media.codec.audio.AudioCodec
 	private void convert(byte[] input, int inputOffset, int inputLength, byte[] outData,
 		int outputOffset)
 	{
-		int sample, signBit, inputSample;
-		int i;
-
-		for (i = inputOffset + msbOffset; i < (inputLength + inputOffset);) {
+		final byte[] map = pcmToULawMap;
+		int end = inputLength + inputOffset;
+		int i = inputOffset + msbOffset;
+
+		/*
+		 * Fast path for the common signed 16-bit mono input; the sample is the map index as is.
+		 */
+		if ((16 == inputSampleSize) && !downmix && (inputBias == 0)) {
+			for (; i < end; i += 2)
+				outData[outputOffset++] = map[((input[i] << 8) | (0xff & input[i + lsbOffset])) & 0xffff];
+			return;
+		}
 
+		int inputSample;
+		while (i < end) {
 			if (8 == inputSampleSize) {
 				inputSample = input[i++] << 8;
 
@@ -87,30 +97,51 @@ public class JavaEncoder extends com.ibm.media.codec.audio.AudioCodec
 					i += 2;
 				}
 			}
+			outData[outputOffset++] = map[(inputSample + inputBias) & 0xffff];
+		}
+	}
 
-			sample = ((short) (inputSample + inputBias));
+	/**
+	 * An array where the index is the 16-bit PCM input (as an unsigned short), and the value is the
+	 * mu-law result.
+	 */
+	private static final byte[] pcmToULawMap;
 
-			if (sample >= 0) {
-				signBit = 0x80; // sign bit
-			}
-			else {
-				sample = -sample;
-				signBit = 0x00;
-			}
+	static {
+		pcmToULawMap = new byte[65536];
+		for (int i = Short.MIN_VALUE; i <= Short.MAX_VALUE; i++)
+			pcmToULawMap[i & 0xffff] = encode(i);
+	}
+
+	/**
+	 * Encode one mu-law byte from a 16-bit signed integer. Internal use only.
+	 *
+	 * @param sample A 16-bit signed pcm value
+	 * @return A mu-law encoded byte
+	 */
+	private static byte encode(int sample)
+	{
+		int signBit;
 
-			sample = (132 + sample) >> 3; // bias
-
-			outData[outputOffset++] = (byte) ((sample < 0x0020) ? (signBit | (7 << 4) | (31 - (sample >> 0)))
-				: (sample < 0x0040) ? (signBit | (6 << 4) | (31 - (sample >> 1)))
-					: (sample < 0x0080) ? (signBit | (5 << 4) | (31 - (sample >> 2)))
-						: (sample < 0x0100) ? (signBit | (4 << 4) | (31 - (sample >> 3)))
-							: (sample < 0x0200) ? (signBit | (3 << 4) | (31 - (sample >> 4)))
-								: (sample < 0x0400) ? (signBit | (2 << 4) | (31 - (sample >> 5)))
-									: (sample < 0x0800) ? (signBit | (1 << 4) | (31 - (sample >> 6)))
-										: (sample < 0x1000) ? (signBit | (0 << 4) | (31 - (sample >> 7)))
-											: (signBit | (0 << 4) | (31 - (0xfff >> 7))));
+		if (sample >= 0) {
+			signBit = 0x80; // sign bit
+		}
+		else {
+			sample = -sample;
+			signBit = 0x00;
 		}
 
+		sample = (132 + sample) >> 3; // bias
+
+		return (byte) ((sample < 0x0020) ? (signBit | (7 << 4) | (31 - (sample >> 0)))
+			: (sample < 0x0040) ? (signBit | (6 << 4) | (31 - (sample >> 1)))
+				: (sample < 0x0080) ? (signBit | (5 << 4) | (31 - (sample >> 2)))
+					: (sample < 0x0100) ? (signBit | (4 << 4) | (31 - (sample >> 3)))
+						: (sample < 0x0200) ? (signBit | (3 << 4) | (31 - (sample >> 4)))
+							: (sample < 0x0400) ? (signBit | (2 << 4) | (31 - (sample >> 5)))
+								: (sample < 0x0800) ? (signBit | (1 << 4) | (31 - (sample >> 6)))
+									: (sample < 0x1000) ? (signBit | (0 << 4) | (31 - (sample >> 7)))
+										: (signBit | (0 << 4) | (31 - (0xfff >> 7))));
 	}
 
 	@Override
@@ -0,0 +1,557 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.codec.video;
+
+import org.atalk.impl.neomedia.codec.AbstractCodec2;
+import org.atalk.impl.timberlog.TimberLog;
+import org.atalk.service.neomedia.control.KeyFrameControl;
+import org.atalk.service.neomedia.control.KeyFrameControlAwareCodec;
+import org.atalk.util.RTPUtils;
+
+import java.awt.Component;
+
+import javax.media.Buffer;
+import javax.media.format.VideoFormat;
+
+import timber.log.Timber;
+
+/**
+ * The depacketizer core shared by VP8 and VP9: assembles the RTP payloads (payload descriptor stripped) of a
+ * compressed frame into a single growable buffer, reused from frame to frame.
+ * <p>
+ * The payloads are appended in arrival order, and the packets received are tracked with a bitmap over the sequence
+ * numbers of the frame. When the packets arrived in order, which is the common case, the buffer already holds the
+ * frame and is handed to the decoder as is, taking the previous output array as the next assembly buffer. Otherwise
+ * the payloads are copied out in sequence number order.
+ * <p>
+ * When a <code>KeyFrameControl</code> is set and a frame is lost, the frames which follow cannot be decoded until the
+ * next key frame: they are dropped as soon as their first packet tells they are not a key frame, and a key frame is
+ * requested from the remote peer right away.
+ *
+ * @author Eng Chong Meng
+ */
+public abstract class AbstractVpxDePacketizer extends AbstractCodec2 implements KeyFrameControlAwareCodec {
+    /**
+     * The maximum number of packets of a frame, i.e. the size of the sequence number bitmap.
+     */
+    private static final int MAX_FRAME_PACKETS = 1024;
+
+    /**
+     * The number of sequence numbers before the first received packet of a frame, which are kept in the bitmap for
+     * the packets of the frame received out of order.
+     */
+    private static final int REORDER_MARGIN = 64;
+
+    /**
+     * The minimal time in milliseconds between two key frame requests.
+     */
+    private static final long KEY_FRAME_REQUEST_INTERVAL = 500;
+
+    /**
+     * The time in milliseconds after which frames are decoded again even if no key frame has arrived.
+     */
+    private static final long KEY_FRAME_WAIT_TIMEOUT = 3000;
+
+    /**
+     * The number of consecutive late packets after which the sender is assumed to have restarted its sequence
+     * numbers.
+     */
+    private static final int MAX_LATE_PACKETS = 50;
+
+    /**
+     * The frame being assembled.
+     */
+    private byte[] frame = new byte[0];
+
+    /**
+     * The number of bytes in {@link #frame}.
+     */
+    private int frameLength = 0;
+
+    /*
+     * The offset in frame and the length of the payload of each packet, indexed like the bitmap.
+     */
+    private final int[] slotOffset = new int[MAX_FRAME_PACKETS];
+    private final int[] slotLength = new int[MAX_FRAME_PACKETS];
+
+    /**
+     * The bitmap of the packets of the frame received, indexed by sequence number from {@link #baseSeq}.
+     */
+    private final long[] received = new long[MAX_FRAME_PACKETS / 64];
+
+    /**
+     * The sequence number of index 0 in the bitmap.
+     */
+    private int baseSeq;
+
+    /**
+     * The number of packets in {@link #frame}; 0 if no frame is being assembled.
+     */
+    private int packetCount = 0;
+
+    /**
+     * The index of the first packet of the frame, or -1 if not received yet.
+     */
+    private int startIndex = -1;
+
+    /**
+     * The index of the last packet of the frame, or -1 if not received yet.
+     */
+    private int endIndex = -1;
+
+    /**
+     * The index of the last appended packet, to tell whether the packets were appended in order.
+     */
+    private int lastIndex = -1;
+
+    /**
+     * Whether the packets of the frame were appended in sequence number order.
+     */
+    private boolean inOrder = true;
+
+    /**
+     * Whether the first packet of the frame tells it is a key frame.
+     */
+    private boolean keyFrame = false;
+
+    /**
+     * The RTP timestamp of the frame.
+     */
+    private long timestamp = -1L;
+
+    /**
+     * The <code>PictureID</code> of the frame, or -1 if not in use.
+     */
+    private int pictureId = -1;
+
+    /**
+     * The arrival time of the first packet of the frame.
+     */
+    private long firstPacketTime;
+
+    /**
+     * The RTP timestamp of the frame dropped early, whose remaining packets are discarded.
+     */
+    private long droppedTimestamp = -1L;
+
+    /**
+     * The sequence number of the last RTP packet, which was included in the output.
+     */
+    private int lastSentSeq = -1;
+
+    /**
+     * The number of consecutive late packets.
+     */
+    private int latePacketRun = 0;
+
+    /**
+     * The <code>KeyFrameControl</code> to request key frames through; null if frames are never dropped.
+     */
+    private volatile KeyFrameControl keyFrameControl;
+
+    /**
+     * Whether a frame has been lost, so the frames are dropped until a key frame.
+     */
+    private boolean waitingForKeyFrame = false;
+
+    /**
+     * The time at which {@link #waitingForKeyFrame} was set.
+     */
+    private long waitingSince;
+
+    /**
+     * The time of the last key frame request.
+     */
+    private long lastKeyFrameRequestTime = -1L;
+
+    /*
+     * The metrics of this depacketizer, see getStatistics().
+     */
+    private long framesOut = 0;
+    private long framesIncomplete = 0;
+    private long framesUndecodable = 0;
+    private long packetsLate = 0;
+    private long packetsDuplicate = 0;
+    private long keyFrameRequests = 0;
+    private long assemblyTimeTotal = 0;
+    private long assemblyTimeMax = 0;
+    private long assembledFrames = 0;
+
+    /**
+     * Initializes a new <code>AbstractVpxDePacketizer</code> instance.
+     *
+     * @param name the <code>PlugIn</code> name of the new instance
+     * @param outputFormat the <code>VideoFormat</code> supported by the new instance as output
+     * @param inputFormat the <code>VideoFormat</code> supported by the new instance as input
+     */
+    protected AbstractVpxDePacketizer(String name, VideoFormat outputFormat, VideoFormat inputFormat) {
+        super(name, VideoFormat.class, new VideoFormat[]{outputFormat});
+        inputFormats = new VideoFormat[]{inputFormat};
+        addControl(this);
+    }
+
+    /**
+     * Returns whether the packet holds a valid payload descriptor.
+     */
+    protected abstract boolean isValidPacket(byte[] buf, int off, int len);
+
+    /**
+     * Returns the size of the payload descriptor of the packet.
+     */
+    protected abstract int getDescriptorSize(byte[] buf, int off, int len);
+
+    /**
+     * Returns the <code>PictureID</code> of the packet, or -1 if it has none.
+     */
+    protected abstract int getPictureId(byte[] buf, int off, int len);
+
+    /**
+     * Returns whether the packet is the first of a frame.
+     */
+    protected abstract boolean isStartOfFrame(byte[] buf, int off, int len);
+
+    /**
+     * Returns whether the packet is the first of a key frame.
+     */
+    protected abstract boolean isKeyFramePacket(byte[] buf, int off, int len);
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setKeyFrameControl(KeyFrameControl keyFrameControl) {
+        this.keyFrameControl = keyFrameControl;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Component getControlComponent() {
+        return null;
+    }
+
+    /**
+     * Gets the metrics of this depacketizer: the frames output, the incomplete frames dropped on the arrival of a
+     * later frame, the frames dropped while waiting for a key frame, the late and duplicate packets discarded, the
+     * key frame requests, and the mean and maximal time from the first to the last packet of a frame.
+     *
+     * @return a human readable summary of the metrics of this depacketizer
+     */
+    public String getStatistics() {
+        return getName() + " frames=" + framesOut + " incomplete=" + framesIncomplete
+                + " undecodable=" + framesUndecodable + " late=" + packetsLate + " duplicate=" + packetsDuplicate
+                + " keyFrameRequests=" + keyFrameRequests
+                + " assemblyMs(avg/max)=" + ((assembledFrames == 0) ? 0 : assemblyTimeTotal / assembledFrames)
+                + "/" + assemblyTimeMax;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doClose() {
+        if (framesOut + framesIncomplete + framesUndecodable > 0)
+            Timber.i("Closing %s", getStatistics());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doOpen() {
+        reinit();
+        lastSentSeq = -1;
+        latePacketRun = 0;
+        droppedTimestamp = -1L;
+        waitingForKeyFrame = false;
+        lastKeyFrameRequestTime = -1L;
+        Timber.log(TimberLog.FINER, "Opened %s", getName());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int doProcess(Buffer inBuffer, Buffer outBuffer) {
+        byte[] inData = (byte[]) inBuffer.getData();
+        int inOffset = inBuffer.getOffset();
+        int inLength = inBuffer.getLength();
+
+        if (!isValidPacket(inData, inOffset, inLength)) {
+            Timber.w("Invalid %s packet discarded.", inBuffer.getFormat());
+            outBuffer.setDiscard(true);
+            return BUFFER_PROCESSED_FAILED;
+        }
+
+        int inSeq = (int) inBuffer.getSequenceNumber();
+        long inRtpTimestamp = inBuffer.getRtpTimeStamp();
+        int inPictureId = getPictureId(inData, inOffset, inLength);
+        boolean inMarker = (inBuffer.getFlags() & Buffer.FLAG_RTP_MARKER) != 0;
+        boolean inIsStartOfFrame = isStartOfFrame(inData, inOffset, inLength);
+        int inPdSize = getDescriptorSize(inData, inOffset, inLength);
+        int inPayloadLength = inLength - inPdSize;
+        long now = System.currentTimeMillis();
+
+        if (lastSentSeq != -1 && RTPUtils.getSequenceNumberDelta(inSeq, lastSentSeq) <= 0) {
+            Timber.d("Discarding late packet %s <= %s", inSeq, lastSentSeq);
+            packetsLate++;
+            if (++latePacketRun >= MAX_LATE_PACKETS) {
+                Timber.w("Sequence numbers restarted at %s", inSeq);
+                lastSentSeq = -1;
+            }
+            outBuffer.setDiscard(true);
+            return BUFFER_PROCESSED_OK;
+        }
+        latePacketRun = 0;
+        if (inRtpTimestamp != -1 && inRtpTimestamp == droppedTimestamp) {
+            // The rest of a frame dropped early
+            outBuffer.setDiscard(true);
+            return BUFFER_PROCESSED_OK;
+        }
+
+        if (packetCount > 0
+                && ((inPictureId != -1 && pictureId != -1 && inPictureId != pictureId)
+                || (timestamp != -1 && inRtpTimestamp != -1 && inRtpTimestamp != timestamp))) {
+            if (RTPUtils.isOlderSequenceNumberThan(inSeq, (baseSeq + startOrFirstIndex()) & 0xffff)) {
+                // A late packet of a previous frame, which has been dropped
+                packetsLate++;
+                outBuffer.setDiscard(true);
+                return BUFFER_PROCESSED_OK;
+            }
+            // A packet of a later frame: the current one will never complete
+            Timber.i("Dropping incomplete frame of %d packets on arrival of packet %s", packetCount, inSeq);
+            framesIncomplete++;
+            frameLost(now);
+            reinit();
+        }
+
+        // A whole frame in a single packet: output it without going through the frame buffer
+        if (packetCount == 0 && inMarker && inIsStartOfFrame) {
+            if (!isDecodable(isKeyFramePacket(inData, inOffset, inLength), now)) {
+                outBuffer.setDiscard(true);
+                return BUFFER_PROCESSED_OK;
+            }
+            byte[] outData = validateByteArraySize(outBuffer, inPayloadLength, false);
+            System.arraycopy(inData, inOffset + inPdSize, outData, 0, inPayloadLength);
+            outBuffer.setOffset(0);
+            outBuffer.setLength(inPayloadLength);
+            outBuffer.setRtpTimeStamp(inRtpTimestamp);
+
+            Timber.log(TimberLog.FINER, "Out PictureID = %s", inPictureId);
+            lastSentSeq = inSeq;
+            framesOut++;
+            return BUFFER_PROCESSED_OK;
+        }
+
+        if (packetCount == 0) {
+            baseSeq = (inSeq - REORDER_MARGIN) & 0xffff;
+            timestamp = inRtpTimestamp;
+            pictureId = inPictureId;
+            firstPacketTime = now;
+        }
+
+        int index = (inSeq - baseSeq) & 0xffff;
+        if (index >= MAX_FRAME_PACKETS) {
+            Timber.w("Dropping frame spanning more than %d packets at %s", MAX_FRAME_PACKETS, inSeq);
+            framesIncomplete++;
+            frameLost(now);
+            reinit();
+            outBuffer.setDiscard(true);
+            return BUFFER_PROCESSED_OK;
+        }
+        long bit = 1L << (index & 63);
+        if ((received[index >> 6] & bit) != 0) {
+            Timber.i("(Probable) duplicate packet detected, discarding %s", inSeq);
+            packetsDuplicate++;
+            outBuffer.setDiscard(true);
+            return BUFFER_PROCESSED_OK;
+        }
+
+        if (inIsStartOfFrame && (startIndex == -1 || index < startIndex)) {
+            startIndex = index;
+            keyFrame = isKeyFramePacket(inData, inOffset, inLength);
+
+            // Drop early a frame which cannot be decoded, rather than assembling it
+            if (waitingForKeyFrame && !keyFrame && !keyFrameWaitExpired(now)) {
+                framesUndecodable++;
+                requestKeyFrame(now);
+                droppedTimestamp = timestamp;
+                reinit();
+                outBuffer.setDiscard(true);
+                return BUFFER_PROCESSED_OK;
+            }
+        }
+
+        // Append the payload to the frame
+        if (frame.length < frameLength + inPayloadLength) {
+            byte[] newFrame = new byte[Math.max(frame.length * 2, frameLength + inPayloadLength)];
+            System.arraycopy(frame, 0, newFrame, 0, frameLength);
+            frame = newFrame;
+        }
+        System.arraycopy(inData, inOffset + inPdSize, frame, frameLength, inPayloadLength);
+        slotOffset[index] = frameLength;
+        slotLength[index] = inPayloadLength;
+        frameLength += inPayloadLength;
+        received[index >> 6] |= bit;
+        packetCount++;
+
+        if (index < lastIndex)
+            inOrder = false;
+        lastIndex = index;
+        if (inMarker)
+            endIndex = index;
+
+        if (startIndex == -1 || endIndex == -1 || packetCount != endIndex - startIndex + 1) {
+            // frame not complete yet
+            outBuffer.setDiscard(true);
+            return OUTPUT_BUFFER_NOT_FILLED;
+        }
+
+        int endSeq = (baseSeq + endIndex) & 0xffff;
+        if (!isDecodable(keyFrame, now)) {
+            lastSentSeq = endSeq;
+            reinit();
+            outBuffer.setDiscard(true);
+            return BUFFER_PROCESSED_OK;
+        }
+
+        if (inOrder && slotOffset[startIndex] == 0) {
+            // The frame is contiguous already: hand it over and assemble the next one in the previous output
+            Object outData = outBuffer.getData();
+            outBuffer.setData(frame);
+            frame = (outData instanceof byte[]) ? (byte[]) outData : new byte[frame.length];
+        }
+        else {
+            byte[] outData = validateByteArraySize(outBuffer, frameLength, false);
+            int ptr = 0;
+            for (int i = startIndex; i <= endIndex; i++) {
+                System.arraycopy(frame, slotOffset[i], outData, ptr, slotLength[i]);
+                ptr += slotLength[i];
+            }
+        }
+        outBuffer.setOffset(0);
+        outBuffer.setLength(frameLength);
+        outBuffer.setRtpTimeStamp(inRtpTimestamp);
+
+        Timber.log(TimberLog.FINER, "Out PictureID = %s", inPictureId);
+        lastSentSeq = endSeq;
+        framesOut++;
+
+        long assemblyTime = now - firstPacketTime;
+        assemblyTimeTotal += assemblyTime;
+        assembledFrames++;
+        if (assemblyTime > assemblyTimeMax)
+            assemblyTimeMax = assemblyTime;
+
+        // prepare for the next frame
+        reinit();
+        return BUFFER_PROCESSED_OK;
+    }
+
+    /**
+     * Returns the index of the first packet of the frame if received, or else of the earliest received packet.
+     */
+    private int startOrFirstIndex() {
+        if (startIndex != -1)
+            return startIndex;
+        for (int i = 0; i < received.length; i++) {
+            if (received[i] != 0)
+                return (i << 6) + Long.numberOfTrailingZeros(received[i]);
+        }
+        return REORDER_MARGIN;
+    }
+
+    /**
+     * Decides whether a complete frame can be decoded: not if a frame has been lost since the last key frame.
+     * A frame is known lost only when a later frame overtakes it incomplete; a gap in the sequence numbers
+     * alone is not a loss, e.g. the ulpfec packets removed by the FEC receiver share the SSRC numbering.
+     *
+     * @param keyFrame whether the frame is a key frame
+     * @param now the current time
+     * @return <code>true</code> to output the frame, <code>false</code> to drop it
+     */
+    private boolean isDecodable(boolean keyFrame, long now) {
+        if (keyFrameControl == null)
+            return true;
+        if (keyFrame) {
+            waitingForKeyFrame = false;
+            return true;
+        }
+        if (waitingForKeyFrame && !keyFrameWaitExpired(now)) {
+            framesUndecodable++;
+            requestKeyFrame(now);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Notes that a frame has been lost: the next frames are dropped until a key frame, which is requested.
+     */
+    private void frameLost(long now) {
+        if (keyFrameControl == null)
+            return;
+        if (!waitingForKeyFrame) {
+            waitingForKeyFrame = true;
+            waitingSince = now;
+        }
+        requestKeyFrame(now);
+    }
+
+    /**
+     * Stops waiting for a key frame if none has arrived for {@link #KEY_FRAME_WAIT_TIMEOUT}, to let the decoder
+     * conceal the loss rather than freeze the video.
+     *
+     * @return <code>true</code> if the wait has expired
+     */
+    private boolean keyFrameWaitExpired(long now) {
+        if (now - waitingSince < KEY_FRAME_WAIT_TIMEOUT)
+            return false;
+
+        Timber.w("No key frame received in %d ms, resuming decoding", now - waitingSince);
+        waitingForKeyFrame = false;
+        lastSentSeq = -1;
+        return true;
+    }
+
+    private void requestKeyFrame(long now) {
+        KeyFrameControl keyFrameControl = this.keyFrameControl;
+
+        if (keyFrameControl != null
+                && (lastKeyFrameRequestTime == -1 || now - lastKeyFrameRequestTime >= KEY_FRAME_REQUEST_INTERVAL)) {
+            lastKeyFrameRequestTime = now;
+            keyFrameRequests++;
+            keyFrameControl.requestKeyFrame(true);
+        }
+    }
+
+    /**
+     * Empties the frame buffer, keeping its array for the next frame.
+     */
+    private void reinit() {
+        frameLength = 0;
+        packetCount = 0;
+        startIndex = endIndex = lastIndex = -1;
+        inOrder = true;
+        keyFrame = false;
+        timestamp = -1L;
+        pictureId = -1;
+        for (int i = 0; i < received.length; i++)
+            received[i] = 0;
+    }
+}
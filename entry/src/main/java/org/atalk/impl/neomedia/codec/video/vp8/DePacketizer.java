@@ -6,311 +6,71 @@
  */
 package org.atalk.impl.neomedia.codec.video.vp8;
 
-import org.atalk.impl.timberlog.TimberLog;
-import org.atalk.impl.neomedia.codec.AbstractCodec2;
+import org.atalk.impl.neomedia.codec.video.AbstractVpxDePacketizer;
 import org.atalk.service.neomedia.codec.Constants;
 import org.atalk.util.ByteArrayBuffer;
 import org.atalk.util.RTPUtils;
 
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Queue;
-import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
-import java.util.concurrent.ArrayBlockingQueue;
-
-import javax.media.Buffer;
-import javax.media.ResourceUnavailableException;
 import javax.media.format.VideoFormat;
 
-import timber.log.Timber;
-
 /**
  * A depacketizer from VP8 codec.
  * See {@link "<a href="https://tools.ietf.org/html/rfc7741">...</a>"}
  * See {@link "<a href="https://tools.ietf.org/html/draft-ietf-payload-vp8-17">...</a>"}
  * <p>
- * Stores the RTP payloads (VP8 payload descriptor stripped) from RTP packets belonging to a
- * single VP8 compressed frame. Maps an RTP sequence number to a buffer which contains the payload.
+ * Assembles the RTP payloads (VP8 payload descriptor stripped) of a VP8 compressed frame, see
+ * {@link AbstractVpxDePacketizer}.
  *
  * @author Boris Grozev
  * @author George Politis
  * @author Eng Chong Meng
  */
-public class DePacketizer extends AbstractCodec2 {
-    private final SortedMap<Integer, Container> data = new TreeMap<>(RTPUtils.sequenceNumberComparator);
-
-    /**
-     * Stores unused <code>Container</code>'s.
-     */
-    private final Queue<Container> free = new ArrayBlockingQueue<>(100);
-
-    /**
-     * Stores the first (earliest) sequence number stored in <code>data</code>, or -1 if <code>data</code> is empty.
-     */
-    private int firstSeq = -1;
-
-    /**
-     * Stores the last (latest) sequence number stored in <code>data</code>, or -1 if <code>data</code> is empty.
-     */
-    private int lastSeq = -1;
-
-    /**
-     * Stores the value of the <code>PictureID</code> field for the VP8 compressed
-     * frame, parts of which are currently stored in <code>data</code>, or -1 if
-     * the <code>PictureID</code> field is not in use or <code>data</code> is empty.
-     */
-    private int pictureId = -1;
-
+public class DePacketizer extends AbstractVpxDePacketizer {
     /**
-     * Stores the RTP timestamp of the packets stored in <code>data</code>, or -1 if they don't have a timestamp set.
-     */
-    private long timestamp = -1L;
-
-    /**
-     * Whether we have stored any packets in <code>data</code>. Equivalent to <code>data.isEmpty()</code>.
-     */
-    private boolean empty = true;
-
-    /**
-     * Whether we have stored in <code>data</code> the last RTP packet of the VP8
-     * compressed frame, parts of which are currently stored in <code>data</code>.
-     */
-    private boolean haveEnd = false;
-
-    /**
-     * Whether we have stored in <code>data</code> the first RTP packet of the VP8
-     * compressed frame, parts of which are currently stored in <code>data</code>.
-     */
-    private boolean haveStart = false;
-
-    /**
-     * Stores the sum of the lengths of the data stored in <code>data</code>, that
-     * is the total length of the VP8 compressed frame to be constructed.
-     */
-    private int frameLength = 0;
-
-    /**
-     * The sequence number of the last RTP packet, which was included in the output.
-     */
-    private int lastSentSeq = -1;
-
-    /**
-     * Initializes a new <code>AbstractCodec2</code> instance with a specific <code>PlugIn</code> name, a
-     * specific <code>Class</code> of input and output <code>Format</code>s, and a specific list of
-     * <code>Format</code>s supported as output.
-     * <p>
-     * name: the <code>PlugIn</code> name of the new instance
-     * VideoFormat.class: the <code>Class</code> of input and output <code>Format</code>s supported by the new instance
-     * VideoFormat: the list of <code>Format</code>s supported by the new instance as output @Super parameters
+     * Initializes a new <code>DePacketizer</code> instance.
      */
     public DePacketizer() {
-        super("VP8 RTP DePacketizer", VideoFormat.class,
-                new VideoFormat[]{new VideoFormat(Constants.VP8)});
-        inputFormats = new VideoFormat[]{new VideoFormat(Constants.VP8_RTP)};
+        super("VP8 RTP DePacketizer", new VideoFormat(Constants.VP8), new VideoFormat(Constants.VP8_RTP));
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    protected void doClose() {
+    protected boolean isValidPacket(byte[] buf, int off, int len) {
+        return VP8PayloadDescriptor.isValid(buf, off, len);
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    protected void doOpen()
-            throws ResourceUnavailableException {
-        Timber.log(TimberLog.FINER, "Opened VP8 dePacketizer");
+    protected int getDescriptorSize(byte[] buf, int off, int len) {
+        return VP8PayloadDescriptor.getSize(buf, off, len);
     }
 
     /**
-     * Re-initializes the fields which store information about the currently held data. Empties <code>data</code>.
-     */
-    private void reinit() {
-        firstSeq = lastSeq = -1;
-        timestamp = -1L;
-        pictureId = -1;
-        empty = true;
-        haveEnd = haveStart = false;
-        frameLength = 0;
-
-        Iterator<Map.Entry<Integer, Container>> it = data.entrySet().iterator();
-        Map.Entry<Integer, Container> e;
-        while (it.hasNext()) {
-            e = it.next();
-            free.offer(e.getValue());
-            it.remove();
-        }
-    }
-
-    /**
-     * Checks whether the currently held VP8 compressed frame is complete (e.g all its packets
-     * are stored in <code>data</code>).
-     *
-     * @return <code>true</code> if the currently help VP8 compressed frame is complete, <code>false</code> otherwise.
+     * {@inheritDoc}
      */
-    private boolean frameComplete() {
-        return haveStart && haveEnd && !haveMissing();
+    @Override
+    protected int getPictureId(byte[] buf, int off, int len) {
+        return VP8PayloadDescriptor.getPictureId(buf, off);
     }
 
     /**
-     * Checks whether there are packets with sequence numbers between <code>firstSeq</code> and
-     * <code>lastSeq</code> which are *not* stored in <code>data</code>.
-     *
-     * @return <code>true</code> if there are packets with sequence numbers between
-     * <code>firstSeq</code> and <code>lastSeq</code> which are *not* stored in <code>data</code>.
+     * {@inheritDoc}
      */
-    private boolean haveMissing() {
-        Set<Integer> seqs = data.keySet();
-        int s = firstSeq;
-        while (s != lastSeq) {
-            if (!seqs.contains(s))
-                return true;
-            s = (s + 1) & 0xffff;
-        }
-        return false;
+    @Override
+    protected boolean isStartOfFrame(byte[] buf, int off, int len) {
+        return VP8PayloadDescriptor.isStartOfFrame(buf, off);
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    protected int doProcess(Buffer inBuffer, Buffer outBuffer) {
-        byte[] inData = (byte[]) inBuffer.getData();
-        int inOffset = inBuffer.getOffset();
-        int inLength = inBuffer.getLength();
-
-        if (!VP8PayloadDescriptor.isValid(inData, inOffset, inLength)) {
-            Timber.w("Invalid VP8/RTP packet discarded.");
-            outBuffer.setDiscard(true);
-            return BUFFER_PROCESSED_FAILED; //XXX: FAILED or OK?
-        }
-
-        int inSeq = (int) inBuffer.getSequenceNumber();
-        long inRtpTimestamp = inBuffer.getRtpTimeStamp();
-        int inPictureId = VP8PayloadDescriptor.getPictureId(inData, inOffset);
-        boolean inMarker = (inBuffer.getFlags() & Buffer.FLAG_RTP_MARKER) != 0;
-        boolean inIsStartOfFrame = VP8PayloadDescriptor.isStartOfFrame(inData, inOffset);
-
-        int inPdSize = VP8PayloadDescriptor.getSize(inData, inOffset, inLength);
-        int inPayloadLength = inLength - inPdSize;
-
-        if (empty && lastSentSeq != -1
-                && RTPUtils.sequenceNumberComparator.compare(inSeq, lastSentSeq) <= 0) {
-            Timber.d("Discarding old packet (while empty) %s", inSeq);
-            outBuffer.setDiscard(true);
-            return BUFFER_PROCESSED_OK;
-        }
-
-        if (!empty) {
-            // if the incoming packet has a different PictureID or timestamp than those of
-            // the current frame, then it belongs to a different frame.
-            if ((inPictureId != -1 && pictureId != -1
-                    && inPictureId != pictureId)
-                    | (timestamp != -1 && inRtpTimestamp != -1
-                    && inRtpTimestamp != timestamp)) {
-                //inSeq <= firstSeq
-                if (RTPUtils.sequenceNumberComparator.compare(inSeq, firstSeq) <= 0) {
-                    // the packet belongs to a previous frame. discard it
-                    Timber.i("Discarding old packet %s", inSeq);
-                    outBuffer.setDiscard(true);
-                    return BUFFER_PROCESSED_OK;
-                }
-                // ReSync the firstSeq if process has dropped out data; must do this else Codec decoder has problem
-                else if (RTPUtils.sequenceNumberComparator.compare(inSeq, firstSeq) > 0) {
-                    firstSeq = inSeq;
-                }
-                // never reach here?
-                else {
-                    // the packet belongs to a subsequent frame (to the one currently being held). Drop the current frame.
-                    Timber.i("Discarding saved packets on arrival of a packet for a subsequent frame: %s; %s", inSeq, firstSeq);
-                    reinit();
-                }
-            }
-        }
-
-        // a whole frame in a single packet. avoid the extra copy to this.data and output it immediately.
-        if (empty && inMarker && inIsStartOfFrame) {
-            byte[] outData = validateByteArraySize(outBuffer, inPayloadLength, false);
-            System.arraycopy(inData, inOffset + inPdSize, outData, 0, inPayloadLength);
-            outBuffer.setOffset(0);
-            outBuffer.setLength(inPayloadLength);
-            outBuffer.setRtpTimeStamp(inBuffer.getRtpTimeStamp());
-
-            Timber.log(TimberLog.FINER, "Out PictureID = %s", inPictureId);
-            lastSentSeq = inSeq;
-            return BUFFER_PROCESSED_OK;
-        }
-
-        // add to this.data
-        Container container = free.poll();
-        if (container == null)
-            container = new Container();
-        if (container.buf == null || container.buf.length < inPayloadLength)
-            container.buf = new byte[inPayloadLength];
-
-        if (data.get(inSeq) != null) {
-            Timber.i("(Probable) duplicate packet detected, discarding %s", inSeq);
-            outBuffer.setDiscard(true);
-            return BUFFER_PROCESSED_OK;
-        }
-
-        System.arraycopy(inData, inOffset + inPdSize, container.buf, 0, inPayloadLength);
-        container.len = inPayloadLength;
-        data.put(inSeq, container);
-
-        // update fields
-        frameLength += inPayloadLength;
-        if (firstSeq == -1
-                || (RTPUtils.sequenceNumberComparator.compare(firstSeq, inSeq) > 0))
-            firstSeq = inSeq;
-        if (lastSeq == -1
-                || (RTPUtils.sequenceNumberComparator.compare(inSeq, lastSeq) > 0))
-            lastSeq = inSeq;
-
-        if (empty) {
-            // the first received packet for the current frame was just added
-            empty = false;
-            timestamp = inRtpTimestamp;
-            pictureId = inPictureId;
-        }
-
-        if (inMarker)
-            haveEnd = true;
-        if (inIsStartOfFrame)
-            haveStart = true;
-
-        // check if we have a full frame
-        if (frameComplete()) {
-            byte[] outData = validateByteArraySize(outBuffer, frameLength, false);
-            int ptr = 0;
-            Container b;
-            for (Map.Entry<Integer, Container> entry : data.entrySet()) {
-                b = entry.getValue();
-                System.arraycopy(b.buf, 0, outData, ptr, b.len);
-                ptr += b.len;
-            }
-
-            outBuffer.setOffset(0);
-            outBuffer.setLength(frameLength);
-            outBuffer.setRtpTimeStamp(inBuffer.getRtpTimeStamp());
-
-            Timber.log(TimberLog.FINER, "Out PictureID = %s", inPictureId);
-            lastSentSeq = lastSeq;
-
-            // prepare for the next frame
-            reinit();
-            return BUFFER_PROCESSED_OK;
-        }
-        else {
-            // frame not complete yet
-            outBuffer.setDiscard(true);
-            return OUTPUT_BUFFER_NOT_FILLED;
-        }
+    protected boolean isKeyFramePacket(byte[] buf, int off, int len) {
+        return isKeyFrame(buf, off, len);
     }
 
     /**
@@ -808,19 +568,4 @@ public class DePacketizer extends AbstractCodec2 {
             return (((buf[off + 6] & 0xff) << 8) | buf[off + 5] & 0xff) & 0x3fff;
         }
     }
-
-    /**
-     * A simple container for a <code>byte[]</code> and an integer.
-     */
-    private static class Container {
-        /**
-         * This <code>Container</code>'s data.
-         */
-        private byte[] buf;
-
-        /**
-         * Length used.
-         */
-        private int len = 0;
-    }
 }
@@ -1969,7 +1969,7 @@ public class MediaDeviceSession extends PropertyChangeNotifier
      * @param processor the <code>Processor</code> whose <code>TrackControls</code>s will be searched.
      * @return A non-null <code>Set</code> of all <code>controlType</code>s found.
      */
-    private <T> Set<T> getAllTrackControls(Class<T> controlType, Processor processor)
+    protected <T> Set<T> getAllTrackControls(Class<T> controlType, Processor processor)
     {
         Set<T> controls = null;
         if ((processor != null) && (processor.getState() >= Processor.Realized)) {
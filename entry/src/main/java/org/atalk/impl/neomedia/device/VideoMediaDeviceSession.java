@@ -24,6 +24,7 @@ import org.atalk.service.libjitsi.LibJitsi;
 import org.atalk.service.neomedia.MediaDirection;
 import org.atalk.service.neomedia.control.KeyFrameControl;
 import org.atalk.service.neomedia.control.KeyFrameControlAdapter;
+import org.atalk.service.neomedia.control.KeyFrameControlAwareCodec;
 import org.atalk.service.neomedia.event.RTCPFeedbackMessageCreateListener;
 import org.atalk.service.neomedia.event.RTCPFeedbackMessageEvent;
 import org.atalk.service.neomedia.event.RTCPFeedbackMessageListener;
@@ -985,6 +986,12 @@ public class VideoMediaDeviceSession extends MediaDeviceSession
     {
         super.playerRealizeComplete(player);
 
+        // Let the VP8/VP9 depacketizers request a key frame when they drop an undecodable frame
+        if (keyFrameControl != null) {
+            for (KeyFrameControlAwareCodec codec : getAllTrackControls(KeyFrameControlAwareCodec.class, player))
+                codec.setKeyFrameControl(keyFrameControl);
+        }
+
         Component visualComponent = getVisualComponent(player);
         if (visualComponent != null) {
             /*
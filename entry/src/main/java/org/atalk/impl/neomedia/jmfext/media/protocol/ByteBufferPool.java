@@ -1,6 +1,6 @@
 /*
  * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
- * 
+ *
  * Distributable under LGPL license. See terms of license at gnu.org.
  */
 package org.atalk.impl.neomedia.jmfext.media.protocol;
@@ -9,34 +9,100 @@ import org.atalk.impl.neomedia.codec.FFmpeg;
 import org.atalk.impl.neomedia.codec.video.ByteBufferFmj;
 
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import timber.log.Timber;
 
 /**
  * Represents a pool of <code>ByteBufferFmj</code>s which reduces the allocations and deallocations of
  * <code>ByteBufferFmj</code>s in the Java heap and of native memory in the native heap.
+ * <p>
+ * The pooled buffers are kept in lock-free free lists, one per size class. A size class spans a quarter of a power
+ * of two, so a requested capacity is served from a single list without a search, at the cost of at most a quarter
+ * of unused capacity. Each list holds no more buffers than the most this pool has ever had in use at once, and the
+ * lists which have not been used for {@link #IDLE_TIMEOUT} milliseconds are freed.
  *
  * @author Lyubomir Marinov
+ * @author Eng Chong Meng
  */
 public class ByteBufferPool
 {
 	/**
-	 * The <code>ByteBufferFmj</code>s which are managed by this <code>ByteBufferPool</code>.
+	 * The base two logarithm of the smallest size class; smaller capacities are served from it.
+	 */
+	private static final int MIN_SHIFT = 10;
+
+	/**
+	 * The base two logarithm of the largest size class; larger buffers are allocated and freed without pooling.
+	 */
+	private static final int MAX_SHIFT = 26;
+
+	/**
+	 * The number of size classes per power of two.
+	 */
+	private static final int CLASSES_PER_SHIFT = 4;
+
+	/**
+	 * The time in milliseconds after which an unused size class has its buffers freed.
+	 */
+	private static final long IDLE_TIMEOUT = 10000;
+
+	/**
+	 * The minimal time in milliseconds between two checks for idle size classes.
+	 */
+	private static final long TRIM_INTERVAL = 5000;
+
+	/**
+	 * The free lists of this pool, indexed by size class and created on first use.
 	 */
-	private final List<PooledByteBuffer> buffers = new ArrayList<>();
+	private final AtomicReferenceArray<SizeClass> sizeClasses
+			= new AtomicReferenceArray<>((MAX_SHIFT - MIN_SHIFT + 1) * CLASSES_PER_SHIFT);
 
 	/**
-	 * Drains this <code>ByteBufferPool</code> i.e. frees the <code>ByteBufferFmj</code>s that it contains.
+	 * The number of buffers obtained from this pool and not yet returned.
 	 */
-	public synchronized void drain()
+	private final AtomicInteger inUse = new AtomicInteger();
+
+	/**
+	 * The maximal value ever reached by {@link #inUse}, which bounds the length of each free list.
+	 */
+	private final AtomicInteger highWaterMark = new AtomicInteger();
+
+	/**
+	 * The time of the last check for idle size classes.
+	 */
+	private final AtomicLong lastTrimTime = new AtomicLong(System.currentTimeMillis());
+
+	/*
+	 * The metrics of this pool, see getStatistics().
+	 */
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong discarded = new AtomicLong();
+	private final AtomicLong trimmed = new AtomicLong();
+	private final AtomicLong leaked = new AtomicLong();
+
+	/**
+	 * Drains this <code>ByteBufferPool</code> i.e. frees the <code>ByteBufferFmj</code>s that it contains. The
+	 * buffers still in use are pooled again when returned.
+	 */
+	public void drain()
 	{
-		for (Iterator<PooledByteBuffer> i = buffers.iterator(); i.hasNext(); ) {
-			PooledByteBuffer buffer = i.next();
+		for (int i = 0; i < sizeClasses.length(); i++) {
+			SizeClass sizeClass = sizeClasses.get(i);
 
-			i.remove();
-			buffer.doFree();
+			if (sizeClass != null)
+				sizeClass.freeAll();
 		}
+		if (hits.get() + misses.get() > 0)
+			Timber.d("Drained %s", getStatistics());
+		if (inUse.get() > 0)
+			Timber.w("%d pooled buffers still in use on drain", inUse.get());
 	}
 
 	/**
@@ -49,37 +115,199 @@ public class ByteBufferPool
 	 * @return a <code>ByteBufferFmj</code> which is ready for writing captured media data into and which
 	 * is capable of receiving at least <code>capacity</code> number of bytes
 	 */
-	public synchronized ByteBufferFmj getBuffer(int capacity)
+	public ByteBufferFmj getBuffer(int capacity)
 	{
 		// XXX Pad with FF_INPUT_BUFFER_PADDING_SIZE or hell will break loose.
 		capacity += FFmpeg.FF_INPUT_BUFFER_PADDING_SIZE;
 
-		ByteBufferFmj buffer = null;
+		long now = System.currentTimeMillis();
+		long lastTrim = lastTrimTime.get();
 
-		for (Iterator<PooledByteBuffer> i = buffers.iterator(); i.hasNext(); ) {
-			ByteBufferFmj aBuffer = i.next();
+		if ((now - lastTrim >= TRIM_INTERVAL) && lastTrimTime.compareAndSet(lastTrim, now))
+			trim(now);
 
-			if (aBuffer.getCapacity() >= capacity) {
-				i.remove();
-				buffer = aBuffer;
-				break;
-			}
+		int index = sizeClassIndex(capacity);
+		PooledByteBuffer buffer = null;
+
+		if (index < sizeClasses.length()) {
+			SizeClass sizeClass = getSizeClass(index);
+
+			sizeClass.lastUsedTime = now;
+			buffer = sizeClass.poll();
+			if (buffer == null)
+				buffer = new PooledByteBuffer(sizeClassCapacity(index), index, this);
 		}
-		if (buffer == null)
-			buffer = new PooledByteBuffer(capacity, this);
+		else {
+			buffer = new PooledByteBuffer(capacity, index, this);
+		}
+		(buffer.acquire() ? hits : misses).incrementAndGet();
+
+		int count = inUse.incrementAndGet();
+		int max;
+
+		while (count > (max = highWaterMark.get()) && !highWaterMark.compareAndSet(max, count))
+			;
 		return buffer;
 	}
 
+	/**
+	 * Gets the metrics of this pool: the buffers reused (hits) and allocated (misses), the returned buffers freed
+	 * because their free list was full (discarded), the buffers freed with their idle size class (trimmed), the
+	 * buffers garbage collected without having been returned (leaked), and the buffers in use.
+	 *
+	 * @return a human readable summary of the metrics of this pool
+	 */
+	public String getStatistics()
+	{
+		return "ByteBufferPool hits=" + hits.get() + " misses=" + misses.get() + " discarded=" + discarded.get()
+				+ " trimmed=" + trimmed.get() + " leaked=" + leaked.get() + " inUse=" + inUse.get()
+				+ " highWaterMark=" + highWaterMark.get();
+	}
+
 	/**
 	 * Returns a specific <code>ByteBufferFmj</code> into this pool of <code>ByteBufferFmj</code>s.
 	 *
 	 * @param buffer
 	 * 		the <code>ByteBufferFmj</code> to be returned into this pool of <code>ByteBufferFmj</code>s
 	 */
-	private synchronized void returnBuffer(PooledByteBuffer buffer)
+	private void returnBuffer(PooledByteBuffer buffer)
+	{
+		inUse.decrementAndGet();
+
+		if ((buffer.sizeClass >= sizeClasses.length())
+				|| !getSizeClass(buffer.sizeClass).offer(buffer, highWaterMark.get())) {
+			discarded.incrementAndGet();
+			buffer.doFree();
+		}
+	}
+
+	/**
+	 * Accounts for a buffer garbage collected without having been returned into this pool.
+	 *
+	 * @param buffer
+	 * 		the leaked buffer
+	 */
+	private void leakBuffer(PooledByteBuffer buffer)
+	{
+		inUse.decrementAndGet();
+		leaked.incrementAndGet();
+		Timber.w("Pooled buffer of %d bytes was never returned: %s", buffer.getCapacity(), getStatistics());
+	}
+
+	/**
+	 * Frees the buffers of the size classes not used for {@link #IDLE_TIMEOUT} milliseconds.
+	 */
+	private void trim(long now)
+	{
+		for (int i = 0; i < sizeClasses.length(); i++) {
+			SizeClass sizeClass = sizeClasses.get(i);
+
+			if ((sizeClass != null) && (now - sizeClass.lastUsedTime >= IDLE_TIMEOUT))
+				trimmed.addAndGet(sizeClass.freeAll());
+		}
+	}
+
+	private SizeClass getSizeClass(int index)
+	{
+		SizeClass sizeClass = sizeClasses.get(index);
+
+		if (sizeClass == null) {
+			sizeClasses.compareAndSet(index, null, new SizeClass());
+			sizeClass = sizeClasses.get(index);
+		}
+		return sizeClass;
+	}
+
+	/**
+	 * Gets the index of the smallest size class holding buffers of at least <code>capacity</code> bytes.
+	 *
+	 * @param capacity
+	 * 		the minimal number of bytes of the buffer
+	 * @return the index of the size class, at or past the end of {@link #sizeClasses} if the buffer is not pooled
+	 */
+	static int sizeClassIndex(int capacity)
 	{
-		if (!buffers.contains(buffer))
-			buffers.add(buffer);
+		int n = Math.max(capacity - 1, 1 << MIN_SHIFT);
+		int shift = 31 - Integer.numberOfLeadingZeros(n);
+		int quarter = (n >>> (shift - 2)) & (CLASSES_PER_SHIFT - 1);
+
+		return (shift - MIN_SHIFT) * CLASSES_PER_SHIFT + quarter;
+	}
+
+	/**
+	 * Gets the capacity of the buffers of a specific size class.
+	 *
+	 * @param index
+	 * 		the index of the size class
+	 * @return the capacity of the buffers of the size class
+	 */
+	static int sizeClassCapacity(int index)
+	{
+		int shift = MIN_SHIFT + index / CLASSES_PER_SHIFT;
+		int quarter = index % CLASSES_PER_SHIFT;
+
+		return (CLASSES_PER_SHIFT + quarter + 1) << (shift - 2);
+	}
+
+	/**
+	 * The lock-free free list of the buffers of a size class.
+	 */
+	private static class SizeClass
+	{
+		private final Queue<PooledByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+		/**
+		 * The number of buffers in {@link #buffers}, which is not constant time to get.
+		 */
+		private final AtomicInteger size = new AtomicInteger();
+
+		volatile long lastUsedTime = System.currentTimeMillis();
+
+		PooledByteBuffer poll()
+		{
+			PooledByteBuffer buffer = buffers.poll();
+
+			if (buffer != null)
+				size.decrementAndGet();
+			return buffer;
+		}
+
+		/**
+		 * Adds a buffer to this free list unless it holds <code>maxSize</code> buffers already.
+		 *
+		 * @return <code>true</code> if the buffer was added
+		 */
+		boolean offer(PooledByteBuffer buffer, int maxSize)
+		{
+			int count;
+
+			do {
+				count = size.get();
+				if (count >= maxSize)
+					return false;
+			}
+			while (!size.compareAndSet(count, count + 1));
+
+			buffers.offer(buffer);
+			return true;
+		}
+
+		/**
+		 * Frees the buffers of this free list.
+		 *
+		 * @return the number of freed buffers
+		 */
+		int freeAll()
+		{
+			int count = 0;
+			PooledByteBuffer buffer;
+
+			while ((buffer = poll()) != null) {
+				buffer.doFree();
+				count++;
+			}
+			return count;
+		}
 	}
 
 	/**
@@ -95,13 +323,44 @@ public class ByteBufferPool
 		 */
 		private final WeakReference<ByteBufferPool> pool;
 
-		public PooledByteBuffer(int capacity, ByteBufferPool pool)
+		/**
+		 * The index of the size class of this buffer in its pool.
+		 */
+		final int sizeClass;
+
+		/**
+		 * Whether this buffer has been obtained from its pool and not returned yet; guards against returning
+		 * it twice.
+		 */
+		private final AtomicBoolean acquired = new AtomicBoolean();
+
+		/**
+		 * Whether this buffer has been obtained from its pool before.
+		 */
+		private boolean reused = false;
+
+		public PooledByteBuffer(int capacity, int sizeClass, ByteBufferPool pool)
 		{
 			super(capacity);
 
+			this.sizeClass = sizeClass;
 			this.pool = new WeakReference<ByteBufferPool>(pool);
 		}
 
+		/**
+		 * Marks this buffer as in use.
+		 *
+		 * @return <code>true</code> if this buffer is reused, <code>false</code> if newly allocated
+		 */
+		boolean acquire()
+		{
+			boolean reused = this.reused;
+
+			this.reused = true;
+			acquired.set(true);
+			return reused;
+		}
+
 		/**
 		 * Invokes {@link ByteBufferFmj#free()} i.e. does not make any attempt to return this instance
 		 * to the associated <code>ByteBufferPool</code> and frees the native memory represented by
@@ -123,6 +382,9 @@ public class ByteBufferPool
 		@Override
 		public void free()
 		{
+			if (!acquired.compareAndSet(true, false))
+				return;
+
 			ByteBufferPool pool = this.pool.get();
 
 			if (pool == null)
@@ -130,5 +392,29 @@ public class ByteBufferPool
 			else
 				pool.returnBuffer(this);
 		}
+
+		/**
+		 * {@inheritDoc}
+		 * <p>
+		 * Reports this buffer as leaked if it is collected while still in use, and frees its native memory
+		 * rather than returning it into the pool.
+		 */
+		@Override
+		protected void finalize()
+				throws Throwable
+		{
+			try {
+				if (acquired.getAndSet(false)) {
+					ByteBufferPool pool = this.pool.get();
+
+					if (pool != null)
+						pool.leakBuffer(this);
+				}
+				doFree();
+			}
+			finally {
+				super.finalize();
+			}
+		}
 	}
 }
@@ -35,7 +35,6 @@ import org.atalk.impl.neomedia.codec.AbstractCodec2;
 import org.atalk.impl.neomedia.device.util.PreviewSurfaceProvider;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.LinkedList;
 
@@ -59,6 +58,11 @@ public class PreviewStream extends CameraStreamBase {
 
     private PreviewSurfaceProvider mSurfaceProvider;
 
+    /**
+     * The YUV420_888 to I420 converter, keeping its plane buffers from frame to frame.
+     */
+    private final YUV420Rotator mRotator = new YUV420Rotator();
+
     /**
      * Creates a new instance of <code>PreviewStream</code>.
      *
@@ -253,72 +257,18 @@ public class PreviewStream extends CameraStreamBase {
      * ## Swap: means swapping the x & y coordinates, which provides a 90-degree anticlockwise rotation,
      * ## Flip: means mirroring the image for a 180-degree rotation, adjusted for inversion by for camera2
      * Note: Android does have condition with Swap && Flip in display orientation
+     * See {@link YUV420Rotator} for the conversion.
      *
      * @param image input image with multi-plane YUV428_888 format.
      * @param width final output stream image width.
      * @param height final output stream image height.
      */
     private void YUV420PlanarRotate(Image image, byte[] output, int width, int height) {
-        // Init w * h parameters: Assuming input preview buffer dimension is always in landscape mode
-        int wi = width - 1;
-        int hi = height - 1;
-
-        // Output buffer: I420uvSize is a 1/4 of the Y size
-        int ySize = width * height;
-        int I420uvSize = ySize >> 2;
-
-        // Input image buffer parameters
-        ByteBuffer yBuffer = image.getPlanes()[0].getBuffer();
-        ByteBuffer uBuffer = image.getPlanes()[1].getBuffer();
-        ByteBuffer vBuffer = image.getPlanes()[2].getBuffer();
-
-        int yRowStride = image.getPlanes()[0].getRowStride();
-        int yPixelStride = image.getPlanes()[0].getPixelStride();
+        Image.Plane[] planes = image.getPlanes();
 
         // The U/V planes are guaranteed to have the same row stride and pixel stride.
-        int uvRowStride = image.getPlanes()[1].getRowStride();
-        int uvPixelStride = image.getPlanes()[1].getPixelStride();
-
-        // Performance input to output buffer transformation iterate over output buffer;
-        // input index xi & yi are transformed according to swap & flip
-        for (int yo = 0; yo < height; yo++) {
-            for (int xo = 0; xo < width; xo++) {
-                // default input index for direct 1:1 transform
-                int xi = xo, yi = yo;
-
-                // The video frame: w and h are swapped at input frame - no image stretch required
-                if (mSwap && mFlip) {
-                    xi = yo;
-                    yi = wi - xo;
-                }
-                else if (mSwap) {
-                    xi = hi - yo;
-                    yi = xo;
-                }
-                else if (mFlip) {
-                    xi = wi - xi;
-                    yi = hi - yi;
-                }
-                // Transform Y luminous data bytes from input to output
-                output[width * yo + xo] = yBuffer.get(yRowStride * yi + yPixelStride * xi);
-
-                /*
-                 * ## Transform UV data bytes - UV has only 1/4 of Y bytes:
-                 * To locate a pixel in these planes, divide all the xi and yi coordinates by two;
-                 * and using the UV parameters i.e. uvRowStride and uvPixelStride
-                 */
-                if ((yo % 2) + (xo % 2) == 0) // 1 UV byte for 2x2 Y data bytes
-                {
-                    int uv420YIndex = ySize + (width >> 1) * (yo >> 1);
-                    int uo = uv420YIndex + (xo >> 1);
-                    int vo = I420uvSize + uo;
-
-                    int uvIdx = (uvRowStride * (yi >> 1)) + (uvPixelStride * (xi >> 1));
-
-                    output[uo] = uBuffer.get(uvIdx); // Cb (U)
-                    output[vo] = vBuffer.get(uvIdx); // Cr (V)
-                }
-            }
-        }
+        mRotator.rotate(planes[0].getBuffer(), planes[0].getRowStride(), planes[0].getPixelStride(),
+                planes[1].getBuffer(), planes[2].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride(),
+                output, width, height, mSwap, mFlip);
     }
 }
\ No newline at end of file
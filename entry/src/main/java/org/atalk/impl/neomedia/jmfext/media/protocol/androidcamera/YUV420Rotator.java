@@ -0,0 +1,242 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.jmfext.media.protocol.androidcamera;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Converts a multi-plane YUV_420_888 frame into an I420 frame, transformed according to the camera orientation.
+ * <p>
+ * The planes are first copied in bulk into reusable arrays, so the conversion loops index plain arrays instead of
+ * reading each sample with an absolute ByteBuffer get. There is one loop per orientation, so no orientation test
+ * is made per pixel, and the unrotated luma rows are copied whole when the pixel stride is 1. The output rows are
+ * split into bands converted in parallel on a small shared pool.
+ * <p>
+ * The class has no android dependency, so that it can be exercised with synthetic planes on a plain JVM.
+ *
+ * @author Eng Chong Meng
+ */
+public class YUV420Rotator {
+    /**
+     * The number of bands a frame is split into, one per available core up to 4.
+     */
+    private static final int BANDS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * The pool converting all but one band, the last one being converted by the calling thread.
+     */
+    private static final ExecutorService bandExecutor = (BANDS == 1) ? null
+            : Executors.newFixedThreadPool(BANDS - 1, r -> {
+        Thread t = new Thread(r, "YUV420Rotator");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /*
+     * The copies of the input planes, reused from frame to frame.
+     */
+    private byte[] yPlane = new byte[0];
+    private byte[] uPlane = new byte[0];
+    private byte[] vPlane = new byte[0];
+
+    private final List<Future<?>> bandFutures = new ArrayList<>(BANDS);
+
+    /**
+     * Transforms a YUV_420_888 frame into I420 according to the camera orientation.
+     * <ul>
+     * <li>Swap: swaps the x and y coordinates, i.e. a 90-degree anticlockwise rotation; the input frame is then
+     * <code>height</code> pixels wide and <code>width</code> pixels high.</li>
+     * <li>Flip: mirrors the image both ways, i.e. a 180-degree rotation.</li>
+     * </ul>
+     *
+     * @param yBuffer the Y plane
+     * @param yRowStride the row stride of the Y plane
+     * @param yPixelStride the pixel stride of the Y plane
+     * @param uBuffer the U (Cb) plane
+     * @param vBuffer the V (Cr) plane
+     * @param uvRowStride the row stride of the U and V planes
+     * @param uvPixelStride the pixel stride of the U and V planes
+     * @param output the I420 output of at least <code>width * height * 3 / 2</code> bytes
+     * @param width the output frame width, an even number
+     * @param height the output frame height, an even number
+     * @param swap whether the x and y coordinates are swapped
+     * @param flip whether the image is mirrored both ways
+     */
+    public synchronized void rotate(ByteBuffer yBuffer, int yRowStride, int yPixelStride,
+            ByteBuffer uBuffer, ByteBuffer vBuffer, int uvRowStride, int uvPixelStride,
+            byte[] output, int width, int height, boolean swap, boolean flip) {
+        yPlane = copyPlane(yBuffer, yPlane);
+        uPlane = copyPlane(uBuffer, uPlane);
+        vPlane = copyPlane(vBuffer, vPlane);
+
+        // Band boundaries are on even rows, so each band holds whole chroma rows
+        int bandHeight = ((height / BANDS) + 1) & ~1;
+        bandFutures.clear();
+        try {
+            int y0 = 0;
+            for (int band = 1; band < BANDS && (y0 + bandHeight) < height; band++) {
+                final int from = y0;
+                final int to = y0 + bandHeight;
+                bandFutures.add(bandExecutor.submit(() -> convertBand(yRowStride, yPixelStride, uvRowStride,
+                        uvPixelStride, output, width, height, swap, flip, from, to)));
+                y0 = to;
+            }
+            convertBand(yRowStride, yPixelStride, uvRowStride, uvPixelStride, output, width, height, swap, flip,
+                    y0, height);
+
+            for (Future<?> future : bandFutures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while converting frame");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw (cause instanceof RuntimeException) ? (RuntimeException) cause : new IllegalStateException(cause);
+        } finally {
+            for (Future<?> future : bandFutures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Copies the plane data into the given array, or into a new one if it is too small.
+     *
+     * @return the array holding the plane data
+     */
+    private static byte[] copyPlane(ByteBuffer buffer, byte[] plane) {
+        ByteBuffer src = buffer.duplicate();
+        src.clear();
+        int length = src.remaining();
+        if (plane.length < length)
+            plane = new byte[length];
+        src.get(plane, 0, length);
+        return plane;
+    }
+
+    /**
+     * Converts the output rows <code>y0</code> to <code>y1</code> (exclusive) and their chroma rows.
+     */
+    private void convertBand(int ys, int yp, int cs, int cp, byte[] out, int width, int height,
+            boolean swap, boolean flip, int y0, int y1) {
+        final byte[] Y = yPlane;
+        final byte[] U = uPlane;
+        final byte[] V = vPlane;
+
+        // The last input x and y index, from the output frame coordinates
+        int wi = width - 1;
+        int hi = height - 1;
+
+        int cw = width >> 1;
+        int ySize = width * height;
+        int uOut = ySize;
+        int vOut = ySize + (ySize >> 2);
+        int c0 = y0 >> 1;
+        int c1 = y1 >> 1;
+
+        if (swap && flip) {
+            // xi = yo, yi = wi - xo
+            for (int yo = y0; yo < y1; yo++) {
+                int o = width * yo;
+                int i = ys * wi + yp * yo;
+                for (int xo = 0; xo < width; xo++, i -= ys) {
+                    out[o++] = Y[i];
+                }
+            }
+            for (int yc = c0; yc < c1; yc++) {
+                int o = cw * yc;
+                int i = cs * (wi >> 1) + cp * yc;
+                for (int xc = 0; xc < cw; xc++, o++, i -= cs) {
+                    out[uOut + o] = U[i];
+                    out[vOut + o] = V[i];
+                }
+            }
+        }
+        else if (swap) {
+            // xi = hi - yo, yi = xo
+            for (int yo = y0; yo < y1; yo++) {
+                int o = width * yo;
+                int i = yp * (hi - yo);
+                for (int xo = 0; xo < width; xo++, i += ys) {
+                    out[o++] = Y[i];
+                }
+            }
+            for (int yc = c0; yc < c1; yc++) {
+                int o = cw * yc;
+                int i = cp * ((hi >> 1) - yc);
+                for (int xc = 0; xc < cw; xc++, o++, i += cs) {
+                    out[uOut + o] = U[i];
+                    out[vOut + o] = V[i];
+                }
+            }
+        }
+        else if (flip) {
+            // xi = wi - xo, yi = hi - yo
+            for (int yo = y0; yo < y1; yo++) {
+                int o = width * yo;
+                int i = ys * (hi - yo) + yp * wi;
+                for (int xo = 0; xo < width; xo++, i -= yp) {
+                    out[o++] = Y[i];
+                }
+            }
+            for (int yc = c0; yc < c1; yc++) {
+                int o = cw * yc;
+                int i = cs * ((hi >> 1) - yc) + cp * (wi >> 1);
+                for (int xc = 0; xc < cw; xc++, o++, i -= cp) {
+                    out[uOut + o] = U[i];
+                    out[vOut + o] = V[i];
+                }
+            }
+        }
+        else {
+            // xi = xo, yi = yo
+            for (int yo = y0; yo < y1; yo++) {
+                int o = width * yo;
+                int i = ys * yo;
+                if (yp == 1) {
+                    System.arraycopy(Y, i, out, o, width);
+                }
+                else {
+                    for (int xo = 0; xo < width; xo++, i += yp) {
+                        out[o++] = Y[i];
+                    }
+                }
+            }
+            for (int yc = c0; yc < c1; yc++) {
+                int o = cw * yc;
+                int i = cs * yc;
+                if (cp == 1) {
+                    System.arraycopy(U, i, out, uOut + o, cw);
+                    System.arraycopy(V, i, out, vOut + o, cw);
+                }
+                else {
+                    for (int xc = 0; xc < cw; xc++, o++, i += cp) {
+                        out[uOut + o] = U[i];
+                        out[vOut + o] = V[i];
+                    }
+                }
+            }
+        }
+    }
+}
@@ -5,7 +5,7 @@
  */
 package org.atalk.impl.neomedia.notify;
 
-import org.atalk.impl.neomedia.codec.audio.speex.SpeexResampler;
+import org.atalk.impl.neomedia.codec.audio.resampler.JavaResampler;
 import org.atalk.impl.neomedia.device.AudioSystem;
 import org.atalk.service.audionotifier.AbstractSCAudioClip;
 import org.atalk.service.audionotifier.AudioNotifierService;
@@ -138,7 +138,7 @@ public class AudioSystemClipImpl extends AbstractSCAudioClip
                  * Try to negotiate a resampling of the audioStream to one of the formats supported
                  * by the renderer.
                  */
-                resampler = new SpeexResampler();
+                resampler = new JavaResampler();
                 resamplerFormat = rendererFormat;
                 resampler.setInputFormat(resamplerFormat);
 
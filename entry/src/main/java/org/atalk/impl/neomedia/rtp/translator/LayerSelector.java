@@ -0,0 +1,313 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.rtp.translator;
+
+import org.atalk.impl.neomedia.MediaStreamImpl;
+import org.atalk.impl.neomedia.rtp.MediaStreamTrackDesc;
+import org.atalk.impl.neomedia.rtp.MediaStreamTrackReceiver;
+import org.atalk.impl.neomedia.rtp.RTPEncodingDesc;
+import org.atalk.impl.neomedia.rtp.ResumableStreamRewriter;
+import org.atalk.service.neomedia.MediaStream;
+import org.atalk.service.neomedia.RawPacket;
+import org.atalk.service.neomedia.VideoMediaStream;
+import org.atalk.util.RTPUtils;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import timber.log.Timber;
+
+/**
+ * Selects the simulcast encoding and the temporal/spatial layers of each layered video track which
+ * <code>RTPTranslatorImpl</code> forwards to one receiver, i.e. one <code>StreamRTPManagerDesc</code>.
+ * <p>
+ * The target layer of a track is the highest quality one which fits its share of the bandwidth estimate of
+ * the receiver. The selector switches to a higher layer only on a key
+ * frame of that layer. It switches to a lower layer of the same RTP stream at the next frame start, and to
+ * another simulcast stream on its next key frame, which is requested from the sender.
+ * <p>
+ * The packets of the layers not forwarded are dropped, and the sequence numbers and timestamps of the
+ * forwarded ones are rewritten so that the receiver sees a single RTP stream without gaps, whatever the
+ * encoding it comes from. The packets on secondary SSRCs (e.g. RTX) of a layered track are dropped, as they
+ * refer to sequence numbers the receiver has not seen, and the RTCP of the track is not translated, so that
+ * the NACKs of the receiver cannot be served. Hence this is experimental and only done if enabled with
+ * {@link OutputDataStreamImpl#ENABLE_LAYER_SELECTION_PNAME}.
+ *
+ * @author Eng Chong Meng
+ */
+class LayerSelector
+{
+    /**
+     * The interval in milliseconds between two selections of the target layer of a track.
+     */
+    private static final long SELECTION_INTERVAL_MS = 1000;
+
+    /**
+     * The interval in milliseconds between two key frame requests for a pending layer switch.
+     */
+    private static final long KEY_FRAME_REQUEST_INTERVAL_MS = 1000;
+
+    /**
+     * The RTP clock rate of video, in ticks per millisecond.
+     */
+    private static final long VIDEO_CLOCK_RATE_PER_MS = 90;
+
+    /**
+     * The receiver of the forwarded layers.
+     */
+    private final StreamRTPManagerDesc receiver;
+
+    /**
+     * The state of the layered tracks forwarded to {@link #receiver}, weakly referenced so that the
+     * tracks replaced by a new signaling are released.
+     */
+    private final Map<MediaStreamTrackDesc, TrackSelection> selections = new WeakHashMap<>();
+
+    /**
+     * Initializes a new <code>LayerSelector</code> for a specific receiver.
+     *
+     * @param receiver the <code>StreamRTPManagerDesc</code> of the receiver of the forwarded layers
+     */
+    LayerSelector(StreamRTPManagerDesc receiver)
+    {
+        this.receiver = receiver;
+    }
+
+    /**
+     * Finds the encoding of a layered track which a specific RTP packet belongs to.
+     *
+     * @param source the <code>StreamRTPManagerDesc</code> from which the packet has been received
+     * @param buf the buffer which contains the RTP packet
+     * @param off the offset in <code>buf</code> at which the RTP packet begins
+     * @param len the length of the RTP packet
+     * @return the <code>RTPEncodingDesc</code> of the packet if its track has several encodings; otherwise,
+     * <code>null</code>, the packet being then forwarded as is.
+     */
+    static RTPEncodingDesc findLayeredEncoding(StreamRTPManagerDesc source, byte[] buf, int off, int len)
+    {
+        MediaStream stream = source.streamRTPManager.getMediaStream();
+        MediaStreamTrackReceiver trackReceiver = (stream instanceof VideoMediaStream)
+                ? stream.getMediaStreamTrackReceiver() : null;
+        if (trackReceiver == null)
+            return null;
+
+        RTPEncodingDesc encoding = trackReceiver.findRTPEncodingDesc(new RawPacket(buf, off, len));
+        if (encoding == null || encoding.getMediaStreamTrack().getRTPEncodings().length < 2)
+            return null;
+        return encoding;
+    }
+
+    /**
+     * Decides whether an RTP packet of a layered track is to be forwarded to the receiver and, if so,
+     * rewrites its SSRC, sequence number and timestamp in place.
+     *
+     * @param translator the <code>RTPTranslatorImpl</code> to request key frames through
+     * @param encoding the encoding of the packet, as returned by {@link #findLayeredEncoding}
+     * @param buf the buffer which contains the RTP packet
+     * @param off the offset in <code>buf</code> at which the RTP packet begins
+     * @param len the length of the RTP packet
+     * @return <code>true</code> to forward the packet; <code>false</code> to drop it
+     */
+    synchronized boolean accept(RTPTranslatorImpl translator, RTPEncodingDesc encoding,
+            byte[] buf, int off, int len)
+    {
+        long ssrc = RawPacket.getSSRCAsLong(buf, off, len);
+        if (ssrc != encoding.getPrimarySSRC())
+            return false;
+
+        MediaStreamTrackDesc track = encoding.getMediaStreamTrack();
+        TrackSelection selection = selections.get(track);
+        if (selection == null) {
+            selection = new TrackSelection(track);
+            selections.put(track, selection);
+        }
+        return selection.accept(translator, encoding, buf, off, len, System.currentTimeMillis());
+    }
+
+    /**
+     * Gets the part of the bandwidth estimate of the receiver available to each of its layered tracks.
+     *
+     * @return the bandwidth in bps; <code>Long.MAX_VALUE</code> if there is no estimate
+     */
+    private long getTrackBandwidth()
+    {
+        MediaStream stream = receiver.streamRTPManager.getMediaStream();
+        long bwe = (stream instanceof VideoMediaStream)
+                ? ((VideoMediaStream) stream).getOrCreateBandwidthEstimator().getLatestEstimate() : -1;
+        return (bwe > 0) ? bwe / Math.max(1, selections.size()) : Long.MAX_VALUE;
+    }
+
+    /**
+     * The layer selection of one layered track.
+     */
+    private class TrackSelection
+    {
+        /**
+         * The SSRC the forwarded packets are sent with, the one of the lowest encoding of the track.
+         */
+        private final long outputSSRC;
+
+        /**
+         * The index of the encoding forwarded; <code>-1</code> until the first key frame of the target.
+         */
+        private int currentIdx = -1;
+
+        /**
+         * The primary SSRC of the encoding forwarded.
+         */
+        private long currentSSRC = -1;
+
+        /**
+         * The index of the encoding to forward.
+         */
+        private int targetIdx = -1;
+
+        private long lastSelectionMs = -1;
+
+        private long lastKeyFrameRequestMs = -1;
+
+        /**
+         * Hides the gaps left by the dropped layers of the RTP stream of {@link #currentSSRC}.
+         */
+        private ResumableStreamRewriter rewriter = new ResumableStreamRewriter();
+
+        /*
+         * The offsets from the RTP stream of currentSSRC to the output stream, set on a switch of stream.
+         */
+        private int seqOffset;
+        private long timestampOffset;
+
+        /*
+         * The last sequence number and timestamp sent, and when the latter was sent.
+         */
+        private int lastSeqOut = -1;
+        private long lastTimestampOut = -1;
+        private long lastSentMs;
+
+        /*
+         * Neither the track nor its encodings are referenced, so that the track remains weakly reachable
+         * from the selections.
+         */
+        TrackSelection(MediaStreamTrackDesc track)
+        {
+            outputSSRC = track.getRTPEncodings()[0].getPrimarySSRC();
+        }
+
+        boolean accept(RTPTranslatorImpl translator, RTPEncodingDesc encoding,
+                byte[] buf, int off, int len, long nowMs)
+        {
+            MediaStreamTrackDesc track = encoding.getMediaStreamTrack();
+            RTPEncodingDesc[] encodings = track.getRTPEncodings();
+            if (lastSelectionMs == -1 || nowMs - lastSelectionMs >= SELECTION_INTERVAL_MS) {
+                lastSelectionMs = nowMs;
+                select(track, encodings, nowMs);
+            }
+
+            if (currentIdx != targetIdx) {
+                maybeSwitch(translator, encodings[targetIdx], encoding, new RawPacket(buf, off, len), nowMs);
+            }
+            if (currentIdx == -1 || encoding.getPrimarySSRC() != currentSSRC)
+                return false;
+
+            boolean accept = encodings[currentIdx].requires(encoding.getIndex());
+            rewriter.rewriteRTP(accept, buf, off, len);
+            if (!accept)
+                return false;
+
+            int seq = RTPUtils.applySequenceNumberDelta(RawPacket.getSequenceNumber(buf, off, len), seqOffset);
+            long timestamp = (RawPacket.getTimestamp(buf, off, len) + timestampOffset) & 0xffffffffL;
+            RawPacket.setSequenceNumber(buf, off, seq);
+            RawPacket.setTimestamp(buf, off, len, timestamp);
+            RTPUtils.writeInt(buf, off + 8, (int) outputSSRC);
+
+            if (lastSeqOut == -1 || RTPUtils.getSequenceNumberDelta(seq, lastSeqOut) > 0) {
+                lastSeqOut = seq;
+                lastTimestampOut = timestamp;
+                lastSentMs = nowMs;
+            }
+            return true;
+        }
+
+        /**
+         * Selects the highest encoding which fits the bandwidth of the receiver. The
+         * lowest encoding is always selected, so that the receiver gets some video.
+         */
+        private void select(MediaStreamTrackDesc track, RTPEncodingDesc[] encodings, long nowMs)
+        {
+            long bandwidth = getTrackBandwidth();
+            int idx = 0;
+
+            for (int i = 1; i < encodings.length; i++) {
+                if (encodings[i].getLastStableBitrateBps(nowMs) <= 0)
+                    continue;
+                if (track.getBps(i) <= bandwidth)
+                    idx = i;
+            }
+            if (idx != targetIdx) {
+                Timber.d("Layer target of %s for %s: %s -> %s (bandwidth %s bps)",
+                        outputSSRC, receiver.streamRTPManager.getMediaStream(), targetIdx, idx, bandwidth);
+                targetIdx = idx;
+            }
+        }
+
+        /**
+         * Switches to the target encoding if the packet allows it: a lower layer of the same RTP stream at
+         * the start of a frame, anything else on a key frame of the target stream.
+         */
+        private void maybeSwitch(RTPTranslatorImpl translator, RTPEncodingDesc target,
+                RTPEncodingDesc encoding, RawPacket pkt, long nowMs)
+        {
+            MediaStreamImpl stream = encoding.getMediaStreamTrack().getMediaStreamTrackReceiver().getStream();
+            long targetSSRC = target.getPrimarySSRC();
+            boolean down = (currentSSRC == targetSSRC) && (target.getIndex() < currentIdx);
+
+            if (encoding.getPrimarySSRC() == targetSSRC && stream.isStartOfFrame(pkt)
+                    && (down || stream.isKeyFrame(pkt))) {
+                if (currentSSRC != targetSSRC)
+                    switchStream(pkt, nowMs);
+                currentIdx = target.getIndex();
+                currentSSRC = targetSSRC;
+                lastKeyFrameRequestMs = -1;
+            }
+            else if (!down && (lastKeyFrameRequestMs == -1
+                    || nowMs - lastKeyFrameRequestMs >= KEY_FRAME_REQUEST_INTERVAL_MS)) {
+                lastKeyFrameRequestMs = nowMs;
+                translator.getRtcpFeedbackMessageSender().requestKeyframe(targetSSRC);
+            }
+        }
+
+        /**
+         * Continues the output stream with the RTP stream of a specific packet, the first one to be
+         * forwarded from that stream.
+         */
+        private void switchStream(RawPacket pkt, long nowMs)
+        {
+            rewriter = new ResumableStreamRewriter();
+            if (lastSeqOut == -1) {
+                // Nothing sent yet, the first stream keeps its numbering
+                seqOffset = 0;
+                timestampOffset = 0;
+            }
+            else {
+                seqOffset = RTPUtils.getSequenceNumberDelta(
+                        RTPUtils.applySequenceNumberDelta(lastSeqOut, 1), pkt.getSequenceNumber());
+                long elapsed = Math.max(1, (nowMs - lastSentMs) * VIDEO_CLOCK_RATE_PER_MS);
+                timestampOffset = (lastTimestampOut + elapsed - pkt.getTimestamp()) & 0xffffffffL;
+            }
+        }
+    }
+}
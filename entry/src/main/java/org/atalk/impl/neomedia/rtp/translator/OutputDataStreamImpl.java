@@ -10,6 +10,7 @@ import net.sf.fmj.media.rtp.RTPHeader;
 
 import org.atalk.impl.timberlog.TimberLog;
 import org.atalk.impl.neomedia.RTPConnectorOutputStream;
+import org.atalk.impl.neomedia.rtp.RTPEncodingDesc;
 import org.atalk.service.libjitsi.LibJitsi;
 import org.atalk.service.neomedia.MediaStream;
 import org.atalk.service.neomedia.RawPacket;
@@ -47,6 +48,16 @@ class OutputDataStreamImpl implements OutputDataStream, Runnable
     private static final String REMOVE_RTP_HEADER_EXTENSIONS_PNAME
             = RTPTranslatorImpl.class.getName() + ".removeRTPHeaderExtensions";
 
+    /**
+     * The name of the <code>boolean</code> <code>ConfigurationService</code> property which indicates
+     * whether the simulcast/SVC layers of the relayed video tracks are selected per receiver, by
+     * bandwidth. Experimental, the default value is <code>false</code>: the RTX packets and the RTCP of
+     * such tracks are not translated, so the RTX packets are dropped, the NACKs of the receiver refer to
+     * rewritten sequence numbers and cannot be served, and the RR/SR refer to the original SSRCs.
+     */
+    static final String ENABLE_LAYER_SELECTION_PNAME
+            = RTPTranslatorImpl.class.getName() + ".enableLayerSelection";
+
     private static final int WRITE_Q_CAPACITY = RTPConnectorOutputStream.PACKET_QUEUE_CAPACITY;
 
     private boolean closed;
@@ -65,6 +76,12 @@ class OutputDataStreamImpl implements OutputDataStream, Runnable
      */
     private final boolean _removeRTPHeaderExtensions;
 
+    /**
+     * The indicator which determines whether the layers of the relayed simulcast/SVC video tracks are
+     * selected per receiver by its {@link LayerSelector}.
+     */
+    private final boolean _layerSelection;
+
     /**
      * The {@code List} of {@code OutputDataStream}s into which this {@code OutputDataStream}
      * copies written data/packets. Implemented as a copy-on-write storage in order to reduce
@@ -89,6 +106,12 @@ class OutputDataStreamImpl implements OutputDataStream, Runnable
 
     private final QueueStatistics writeQStats;
 
+    /**
+     * The fixed header of the RTP packet being written, restored after the layer selector of a destination
+     * has rewritten it.
+     */
+    private final byte[] savedRTPHeader = new byte[RTPHeader.SIZE];
+
     /**
      * The number of packets dropped because a packet was inserted while {@link #writeQ} was full.
      */
@@ -105,6 +128,10 @@ class OutputDataStreamImpl implements OutputDataStream, Runnable
                 LibJitsi.getConfigurationService(),
                 REMOVE_RTP_HEADER_EXTENSIONS_PNAME,
                 false);
+        _layerSelection = data && ConfigUtils.getBoolean(
+                LibJitsi.getConfigurationService(),
+                ENABLE_LAYER_SELECTION_PNAME,
+                false);
 
         if (TimberLog.isTraceEnable) {
             // writeQStats = QueueStatistics.get(getClass().getSimpleName()); // ice4j 2.0
@@ -168,6 +195,10 @@ class OutputDataStreamImpl implements OutputDataStream, Runnable
         boolean removeRTPHeaderExtensions = _removeRTPHeaderExtensions;
         int written = 0;
 
+        // The packets of a simulcast/SVC track are filtered and rewritten per destination.
+        RTPEncodingDesc encoding = (_layerSelection && exclusion != null && len >= RTPHeader.SIZE)
+                ? LayerSelector.findLayeredEncoding(exclusion, buf, off, len) : null;
+
         // XXX I do NOT want to use an Iterator.
         for (int i = 0, end = streams.size(); i < end; ++i) {
             OutputDataStreamDesc s = streams.get(i);
@@ -198,12 +229,23 @@ class OutputDataStreamImpl implements OutputDataStream, Runnable
                 write = translator.willWrite(exclusion, new RawPacket(buf, off, len), streamRTPManager, _data);
             }
 
+            boolean rewritten = false;
+            if (write && encoding != null) {
+                System.arraycopy(buf, off, savedRTPHeader, 0, RTPHeader.SIZE);
+                rewritten = true;
+                write = streamRTPManager.layerSelector.accept(translator, encoding, buf, off, len);
+            }
+
             if (write) {
                 int w = s.stream.write(buf, off, len);
 
                 if (written < w)
                     written = w;
             }
+
+            // The destination streams copy the packet, the header may be restored for the next one.
+            if (rewritten)
+                System.arraycopy(savedRTPHeader, 0, buf, off, RTPHeader.SIZE);
         }
         return written;
     }
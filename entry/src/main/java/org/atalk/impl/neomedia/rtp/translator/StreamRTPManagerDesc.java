@@ -32,6 +32,11 @@ class StreamRTPManagerDesc
 
 	public RTPConnectorDesc connectorDesc;
 
+	/**
+	 * The selector of the layers of the layered video tracks forwarded to {@link #streamRTPManager}.
+	 */
+	final LayerSelector layerSelector = new LayerSelector(this);
+
 	private final Map<Integer, Format> formats = new HashMap<>();
 
 	/**
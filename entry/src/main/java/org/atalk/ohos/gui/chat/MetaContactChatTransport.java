@@ -186,6 +186,7 @@ public class MetaContactChatTransport implements ChatTransport, ContactPresenceS
 
                     // For HttpFileUpload service
                     httpFileUploadManager = HttpFileUploadManager.getInstanceFor(connection);
+                    httpFileUploadManager.setUploadRetries(ConfigurationUtils.getFileUploadRetries());
                     isDeliveryReceiptSupported = checkDeliveryReceiptSupport(connection);
                 }
                 checkImCaps();
@@ -20,6 +20,7 @@ import net.java.sip.communicator.service.protocol.PresenceStatus;
 import net.java.sip.communicator.service.protocol.ProtocolProviderService;
 import net.java.sip.communicator.service.protocol.event.FileTransferStatusChangeEvent;
 import net.java.sip.communicator.service.protocol.event.MessageListener;
+import net.java.sip.communicator.util.ConfigurationUtils;
 
 import org.atalk.ohos.R;
 import org.atalk.ohos.aTalkApp;
@@ -63,6 +64,7 @@ public class AdHocConferenceChatTransport implements ChatTransport {
         this.adHocChatRoom = chatRoom;
         mPPS = adHocChatRoom.getParentProvider();
         httpFileUploadManager = HttpFileUploadManager.getInstanceFor(mPPS.getConnection());
+        httpFileUploadManager.setUploadRetries(ConfigurationUtils.getFileUploadRetries());
     }
 
     /**
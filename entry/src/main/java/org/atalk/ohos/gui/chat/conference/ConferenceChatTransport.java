@@ -20,6 +20,7 @@ import net.java.sip.communicator.service.protocol.PresenceStatus;
 import net.java.sip.communicator.service.protocol.ProtocolProviderService;
 import net.java.sip.communicator.service.protocol.event.FileTransferStatusChangeEvent;
 import net.java.sip.communicator.service.protocol.event.MessageListener;
+import net.java.sip.communicator.util.ConfigurationUtils;
 
 import org.atalk.ohos.R;
 import org.atalk.ohos.aTalkApp;
@@ -72,6 +73,7 @@ public class ConferenceChatTransport implements ChatTransport {
         if ((mPPS != null) && (mPPS.getConnection() != null)) {
             isChatStateSupported = (mPPS.getOperationSet(OperationSetChatStateNotifications.class) != null);
             httpFileUploadManager = HttpFileUploadManager.getInstanceFor(mPPS.getConnection());
+            httpFileUploadManager.setUploadRetries(ConfigurationUtils.getFileUploadRetries());
         }
     }
 
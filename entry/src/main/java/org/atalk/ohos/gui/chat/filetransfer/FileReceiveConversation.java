@@ -212,7 +212,7 @@ public class FileReceiveConversation extends FileTransferConversation
     private File createOutFile(IncomingFileTransferRequest fileTransferRequest) {
         String fileName = fileTransferRequest.getFileName();
         String mimeType = fileTransferRequest.getMimeType();
-        setTransferFilePath(fileName, mimeType);
+        setTransferFilePath(fileName, mimeType, fileTransferRequest);
 
         // Timber.d("Create Output File: %s (%s)", mXferFile, fileName);
         // Change the file name to the name we would use on the local file system.
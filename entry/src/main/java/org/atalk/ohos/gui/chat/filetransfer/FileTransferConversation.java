@@ -62,6 +62,7 @@ import com.bumptech.glide.request.transition.Transition;
 import net.java.sip.communicator.service.filehistory.FileRecord;
 import net.java.sip.communicator.service.protocol.FileTransfer;
 import net.java.sip.communicator.service.protocol.IMessage;
+import net.java.sip.communicator.service.protocol.IncomingFileTransferRequest;
 import net.java.sip.communicator.service.protocol.event.FileTransferProgressEvent;
 import net.java.sip.communicator.service.protocol.event.FileTransferProgressListener;
 import net.java.sip.communicator.service.protocol.event.FileTransferStatusChangeEvent;
@@ -990,6 +991,18 @@ public abstract class FileTransferConversation extends BaseFragment
      * @param mimeType the incoming file mimeType
      */
     protected void setTransferFilePath(String fileName, String mimeType) {
+        setTransferFilePath(fileName, mimeType, null);
+    }
+
+    /**
+     * Generate the mXferFile full filePath based on the given fileName and mimeType; an existing file of the
+     * broken transfer of the same file is reused, so the transfer can resume into it.
+     *
+     * @param fileName the incoming xfer fileName
+     * @param mimeType the incoming file mimeType
+     * @param request the incoming file request, to check if the existing file can be resumed; may be null
+     */
+    protected void setTransferFilePath(String fileName, String mimeType, IncomingFileTransferRequest request) {
         String downloadPath = FileBackend.MEDIA_DOCUMENT;
         if (fileName.contains("voice-"))
             downloadPath = FileBackend.MEDIA_VOICE_RECEIVE;
@@ -1006,7 +1019,7 @@ public abstract class FileTransferConversation extends BaseFragment
         if (filenameLength == -1) {
             filenameLength = fileName.length();
         }
-        while (mXferFile.exists()) {
+        while (mXferFile.exists() && ((request == null) || !request.canResume(mXferFile))) {
             String newFileName = fileName.substring(0, filenameLength) + "-"
                     + ++index + fileName.substring(filenameLength);
             mXferFile = new File(downloadDir, newFileName);
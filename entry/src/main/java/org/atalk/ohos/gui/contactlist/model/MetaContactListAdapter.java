@@ -10,9 +10,11 @@ import android.text.TextUtils;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 import java.util.TreeSet;
 import java.util.regex.Pattern;
 
@@ -120,6 +122,38 @@ public class MetaContactListAdapter extends BaseContactListAdapter
      */
     private boolean mDialogMode = false;
 
+    /**
+     * The delay in ms to collect the presence status and reorder events into a single UI update.
+     */
+    private static final long UI_UPDATE_DELAY = 100;
+
+    /**
+     * The contacts with presence status changed since the last UI update; also the lock for
+     * {@link #mStatusUpdatePosted} and the event counters.
+     */
+    private final Set<Contact> mPendingStatusChanges = new LinkedHashSet<>();
+
+    /**
+     * The groups with child contacts reordered since the last UI update.
+     */
+    private final Set<MetaContactGroup> mPendingReorderedGroups = new LinkedHashSet<>();
+
+    /**
+     * <code>true</code> when the UI update of {@link #mPendingStatusChanges} has been posted.
+     */
+    private boolean mStatusUpdatePosted = false;
+
+    /**
+     * <code>true</code> when the UI update of {@link #mPendingReorderedGroups} has been posted.
+     */
+    private boolean mReorderPosted = false;
+
+    /**
+     * The number of presence status change events received and the number of UI updates made for them.
+     */
+    private long mStatusEventCount = 0;
+    private long mStatusUpdateCount = 0;
+
     public MetaContactListAdapter(ContactListFragment contactListFragment, boolean mainContactList) {
         super(contactListFragment, mainContactList);
 
@@ -150,6 +184,9 @@ public class MetaContactListAdapter extends BaseContactListAdapter
             removeContacts(contactListService.getRoot());
         }
         removeContactStatusListener();
+        synchronized (mPendingStatusChanges) {
+            Timber.d("Contact status events received: %d; UI updates: %d", mStatusEventCount, mStatusUpdateCount);
+        }
     }
 
     /**
@@ -679,8 +716,27 @@ public class MetaContactListAdapter extends BaseContactListAdapter
      */
     public void childContactsReordered(MetaContactGroupEvent evt) {
         // Timber.d("Child contacts reordered");
-        BaseActivity.uiHandler.post(() -> {
-            MetaContactGroup group = evt.getSourceMetaContactGroup();
+        synchronized (mPendingReorderedGroups) {
+            mPendingReorderedGroups.add(evt.getSourceMetaContactGroup());
+            if (mReorderPosted)
+                return;
+            mReorderPosted = true;
+        }
+        BaseActivity.uiHandler.postDelayed(this::dispatchReorderedGroups, UI_UPDATE_DELAY);
+    }
+
+    /**
+     * Updates all the groups reordered since the last UI update, then refreshes the view once.
+     */
+    private void dispatchReorderedGroups() {
+        List<MetaContactGroup> reorderedGroups;
+        synchronized (mPendingReorderedGroups) {
+            reorderedGroups = new ArrayList<>(mPendingReorderedGroups);
+            mPendingReorderedGroups.clear();
+            mReorderPosted = false;
+        }
+
+        for (MetaContactGroup group : reorderedGroups) {
             int origGroupIndex = originalGroups.indexOf(group);
             int groupIndex = groups.indexOf(group);
 
@@ -707,8 +763,8 @@ public class MetaContactListAdapter extends BaseContactListAdapter
                     }
                 }
             }
-            notifyDataSetChanged();
-        });
+        }
+        notifyDataSetChanged();
     }
 
     /**
@@ -908,22 +964,42 @@ public class MetaContactListAdapter extends BaseContactListAdapter
      */
     @Override
     public void contactPresenceStatusChanged(final ContactPresenceStatusChangeEvent event) {
-        BaseActivity.uiHandler.post(() -> {
-            // Timber.d("Contact status change on UI: %s => %s", mDialogMode, event.getSourceContact());
-            //  mDialogMode: just update the status icon without sorting
-            if (mDialogMode) {
-                Contact sourceContact = event.getSourceContact();
+        synchronized (mPendingStatusChanges) {
+            mStatusEventCount++;
+            mPendingStatusChanges.add(event.getSourceContact());
+            if (mStatusUpdatePosted)
+                return;
+            mStatusUpdatePosted = true;
+        }
+        BaseActivity.uiHandler.postDelayed(this::dispatchStatusChanges, UI_UPDATE_DELAY);
+    }
+
+    /**
+     * Updates the UI once for all the contacts with presence status changed since the last update.
+     */
+    private void dispatchStatusChanges() {
+        List<Contact> changedContacts;
+        synchronized (mPendingStatusChanges) {
+            changedContacts = new ArrayList<>(mPendingStatusChanges);
+            mPendingStatusChanges.clear();
+            mStatusUpdatePosted = false;
+            mStatusUpdateCount++;
+        }
+        // Timber.d("Contact status change on UI: %s => %s", mDialogMode, changedContacts.size());
 
+        //  mDialogMode: just update the status icon without sorting
+        if (mDialogMode) {
+            for (Contact sourceContact : changedContacts) {
                 MetaContact metaContact = contactListService.findMetaContactByContact(sourceContact);
                 // metaContact is already existing, just update it
                 if (metaContact != null) {
                     updateStatus(metaContact);
                 }
             }
-            else {
-                refreshModelData();
-            }
-        });
+        }
+        else {
+            refreshModelData();
+        }
     }
 
     /**
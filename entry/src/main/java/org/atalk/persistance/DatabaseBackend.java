@@ -38,7 +38,9 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 
 import net.java.sip.communicator.impl.configuration.SQLiteConfigurationStore;
+import net.java.sip.communicator.impl.msghistory.MessageSearchIndex;
 import net.java.sip.communicator.impl.msghistory.MessageSourceService;
+import net.java.sip.communicator.impl.msghistory.RecentConversations;
 import net.java.sip.communicator.service.callhistory.CallHistoryService;
 import net.java.sip.communicator.service.contactlist.MetaContactGroup;
 import net.java.sip.communicator.service.protocol.AccountID;
@@ -85,10 +87,15 @@ public class DatabaseBackend extends SQLiteOpenHelper {
      * Increment DATABASE_VERSION when there is a change in database records
      */
     public static final String DATABASE_NAME = "dbRecords.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 3;
     private static DatabaseBackend instance = null;
     private ProtocolProviderService mProvider;
 
+    /**
+     * The OMEMO store whose caches must be invalidated when the identities and sessions rows are deleted.
+     */
+    private SQLiteOmemoStore mOmemoStore;
+
     // Create preKeys table
     public static String CREATE_OMEMO_DEVICES_STATEMENT = "CREATE TABLE "
             + SQLiteOmemoStore.OMEMO_DEVICES_TABLE_NAME + "("
@@ -191,6 +198,15 @@ public class DatabaseBackend extends SQLiteOpenHelper {
         return instance;
     }
 
+    /**
+     * Set the OMEMO store to be notified of the deleted identities and sessions rows.
+     *
+     * @param omemoStore the SQLiteOmemoStore caching the OMEMO records
+     */
+    public void setOmemoStore(SQLiteOmemoStore omemoStore) {
+        mOmemoStore = omemoStore;
+    }
+
     public static SQLiteDatabase getWritableDB() {
         return instance.getWritableDatabase();
     }
@@ -199,6 +215,12 @@ public class DatabaseBackend extends SQLiteOpenHelper {
         return instance.getReadableDatabase();
     }
 
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Fire the delete triggers i.e. message search index for the rows replaced by ON CONFLICT REPLACE
+        db.execSQL("PRAGMA recursive_triggers = ON");
+    }
+
     @Override
     public void onUpgrade(final SQLiteDatabase db, int oldVersion, int newVersion) {
         Timber.i("Upgrading database from version %s to version %s", oldVersion, newVersion);
@@ -229,7 +251,7 @@ public class DatabaseBackend extends SQLiteOpenHelper {
      * c. Group Tables: metaContactGroup & childContacts
      * d. contacts
      * e. chatSessions
-     * f. chatMessages
+     * f. chatMessages and its full-text search index
      * g. callHistory
      * f. recentMessages
      * i. Entity Caps
@@ -352,6 +374,12 @@ public class DatabaseBackend extends SQLiteOpenHelper {
                 + ") ON DELETE CASCADE, UNIQUE(" + ChatMessage.UUID
                 + ") ON CONFLICT REPLACE);");
 
+        // Full-text search index of the chat / MUC messages
+        MessageSearchIndex.createIndex(db);
+
+        // Recent conversations summary of the chat sessions
+        RecentConversations.createTables(db);
+
         // Call history table
         db.execSQL("CREATE TABLE " + CallHistoryService.TABLE_NAME + " ("
                 + CallHistoryService.UUID + " TEXT PRIMARY KEY, "
@@ -434,6 +462,8 @@ public class DatabaseBackend extends SQLiteOpenHelper {
     }
 
     public List<AccountID> getAccounts(ProtocolProviderFactory factory) {
+        // AccountID.fromCursor() reads the accountProperties table, so write the queued changes first
+        SQLiteConfigurationStore.flushPendingChanges();
         SQLiteDatabase db = getReadableDatabase();
         List<AccountID> accountIDs = new ArrayList<>();
         String[] args = {factory.getProtocolName()};
@@ -895,6 +925,8 @@ public class DatabaseBackend extends SQLiteOpenHelper {
 
         db.delete(SQLiteOmemoStore.IDENTITIES_TABLE_NAME, SQLiteOmemoStore.BARE_JID + "=? AND "
                 + SQLiteOmemoStore.DEVICE_ID + "=?", whereArgs);
+        if (mOmemoStore != null)
+            mOmemoStore.evictIdentity(device);
     }
 
     public void storeIdentityKeyPair(OmemoDevice userDevice, IdentityKeyPair identityKeyPair, String fingerprint) {
@@ -1043,7 +1075,10 @@ public class DatabaseBackend extends SQLiteOpenHelper {
 
     public int deleteNullIdentityKeyDevices() {
         final SQLiteDatabase db = getWritableDatabase();
-        return db.delete(SQLiteOmemoStore.IDENTITIES_TABLE_NAME, SQLiteOmemoStore.IDENTITY_KEY + " IS NULL", null);
+        int count = db.delete(SQLiteOmemoStore.IDENTITIES_TABLE_NAME, SQLiteOmemoStore.IDENTITY_KEY + " IS NULL", null);
+        if (mOmemoStore != null)
+            mOmemoStore.evictCounters();
+        return count;
     }
 
     public void setLastDeviceIdPublicationDate(OmemoDevice device, Date date) {
@@ -1258,11 +1293,15 @@ public class DatabaseBackend extends SQLiteOpenHelper {
     }
 
     public void storeSession(OmemoDevice omemoContact, SessionRecord session) {
+        storeSession(omemoContact, session.serialize());
+    }
+
+    public void storeSession(OmemoDevice omemoContact, byte[] serializedSession) {
         SQLiteDatabase db = getWritableDatabase();
         ContentValues values = new ContentValues();
         values.put(SQLiteOmemoStore.BARE_JID, omemoContact.getJid().toString());
         values.put(SQLiteOmemoStore.DEVICE_ID, omemoContact.getDeviceId());
-        values.put(SQLiteOmemoStore.SESSION_KEY, Base64.encodeToString(session.serialize(), Base64.DEFAULT));
+        values.put(SQLiteOmemoStore.SESSION_KEY, Base64.encodeToString(serializedSession, Base64.DEFAULT));
         db.insert(SQLiteOmemoStore.SESSION_TABLE_NAME, null, values);
     }
 
@@ -1271,12 +1310,16 @@ public class DatabaseBackend extends SQLiteOpenHelper {
         String[] args = {omemoContact.getJid().toString(), Integer.toString(omemoContact.getDeviceId())};
         db.delete(SQLiteOmemoStore.SESSION_TABLE_NAME,
                 SQLiteOmemoStore.BARE_JID + "=? AND " + SQLiteOmemoStore.DEVICE_ID + "=?", args);
+        if (mOmemoStore != null)
+            mOmemoStore.evictSession(omemoContact);
     }
 
     public void deleteAllSessions(BareJid contact) {
         SQLiteDatabase db = getWritableDatabase();
         String[] args = {contact.toString()};
         db.delete(SQLiteOmemoStore.SESSION_TABLE_NAME, SQLiteOmemoStore.BARE_JID + "=?", args);
+        if (mOmemoStore != null)
+            mOmemoStore.evictSessionsOf(contact);
     }
 
     public boolean containsSession(OmemoDevice omemoContact) {
@@ -1316,6 +1359,8 @@ public class DatabaseBackend extends SQLiteOpenHelper {
             db.delete(SQLiteOmemoStore.SESSION_TABLE_NAME, SQLiteOmemoStore.BARE_JID + "=?", args);
             db.delete(SQLiteOmemoStore.IDENTITIES_TABLE_NAME, SQLiteOmemoStore.BARE_JID + "=?", args);
         }
+        if (mOmemoStore != null)
+            mOmemoStore.evictAllCaches();
     }
 
     /**
@@ -1343,6 +1388,8 @@ public class DatabaseBackend extends SQLiteOpenHelper {
                 SQLiteOmemoStore.BARE_JID + "=? AND " + SQLiteOmemoStore.DEVICE_ID + "=?", args);
         db.delete(SQLiteOmemoStore.SESSION_TABLE_NAME,
                 SQLiteOmemoStore.BARE_JID + "=? AND " + SQLiteOmemoStore.DEVICE_ID + "=?", args);
+        if (mOmemoStore != null)
+            mOmemoStore.evictAllCaches();
     }
 
     /**
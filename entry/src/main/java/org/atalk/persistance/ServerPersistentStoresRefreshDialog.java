@@ -181,6 +181,7 @@ public class ServerPersistentStoresRefreshDialog extends BaseFragment {
                 db.updateAccount(accountId);
             }
             OmemoDBCreate.createOmemoTables(db.getWritableDatabase());
+            ((SQLiteOmemoStore) omemoStore).evictAllCaches();
 
             // start to regenerate all Omemo data for registered accounts - has exception
             // SQLiteOmemoStore.loadOmemoSignedPreKey().371 There is no SignedPreKeyRecord for: 0
@@ -18,12 +18,19 @@ package org.atalk.persistance.migrations;
 
 import android.database.sqlite.SQLiteDatabase;
 
+import net.java.sip.communicator.impl.msghistory.MessageSearchIndex;
+import net.java.sip.communicator.impl.msghistory.RecentConversations;
+
 public class Migrations {
     @SuppressWarnings("fallthrough")
     public static void upgradeDatabase(SQLiteDatabase db, MigrationsHelper migrationsHelper) {
         switch (db.getVersion()) {
             case 1:
                 // OmemoDBCreate.createOmemoTables(db);
+                // Existing messages are indexed in the background by MessageHistoryServiceImpl
+                MessageSearchIndex.createIndex(db);
+            case 2:
+                RecentConversations.createTables(db);
                 break;
         }
     }
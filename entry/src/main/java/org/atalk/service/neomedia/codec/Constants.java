@@ -134,6 +134,11 @@ public class Constants
      */
     public static final String PROP_OPUS_VBR = "neomedia.codec.audio.opus.encoder.VBR";
 
+    /**
+     * The name of the property used to control the quality preset (LOW, VOIP or HIGH) of the java resampler
+     */
+    public static final String PROP_RESAMPLER_QUALITY = "neomedia.codec.audio.resampler.QUALITY";
+
     /**
      * The name of the property used to control whether FEC support is advertised for SILK
      */
@@ -144,6 +149,17 @@ public class Constants
      */
     public static final String PROP_SILK_ASSUME_PL = "neomedia.codec.audio.silk.encoder.AWLAYS_ASSUME_PACKET_LOSS";
 
+    /**
+     * The name of the property used to control whether the SILK encoder lowers its complexity
+     * automatically when encoding a frame takes too long
+     */
+    public static final String PROP_SILK_ADAPTIVE_COMPLEXITY = "neomedia.codec.audio.silk.encoder.ADAPTIVE_COMPLEXITY";
+
+    /**
+     * The name of the property used to control the complexity (0 to 2, where 2 is highest) of the SILK encoder
+     */
+    public static final String PROP_SILK_COMPLEXITY = "neomedia.codec.audio.silk.encoder.COMPLEXITY";
+
     /**
      * The name of the property used to control whether FEC is enabled for SILK
      */
@@ -0,0 +1,37 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.service.neomedia.control;
+
+import javax.media.Control;
+
+/**
+ * An interface used to pass the <code>KeyFrameControl</code> of a video stream to the codecs in its player, so that
+ * they may request a key frame from the remote peer, e.g. when they have lost a frame.
+ *
+ * @author Eng Chong Meng
+ */
+public interface KeyFrameControlAwareCodec extends Control
+{
+	/**
+	 * Sets the <code>KeyFrameControl</code> to request key frames through.
+	 *
+	 * @param keyFrameControl
+	 *        the <code>KeyFrameControl</code> of the video stream; <code>null</code> if key frames cannot be
+	 *        requested
+	 */
+	public void setKeyFrameControl(KeyFrameControl keyFrameControl);
+}
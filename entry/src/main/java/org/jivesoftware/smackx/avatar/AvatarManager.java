@@ -32,9 +32,11 @@ import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.roster.Roster;
 import org.jivesoftware.smack.roster.RosterEntry;
 import org.jivesoftware.smack.util.StringUtils;
-import org.jivesoftware.smackx.avatar.cache.AvatarCacheFile;
+import org.jivesoftware.smackx.avatar.cache.AvatarCache;
 import org.jivesoftware.smackx.avatar.cache.AvatarCacheMemory;
-import org.jivesoftware.smackx.avatar.cache.JidToHashCacheFile;
+import org.jivesoftware.smackx.avatar.cache.AvatarCacheStore;
+import org.jivesoftware.smackx.avatar.cache.JidToHashCache;
+import org.jivesoftware.smackx.avatar.cache.JidToHashCacheStore;
 import org.jivesoftware.smackx.avatar.listener.AvatarChangeListener;
 import org.jivesoftware.smackx.avatar.vcardavatar.packet.VCardTempXUpdate;
 import org.jxmpp.jid.BareJid;
@@ -71,7 +73,7 @@ public class AvatarManager extends Manager {
     /**
      * Use for the persistent avatar storage in additional to cacheAvatar
      */
-    protected static AvatarCacheFile persistentAvatarCache = null;
+    protected static AvatarCache persistentAvatarCache = null;
 
     /**
      * Map of bareJid to avatarId (Hash of avatar). Definition of avatarId:
@@ -88,7 +90,12 @@ public class AvatarManager extends Manager {
     /**
      * Use for the persistent JidToHash Index storage in additional to cacheJidToAvatarId
      */
-    protected static JidToHashCacheFile persistentJidToHashIndex = null;
+    protected static JidToHashCache persistentJidToHashIndex = null;
+
+    /**
+     * The directory of the persistent stores; both VCardAvatarManager and UserAvatarManager set the same one.
+     */
+    private static File persistentStoreDir = null;
 
     /**
      * The VCardTempXUpdate Extension class
@@ -175,10 +182,12 @@ public class AvatarManager extends Manager {
      *
      * @param storeDir the file directory which will store the avatars
      */
-    public static void setPersistentCache(File storeDir) {
-        if (storeDir != null) {
-            persistentJidToHashIndex = new JidToHashCacheFile(storeDir);
-            persistentAvatarCache = new AvatarCacheFile(storeDir);
+    public static synchronized void setPersistentCache(File storeDir) {
+        // The stores keep their index in memory, so there must be only one instance per directory
+        if ((storeDir != null) && !storeDir.equals(persistentStoreDir)) {
+            persistentStoreDir = storeDir;
+            persistentJidToHashIndex = new JidToHashCacheStore(storeDir);
+            persistentAvatarCache = new AvatarCacheStore(storeDir);
         }
     }
 
@@ -0,0 +1,669 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smackx.avatar.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An implementation of an AvatarCache which stores the avatars in a few append-only segment files instead of one
+ * file per avatar, with an in-memory offset index of the avatars snapshotted to an index file.
+ * <p>
+ * A segment record is the avatar hash and the avatar data, or a purge record with no data. New avatars are appended
+ * to the active segment; the sealed segments are memory mapped for reading. The cache is bounded in bytes: the least
+ * recently used avatars are dropped from the index, the segments left without any avatar are deleted, and the
+ * segments with mostly dropped avatars are compacted into the active one. The index snapshot is rewritten in the
+ * background a short while after a change, and the segment records written since are replayed on open.
+ * <p>
+ * The avatar files of an {@link AvatarCacheFile} in the same directory are migrated on first use.
+ *
+ * @author Eng Chong Meng
+ */
+public class AvatarCacheStore implements AvatarCache
+{
+	private static final Logger LOGGER = Logger.getLogger(AvatarCacheStore.class.getName());
+
+	/**
+	 * The default maximum size of the avatars kept, in bytes.
+	 */
+	public static final long DEFAULT_MAX_SIZE = 32 * 1024 * 1024;
+
+	/**
+	 * The index snapshot file name.
+	 */
+	static final String INDEX_FILE = "avatars.idx";
+
+	private static final String SEGMENT_PREFIX = "avatars-";
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final Pattern SEGMENT_NAME = Pattern.compile("avatars-(\\d+)\\.seg");
+
+	/**
+	 * The file names of an AvatarCacheFile: the SHA-1 hash of the avatar.
+	 */
+	private static final Pattern AVATAR_FILE_NAME = Pattern.compile("[0-9a-f]{40}");
+
+	private static final int MAGIC = 0x41564958;
+
+	/**
+	 * The size from which a new active segment is started.
+	 */
+	private static final long SEGMENT_SIZE = 4 * 1024 * 1024;
+
+	/**
+	 * The delay from a change to the index snapshot write, in ms.
+	 */
+	private static final long SNAPSHOT_DELAY = 2000;
+
+	private static final int BUFFER_SIZE = 1024;
+
+	private static final ScheduledExecutorService snapshotExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "AvatarCacheStore");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final File mStoreDir;
+
+	private final long mMaxSize;
+
+	/**
+	 * The avatars by hash, in least recently used order.
+	 */
+	private final LinkedHashMap<String, Entry> mIndex = new LinkedHashMap<>(64, 0.75f, true);
+
+	private final TreeMap<Integer, Segment> mSegments = new TreeMap<>();
+
+	private Segment mActive;
+
+	private long mSize = 0;
+
+	private boolean snapshotPending = false;
+
+	/**
+	 * Create an AvatarCacheStore of {@link #DEFAULT_MAX_SIZE}.
+	 *
+	 * @param storeDir
+	 * 		The directory used to store the data.
+	 */
+	public AvatarCacheStore(final File storeDir)
+	{
+		this(storeDir, DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Create an AvatarCacheStore.
+	 *
+	 * @param storeDir
+	 * 		The directory used to store the data.
+	 * @param maxSize
+	 * 		the maximum size of the avatars kept, in bytes
+	 */
+	public AvatarCacheStore(final File storeDir, long maxSize)
+	{
+		if (storeDir.exists() && !storeDir.isDirectory())
+			throw new IllegalArgumentException("The store directory must be a directory");
+		mStoreDir = storeDir;
+		mStoreDir.mkdirs();
+		mMaxSize = maxSize;
+
+		try {
+			open();
+		}
+		catch (IOException e) {
+			LOGGER.log(Level.SEVERE, "Failed to open avatar store, the avatars are dropped", e);
+			reset();
+		}
+	}
+
+	private void open()
+		throws IOException
+	{
+		File[] files = mStoreDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				Matcher m = SEGMENT_NAME.matcher(file.getName());
+				if (m.matches()) {
+					int id = Integer.parseInt(m.group(1));
+					mSegments.put(id, new Segment(id));
+				}
+			}
+		}
+
+		File indexFile = new File(mStoreDir, INDEX_FILE);
+		boolean migrate = mSegments.isEmpty() && !indexFile.exists();
+		int activeId = 0;
+		long covered = 0;
+		if (indexFile.exists()) {
+			try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+				if (dis.readInt() != MAGIC)
+					throw new IOException("Invalid avatar index");
+
+				activeId = dis.readInt();
+				covered = dis.readLong();
+				int count = dis.readInt();
+				for (int i = 0; i < count; i++) {
+					String id = dis.readUTF();
+					Entry entry = new Entry(dis.readInt(), dis.readLong(), dis.readInt());
+					if (mSegments.containsKey(entry.segment))
+						putEntry(id, entry);
+				}
+			}
+			catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Could not restore avatar index, rebuilding it", e);
+				mIndex.clear();
+				activeId = 0;
+				covered = 0;
+			}
+		}
+
+		// Replay the segment records not covered by the index snapshot
+		for (Segment segment : mSegments.values()) {
+			if (segment.id == activeId && covered > 0)
+				replay(segment, covered);
+			else if (segment.id >= activeId)
+				replay(segment, 0);
+		}
+
+		// Remove the segments without any avatar left
+		for (Segment segment : new ArrayList<>(mSegments.values())) {
+			if (segment.live == 0 && segment != mSegments.lastEntry().getValue())
+				deleteSegment(segment);
+		}
+
+		mActive = mSegments.isEmpty() ? newSegment(0) : mSegments.lastEntry().getValue();
+		if (migrate)
+			migrateAvatarFiles();
+		trim();
+	}
+
+	/**
+	 * Indexes the records of a segment from the given position.
+	 */
+	private void replay(Segment segment, long position)
+		throws IOException
+	{
+		long size = segment.channel.size();
+		while (position + 8 <= size) {
+			int idLength = read(segment.channel, position, 4).getInt();
+			if (idLength <= 0 || position + 8 + idLength > size)
+				break;
+
+			ByteBuffer buffer = read(segment.channel, position + 4, idLength + 4);
+			byte[] idBytes = new byte[idLength];
+			buffer.get(idBytes);
+			String id = new String(idBytes, StandardCharsets.UTF_8);
+			int length = buffer.getInt();
+			long offset = position + 8 + idLength;
+			if (length > 0 && offset + length > size)
+				break;
+
+			removeEntry(id);
+			if (length >= 0) {
+				putEntry(id, new Entry(segment.id, offset, length));
+				position = offset + length;
+			}
+			else {
+				position = offset;
+			}
+		}
+
+		if (position < size) {
+			LOGGER.log(Level.WARNING, "Truncating incomplete avatar segment " + segment.id + " at " + position);
+			segment.channel.truncate(position);
+		}
+		segment.length = position;
+	}
+
+	/**
+	 * Imports the one file per avatar of an AvatarCacheFile, then deletes them.
+	 */
+	private void migrateAvatarFiles()
+		throws IOException
+	{
+		File[] files = mStoreDir.listFiles();
+		if (files == null)
+			return;
+
+		int count = 0;
+		for (File file : files) {
+			if (!AVATAR_FILE_NAME.matcher(file.getName()).matches())
+				continue;
+
+			byte[] data = new byte[(int) file.length()];
+			try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+				dis.readFully(data);
+				append(file.getName(), data);
+				count++;
+			}
+			catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Could not migrate avatar file: " + file.getName(), e);
+			}
+		}
+
+		if (writeSnapshot()) {
+			for (File file : files) {
+				if (AVATAR_FILE_NAME.matcher(file.getName()).matches())
+					file.delete();
+			}
+		}
+		LOGGER.log(Level.INFO, "Migrated " + count + " avatar files into the avatar store");
+	}
+
+	/**
+	 * Save the image data in cache.
+	 *
+	 * @param id
+	 * 		the key id of the data usually the data hash
+	 * @param data
+	 * 		the byte of the data to cache
+	 */
+	@Override
+	public synchronized void addAvatarByHash(String id, byte[] data)
+	{
+		// id is the data hash, so an avatar in store is the same data
+		if ((data == null) || (mIndex.get(id) != null))
+			return;
+
+		try {
+			append(id, data);
+			trim();
+		}
+		catch (IOException e) {
+			LOGGER.log(Level.SEVERE, "Failed to write photo avatar to store", e);
+		}
+		scheduleSnapshot();
+	}
+
+	@Override
+	public void addAvatarByHash(String id, final InputStream in)
+	{
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		try {
+			byte[] data = new byte[BUFFER_SIZE];
+			int nBread;
+			while ((nBread = in.read(data)) != -1) {
+				os.write(data, 0, nBread);
+			}
+		}
+		catch (IOException e) {
+			LOGGER.log(Level.SEVERE, "Failed to read photo avatar", e);
+			return;
+		}
+		finally {
+			try {
+				in.close();
+			}
+			catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Error while closing stream: " + id, e);
+			}
+		}
+		addAvatarByHash(id, os.toByteArray());
+	}
+
+	@Override
+	public synchronized byte[] getAvatarForHash(String id)
+	{
+		Entry entry = mIndex.get(id);
+		if (entry == null)
+			return null;
+
+		Segment segment = mSegments.get(entry.segment);
+		try {
+			byte[] data = new byte[entry.length];
+			if (segment == mActive) {
+				read(segment.channel, entry.offset, entry.length).get(data);
+			}
+			else {
+				if (segment.map == null)
+					segment.map = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.length);
+				ByteBuffer buffer = segment.map.duplicate();
+				buffer.position((int) entry.offset);
+				buffer.get(data);
+			}
+			return data;
+		}
+		catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Could not restore photo avatar from store", e);
+			return null;
+		}
+	}
+
+	@Override
+	public synchronized boolean contains(String photoHash)
+	{
+		return mIndex.containsKey(photoHash);
+	}
+
+	@Override
+	public synchronized boolean purgeItemFor(String photoHash)
+	{
+		if (!mIndex.containsKey(photoHash))
+			return false;
+
+		try {
+			// a purge record, so that a replay does not restore the avatar
+			writeRecord(photoHash, null);
+		}
+		catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to write avatar purge record", e);
+		}
+		removeEntry(photoHash);
+		cleanSegments();
+		scheduleSnapshot();
+		return true;
+	}
+
+	@Override
+	public synchronized boolean emptyCache()
+	{
+		boolean status = true;
+		for (Segment segment : mSegments.values()) {
+			segment.close();
+			status &= segment.file().delete();
+		}
+		mSegments.clear();
+		mIndex.clear();
+		mSize = 0;
+
+		File indexFile = new File(mStoreDir, INDEX_FILE);
+		status &= !indexFile.exists() || indexFile.delete();
+		reset();
+		return status;
+	}
+
+	/**
+	 * Writes the pending changes of the index to its snapshot file now, e.g. before the application exits.
+	 */
+	public synchronized void flush()
+	{
+		if (snapshotPending) {
+			snapshotPending = false;
+			writeSnapshot();
+		}
+	}
+
+	/**
+	 * Restarts with an empty store after a failure.
+	 */
+	private void reset()
+	{
+		try {
+			mActive = newSegment(mSegments.isEmpty() ? 0 : mSegments.lastKey() + 1);
+		}
+		catch (IOException e) {
+			LOGGER.log(Level.SEVERE, "Failed to create avatar segment", e);
+		}
+	}
+
+	private void append(String id, byte[] data)
+		throws IOException
+	{
+		long offset = writeRecord(id, data);
+		putEntry(id, new Entry(mActive.id, offset, data.length));
+	}
+
+	/**
+	 * Appends a record to the active segment, starting a new one when full.
+	 *
+	 * @return the offset of the data in the active segment
+	 */
+	private long writeRecord(String id, byte[] data)
+		throws IOException
+	{
+		byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+		int length = (data == null) ? 0 : data.length;
+		if (mActive.length > 0 && mActive.length + 8 + idBytes.length + length > SEGMENT_SIZE) {
+			mActive = newSegment(mActive.id + 1);
+		}
+
+		ByteBuffer record = ByteBuffer.allocate(8 + idBytes.length + length);
+		record.putInt(idBytes.length).put(idBytes).putInt((data == null) ? -1 : data.length);
+		if (data != null)
+			record.put(data);
+		record.flip();
+
+		long position = mActive.length;
+		while (record.hasRemaining())
+			position += mActive.channel.write(record, position);
+		mActive.length = position;
+		return position - length;
+	}
+
+	private Segment newSegment(int id)
+		throws IOException
+	{
+		Segment segment = new Segment(id);
+		mSegments.put(id, segment);
+		return segment;
+	}
+
+	private void putEntry(String id, Entry entry)
+	{
+		removeEntry(id);
+		mIndex.put(id, entry);
+		mSize += entry.length;
+		Segment segment = mSegments.get(entry.segment);
+		if (segment != null)
+			segment.live += entry.length;
+	}
+
+	private void removeEntry(String id)
+	{
+		Entry entry = mIndex.remove(id);
+		if (entry != null) {
+			mSize -= entry.length;
+			Segment segment = mSegments.get(entry.segment);
+			if (segment != null)
+				segment.live -= entry.length;
+		}
+	}
+
+	/**
+	 * Drops the least recently used avatars beyond the maximum size, and reclaims the segment space.
+	 */
+	private void trim()
+		throws IOException
+	{
+		Iterator<Map.Entry<String, Entry>> iterator = mIndex.entrySet().iterator();
+		while (mSize > mMaxSize && iterator.hasNext()) {
+			Entry entry = iterator.next().getValue();
+			iterator.remove();
+			mSize -= entry.length;
+			mSegments.get(entry.segment).live -= entry.length;
+		}
+		cleanSegments();
+
+		// Compact the sealed segment with the least live data while the segments are twice the maximum size
+		long total = 0;
+		for (Segment segment : mSegments.values())
+			total += segment.length;
+
+		while (total > 2 * mMaxSize) {
+			Segment sparsest = null;
+			for (Segment segment : mSegments.values()) {
+				if (segment != mActive && (sparsest == null || segment.live < sparsest.live))
+					sparsest = segment;
+			}
+			if (sparsest == null)
+				break;
+
+			List<String> ids = new ArrayList<>();
+			for (Map.Entry<String, Entry> e : mIndex.entrySet()) {
+				if (e.getValue().segment == sparsest.id)
+					ids.add(e.getKey());
+			}
+			for (String id : ids) {
+				byte[] data = getAvatarForHash(id);
+				if (data != null)
+					append(id, data);
+			}
+			total -= sparsest.length;
+			deleteSegment(sparsest);
+		}
+	}
+
+	/**
+	 * Deletes the sealed segments without any avatar left.
+	 */
+	private void cleanSegments()
+	{
+		for (Segment segment : new ArrayList<>(mSegments.values())) {
+			if (segment.live == 0 && segment != mActive)
+				deleteSegment(segment);
+		}
+	}
+
+	private void deleteSegment(Segment segment)
+	{
+		segment.close();
+		segment.file().delete();
+		mSegments.remove(segment.id);
+	}
+
+	private void scheduleSnapshot()
+	{
+		if (!snapshotPending) {
+			snapshotPending = true;
+			snapshotExecutor.schedule(this::flush, SNAPSHOT_DELAY, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Writes the index, in least recently used order, to a temporary file then renames it to the index file.
+	 *
+	 * @return true if the snapshot was written
+	 */
+	private boolean writeSnapshot()
+	{
+		File tmpFile = new File(mStoreDir, INDEX_FILE + ".tmp");
+		try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+			dos.writeInt(MAGIC);
+			dos.writeInt(mActive.id);
+			dos.writeLong(mActive.length);
+			dos.writeInt(mIndex.size());
+			for (Map.Entry<String, Entry> e : mIndex.entrySet()) {
+				Entry entry = e.getValue();
+				dos.writeUTF(e.getKey());
+				dos.writeInt(entry.segment);
+				dos.writeLong(entry.offset);
+				dos.writeInt(entry.length);
+			}
+		}
+		catch (IOException e) {
+			LOGGER.log(Level.SEVERE, "Failed to write avatar index", e);
+			return false;
+		}
+
+		if (!tmpFile.renameTo(new File(mStoreDir, INDEX_FILE))) {
+			LOGGER.log(Level.SEVERE, "Failed to replace avatar index");
+			return false;
+		}
+		return true;
+	}
+
+	private static ByteBuffer read(FileChannel channel, long position, int length)
+		throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException("Unexpected end of avatar segment");
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * The location of an avatar data.
+	 */
+	private static class Entry
+	{
+		final int segment;
+		final long offset;
+		final int length;
+
+		Entry(int segment, long offset, int length)
+		{
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * A segment file and the size of the avatars in the index it holds.
+	 */
+	private class Segment
+	{
+		final int id;
+		final FileChannel channel;
+		long length;
+		long live = 0;
+		MappedByteBuffer map;
+
+		Segment(int id)
+			throws IOException
+		{
+			this.id = id;
+			channel = new RandomAccessFile(file(), "rw").getChannel();
+			length = channel.size();
+		}
+
+		File file()
+		{
+			return new File(mStoreDir, SEGMENT_PREFIX + id + SEGMENT_SUFFIX);
+		}
+
+		void close()
+		{
+			try {
+				channel.close();
+			}
+			catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Error while closing avatar segment " + id, e);
+			}
+			map = null;
+		}
+	}
+}
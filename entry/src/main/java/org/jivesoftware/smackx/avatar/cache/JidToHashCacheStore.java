@@ -0,0 +1,246 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.smackx.avatar.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import org.jivesoftware.smack.util.stringencoder.Base32;
+import org.jxmpp.jid.BareJid;
+
+/**
+ * An implementation of an JidToHashCache which keeps the whole index in memory, and persists it as a single
+ * snapshot file instead of one file per jid. The snapshot is rewritten in the background a short while after a
+ * change, so a burst of roster presence updates costs a single write.
+ * <p>
+ * The jid files of a {@link JidToHashCacheFile} in the same directory are migrated on first use.
+ *
+ * @author Eng Chong Meng
+ */
+public class JidToHashCacheStore implements JidToHashCache {
+    private static final Logger LOGGER = Logger.getLogger(JidToHashCacheStore.class.getName());
+
+    /**
+     * The snapshot file name; the '.' keeps it apart from the Base32 jid file names.
+     */
+    static final String SNAPSHOT_FILE = "jidToHash.dat";
+
+    private static final int MAGIC = 0x4a494448;
+
+    /**
+     * The delay from a change to the snapshot write, in ms.
+     */
+    private static final long SNAPSHOT_DELAY = 2000;
+
+    /**
+     * The file names of a JidToHashCacheFile: the Base32 encoded bareJid.
+     */
+    private static final Pattern JID_FILE_NAME = Pattern.compile("[A-Z2-7]+=*");
+
+    private static final ScheduledExecutorService snapshotExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "JidToHashCacheStore");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final File mStoreDir;
+
+    private final Map<String, String> mJidToHash = new HashMap<>();
+
+    private boolean snapshotPending = false;
+
+    /**
+     * Creates a JidToHashCache kept in a snapshot file of the given directory.
+     *
+     * @param storeDir The directory used to store the data.
+     */
+    public JidToHashCacheStore(final File storeDir) {
+        if (storeDir.exists() && !storeDir.isDirectory())
+            throw new IllegalArgumentException("The store directory must be a directory");
+        mStoreDir = storeDir;
+        mStoreDir.mkdirs();
+
+        File snapshot = new File(mStoreDir, SNAPSHOT_FILE);
+        if (snapshot.exists())
+            loadSnapshot(snapshot);
+        else
+            migrateJidFiles();
+    }
+
+    private void loadSnapshot(File snapshot) {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)))) {
+            if (dis.readInt() != MAGIC)
+                throw new IOException("Invalid jid to hash snapshot");
+
+            int count = dis.readInt();
+            for (int i = 0; i < count; i++) {
+                String jid = readString(dis);
+                mJidToHash.put(jid, readString(dis));
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not restore jid to hash snapshot: " + snapshot, e);
+        }
+    }
+
+    /**
+     * Imports the one file per jid entries of a JidToHashCacheFile, then deletes them.
+     */
+    private void migrateJidFiles() {
+        File[] files = mStoreDir.listFiles();
+        if (files == null)
+            return;
+
+        int count = 0;
+        for (File file : files) {
+            if (!JID_FILE_NAME.matcher(file.getName()).matches())
+                continue;
+
+            try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+                // JidToHashCacheFile writeUTF content: the string byte length then the string
+                if (file.length() < 2 || dis.readUnsignedShort() + 2 != file.length())
+                    continue;
+
+                byte[] bytes = new byte[(int) file.length() - 2];
+                dis.readFully(bytes);
+                mJidToHash.put(Base32.decode(file.getName()), new String(bytes, StandardCharsets.UTF_8));
+                count++;
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Could not migrate jid to hash file: " + file.getName(), e);
+            }
+        }
+
+        if (writeSnapshot()) {
+            for (File file : files) {
+                if (JID_FILE_NAME.matcher(file.getName()).matches())
+                    file.delete();
+            }
+        }
+        LOGGER.log(Level.INFO, "Migrated " + count + " jid to hash files into " + SNAPSHOT_FILE);
+    }
+
+    @Override
+    public synchronized void addHashByJid(BareJid bareJid, String hash) {
+        if (!hash.equals(mJidToHash.put(bareJid.toString(), hash)))
+            scheduleSnapshot();
+    }
+
+    @Override
+    public synchronized String getHashForJid(BareJid id) {
+        return mJidToHash.get(id.toString());
+    }
+
+    @Override
+    public synchronized boolean contains(BareJid id) {
+        return mJidToHash.containsKey(id.toString());
+    }
+
+    /**
+     * Purge the obsoleted entry from the index
+     */
+    @Override
+    public synchronized boolean purgeItemFor(BareJid id) {
+        if (mJidToHash.remove(id.toString()) == null)
+            return false;
+
+        scheduleSnapshot();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean emptyCache() {
+        mJidToHash.clear();
+        File snapshot = new File(mStoreDir, SNAPSHOT_FILE);
+        return !snapshot.exists() || snapshot.delete();
+    }
+
+    /**
+     * Writes the pending changes to the snapshot file now, e.g. before the application exits.
+     */
+    public synchronized void flush() {
+        if (snapshotPending) {
+            snapshotPending = false;
+            writeSnapshot();
+        }
+    }
+
+    private void scheduleSnapshot() {
+        if (!snapshotPending) {
+            snapshotPending = true;
+            snapshotExecutor.schedule(this::flush, SNAPSHOT_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes the index to a temporary file then renames it to the snapshot file, so a crash never leaves a
+     * partial snapshot.
+     *
+     * @return true if the snapshot was written
+     */
+    private boolean writeSnapshot() {
+        File tmpFile = new File(mStoreDir, SNAPSHOT_FILE + ".tmp");
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(mJidToHash.size());
+            for (Map.Entry<String, String> entry : mJidToHash.entrySet()) {
+                writeString(dos, entry.getKey());
+                writeString(dos, entry.getValue());
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to write jid to hash snapshot", e);
+            return false;
+        }
+
+        if (!tmpFile.renameTo(new File(mStoreDir, SNAPSHOT_FILE))) {
+            LOGGER.log(Level.SEVERE, "Failed to replace jid to hash snapshot");
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * Not writeUTF, as the account roster list stored in the index may exceed its 64k limit.
+     */
+    private static void writeString(DataOutputStream dos, String value)
+            throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+    }
+
+    private static String readString(DataInputStream dis)
+            throws IOException {
+        byte[] bytes = new byte[dis.readInt()];
+        dis.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -20,16 +20,23 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
 import org.jivesoftware.smack.SmackException.NotLoggedInException;
 import org.jivesoftware.smack.StanzaListener;
 import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.XMPPException.XMPPErrorException;
 import org.jivesoftware.smack.datatypes.UInt16;
 import org.jivesoftware.smack.filter.AndFilter;
 import org.jivesoftware.smack.filter.StanzaFilter;
@@ -42,6 +49,7 @@ import org.jivesoftware.smack.packet.StanzaError;
 import org.jivesoftware.smack.util.stringencoder.Base64;
 
 import org.jivesoftware.smackx.bytestreams.BytestreamSession;
+import org.jivesoftware.smackx.bytestreams.ibb.InBandBytestreamManager.StanzaType;
 import org.jivesoftware.smackx.bytestreams.ibb.packet.Close;
 import org.jivesoftware.smackx.bytestreams.ibb.packet.Data;
 import org.jivesoftware.smackx.bytestreams.ibb.packet.DataPacketExtension;
@@ -59,6 +67,12 @@ import org.jxmpp.jid.Jid;
  * closed individually the session will be closed automatically once the second stream is closed.
  * Use the {@link #setCloseBothStreamsEnabled(boolean)} method if both streams should be closed
  * automatically if one of them is closed.
+ * <p>
+ * With IQ stanzas the output stream keeps up to {@link #getMaxWindowSize()} data IQs in flight instead of waiting
+ * for the acknowledgement of each block before sending the next one. The window adapts to the measured round
+ * trips, and the round trip of a closed session is remembered per peer for {@link #ROUND_TRIP_EXPIRY}, so that the
+ * next session to a peer with slow acknowledgements can be opened with message stanzas, see
+ * {@link #getPreferredStanza(Jid)} and {@link #establishSession(XMPPConnection, Jid, String, int, StanzaType)}.
  *
  * @author Henning Staib
  * @author Eng Chong Meng
@@ -69,6 +83,23 @@ public class InBandBytestreamSession implements BytestreamSession {
 
     static final String UNEXPECTED_IBB_SEQUENCE = "Unexpected IBB sequence";
 
+    /**
+     * The default maximum number of unacknowledged data IQs in flight.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 8;
+
+    /* the round trip above which a new session to the peer uses message stanzas, in ms */
+    private static long roundTripThreshold = 1000;
+
+    /**
+     * The time in ms a peer round trip is remembered; the peer is then tried again with IQ stanzas, which
+     * measure a new round trip.
+     */
+    public static final long ROUND_TRIP_EXPIRY = TimeUnit.MINUTES.toMillis(10);
+
+    /* the smoothed data IQ round trip of the last IQ session to each peer, and the time it was measured, in ms */
+    private static final Map<Jid, long[]> peerRoundTrips = new ConcurrentHashMap<>();
+
     /* XMPP connection */
     private final XMPPConnection connection;
 
@@ -97,6 +128,9 @@ public class InBandBytestreamSession implements BytestreamSession {
     /* flag to indicate if session is already closed by peer */
     private volatile boolean closedByPeer = false;
 
+    /* maximum number of unacknowledged data IQs in flight; 1 waits for each acknowledgement */
+    private volatile int maxWindowSize = DEFAULT_WINDOW_SIZE;
+
     /**
      * Constructor.
      *
@@ -170,6 +204,106 @@ public class InBandBytestreamSession implements BytestreamSession {
         this.closeBothStreamsEnabled = closeBothStreamsEnabled;
     }
 
+    /**
+     * Returns the maximum number of data IQs sent without waiting for their acknowledgement. Default is
+     * {@link #DEFAULT_WINDOW_SIZE}.
+     *
+     * @return the maximum window size
+     */
+    public int getMaxWindowSize() {
+        return maxWindowSize;
+    }
+
+    /**
+     * Sets the maximum number of data IQs sent without waiting for their acknowledgement. Has no effect on sessions
+     * using message stanzas.
+     *
+     * @param maxWindowSize the maximum window size; 1 sends each block after the acknowledgement of the previous one
+     */
+    public void setMaxWindowSize(int maxWindowSize) {
+        if (maxWindowSize < 1) {
+            throw new IllegalArgumentException("Window size must be >= 1");
+        }
+        this.maxWindowSize = maxWindowSize;
+    }
+
+    /**
+     * Returns the smoothed round trip of the data IQs sent in this session.
+     *
+     * @return the round trip in ms, or -1 if no data IQ has been acknowledged yet
+     */
+    public long getRoundTrip() {
+        if (outputStream instanceof IQIBBOutputStream) {
+            return ((IQIBBOutputStream) outputStream).getRoundTrip();
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the stanza type to open the next session to the given peer with: {@link StanzaType#MESSAGE} if the
+     * data IQs of the last session to the peer were acknowledged slower than the round trip threshold, which would
+     * throttle an IQ session even with a full window, otherwise {@link StanzaType#IQ}.
+     * <p>
+     * The stanza type is negotiated in the open request, so it cannot change within a session. Message stanzas are
+     * not acknowledged, so the round trip of a peer is only measured by IQ sessions; it expires after
+     * {@link #ROUND_TRIP_EXPIRY}, so that a peer falls back to message stanzas for a limited time only.
+     *
+     * @param remoteJID JID of the remote peer
+     * @return the stanza type to use
+     */
+    public static StanzaType getPreferredStanza(Jid remoteJID) {
+        long[] roundTrip = peerRoundTrips.get(remoteJID);
+        if (roundTrip == null) {
+            return StanzaType.IQ;
+        }
+        if (System.currentTimeMillis() - roundTrip[1] > ROUND_TRIP_EXPIRY) {
+            peerRoundTrips.remove(remoteJID, roundTrip);
+            return StanzaType.IQ;
+        }
+        return (roundTrip[0] > roundTripThreshold) ? StanzaType.MESSAGE : StanzaType.IQ;
+    }
+
+    /**
+     * Establishes an In-Band Bytestream with the given peer with the given block size and stanza type. Unlike
+     * {@link InBandBytestreamManager#establishSession(Jid, String)}, it leaves the default block size and stanza
+     * type of the manager, shared by all the sessions of the connection, unchanged.
+     *
+     * @param connection the XMPP connection
+     * @param targetJID the JID of the peer
+     * @param sessionID the session ID of the bytestream
+     * @param blockSize the maximum size of the data blocks
+     * @param stanza the stanza type to carry the data with
+     * @return the session to send and receive data with the peer
+     * @throws NoResponseException if there was no response from the peer.
+     * @throws XMPPErrorException if the peer rejected the bytestream.
+     * @throws NotConnectedException if the XMPP connection is not connected.
+     * @throws InterruptedException if the calling thread was interrupted.
+     */
+    public static InBandBytestreamSession establishSession(XMPPConnection connection, Jid targetJID, String sessionID,
+            int blockSize, StanzaType stanza)
+            throws NoResponseException, XMPPErrorException, NotConnectedException, InterruptedException {
+        Open byteStreamRequest = new Open(sessionID, blockSize, stanza);
+        byteStreamRequest.setTo(targetJID);
+
+        // sending packet will throw exception on timeout or error reply
+        connection.createStanzaCollectorAndSend(byteStreamRequest).nextResultOrThrow();
+
+        InBandBytestreamSession inBandBytestreamSession = new InBandBytestreamSession(connection, byteStreamRequest,
+                targetJID);
+        // Register the session for the data and close listeners of the manager
+        InBandBytestreamManager.getByteStreamManager(connection).getSessions().put(sessionID, inBandBytestreamSession);
+        return inBandBytestreamSession;
+    }
+
+    /**
+     * Sets the round trip above which {@link #getPreferredStanza(Jid)} falls back to message stanzas.
+     *
+     * @param threshold the round trip threshold in ms
+     */
+    public static void setRoundTripThreshold(long threshold) {
+        roundTripThreshold = threshold;
+    }
+
     @Override
     public void close() throws IOException {
         closeByLocal(true); // close input stream
@@ -750,6 +884,15 @@ public class InBandBytestreamSession implements BytestreamSession {
                 throw new IOException("Stream is closed");
             }
             flushBuffer();
+            awaitAcknowledgements();
+        }
+
+        /**
+         * Waits until the data sent so far has been acknowledged by the remote peer, if the stanza type allows.
+         *
+         * @throws IOException if the data was not acknowledged or the thread was interrupted
+         */
+        protected void awaitAcknowledgements() throws IOException {
         }
 
         private synchronized void flushBuffer() throws IOException {
@@ -804,6 +947,7 @@ public class InBandBytestreamSession implements BytestreamSession {
             try {
                 if (flush) {
                     flushBuffer();
+                    awaitAcknowledgements();
                 }
             }
             catch (IOException e) {
@@ -819,30 +963,145 @@ public class InBandBytestreamSession implements BytestreamSession {
     /**
      * IQIBBOutputStream class implements IBBOutputStream to be used with IQ stanzas encapsulating
      * the data packets.
+     * <p>
+     * The data IQs are sent asynchronously within a sliding window: a new IQ is sent as long as fewer than the window
+     * size IQs are unacknowledged. Acknowledgements arriving ahead of the window base are kept until the IQs before
+     * them are acknowledged. The window grows by one each time a window of IQs is acknowledged, up to
+     * {@link #getMaxWindowSize()}, and is halved when a round trip exceeds twice the smoothed round trip, i.e. when
+     * the data queues up on the way. An error response fails the stream, as the peer drops the session once a block
+     * is missing.
      */
     private class IQIBBOutputStream extends IBBOutputStream {
 
+        /* index of the oldest unacknowledged data IQ, the window base */
+        private long baseIndex = 0;
+
+        /* index of the next data IQ to send */
+        private long nextIndex = 0;
+
+        /* indexes of the data IQs acknowledged ahead of the window base */
+        private final Set<Long> earlyAcks = new HashSet<>();
+
+        /* send times of the unacknowledged data IQs, in ns */
+        private final Map<Long, Long> sendTimes = new HashMap<>();
+
+        /* current window size, between 1 and maxWindowSize */
+        private int window = Math.min(2, maxWindowSize);
+
+        /* acknowledgements since the window size last changed */
+        private int ackCount = 0;
+
+        /* smoothed round trip of the data IQs in ns, 0 until the first acknowledgement */
+        private long roundTrip = 0;
+
+        /* the error response or exception of a data IQ */
+        private Exception failure;
+
         @Override
-        protected synchronized void writeToXML(DataPacketExtension data) throws IOException {
+        protected synchronized void writeToXML(DataPacketExtension data) throws IOException, InterruptedException {
+            // wait for a free slot in the window
+            while (failure == null && nextIndex - baseIndex >= Math.min(window, maxWindowSize)) {
+                wait();
+            }
+            checkFailure();
+
             // create IQ stanza containing data packet
             IQ iq = new Data(data);
             iq.setTo(remoteJID);
 
+            final long index = nextIndex++;
+            sendTimes.put(index, System.nanoTime());
+            connection.sendIqRequestAsync(iq)
+                    .onSuccess(result -> acknowledged(index))
+                    .onError(exception -> failed(index, exception));
+        }
+
+        @Override
+        protected synchronized void awaitAcknowledgements() throws IOException {
             try {
-                connection.createStanzaCollectorAndSend(iq).nextResultOrThrow();
+                while (failure == null && baseIndex < nextIndex) {
+                    wait();
+                }
             }
-            catch (Exception e) {
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                IOException ioException = new IOException("Interrupted while waiting for acknowledgements");
+                ioException.initCause(e);
+                throw ioException;
+            }
+            checkFailure();
+        }
+
+        @Override
+        protected void closeInternal(boolean flush) {
+            super.closeInternal(flush);
+            long rtt = getRoundTrip();
+            if (rtt >= 0) {
+                peerRoundTrips.put(remoteJID, new long[]{rtt, System.currentTimeMillis()});
+            }
+        }
+
+        synchronized long getRoundTrip() {
+            return (roundTrip == 0) ? -1 : TimeUnit.NANOSECONDS.toMillis(roundTrip);
+        }
+
+        private synchronized void acknowledged(long index) {
+            Long sendTime = sendTimes.remove(index);
+            if (sendTime != null) {
+                adaptWindow(System.nanoTime() - sendTime);
+            }
+
+            if (index == baseIndex) {
+                baseIndex++;
+                while (earlyAcks.remove(baseIndex)) {
+                    baseIndex++;
+                }
+            }
+            else {
+                earlyAcks.add(index);
+            }
+            notifyAll();
+        }
+
+        private synchronized void failed(long index, Exception exception) {
+            sendTimes.remove(index);
+            if (failure == null) {
+                failure = exception;
+                LOGGER.log(Level.FINE, "IBB data " + index + " of session " + byteStreamRequest.getSessionID()
+                                + " failed", exception);
+            }
+            notifyAll();
+        }
+
+        private void adaptWindow(long sample) {
+            if (roundTrip == 0) {
+                roundTrip = sample;
+                return;
+            }
+
+            if (sample > 2 * roundTrip && window > 1) {
+                window = Math.max(1, window / 2);
+                ackCount = 0;
+            }
+            else if (++ackCount >= window && window < maxWindowSize) {
+                window++;
+                ackCount = 0;
+            }
+            roundTrip += (sample - roundTrip) / 8;
+        }
+
+        private void checkFailure() throws IOException {
+            if (failure != null) {
                 // close session unless it is already closed
                 if (!this.isClosed) {
                     InBandBytestreamSession.this.close();
-                    // Sadly we are unable to use the IOException(Throwable) constructor because this
-                    // constructor is only supported from Android API 9 on.
-                    IOException ioException = new IOException();
-                    ioException.initCause(e);
-                    throw ioException;
                 }
+                // Sadly we are unable to use the IOException(Throwable) constructor because this
+                // constructor is only supported from Android API 9 on.
+                IOException ioException = new IOException();
+                ioException.initCause(failure);
+                throw ioException;
             }
-
         }
 
     }
@@ -16,15 +16,17 @@
  */
 package org.jivesoftware.smackx.httpfileupload;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -35,8 +37,6 @@ import java.util.WeakHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
 import javax.crypto.NoSuchPaddingException;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
@@ -57,6 +57,7 @@ import org.jivesoftware.smackx.httpfileupload.UploadService.Version;
 import org.jivesoftware.smackx.httpfileupload.element.Slot;
 import org.jivesoftware.smackx.httpfileupload.element.SlotRequest;
 import org.jivesoftware.smackx.httpfileupload.element.SlotRequest_V0_2;
+import org.jivesoftware.smackx.omemo_media_sharing.AesgcmStreamCipher;
 import org.jivesoftware.smackx.omemo_media_sharing.AesgcmUrl;
 import org.jivesoftware.smackx.omemo_media_sharing.OmemoMediaSharingUtils;
 import org.jivesoftware.smackx.xdata.FormField;
@@ -92,6 +93,11 @@ public final class HttpFileUploadManager extends Manager {
 
     private static final Logger LOGGER = Logger.getLogger(HttpFileUploadManager.class.getName());
 
+    /**
+     * The minimum interval between two upload progress callbacks, in ms.
+     */
+    private static final long PROGRESS_INTERVAL = 250;
+
     static {
         XMPPConnectionRegistry.addConnectionCreationListener(connection -> getInstanceFor(connection));
     }
@@ -102,6 +108,11 @@ public final class HttpFileUploadManager extends Manager {
 
     private SSLSocketFactory tlsSocketFactory;
 
+    /**
+     * Number of further attempts of a failed file upload, each on a fresh slot.
+     */
+    private int uploadRetries = 0;
+
     /**
      * Obtain the HttpFileUploadManager responsible for a connection.
      *
@@ -265,12 +276,21 @@ public final class HttpFileUploadManager extends Manager {
         if (!file.isFile()) {
             throw new FileNotFoundException("The path " + file.getAbsolutePath() + " is not a file");
         }
-        final Slot slot = requestSlot(file.getName(), file.length(), "application/octet-stream");
         final long fileSize = file.length();
-        // Construct the FileInputStream first to make sure we can actually read the file.
-        final FileInputStream fis = new FileInputStream(file);
-        upload(fis, fileSize, slot, listener);
-        return slot.getGetUrl();
+        for (int attempt = 0; ; attempt++) {
+            final Slot slot = requestSlot(file.getName(), fileSize, "application/octet-stream");
+            // Construct the FileInputStream first to make sure we can actually read the file.
+            final FileInputStream fis = new FileInputStream(file);
+            try {
+                upload(fis, null, fileSize, slot, listener);
+                return slot.getGetUrl();
+            } catch (IOException e) {
+                if (attempt >= uploadRetries) {
+                    throw e;
+                }
+                LOGGER.log(Level.WARNING, "File upload failed, retry with a fresh slot: " + e.getMessage());
+            }
+        }
     }
 
     /**
@@ -315,7 +335,7 @@ public final class HttpFileUploadManager extends Manager {
             throw new IllegalArgumentException("File size cannot be negative");
         }
         final Slot slot = requestSlot(fileName, fileSize, "application/octet-stream");
-        upload(inputStream, fileSize, slot, listener);
+        upload(inputStream, null, fileSize, slot, listener);
         return slot.getGetUrl();
     }
 
@@ -387,22 +407,38 @@ public final class HttpFileUploadManager extends Manager {
         }
 
         // The encrypted file will contain an extra block with the AEAD MAC.
-        long cipherFileLength = file.length() + 16;
-
-        final Slot slot = requestSlot(file.getName(), cipherFileLength, "application/octet-stream");
-        URL slotUrl = slot.getGetUrl();
+        long cipherFileLength = file.length() + AesgcmStreamCipher.TAG_LENGTH;
 
         // fresh AES key + iv
         byte[] key = OmemoMediaSharingUtils.generateRandomKey();
         byte[] iv = OmemoMediaSharingUtils.generateRandomIV();
-        Cipher cipher = OmemoMediaSharingUtils.encryptionCipherFrom(key, iv);
 
-        FileInputStream fis = new FileInputStream(file);
-        // encrypt the file on the fly - encryption actually happens below in uploadFile()
-        CipherInputStream cis = new CipherInputStream(fis, cipher);
+        for (int attempt = 0; ; attempt++) {
+            final Slot slot = requestSlot(file.getName(), cipherFileLength, "application/octet-stream");
+            FileInputStream fis = new FileInputStream(file);
+            // encrypt the file on the fly - encryption actually happens in the upload pipeline
+            AesgcmStreamCipher cipher = streamCipherFrom(key, iv);
+            try {
+                upload(fis, cipher, cipherFileLength, slot, listener);
+                return new AesgcmUrl(slot.getGetUrl(), key, iv);
+            } catch (IOException e) {
+                if (attempt >= uploadRetries) {
+                    throw e;
+                }
+                LOGGER.log(Level.WARNING, "File upload failed, retry with a fresh slot: " + e.getMessage());
+            }
+        }
+    }
 
-        upload(cis, cipherFileLength, slot, listener);
-        return new AesgcmUrl(slotUrl, key, iv);
+    private static AesgcmStreamCipher streamCipherFrom(byte[] key, byte[] iv) throws NoSuchPaddingException,
+            NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException {
+        try {
+            return new AesgcmStreamCipher(key, iv);
+        } catch (NoSuchPaddingException | NoSuchAlgorithmException | InvalidKeyException e) {
+            throw e;
+        } catch (GeneralSecurityException e) {
+            throw new InvalidAlgorithmParameterException(e);
+        }
     }
 
     /**
@@ -511,6 +547,16 @@ public final class HttpFileUploadManager extends Manager {
         return connection.createStanzaCollectorAndSend(slotRequest).nextResultOrThrow();
     }
 
+    /**
+     * Sets the number of times a failed file upload is retried. XEP-0363 has no way to resume an upload, so each
+     * retry requests a fresh slot and uploads the whole file again.
+     *
+     * @param retries the number of retries; 0 (the default) to give up on the first failure
+     */
+    public void setUploadRetries(int retries) {
+        this.uploadRetries = Math.max(0, retries);
+    }
+
     public void setTlsContext(SSLContext tlsContext) {
         if (tlsContext == null) {
             return;
@@ -518,7 +564,8 @@ public final class HttpFileUploadManager extends Manager {
         this.tlsSocketFactory = tlsContext.getSocketFactory();
     }
 
-    private void upload(InputStream iStream, long fileSize, Slot slot, UploadProgressListener listener) throws IOException {
+    private void upload(InputStream iStream, AesgcmStreamCipher cipher, long fileSize, Slot slot,
+            UploadProgressListener listener) throws IOException {
         final URL putUrl = slot.getPutUrl();
         final XMPPConnection connection = connection();
         final HttpURLConnection urlConnection = createURLConnection(connection, putUrl);
@@ -538,37 +585,37 @@ public final class HttpFileUploadManager extends Manager {
             httpsUrlConnection.setSSLSocketFactory(tlsSocketFactory);
         }
 
+        // Read and encrypt ahead on the producer thread while this thread writes to the connection.
+        final UploadPipeline pipeline = new UploadPipeline(iStream, cipher);
+        pipeline.start();
         try {
+            final long startTime = System.currentTimeMillis();
             OutputStream outputStream = urlConnection.getOutputStream();
 
             long bytesSend = 0;
+            long progressTime = 0;
 
             if (listener != null) {
                 listener.onUploadProgress(0, fileSize);
             }
 
-            BufferedInputStream inputStream = new BufferedInputStream(iStream);
-
-            // TODO Factor in extra static method (and re-use e.g. in bytestream code).
-            byte[] buffer = new byte[4096];
-            int bytesRead;
             try {
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
-                    bytesSend += bytesRead;
-
-                    if (listener != null) {
+                ByteBuffer buffer;
+                while ((buffer = pipeline.take()) != null) {
+                    outputStream.write(buffer.array(), 0, buffer.limit());
+                    bytesSend += buffer.limit();
+                    pipeline.release(buffer);
+
+                    long now = System.currentTimeMillis();
+                    if (listener != null && (now - progressTime >= PROGRESS_INTERVAL || bytesSend == fileSize)) {
+                        progressTime = now;
                         listener.onUploadProgress(bytesSend, fileSize);
                     }
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("File upload interrupted");
             } finally {
-                try {
-                    inputStream.close();
-                }
-                // Must include IllegalStateException: GCM cipher cannot be reused for encryption (happen on Note-5)
-                catch (IOException | IllegalStateException e) {
-                    LOGGER.log(Level.WARNING, "Exception while closing input stream", e);
-                }
                 try {
                     outputStream.close();
                 } catch (IOException e) {
@@ -576,6 +623,7 @@ public final class HttpFileUploadManager extends Manager {
                 }
             }
 
+            final long sentTime = System.currentTimeMillis();
             int status = urlConnection.getResponseCode();
             switch (status) {
                 case HttpURLConnection.HTTP_OK:
@@ -587,7 +635,13 @@ public final class HttpFileUploadManager extends Manager {
                             + urlConnection.getResponseMessage() + ", file size: " + fileSize + ", put URL: "
                             + putUrl);
             }
+
+            long sendDuration = Math.max(1, sentTime - startTime);
+            LOGGER.log(Level.INFO, "Uploaded " + bytesSend + " bytes in " + sendDuration + " ms ("
+                    + bytesSend * 1000 / 1024 / sendDuration + " KB/s), server response after "
+                    + (System.currentTimeMillis() - sentTime) + " ms");
         } finally {
+            pipeline.abort();
             urlConnection.disconnect();
         }
     }
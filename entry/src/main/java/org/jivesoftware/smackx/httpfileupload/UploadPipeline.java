@@ -0,0 +1,163 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.httpfileupload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smackx.omemo_media_sharing.AesgcmStreamCipher;
+
+/**
+ * The read-ahead stage of an http file upload: a producer thread reads, and optionally aesgcm: encrypts, the source
+ * into a small pool of large buffers, while the uploading thread writes the filled buffers to the connection. Disk
+ * reads and encryption so overlap with the network writes.
+ *
+ * @author Eng Chong Meng
+ */
+final class UploadPipeline implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger(UploadPipeline.class.getName());
+
+    static final int BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Number of buffers in flight between the producer and the uploading thread.
+     */
+    private static final int POOL_SIZE = 4;
+
+    private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+
+    private final InputStream source;
+    private final AesgcmStreamCipher cipher;
+
+    private final BlockingQueue<ByteBuffer> freeBuffers = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    /* One more slot than the pool, so the END_OF_STREAM marker never blocks */
+    private final BlockingQueue<ByteBuffer> filledBuffers = new ArrayBlockingQueue<>(POOL_SIZE + 1);
+
+    private volatile IOException failure;
+
+    private Thread producer;
+
+    /**
+     * Creates the pipeline for the given source.
+     *
+     * @param source the data to upload; closed by the pipeline
+     * @param cipher the aesgcm: cipher to encrypt the data with, the tag is appended at the end; null to upload the
+     *         data as is
+     */
+    UploadPipeline(InputStream source, AesgcmStreamCipher cipher) {
+        this.source = source;
+        this.cipher = cipher;
+        int capacity = (cipher == null) ? BUFFER_SIZE : BUFFER_SIZE + AesgcmStreamCipher.TAG_LENGTH;
+        for (int i = 0; i < POOL_SIZE; i++) {
+            freeBuffers.add(ByteBuffer.allocate(capacity));
+        }
+    }
+
+    void start() {
+        producer = new Thread(this, "HttpFileUpload Producer");
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    /**
+     * Returns the next filled buffer, to be given back with {@link #release(ByteBuffer)} once written.
+     *
+     * @return the next buffer, or null at the end of the data
+     * @throws IOException if reading the source failed
+     * @throws InterruptedException if the calling thread was interrupted
+     */
+    ByteBuffer take() throws IOException, InterruptedException {
+        ByteBuffer buffer = filledBuffers.take();
+        if (buffer == END_OF_STREAM) {
+            if (failure != null) {
+                throw failure;
+            }
+            return null;
+        }
+        return buffer;
+    }
+
+    void release(ByteBuffer buffer) {
+        freeBuffers.offer(buffer);
+    }
+
+    /**
+     * Stops the producer thread, e.g. when the upload failed.
+     */
+    void abort() {
+        if (producer != null) {
+            producer.interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        byte[] plain = (cipher == null) ? null : new byte[BUFFER_SIZE];
+        try {
+            int count;
+            do {
+                ByteBuffer buffer = freeBuffers.take();
+                byte[] data = buffer.array();
+                if (cipher == null) {
+                    count = readFully(source, data);
+                    buffer.clear().limit(count);
+                } else {
+                    count = readFully(source, plain);
+                    int length = cipher.encrypt(plain, 0, count, data, 0);
+                    if (count < BUFFER_SIZE) {
+                        byte[] tag = cipher.getTag();
+                        System.arraycopy(tag, 0, data, length, tag.length);
+                        length += tag.length;
+                    }
+                    buffer.clear().limit(length);
+                }
+                if (buffer.hasRemaining()) {
+                    filledBuffers.put(buffer);
+                }
+            } while (count == BUFFER_SIZE);
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            // Aborted by the uploading thread
+        } finally {
+            try {
+                source.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Exception while closing input stream", e);
+            }
+            filledBuffers.offer(END_OF_STREAM);
+        }
+    }
+
+    /**
+     * Fills the buffer from the stream; a short count means the end of the stream.
+     */
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int count = 0;
+        int n;
+        while (count < buffer.length && (n = in.read(buffer, count, buffer.length - count)) != -1) {
+            count += n;
+        }
+        return count;
+    }
+}
@@ -181,6 +181,9 @@ public class JingleContentImpl implements JingleTransportCallback, JingleSecurit
         getParent().notifySessionAccepted();
 
         mConnection = connection;
+        if (description != null) {
+            description.handleSessionAccept(contentElement.getDescription());
+        }
         getTransport().handleSessionAccept(contentElement.getTransport(), mConnection);
         start(mConnection);
         return IQ.createResultIQ(request);
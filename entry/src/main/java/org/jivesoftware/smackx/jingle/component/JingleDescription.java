@@ -41,6 +41,15 @@ public abstract class JingleDescription<D extends JingleContentDescription> {
 
     public abstract Jingle handleDescriptionInfo(JingleContentDescriptionInfo info);
 
+    /**
+     * Called on the session initiator with the description of the remote session-accept, before the transfer
+     * starts; e.g. for a responder requested file range.
+     *
+     * @param description the content description of the session-accept; may be null
+     */
+    public void handleSessionAccept(JingleContentDescription description) {
+    }
+
     public JingleContentImpl getParent() {
         return parent;
     }
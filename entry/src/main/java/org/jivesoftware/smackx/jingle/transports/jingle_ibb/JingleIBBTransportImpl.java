@@ -118,10 +118,15 @@ public class JingleIBBTransportImpl extends JingleTransport<JingleIBBTransport>
 
     @Override
     public void establishOutgoingBytestreamSession(final XMPPConnection connection, final JingleTransportCallback callback, final JingleSessionImpl session) {
-        InBandBytestreamManager inBandBytestreamManager = InBandBytestreamManager.getByteStreamManager(connection);
-        inBandBytestreamManager.setDefaultBlockSize(blockSize);
+        // Use message stanzas if the data IQs to the peer were acknowledged too slowly in the last session;
+        // set for this session only, the InBandBytestreamManager is shared by all the sessions of the connection.
+        InBandBytestreamManager.StanzaType stanza = InBandBytestreamSession.getPreferredStanza(session.getRemote());
+        if (stanza != InBandBytestreamManager.StanzaType.IQ) {
+            LOGGER.log(Level.INFO, "IBB stream to " + session.getRemote() + " uses " + stanza + " stanzas");
+        }
         try {
-            InBandBytestreamSession ibbSession= inBandBytestreamManager.establishSession(session.getRemote(), getStreamId());
+            InBandBytestreamSession ibbSession = InBandBytestreamSession.establishSession(connection,
+                    session.getRemote(), getStreamId(), blockSize, stanza);
 
             // Must close both input and output streams to trigger sending of IBB <close/> element as defined in XEP-0047
             ibbSession.setCloseBothStreamsEnabled(true);
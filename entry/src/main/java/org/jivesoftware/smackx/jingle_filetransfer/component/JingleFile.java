@@ -19,11 +19,16 @@ package org.jivesoftware.smackx.jingle_filetransfer.component;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.security.DigestInputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Date;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
+import org.jivesoftware.smack.util.Async;
 import org.jivesoftware.smackx.hashes.HashManager;
 import org.jivesoftware.smackx.hashes.element.HashElement;
 import org.jivesoftware.smackx.jingle_filetransfer.element.JingleFileTransferChild;
@@ -40,6 +45,8 @@ import org.jivesoftware.smackx.thumbnail.element.Thumbnail;
  * @author Eng Chong Meng
  */
 public class JingleFile extends JingleFileTransferChild {
+    private static final int HASH_BUFFER_SIZE = 1024 * 1024;
+
     public JingleFile(Date date, String desc, HashElement hash, String mediaType, String name, int size, Thumbnail thumbnail) {
         super(date, desc, hash, mediaType, name, size, new Range(0, size), thumbnail);
     }
@@ -49,12 +56,43 @@ public class JingleFile extends JingleFileTransferChild {
                 element.getName(), element.getSize(), element.getRange(), element.getThumbnail());
     }
 
+    public JingleFile(JingleFileTransferChild element, Range range) {
+        super(element.getDate(), element.getDescription(), element.getHash(), element.getMediaType(),
+                element.getName(), element.getSize(), range, element.getThumbnail());
+    }
+
+    /**
+     * Create the JingleFile of a local file. The hash, if requested, is calculated on a separate thread while the
+     * thumbnail is being generated.
+     */
     public static JingleFile fromFile(File file, String desc, String mediaType, HashManager.ALGORITHM hashAlgorithm) throws NoSuchAlgorithmException, IOException {
-        HashElement hash = null;
+        FutureTask<HashElement> hashTask = null;
         if (hashAlgorithm != null) {
-            hash = calculateHash(file, hashAlgorithm);
+            hashTask = new FutureTask<>(() -> calculateHash(file, hashAlgorithm));
+            Async.go(hashTask, "JingleFile hash " + file.getName());
         }
         Thumbnail thumbnail = Thumbnail.fromFile(file);
+
+        HashElement hash = null;
+        if (hashTask != null) {
+            try {
+                hash = hashTask.get();
+            } catch (InterruptedException e) {
+                hashTask.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while hashing " + file.getName());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof NoSuchAlgorithmException) {
+                    throw (NoSuchAlgorithmException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
         return new JingleFile(new Date(file.lastModified()), desc, hash, mediaType, file.getName(), (int) file.length(), thumbnail);
     }
 
@@ -68,15 +106,15 @@ public class JingleFile extends JingleFileTransferChild {
             throw new NoSuchAlgorithmException("No algorithm for " + algorithm + " found.");
         }
 
-        FileInputStream fi = new FileInputStream(file);
-        DigestInputStream di = new DigestInputStream(fi, digest);
-
-        while (di.available() > 0) {
-            di.read();
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
         }
-
-        byte[] d = di.getMessageDigest().digest();
-        return new HashElement(algorithm, d);
+        return new HashElement(algorithm, digest.digest());
     }
 
     public JingleFileTransferChild getElement() {
@@ -16,12 +16,15 @@
  */
 package org.jivesoftware.smackx.jingle_filetransfer.component;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.security.DigestInputStream;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.logging.Level;
@@ -39,6 +42,7 @@ import org.jivesoftware.smackx.jingle.element.JingleContentDescriptionInfo;
 import org.jivesoftware.smackx.jingle.element.JingleReason;
 import org.jivesoftware.smackx.jingle_filetransfer.controller.IncomingFileOfferController;
 import org.jivesoftware.smackx.jingle_filetransfer.element.JingleFileTransferChild;
+import org.jivesoftware.smackx.jingle_filetransfer.element.Range;
 
 /**
  * Behind the scenes logic of an incoming Jingle file offer.
@@ -51,6 +55,13 @@ public class JingleIncomingFileOffer extends AbstractJingleFileOffer implements
     private static final Logger LOGGER = Logger.getLogger(JingleIncomingFileOffer.class.getName());
     private OutputStream target;
 
+    /* The accepted target file, and the length of its part received by an earlier broken transfer */
+    private File mTargetFile = null;
+    private long mResumeOffset = 0;
+
+    /* Suffix of the marker file kept next to a partially received target, for the transfer to be resumed */
+    private static final String RESUME_MARKER_SUFFIX = ".resume";
+
     public JingleIncomingFileOffer(JingleFileTransferChild offer) {
         super(new JingleFile(offer));
         mState = State.pending;
@@ -77,39 +88,52 @@ public class JingleIncomingFileOffer extends AbstractJingleFileOffer implements
             LOGGER.log(Level.INFO, "File offer had checksum: " + digest.toString());
         }
 
-        LOGGER.log(Level.INFO, "Receiving file");
+        LOGGER.log(Level.INFO, "Receiving file from offset " + mResumeOffset);
+        // Writing and hashing run on a separate stage, so this thread only reads from the bytestream.
+        ReceiveStage stage = new ReceiveStage(target, digest, mTargetFile, mResumeOffset);
+        stage.start();
+        byte[] mDigest = null;
+        boolean completed = false;
         InputStream inputStream = null;
         try {
             inputStream = bytestreamSession.getInputStream();
 
-            if (digest != null) {
-                inputStream = new DigestInputStream(inputStream, digest);
-            }
-
             int length;
-            int readByte = 0;
+            int readByte = (int) mResumeOffset;
             long fileSize = metadata.getSize();
-            byte[] bufbuf = new byte[4096];
-            while ((length = inputStream.read(bufbuf)) >= 0) {
+            while (readByte < fileSize) {
+                ByteBuffer buffer = stage.obtain();
+                length = inputStream.read(buffer.array(), 0, (int) Math.min(buffer.capacity(), fileSize - readByte));
+                if (length < 0) {
+                    break;
+                }
                 // User cancels incoming file transfer in active progress.
                 if (mState == State.cancelled) {
                     LOGGER.log(Level.INFO, "User canceled file offer in active transfer.");
                     break;
                 }
 
-                target.write(bufbuf, 0, length);
+                buffer.limit(length);
+                stage.submit(buffer);
                 readByte += length;
                 // LOGGER.log(Level.INFO, "Read " + readByte + " (" + length + ") of " + fileSize + " bytes.");
                 notifyProgressListeners(readByte);
-                if (readByte == fileSize) {
-                    break;
-                }
             }
+            completed = (readByte >= fileSize);
+            mDigest = stage.finish();
             LOGGER.log(Level.INFO, "Reading/Writing finished.");
+            // The peer closed the stream before the end of the file
+            if (!completed && mState != State.cancelled) {
+                notifyProgressListenersOnError(JingleReason.Reason.connectivity_error,
+                        "Stream closed at " + readByte + " of " + fileSize + " bytes");
+            }
         } catch (IOException e) {
+            completed = false;
             LOGGER.log(Level.SEVERE, "Cannot get InputStream from BytestreamSession: " + e, e);
             notifyProgressListenersOnError(JingleReason.Reason.connectivity_error, e.getMessage());
         } finally {
+            // No-op once finished; else stop the write stage thread on any failure
+            stage.abort();
             mState = State.ended;
             if (inputStream != null) {
                 try {
@@ -130,14 +154,27 @@ public class JingleIncomingFileOffer extends AbstractJingleFileOffer implements
             }
         }
 
-        if (digest != null) {
-            byte[] mDigest = ((DigestInputStream) inputStream).getMessageDigest().digest();
+        // A partial file never matches the checksum; it is kept with its marker for the transfer to be resumed
+        if (completed && mDigest != null) {
             if (!Arrays.equals(hashElement.getHash(), mDigest)) {
                 LOGGER.log(Level.WARNING, "CHECKSUM MISMATCH!");
+                // The received file is corrupted; it must not be kept nor resumed.
+                if (mTargetFile != null) {
+                    getResumeMarker(mTargetFile).delete();
+                    mTargetFile.delete();
+                }
+                notifyProgressListenersOnError(JingleReason.Reason.media_error, "File checksum mismatch");
+                getParent().getParent().terminateSession(
+                        new JingleReason(JingleReason.Reason.media_error, "checksum mismatch", null));
+                return;
             } else {
                 LOGGER.log(Level.INFO, "CHECKSUM MATCHED :)");
             }
         }
+        // Keep the marker of an incomplete file, for the transfer to be resumed
+        if (completed && mTargetFile != null) {
+            getResumeMarker(mTargetFile).delete();
+        }
 
         notifyProgressListenersFinished();
         getParent().onContentFinished();
@@ -159,11 +196,22 @@ public class JingleIncomingFileOffer extends AbstractJingleFileOffer implements
             SmackException.NoResponseException, IOException {
         mState = State.negotiating;
 
-        if (!target.exists()) {
-            target.createNewFile();
+        if (canResume(target)) {
+            // Resume a broken transfer: request the rest of the file with the Range in the session-accept.
+            long length = target.length();
+            int fileSize = metadata.getSize();
+            mResumeOffset = length;
+            metadata = new JingleFile(metadata, new Range((int) length, fileSize - (int) length));
+            this.target = new FileOutputStream(target, true);
+        } else {
+            if (!target.exists()) {
+                target.createNewFile();
+            }
+            mResumeOffset = 0;
+            this.target = new FileOutputStream(target);
+            writeResumeMarker(target);
         }
-
-        this.target = new FileOutputStream(target);
+        mTargetFile = target;
 
         JingleSessionImpl session = getParent().getParent();
         if (session.getSessionState() == JingleSessionImpl.SessionState.pending) {
@@ -171,6 +219,62 @@ public class JingleIncomingFileOffer extends AbstractJingleFileOffer implements
         }
     }
 
+    /**
+     * A target is resumed only if it is shorter than the offered file, and its resume marker, written when the
+     * broken transfer was accepted, records the same file hash and size as this offer. The received part is then
+     * verified by the checksum of the whole file when the transfer completes.
+     *
+     * @param target the existing target file
+     * @return true if the transfer can resume into the target file
+     */
+    @Override
+    public boolean canResume(File target) {
+        String resumeTag = getResumeTag();
+        long length = target.length();
+        if (resumeTag == null || !target.isFile() || length <= 0 || length >= metadata.getSize()) {
+            return false;
+        }
+
+        File marker = getResumeMarker(target);
+        if (!marker.isFile()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(marker))) {
+            return resumeTag.equals(in.readUTF());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not read resume marker: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Records the offered file hash and size next to a new target, for a broken transfer to be resumed.
+     * Without a hash in the offer the received part could not be verified, and the transfer is not resumable.
+     */
+    private void writeResumeMarker(File target) {
+        File marker = getResumeMarker(target);
+        String resumeTag = getResumeTag();
+        if (resumeTag == null) {
+            marker.delete();
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(marker))) {
+            out.writeUTF(resumeTag);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not write resume marker: " + e);
+        }
+    }
+
+    private String getResumeTag() {
+        HashElement hashElement = metadata.getHash();
+        return (hashElement == null) ? null
+                : hashElement.getAlgorithm() + ":" + hashElement.getHashB64() + ":" + metadata.getSize();
+    }
+
+    private static File getResumeMarker(File target) {
+        return new File(target.getParentFile(), "." + target.getName() + RESUME_MARKER_SUFFIX);
+    }
+
     @Override
     public void accept(XMPPConnection connection, OutputStream stream)
             throws InterruptedException, XMPPException.XMPPErrorException, SmackException.NotConnectedException,
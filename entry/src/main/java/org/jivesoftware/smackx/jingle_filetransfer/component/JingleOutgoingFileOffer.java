@@ -16,6 +16,7 @@
  */
 package org.jivesoftware.smackx.jingle_filetransfer.component;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -25,11 +26,15 @@ import java.io.OutputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smackx.bytestreams.BytestreamSession;
 import org.jivesoftware.smackx.jingle.element.Jingle;
+import org.jivesoftware.smackx.jingle.element.JingleContentDescription;
 import org.jivesoftware.smackx.jingle.element.JingleContentDescriptionInfo;
 import org.jivesoftware.smackx.jingle.element.JingleReason;
 import org.jivesoftware.smackx.jingle_filetransfer.controller.OutgoingFileOfferController;
+import org.jivesoftware.smackx.jingle_filetransfer.element.JingleFileTransferChild;
+import org.jivesoftware.smackx.jingle_filetransfer.element.Range;
 
 /**
  * Behind the scenes logic of an outgoing Jingle file offer.
@@ -39,8 +44,17 @@ import org.jivesoftware.smackx.jingle_filetransfer.controller.OutgoingFileOfferC
  */
 public class JingleOutgoingFileOffer extends AbstractJingleFileOffer implements OutgoingFileOfferController {
     private static final Logger LOGGER = Logger.getLogger(JingleOutgoingFileOffer.class.getName());
+
+    /**
+     * The send buffer size; a large buffer keeps the SOCKS5 socket writes big.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private final InputStream mSource;
 
+    /* The file range requested by the responder in its session-accept; the whole file if none */
+    private Range mRange = null;
+
     public JingleOutgoingFileOffer(File file, JingleFile metadata) throws FileNotFoundException {
         super(metadata);
         mSource = new FileInputStream(file);
@@ -57,6 +71,29 @@ public class JingleOutgoingFileOffer extends AbstractJingleFileOffer implements
         return null;
     }
 
+    /**
+     * Takes the file range of a responder resuming an earlier broken transfer of the file.
+     */
+    @Override
+    public void handleSessionAccept(JingleContentDescription description) {
+        if (description == null) {
+            return;
+        }
+        for (ExtensionElement child : description.getJingleContentDescriptionChildren()) {
+            if (child instanceof JingleFileTransferChild) {
+                Range range = ((JingleFileTransferChild) child).getRange();
+                int size = metadata.getSize();
+                if (range != null && range.getOffset() > 0 && range.getOffset() < size) {
+                    int length = range.getLength() > 0 ? Math.min(range.getLength(), size - range.getOffset())
+                            : size - range.getOffset();
+                    mRange = new Range(range.getOffset(), length);
+                    LOGGER.log(Level.INFO, "Responder resumes file transfer at offset " + range.getOffset());
+                }
+                return;
+            }
+        }
+    }
+
     @Override
     public void onBytestreamReady(BytestreamSession bytestreamSession) {
         if (mSource == null) {
@@ -70,13 +107,22 @@ public class JingleOutgoingFileOffer extends AbstractJingleFileOffer implements
         try {
             outputStream = bytestreamSession.getOutputStream();
 
+            // The transport streams have no channel to transferTo(); copy through a large buffer instead.
             int writeByte = 0;
-            byte[] buf = new byte[8192];
-            while (true) {
-                int length = mSource.read(buf);
+            long remaining = Long.MAX_VALUE;
+            if (mRange != null) {
+                skipFully(mSource, mRange.getOffset());
+                writeByte = mRange.getOffset();
+                remaining = mRange.getLength();
+            }
+
+            byte[] buf = new byte[BUFFER_SIZE];
+            while (remaining > 0) {
+                int length = mSource.read(buf, 0, (int) Math.min(buf.length, remaining));
                 if (length < 0) {
                     break;
                 }
+                remaining -= length;
                 // User cancels JFT file transfer in active data streaming.
                 if (mState == State.cancelled) {
                     LOGGER.log(Level.INFO, "User canceled file offer in active streaming.");
@@ -105,6 +151,19 @@ public class JingleOutgoingFileOffer extends AbstractJingleFileOffer implements
         notifyProgressListenersFinished();
     }
 
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("File shorter than the requested range offset");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
     @Override
     public boolean isOffer() {
         return true;
@@ -0,0 +1,184 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.jingle_filetransfer.component;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The write stage of an incoming Jingle file transfer: a separate thread writes the received buffers to the target
+ * and updates the file hash, so that the receive thread only reads from the bytestream.
+ * <p>
+ * When the transfer resumes a broken one, the stage first hashes the part of the file already on disk, so the
+ * digest covers the whole file.
+ *
+ * @author Eng Chong Meng
+ */
+final class ReceiveStage implements Runnable {
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Number of buffers in flight between the receive thread and the write stage.
+     */
+    private static final int POOL_SIZE = 8;
+
+    private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+
+    private final OutputStream target;
+    private final MessageDigest digest;
+    private final File prefixFile;
+    private final long prefixLength;
+
+    private final BlockingQueue<ByteBuffer> freeBuffers = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    /* One more slot than the pool, so the END_OF_STREAM marker never blocks */
+    private final BlockingQueue<ByteBuffer> filledBuffers = new ArrayBlockingQueue<>(POOL_SIZE + 1);
+
+    private volatile IOException failure;
+
+    private Thread writer;
+
+    /**
+     * Creates the write stage.
+     *
+     * @param target the stream to write the file to
+     * @param digest the file digest to update; may be null
+     * @param prefixFile the file holding the data received before the current range; may be null
+     * @param prefixLength the length of that data
+     */
+    ReceiveStage(OutputStream target, MessageDigest digest, File prefixFile, long prefixLength) {
+        this.target = target;
+        this.digest = digest;
+        this.prefixFile = prefixFile;
+        this.prefixLength = prefixLength;
+        for (int i = 0; i < POOL_SIZE; i++) {
+            freeBuffers.add(ByteBuffer.allocate(BUFFER_SIZE));
+        }
+    }
+
+    void start() {
+        writer = new Thread(this, "Jingle file receive stage");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Returns an empty buffer to receive the next data in.
+     *
+     * @return an empty buffer
+     * @throws IOException if the write stage has failed
+     */
+    ByteBuffer obtain() throws IOException {
+        try {
+            ByteBuffer buffer = freeBuffers.take();
+            if (failure != null) {
+                throw failure;
+            }
+            buffer.clear();
+            return buffer;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while receiving file");
+        }
+    }
+
+    /**
+     * Queues the received data for writing.
+     *
+     * @param buffer a buffer from {@link #obtain()}, with its limit at the end of the data
+     */
+    void submit(ByteBuffer buffer) {
+        filledBuffers.offer(buffer);
+    }
+
+    /**
+     * Waits for the queued data to be written.
+     *
+     * @return the file digest, or null if no digest is computed
+     * @throws IOException if writing failed
+     */
+    byte[] finish() throws IOException {
+        filledBuffers.offer(END_OF_STREAM);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing file");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return (digest == null) ? null : digest.digest();
+    }
+
+    /**
+     * Stops the write stage without waiting for the queued data; does nothing once finished.
+     */
+    void abort() {
+        if (writer != null) {
+            writer.interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (digest != null && prefixFile != null && prefixLength > 0) {
+                hashPrefix();
+            }
+            ByteBuffer buffer;
+            while ((buffer = filledBuffers.take()) != END_OF_STREAM) {
+                target.write(buffer.array(), 0, buffer.limit());
+                if (digest != null) {
+                    digest.update(buffer.array(), 0, buffer.limit());
+                }
+                freeBuffers.offer(buffer);
+            }
+        } catch (IOException | RuntimeException e) {
+            failure = (e instanceof IOException) ? (IOException) e : new IOException(e);
+            // Unblock the receive thread waiting in obtain()
+            freeBuffers.offer(ByteBuffer.allocate(BUFFER_SIZE));
+        } catch (InterruptedException e) {
+            // Aborted by the receive thread
+        }
+    }
+
+    private void hashPrefix() throws IOException {
+        try (FileChannel channel = new FileInputStream(prefixFile).getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            long remaining = prefixLength;
+            while (remaining > 0) {
+                buffer.clear().limit((int) Math.min(BUFFER_SIZE, remaining));
+                int count = channel.read(buffer);
+                if (count < 0) {
+                    throw new IOException("Partial file shorter than the resume offset");
+                }
+                buffer.flip();
+                digest.update(buffer);
+                remaining -= count;
+            }
+        }
+    }
+}
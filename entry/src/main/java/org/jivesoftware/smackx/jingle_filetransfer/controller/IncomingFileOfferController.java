@@ -35,4 +35,13 @@ public interface IncomingFileOfferController extends JingleFileTransferControlle
     void accept(XMPPConnection connection, File target) throws InterruptedException, XMPPException.XMPPErrorException, SmackException.NotConnectedException, SmackException.NoResponseException, IOException;
 
     void accept(XMPPConnection connection, OutputStream outputStream) throws InterruptedException, XMPPException.XMPPErrorException, SmackException.NotConnectedException, SmackException.NoResponseException, IOException;
+
+    /**
+     * Checks if the target file holds the part of this offered file received by an earlier broken transfer;
+     * accepting into it then resumes the transfer.
+     *
+     * @param target the existing target file
+     * @return true if the transfer can resume into the target file
+     */
+    boolean canResume(File target);
 }
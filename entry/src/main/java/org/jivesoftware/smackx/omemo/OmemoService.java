@@ -30,8 +30,18 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -108,6 +118,38 @@ public abstract class OmemoService<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey,
 
     private static final long MILLIS_PER_HOUR = 1000L * 60 * 60;
 
+    /**
+     * Maximum number of bundle fetches in flight at any time.
+     */
+    private static final int MAX_CONCURRENT_BUNDLE_FETCHES = 8;
+
+    /**
+     * Maximum time in ms to wait for the next bundle fetch to complete, before the remaining fetches are given up.
+     */
+    private static final long BUNDLE_FETCH_TIMEOUT = 30000;
+
+    /**
+     * Time in ms a failure to fetch a bundle is remembered, during which the bundle is not fetched again.
+     */
+    private static final long FAILED_BUNDLE_CACHE_TTL = 60 * 1000L;
+
+    /**
+     * Executor fetching the bundles of the devices we have no session with concurrently.
+     */
+    private static final ExecutorService bundleFetchExecutor
+            = Executors.newFixedThreadPool(MAX_CONCURRENT_BUNDLE_FETCHES, r -> {
+                Thread thread = new Thread(r, "OMEMO bundle fetch");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * Failures to fetch the bundles of contacts devices when building missing sessions. Fetched bundles are not
+     * cached: a session built from a bundle consumes the one-time prekey it selected, which a cached copy would
+     * offer again.
+     */
+    private final Map<OmemoDevice, FailedBundleFetch> failedBundleFetches = new ConcurrentHashMap<>();
+
     private static OmemoService<?, ?, ?, ?, ?, ?, ?, ?, ?> INSTANCE;
 
     private OmemoStore<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey, T_Sess, T_Addr, T_ECPub, T_Bundle, T_Ciph> omemoStore;
@@ -349,22 +391,24 @@ public abstract class OmemoService<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey,
             throws SmackException.NotConnectedException, InterruptedException, SmackException.NoResponseException,
             UndecidedOmemoIdentityException, CryptoFailedException, IOException {
 
+        long setupStart = System.nanoTime();
         OmemoManager manager = managerGuard.get();
         OmemoDevice userDevice = manager.getOwnDevice();
 
         // Do not encrypt for our own device.
         removeOurDevice(userDevice, contactsDevices);
 
-        buildMissingSessionsWithDevices(manager.getConnection(), userDevice, contactsDevices);
+        // Keep track of skipped devices
+        HashMap<OmemoDevice, Throwable> skippedRecipients = new HashMap<>();
+
+        Set<OmemoDevice> devicesWithSession
+                = buildMissingSessionsWithDevices(manager.getConnection(), userDevice, contactsDevices, skippedRecipients);
 
         Set<OmemoDevice> undecidedDevices = getUndecidedDevices(userDevice, manager.getTrustCallback(), contactsDevices);
         if (!undecidedDevices.isEmpty()) {
             throw new UndecidedOmemoIdentityException(undecidedDevices);
         }
 
-        // Keep track of skipped devices
-        HashMap<OmemoDevice, Throwable> skippedRecipients = new HashMap<>();
-
         OmemoMessageBuilder<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey, T_Sess, T_Addr, T_ECPub, T_Bundle, T_Ciph> builder;
         try {
             builder = new OmemoMessageBuilder<>(
@@ -373,17 +417,13 @@ public abstract class OmemoService<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey,
                 NoSuchPaddingException | InvalidAlgorithmParameterException | InvalidKeyException | NoSuchAlgorithmException e) {
             throw new CryptoFailedException(e);
         }
+        LOGGER.log(Level.FINE, "OMEMO encryption setup for " + contactsDevices.size() + " devices took "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - setupStart) + " ms");
 
         for (OmemoDevice contactsDevice : contactsDevices) {
-            // Build missing sessions
-            if (!hasSession(userDevice, contactsDevice)) {
-                try {
-                    buildFreshSessionWithDevice(manager.getConnection(), userDevice, contactsDevice);
-                } catch (CorruptedOmemoKeyException | CannotEstablishOmemoSessionException e) {
-                    LOGGER.log(Level.WARNING, "Could not build session with " + contactsDevice + ".", e);
-                    skippedRecipients.put(contactsDevice, e);
-                    continue;
-                }
+            // Sessions which could not be built have already been logged and recorded in skippedRecipients
+            if (!devicesWithSession.contains(contactsDevice)) {
+                continue;
             }
 
             int messageCounter = omemoStore.loadOmemoMessageCounter(userDevice, contactsDevice);
@@ -794,6 +834,22 @@ public abstract class OmemoService<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey,
                 PubSubException.NotAPubSubNodeException e) {
             throw new CannotEstablishOmemoSessionException(contactsDevice, e);
         }
+        buildSessionWithBundle(connection, userDevice, contactsDevice, bundleElement);
+    }
+
+    /**
+     * Build an OmemoSession with the given contacts device from its already fetched bundle.
+     *
+     * @param connection authenticated XMPP connection
+     * @param userDevice our OmemoDevice
+     * @param contactsDevice OmemoDevice of a contact.
+     * @param bundleElement the bundle of contactsDevice.
+     *
+     * @throws CorruptedOmemoKeyException if our IdentityKeyPair is corrupted.
+     */
+    private void buildSessionWithBundle(XMPPConnection connection, OmemoDevice userDevice, OmemoDevice contactsDevice,
+                                        OmemoBundleElement bundleElement)
+            throws CorruptedOmemoKeyException {
 
         // Select random Bundle
         HashMap<Integer, T_Bundle> bundlesList = getOmemoStoreBackend().keyUtil().BUNDLE.bundles(bundleElement, contactsDevice);
@@ -808,46 +864,130 @@ public abstract class OmemoService<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey,
     /**
      * Build sessions with all devices from the set, we don't have a session with yet.
      * Return the set of all devices we have a session with afterwards.
+     * <p>
+     * The missing bundles are fetched concurrently, at most {@link #MAX_CONCURRENT_BUNDLE_FETCHES} at a time, and each
+     * session is built as soon as its bundle arrives while the remaining fetches are still in flight. Each fetch is
+     * bounded by the connection reply timeout; the wait for the next completed fetch by {@link #BUNDLE_FETCH_TIMEOUT}.
+     * Fetch failures are remembered, so that a failing device is not fetched again for every message.
      *
      * @param connection authenticated XMPP connection
      * @param userDevice our OmemoDevice
      * @param devices set of devices we may want to build a session with if necessary
+     * @param skippedDevices map to which the devices without session are added with the reason
      * @return set of all devices with sessions
      *
      * @throws SmackException.NotConnectedException if the XMPP connection is not connected.
      * @throws InterruptedException if the calling thread was interrupted.
-     * @throws SmackException.NoResponseException if there was no response from the remote entity.
      * @throws IOException if an I/O error occurred.
      */
     private Set<OmemoDevice> buildMissingSessionsWithDevices(XMPPConnection connection,
                                                              OmemoDevice userDevice,
-                                                             Set<OmemoDevice> devices)
-            throws SmackException.NotConnectedException, InterruptedException, SmackException.NoResponseException, IOException {
+                                                             Set<OmemoDevice> devices,
+                                                             Map<OmemoDevice, Throwable> skippedDevices)
+            throws SmackException.NotConnectedException, InterruptedException, IOException {
 
         Set<OmemoDevice> devicesWithSession = new HashSet<>();
-        for (OmemoDevice device : devices) {
+        CompletionService<OmemoBundleElement> fetches = new ExecutorCompletionService<>(bundleFetchExecutor);
+        Map<Future<OmemoBundleElement>, OmemoDevice> pendingFetches = new HashMap<>();
 
-            if (hasSession(userDevice, device)) {
+        for (OmemoDevice device : devices) {
+            // Do not build a session with yourself.
+            if (device.equals(userDevice) || hasSession(userDevice, device)) {
                 devicesWithSession.add(device);
                 continue;
             }
+            pendingFetches.put(fetches.submit(() -> fetchBundleCached(connection, device)), device);
+        }
+        int fetchCount = pendingFetches.size();
 
-            try {
-                buildFreshSessionWithDevice(connection, userDevice, device);
-                devicesWithSession.add(device);
-            } catch (CannotEstablishOmemoSessionException e) {
-                LOGGER.log(Level.WARNING, userDevice + " cannot establish session with " + device +
-                        " because their bundle could not be fetched.", e);
-            } catch (CorruptedOmemoKeyException e) {
-                LOGGER.log(Level.WARNING, userDevice + " could not establish session with " + device +
-                        "because their bundle seems to be corrupt.", e);
-            }
+        try {
+            while (!pendingFetches.isEmpty()) {
+                Future<OmemoBundleElement> fetch = fetches.poll(BUNDLE_FETCH_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (fetch == null) {
+                    for (OmemoDevice device : pendingFetches.values()) {
+                        LOGGER.log(Level.WARNING, userDevice + " gave up fetching the bundle of " + device + ".");
+                        skippedDevices.put(device, new CannotEstablishOmemoSessionException(device,
+                                new TimeoutException("OMEMO bundle fetch timed out")));
+                    }
+                    break;
+                }
 
+                OmemoDevice device = pendingFetches.remove(fetch);
+                try {
+                    buildSessionWithBundle(connection, userDevice, device, fetch.get());
+                    devicesWithSession.add(device);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof SmackException.NotConnectedException) {
+                        throw (SmackException.NotConnectedException) cause;
+                    }
+                    LOGGER.log(Level.WARNING, userDevice + " cannot establish session with " + device +
+                            " because their bundle could not be fetched.", cause);
+                    skippedDevices.put(device, cause);
+                } catch (CorruptedOmemoKeyException e) {
+                    LOGGER.log(Level.WARNING, userDevice + " could not establish session with " + device +
+                            " because their bundle seems to be corrupt.", e);
+                    skippedDevices.put(device, e);
+                }
+            }
+        } finally {
+            for (Future<OmemoBundleElement> fetch : pendingFetches.keySet()) {
+                fetch.cancel(true);
+            }
         }
 
+        if (fetchCount > 0) {
+            LOGGER.log(Level.FINE, userDevice + " fetched " + fetchCount + " bundles, built "
+                    + (fetchCount - skippedDevices.size()) + " sessions.");
+        }
         return devicesWithSession;
     }
 
+    /**
+     * Fetch the bundle of a contacts device, unless fetching it has failed recently.
+     * A failure to fetch the bundle is remembered for {@link #FAILED_BUNDLE_CACHE_TTL}.
+     *
+     * @param connection authenticated XMPP connection.
+     * @param contactsDevice device of which we want to retrieve the bundle.
+     * @return OmemoBundle of the device or null, if it doesn't exist.
+     *
+     * @throws CannotEstablishOmemoSessionException if the bundle cannot be fetched, or could not be fetched recently.
+     * @throws SmackException.NotConnectedException if the XMPP connection is not connected.
+     * @throws InterruptedException if the calling thread was interrupted.
+     */
+    private OmemoBundleElement fetchBundleCached(XMPPConnection connection, OmemoDevice contactsDevice)
+            throws CannotEstablishOmemoSessionException, SmackException.NotConnectedException, InterruptedException {
+        long now = System.currentTimeMillis();
+        FailedBundleFetch failed = failedBundleFetches.get(contactsDevice);
+        if (failed != null) {
+            if (failed.expiry > now) {
+                throw new CannotEstablishOmemoSessionException(contactsDevice, failed.failure);
+            }
+            failedBundleFetches.remove(contactsDevice, failed);
+        }
+
+        try {
+            return fetchBundle(connection, contactsDevice);
+        } catch (XMPPException.XMPPErrorException | SmackException.NoResponseException | NotALeafNodeException |
+                PubSubException.NotAPubSubNodeException e) {
+            failedBundleFetches.put(contactsDevice, new FailedBundleFetch(e, now + FAILED_BUNDLE_CACHE_TTL));
+            throw new CannotEstablishOmemoSessionException(contactsDevice, e);
+        }
+    }
+
+    /**
+     * A recent failure to fetch a bundle.
+     */
+    private static final class FailedBundleFetch {
+        private final Exception failure;
+        private final long expiry;
+
+        private FailedBundleFetch(Exception failure, long expiry) {
+            this.failure = failure;
+            this.expiry = expiry;
+        }
+    }
+
     /**
      * Return a set of all devices from the provided set, which trust level is undecided.
      * A device is also considered undecided, if its fingerprint cannot be loaded.
@@ -0,0 +1,390 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.omemo_media_sharing;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A streaming AES-GCM cipher for aesgcm: media files, i.e. the ciphertext followed by the 16 bytes tag.
+ * <p>
+ * A JCE "AES/GCM/NoPadding" cipher may buffer the whole data until <code>doFinal()</code>; in decrypt mode it must,
+ * to verify the tag before releasing any plaintext. That needs the whole media file in memory. This class instead
+ * en/decrypts in counter mode as the data flows, and computes the GHASH over the ciphertext alongside:
+ * <ul>
+ * <li>Decryption: the tag is verified in {@link #doFinal()} once the stream ends. The caller must discard the
+ * plaintext if the tag mismatches. The last 16 bytes fed to {@link #update(byte[], int, int, byte[], int)} are held
+ * back as the tag candidate, so the decrypter needs no knowledge of the stream length.</li>
+ * <li>Encryption: {@link #encrypt(byte[], int, int, byte[], int)} the whole plaintext, then append
+ * {@link #getTag()}.</li>
+ * </ul>
+ *
+ * @author Eng Chong Meng
+ */
+public class AesgcmStreamCipher {
+    public static final int TAG_LENGTH = 16;
+
+    private static final int BLOCK_SIZE = 16;
+
+    /**
+     * Number of counter blocks encrypted per keystream refill.
+     */
+    private static final int KEYSTREAM_BLOCKS = 1024;
+
+    /**
+     * The GHASH reduction constants of the 4 bits multiplication table (Shoup's method).
+     */
+    private static final long[] LAST4 = {
+            0x0000, 0x1c20, 0x3840, 0x2460, 0x7080, 0x6ca0, 0x48c0, 0x54e0,
+            0xe100, 0xfd20, 0xd940, 0xc560, 0x9180, 0x8da0, 0xa9c0, 0xb5e0
+    };
+
+    private final Cipher aesEcb;
+
+    /* The multiples of the hash subkey H, as the high and low 64 bits */
+    private final long[] hh = new long[16];
+    private final long[] hl = new long[16];
+
+    /* The pre-counter block J0, and E(K, J0) which masks the GHASH into the tag */
+    private final byte[] j0 = new byte[BLOCK_SIZE];
+    private final byte[] tagMask = new byte[BLOCK_SIZE];
+
+    private final byte[] counters = new byte[KEYSTREAM_BLOCKS * BLOCK_SIZE];
+    private final byte[] keystream = new byte[KEYSTREAM_BLOCKS * BLOCK_SIZE];
+    private int ksPos;
+    private int ksLen;
+    private int counter32;
+
+    /* The running GHASH state and its pending partial block */
+    private long xh;
+    private long xl;
+    private final byte[] ghBlock = new byte[BLOCK_SIZE];
+    private int ghLen;
+    private long cipherLength;
+
+    /* The held back stream tail: the tag candidate */
+    private final byte[] tail = new byte[TAG_LENGTH];
+    private int tailLen;
+
+    /* Scratch buffer of absorb() */
+    private byte[] scratch = new byte[0];
+
+    /**
+     * Creates a cipher for the given aesgcm: key and iv.
+     *
+     * @param key the 32 bytes aes key
+     * @param iv the 12 or 16 bytes initialization vector
+     *
+     * @throws GeneralSecurityException if the JVM does not provide AES or the key is invalid.
+     */
+    public AesgcmStreamCipher(byte[] key, byte[] iv)
+            throws GeneralSecurityException {
+        if (iv.length == 0)
+            throw new IllegalArgumentException("Empty iv");
+
+        aesEcb = Cipher.getInstance("AES/ECB/NoPadding");
+        aesEcb.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+
+        byte[] h = aesEcb.doFinal(new byte[BLOCK_SIZE]);
+        initTable(getLong(h, 0), getLong(h, 8));
+
+        if (iv.length == 12) {
+            System.arraycopy(iv, 0, j0, 0, 12);
+            j0[15] = 1;
+        }
+        else {
+            // J0 = GHASH(iv || 0-padding || 0^64 || [len(iv) in bits]64)
+            ghash(iv, 0, iv.length);
+            byte[] lengths = new byte[BLOCK_SIZE];
+            putLong(lengths, 8, (long) iv.length * 8);
+            ghashPad();
+            ghash(lengths, 0, BLOCK_SIZE);
+            putLong(j0, 0, xh);
+            putLong(j0, 8, xl);
+        }
+        aesEcb.doFinal(j0, 0, BLOCK_SIZE, tagMask, 0);
+        reset();
+    }
+
+    /**
+     * Restarts the en/decryption at the beginning of the stream.
+     */
+    public void reset() {
+        counter32 = getInt(j0, 12);
+        ksPos = ksLen = 0;
+        xh = xl = 0;
+        ghLen = 0;
+        cipherLength = 0;
+        tailLen = 0;
+    }
+
+    /**
+     * Decrypts the next part of the stream. Up to {@link #TAG_LENGTH} bytes of the stream end are held back until
+     * more data arrives, so the output is <code>len + TAG_LENGTH</code> bytes at most.
+     *
+     * @param in the stream data
+     * @param inOff the data offset in <code>in</code>
+     * @param len the data length
+     * @param out the plaintext output buffer
+     * @param outOff the output offset in <code>out</code>
+     *
+     * @return the number of plaintext bytes written
+     */
+    public int update(byte[] in, int inOff, int len, byte[] out, int outOff) {
+        int emit = tailLen + len - TAG_LENGTH;
+        if (emit <= 0) {
+            System.arraycopy(in, inOff, tail, tailLen, len);
+            tailLen += len;
+            return 0;
+        }
+
+        int fromTail = Math.min(tailLen, emit);
+        crypt(tail, 0, fromTail, out, outOff, true);
+        int fromIn = emit - fromTail;
+        crypt(in, inOff, fromIn, out, outOff + fromTail, true);
+
+        System.arraycopy(tail, fromTail, tail, 0, tailLen - fromTail);
+        tailLen -= fromTail;
+        System.arraycopy(in, inOff + fromIn, tail, tailLen, len - fromIn);
+        tailLen += len - fromIn;
+        return emit;
+    }
+
+    /**
+     * Feeds back the plaintext already produced by an earlier, interrupted run, so that the decryption can resume
+     * on the ciphertext which follows it. Must be called right after {@link #reset()}.
+     *
+     * @param plain the plaintext
+     * @param off the plaintext offset in <code>plain</code>
+     * @param len the plaintext length
+     */
+    public void absorb(byte[] plain, int off, int len) {
+        if (scratch.length < len)
+            scratch = new byte[len];
+        // Counter mode is its own inverse: encrypting the plaintext restores the ciphertext for the GHASH.
+        crypt(plain, off, len, scratch, 0, false);
+    }
+
+    /**
+     * Returns the number of ciphertext bytes decrypted so far.
+     *
+     * @return the plaintext length
+     */
+    public long getPlaintextLength() {
+        return cipherLength;
+    }
+
+    /**
+     * Encrypts the next part of the plaintext.
+     *
+     * @param in the plaintext
+     * @param inOff the plaintext offset in <code>in</code>
+     * @param len the plaintext length
+     * @param out the ciphertext output buffer
+     * @param outOff the output offset in <code>out</code>
+     *
+     * @return the number of ciphertext bytes written, i.e. <code>len</code>
+     */
+    public int encrypt(byte[] in, int inOff, int len, byte[] out, int outOff) {
+        crypt(in, inOff, len, out, outOff, false);
+        return len;
+    }
+
+    /**
+     * Returns the tag of the ciphertext processed so far. This ends the stream: {@link #reset()} before reuse.
+     *
+     * @return the 16 bytes tag
+     */
+    public byte[] getTag() {
+        ghashPad();
+        byte[] lengths = new byte[BLOCK_SIZE];
+        putLong(lengths, 8, cipherLength * 8);
+        ghash(lengths, 0, BLOCK_SIZE);
+
+        byte[] tag = new byte[TAG_LENGTH];
+        putLong(tag, 0, xh);
+        putLong(tag, 8, xl);
+        for (int i = 0; i < TAG_LENGTH; i++)
+            tag[i] ^= tagMask[i];
+        return tag;
+    }
+
+    /**
+     * Verifies the tag at the end of a decrypted stream.
+     *
+     * @throws AEADBadTagException if the stream is truncated or the tag does not match the received data.
+     */
+    public void doFinal()
+            throws AEADBadTagException {
+        if (tailLen != TAG_LENGTH)
+            throw new AEADBadTagException("Stream shorter than the tag");
+
+        if (!MessageDigest.isEqual(getTag(), tail))
+            throw new AEADBadTagException("Tag mismatch");
+    }
+
+    /**
+     * XORs the data with the keystream and GHASHes the ciphertext side.
+     *
+     * @param isCipher true if <code>in</code> is the ciphertext, false if it is the plaintext
+     */
+    private void crypt(byte[] in, int inOff, int len, byte[] out, int outOff, boolean isCipher) {
+        if (isCipher)
+            ghash(in, inOff, len);
+
+        int done = 0;
+        while (done < len) {
+            if (ksPos == ksLen)
+                refillKeystream(len - done);
+
+            int n = Math.min(len - done, ksLen - ksPos);
+            for (int i = 0; i < n; i++)
+                out[outOff + done + i] = (byte) (in[inOff + done + i] ^ keystream[ksPos + i]);
+            ksPos += n;
+            done += n;
+        }
+
+        if (!isCipher)
+            ghash(out, outOff, len);
+        cipherLength += len;
+    }
+
+    /**
+     * Encrypts the next counter blocks; GCM increments the low 32 bits of the counter only (inc32).
+     */
+    private void refillKeystream(int needed) {
+        int blocks = Math.min(KEYSTREAM_BLOCKS, (needed + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        for (int b = 0; b < blocks; b++) {
+            int pos = b * BLOCK_SIZE;
+            System.arraycopy(j0, 0, counters, pos, 12);
+            putInt(counters, pos + 12, ++counter32);
+        }
+        try {
+            aesEcb.doFinal(counters, 0, blocks * BLOCK_SIZE, keystream, 0);
+        } catch (GeneralSecurityException e) {
+            // Cannot happen for block aligned NoPadding input
+            throw new IllegalStateException(e);
+        }
+        ksPos = 0;
+        ksLen = blocks * BLOCK_SIZE;
+    }
+
+    private void ghash(byte[] data, int off, int len) {
+        int end = off + len;
+        if (ghLen > 0) {
+            int n = Math.min(BLOCK_SIZE - ghLen, len);
+            System.arraycopy(data, off, ghBlock, ghLen, n);
+            ghLen += n;
+            off += n;
+            if (ghLen < BLOCK_SIZE)
+                return;
+            ghashBlock(ghBlock, 0);
+            ghLen = 0;
+        }
+        for (; off + BLOCK_SIZE <= end; off += BLOCK_SIZE)
+            ghashBlock(data, off);
+        if (off < end) {
+            ghLen = end - off;
+            System.arraycopy(data, off, ghBlock, 0, ghLen);
+        }
+    }
+
+    /**
+     * Zero pads and hashes a pending partial block.
+     */
+    private void ghashPad() {
+        if (ghLen > 0) {
+            for (int i = ghLen; i < BLOCK_SIZE; i++)
+                ghBlock[i] = 0;
+            ghashBlock(ghBlock, 0);
+            ghLen = 0;
+        }
+    }
+
+    private void initTable(long vh, long vl) {
+        hh[8] = vh;
+        hl[8] = vl;
+        for (int i = 4; i > 0; i >>= 1) {
+            long t = (vl & 1) * 0xe100000000000000L;
+            vl = (vh << 63) | (vl >>> 1);
+            vh = (vh >>> 1) ^ t;
+            hh[i] = vh;
+            hl[i] = vl;
+        }
+        for (int i = 2; i <= 8; i *= 2) {
+            for (int j = 1; j < i; j++) {
+                hh[i + j] = hh[i] ^ hh[j];
+                hl[i + j] = hl[i] ^ hl[j];
+            }
+        }
+    }
+
+    /**
+     * X = (X ^ block) * H in GF(2^128), four bits at a time.
+     */
+    private void ghashBlock(byte[] block, int off) {
+        long ah = xh ^ getLong(block, off);
+        long al = xl ^ getLong(block, off + 8);
+
+        int lo = (int) al & 0xf;
+        long zh = hh[lo];
+        long zl = hl[lo];
+        for (int i = 15; i >= 0; i--) {
+            int b = (int) ((i < 8 ? ah >>> (56 - 8 * i) : al >>> (120 - 8 * i)) & 0xff);
+            lo = b & 0xf;
+            int hi = b >>> 4;
+            int rem;
+            if (i != 15) {
+                rem = (int) zl & 0xf;
+                zl = (zh << 60) | (zl >>> 4);
+                zh = (zh >>> 4) ^ (LAST4[rem] << 48);
+                zh ^= hh[lo];
+                zl ^= hl[lo];
+            }
+            rem = (int) zl & 0xf;
+            zl = (zh << 60) | (zl >>> 4);
+            zh = (zh >>> 4) ^ (LAST4[rem] << 48);
+            zh ^= hh[hi];
+            zl ^= hl[hi];
+        }
+        xh = zh;
+        xl = zl;
+    }
+
+    private static long getLong(byte[] b, int off) {
+        return ((long) getInt(b, off) << 32) | (getInt(b, off + 4) & 0xffffffffL);
+    }
+
+    private static int getInt(byte[] b, int off) {
+        return (b[off] << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    private static void putLong(byte[] b, int off, long v) {
+        putInt(b, off, (int) (v >>> 32));
+        putInt(b, off + 4, (int) v);
+    }
+
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+}
@@ -18,6 +18,7 @@ package org.jivesoftware.smackx.omemo_media_sharing;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -112,6 +113,18 @@ public class AesgcmUrl {
         return OmemoMediaSharingUtils.decryptionCipherFrom(keyBytes, ivBytes);
     }
 
+    /**
+     * Returns an {@link AesgcmStreamCipher}, which decrypts the offered file as it is downloaded and verifies
+     * its tag at the end.
+     *
+     * @return stream decrypter
+     *
+     * @throws GeneralSecurityException if the JVM cannot provide AES or the provided key is invalid
+     */
+    public AesgcmStreamCipher getStreamDecrypter() throws GeneralSecurityException {
+        return new AesgcmStreamCipher(keyBytes, ivBytes);
+    }
+
     private static URL extractHttpsUrl(String aesgcmUrlString) {
         // aesgcm -> https
         String httpsUrlString = aesgcmUrlString.replaceFirst(PROTOCOL, "https");